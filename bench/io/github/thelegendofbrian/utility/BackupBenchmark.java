@@ -0,0 +1,68 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full backup of a server at different deflate levels. The server does not change between backups, so every
+ * backup replaces the previous one and the backup folder does not grow.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class BackupBenchmark {
+	
+	@Param({"0", "1", "6", "9"})
+	public int compressionLevel;
+	
+	@Param({"262144"})
+	public int fileSize;
+	
+	private File tempDirectory;
+	private File serverFolder;
+	private File backupFolder;
+	private BackupUtilityApplication application;
+	
+	@Setup
+	public void setUp() throws IOException {
+		tempDirectory = Files.createTempDirectory("bench-backup").toFile();
+		serverFolder = new File(tempDirectory, "servers/Vanilla");
+		backupFolder = new File(tempDirectory, "backups/Vanilla");
+		backupFolder.mkdirs();
+		SyntheticServer.createServer(serverFolder, 10, 10, fileSize);
+		
+		application = new BackupUtilityApplication();
+		application.backupMode = BackupUtilityApplication.MODE_FULL;
+		application.compressionThreads = Runtime.getRuntime().availableProcessors();
+		application.archiver = new ParallelZipArchiver(application.getCompressionExecutor(), application.compressionThreads, compressionLevel);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		application.shutdownArchiver();
+		SyntheticServer.delete(tempDirectory);
+	}
+	
+	@Benchmark
+	public void backupSpecificServer() throws IOException {
+		application.backupSpecificServer(serverFolder, backupFolder);
+	}
+	
+}
@@ -0,0 +1,73 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures finding the latest backup of a server, by listing its folder and from its catalog, and parsing the time
+ * stamp in a backup name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BackupNameBenchmark {
+	
+	@Param({"100", "10000"})
+	public int backups;
+	
+	private File tempDirectory;
+	private File listedFolder;
+	private File catalogedFolder;
+	private File[] backupFiles;
+	private int next;
+	
+	@Setup
+	public void setUp() throws IOException {
+		tempDirectory = Files.createTempDirectory("bench-names").toFile();
+		listedFolder = new File(tempDirectory, "Listed");
+		catalogedFolder = new File(tempDirectory, "Cataloged");
+		backupFiles = SyntheticServer.createBackups(listedFolder, backups);
+		SyntheticServer.createBackups(catalogedFolder, backups);
+		BackupCatalog.open(catalogedFolder);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		SyntheticServer.delete(tempDirectory);
+	}
+	
+	@Benchmark
+	public File getLatestBackupByListing() {
+		return BackupUtilityApplication.getLatestBackup(listedFolder);
+	}
+	
+	@Benchmark
+	public File getLatestBackupFromCatalog() {
+		return BackupUtilityApplication.getLatestBackup(catalogedFolder);
+	}
+	
+	@Benchmark
+	public Instant getBackupTimeStamp() {
+		next = (next + 1) % backupFiles.length;
+		return BackupUtilityApplication.getBackupTimeStamp(backupFiles[next]);
+	}
+	
+}
@@ -0,0 +1,91 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+
+/**
+ * Scans and backs up a synthetic server with a very large number of small files, to check that a backup stays within
+ * its memory budget on a small heap. The large-tree target runs it with the heap size of large.tree.heap.
+ * <p>
+ * The program fails with an OutOfMemoryError if the backup does not fit, and otherwise prints how long the scan and the
+ * backup took and the peak heap usage.
+ */
+public class LargeTreeBackup {
+	
+	private static final int FILES_PER_DIRECTORY = 1000;
+	
+	private LargeTreeBackup() {
+	}
+	
+	/**
+	 * @param args the number of files, optionally followed by the size of each file in bytes
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int fileSize = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		
+		File tempDirectory = Files.createTempDirectory("bench-large-tree").toFile();
+		try {
+			File serverFolder = new File(tempDirectory, "servers/Vanilla");
+			File backupFolder = new File(tempDirectory, "backups/Vanilla");
+			backupFolder.mkdirs();
+			long startTime = System.nanoTime();
+			SyntheticServer.createServer(serverFolder, Math.max(1, files / FILES_PER_DIRECTORY), Math.min(files, FILES_PER_DIRECTORY), fileSize);
+			System.out.println("Created " + files + " files in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+			
+			BackupUtilityApplication application = new BackupUtilityApplication();
+			application.backupMode = BackupUtilityApplication.MODE_FULL;
+			application.backupThreads = 1;
+			application.compressionThreads = Runtime.getRuntime().availableProcessors();
+			application.memoryBudget = MemoryBudget.ofMegabytes(0);
+			application.limitThreadsToMemoryBudget();
+			resetPeakUsage();
+			
+			startTime = System.nanoTime();
+			DirectoryScanner scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+			scanner.setMemoryBudget(application.memoryBudget.share(2));
+			printScan(scanner.scan(serverFolder.toPath()), startTime);
+			
+			startTime = System.nanoTime();
+			try {
+				application.backupSpecificServer(serverFolder, backupFolder);
+			} finally {
+				application.shutdownArchiver();
+			}
+			System.out.println("Backed up in " + (System.nanoTime() - startTime) / 1000000 + " ms with a memory budget of " + application.memoryBudget + ", "
+					+ application.compressionThreads + " compression threads");
+			System.out.println("Peak heap usage: " + getPeakUsage() / (1024 * 1024) + " MiB of " + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MiB");
+		} finally {
+			SyntheticServer.delete(tempDirectory);
+		}
+	}
+	
+	// The scan result is dropped before the backup, as the application does
+	private static void printScan(DirectoryScanner.ScanResult scan, long startTime) {
+		System.out.println("Scanned " + scan.getFileCount() + " files in " + (System.nanoTime() - startTime) / 1000000 + " ms, index kept: " + (scan.getIndex() != null));
+	}
+	
+	private static void resetPeakUsage() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+	
+	private static long getPeakUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+	
+}
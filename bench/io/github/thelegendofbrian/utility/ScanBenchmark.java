@@ -0,0 +1,67 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to find when a server was last modified, with and without the index of a previous scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ScanBenchmark {
+	
+	@Param({"10", "100"})
+	public int directories;
+	
+	@Param({"100"})
+	public int filesPerDirectory;
+	
+	private File tempDirectory;
+	private File serverFolder;
+	private ScanIndex index;
+	
+	@Setup
+	public void setUp() throws IOException {
+		tempDirectory = Files.createTempDirectory("bench-scan").toFile();
+		serverFolder = new File(tempDirectory, "Vanilla");
+		SyntheticServer.createServer(serverFolder, directories, filesPerDirectory, 1024);
+		index = DirectoryScanner.scan(serverFolder.toPath(), DirectoryScanner.SCAN_EVERYTHING).getIndex();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		SyntheticServer.delete(tempDirectory);
+	}
+	
+	@Benchmark
+	public Instant lastModifiedInFolder() {
+		return BackupUtilityApplication.lastModifiedInFolder(serverFolder);
+	}
+	
+	@Benchmark
+	public long scanWithIndex() throws IOException {
+		DirectoryScanner scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+		scanner.setPreviousIndex(index);
+		return scanner.scan(serverFolder.toPath()).getNewestModified();
+	}
+	
+}
@@ -0,0 +1,95 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Random;
+
+/**
+ * Generates server folders and backup folders for the benchmarks. File contents are half random and half repeated
+ * bytes, so they compress roughly as well as Minecraft region files do, and every file gets a fixed modification time so
+ * each trial sees the same tree.
+ */
+public class SyntheticServer {
+	
+	private static final long START = 1500000000000L;
+	
+	private SyntheticServer() {
+	}
+	
+	/**
+	 * Creates a server with directories nested two levels deep, like the region folders of several dimensions.
+	 * 
+	 * @param serverFolder
+	 * @param directories the number of directories
+	 * @param filesPerDirectory the number of files in each directory
+	 * @param fileSize the size of each file in bytes
+	 * @throws IOException
+	 */
+	public static void createServer(File serverFolder, int directories, int filesPerDirectory, int fileSize) throws IOException {
+		Random random = new Random(directories * 31L + filesPerDirectory);
+		byte[] content = new byte[fileSize];
+		for (int d = 0; d < directories; d++) {
+			File directory = new File(serverFolder, "world" + d / 10 + "/region" + d);
+			if (!directory.mkdirs()) {
+				throw new IOException("Unable to create " + directory.getAbsolutePath());
+			}
+			for (int f = 0; f < filesPerDirectory; f++) {
+				fillContent(content, random);
+				File file = new File(directory, "r." + d + "." + f + ".mca");
+				Files.write(file.toPath(), content);
+				file.setLastModified(START + (d * (long) filesPerDirectory + f) * 1000L);
+			}
+			directory.setLastModified(START);
+		}
+	}
+	
+	/**
+	 * Creates empty backups named like the backups of a server that was backed up every hour.
+	 * 
+	 * @param backupFolder
+	 * @param backups the number of backups
+	 * @return the backups, oldest first
+	 * @throws IOException
+	 */
+	public static File[] createBackups(File backupFolder, int backups) throws IOException {
+		if (!backupFolder.isDirectory() && !backupFolder.mkdirs()) {
+			throw new IOException("Unable to create " + backupFolder.getAbsolutePath());
+		}
+		File[] files = new File[backups];
+		for (int i = 0; i < backups; i++) {
+			String timeStamp = BackupUtilityApplication.formatBackupTimeStamp(Instant.ofEpochMilli(START + i * 60 * 60 * 1000L));
+			files[i] = new File(backupFolder, backupFolder.getName() + "_" + timeStamp + BackupUtilityApplication.FULL_EXTENSION);
+			files[i].createNewFile();
+		}
+		return files;
+	}
+	
+	/**
+	 * Deletes a folder created for a benchmark.
+	 * 
+	 * @param file
+	 */
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+	
+	private static void fillContent(byte[] content, Random random) {
+		random.nextBytes(content);
+		for (int i = 0; i < content.length; i += 64) {
+			// Every other run of 32 bytes is zeroed, like the padding in region files
+			int end = Math.min(i + 32, content.length);
+			for (int j = i; j < end; j++) {
+				content[j] = 0;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,211 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lists the size and CRC-32 checksum of the uncompressed contents of every file in an archive, as computed while the
+ * archive was written. The list is kept next to its archive in a hidden file, so an archive can be verified by reading
+ * it once, without the server files it was made from.
+ * <p>
+ * The checksums of an archive with millions of files take a lot of memory, so a limit can be set beyond which further
+ * entries are only appended to a temporary file until they are saved. The temporary file is deleted when the checksums
+ * are closed.
+ */
+public class ArchiveChecksums implements Closeable {
+	
+	protected static final String SUFFIX = ".sums";
+	
+	private static final String HEADER = "# mc-server-backup-util checksums 1";
+	
+	/**
+	 * The memory an entry takes in the map, including a short name.
+	 */
+	protected static final int ENTRY_MEMORY = 200;
+	
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	private long maxEntries = Long.MAX_VALUE;
+	private SpillBuffer spilled;
+	private Writer spilledWriter;
+	
+	/**
+	 * Limits the memory taken by the entries. Entries put beyond the limit can no longer be looked up, only saved.
+	 * 
+	 * @param bytes
+	 */
+	public void setMemoryLimit(long bytes) {
+		this.maxEntries = bytes / ENTRY_MEMORY;
+	}
+	
+	/**
+	 * Gets the hidden file that holds the checksums of an archive.
+	 * 
+	 * @param archive
+	 * @return
+	 */
+	public static File getChecksumsFile(File archive) {
+		return new File(archive.getParentFile(), "." + archive.getName() + SUFFIX);
+	}
+	
+	/**
+	 * Loads the checksums of an archive.
+	 * 
+	 * @param archive
+	 * @return the checksums, or null if the archive has none, such as a backup made before checksums were kept
+	 * @throws IOException if the checksums exist but cannot be read
+	 */
+	public static ArchiveChecksums load(File archive) throws IOException {
+		File checksumsFile = getChecksumsFile(archive);
+		if (!checksumsFile.isFile()) {
+			return null;
+		}
+		
+		ArchiveChecksums checksums = new ArchiveChecksums();
+		try (BufferedReader reader = Files.newBufferedReader(checksumsFile.toPath(), StandardCharsets.UTF_8)) {
+			if (!HEADER.equals(reader.readLine())) {
+				throw new IOException("Unknown checksums format: " + checksumsFile.getAbsolutePath());
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("E\t")) {
+					String[] fields = line.split("\t", 4);
+					checksums.put(fields[3], Long.parseLong(fields[1]), Long.parseLong(fields[2], 16));
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt checksums: " + checksumsFile.getAbsolutePath(), e);
+		}
+		return checksums;
+	}
+	
+	/**
+	 * Writes the checksums of an archive, replacing any previous checksums in a single step.
+	 * 
+	 * @param archive
+	 * @throws IOException
+	 */
+	public void save(File archive) throws IOException {
+		File checksumsFile = getChecksumsFile(archive);
+		File temporaryFile = new File(checksumsFile.getParentFile(), checksumsFile.getName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(temporaryFile.toPath())) {
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			writer.write(HEADER);
+			writer.newLine();
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				writeEntry(writer, entry.getKey(), entry.getValue().size, entry.getValue().crc);
+			}
+			writer.flush();
+			if (spilled != null) {
+				spilledWriter.flush();
+				spilled.writeTo(out);
+			}
+		}
+		
+		try {
+			Files.move(temporaryFile.toPath(), checksumsFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporaryFile.toPath(), checksumsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Records a file of the archive.
+	 * 
+	 * @param entryName
+	 * @param size the uncompressed size of the file
+	 * @param crc the CRC-32 checksum of the uncompressed contents of the file
+	 * @throws IOException if the entry is beyond the memory limit and cannot be written to the temporary file
+	 */
+	public void put(String entryName, long size, long crc) throws IOException {
+		if (spilled == null && entries.size() < maxEntries) {
+			entries.put(entryName, new Entry(size, crc));
+			return;
+		}
+		if (spilled == null) {
+			spilled = new SpillBuffer(0);
+			spilledWriter = new BufferedWriter(new OutputStreamWriter(spilled, StandardCharsets.UTF_8));
+		}
+		writeEntry(spilledWriter, entryName, size, crc);
+	}
+	
+	private static void writeEntry(Writer writer, String entryName, long size, long crc) throws IOException {
+		writer.write("E\t" + size + "\t" + Long.toHexString(crc) + "\t" + entryName);
+		writer.write(System.lineSeparator());
+	}
+	
+	/**
+	 * @param entryName
+	 * @return the entry of a file, or null if the archive does not contain it
+	 * @throws IllegalStateException if the entry may have been moved to the temporary file
+	 */
+	public Entry get(String entryName) {
+		Entry entry = entries.get(entryName);
+		if (entry == null && spilled != null) {
+			throw new IllegalStateException("The checksums exceeded their memory limit and can only be saved.");
+		}
+		return entry;
+	}
+	
+	/**
+	 * @return the entries in the order they were put
+	 * @throws IllegalStateException if some entries were moved to the temporary file
+	 */
+	public Map<String, Entry> getEntries() {
+		if (spilled != null) {
+			throw new IllegalStateException("The checksums exceeded their memory limit and can only be saved.");
+		}
+		return entries;
+	}
+	
+	/**
+	 * @return true if entries beyond the memory limit were moved to a temporary file
+	 */
+	public boolean isSpilled() {
+		return spilled != null;
+	}
+	
+	/**
+	 * Deletes the temporary file, if any.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (spilled != null) {
+			spilled.close();
+		}
+	}
+	
+	/**
+	 * A file in the archive.
+	 */
+	public static class Entry {
+		
+		protected final long size;
+		protected final long crc;
+		
+		public Entry(long size, long crc) {
+			this.size = size;
+			this.crc = crc;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		public long getCrc() {
+			return crc;
+		}
+	}
+	
+}
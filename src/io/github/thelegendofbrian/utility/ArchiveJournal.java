@@ -0,0 +1,336 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Records the entries of a partial archive that are completely written, so an archive that was interrupted, for example
+ * because the program was killed, can be resumed after its last recorded entry instead of being written from scratch.
+ * <p>
+ * Entries are recorded at checkpoints. The archive is forced to the disk first, so the journal never lists an entry
+ * whose bytes could still be lost, even when the machine loses power. The journal is kept next to the partial archive in
+ * a hidden file. Lines are only appended to it, so a line cut short by a crash is simply ignored.
+ * <p>
+ * The journal also records the settings the archive was made with, since a file stored as a region file delta of one
+ * base backup is not a valid entry of an archive made with other settings.
+ */
+public class ArchiveJournal {
+	
+	protected static final String SUFFIX = ".journal";
+	
+	/**
+	 * The number of bytes written between checkpoints.
+	 */
+	protected static final long CHECKPOINT_INTERVAL = 64L * 1024L * 1024L;
+	
+	/**
+	 * The number of entries recorded between checkpoints, which bounds the memory taken by entries waiting for one when
+	 * the files are small.
+	 */
+	protected static final int CHECKPOINT_ENTRIES = 4096;
+	
+	private static final String HEADER = "# mc-server-backup-util journal 2";
+	private static final String SETTINGS_PREFIX = "# settings ";
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final File journalFile;
+	private final FileChannel archive;
+	private final List<Entry> entries = new ArrayList<>();
+	private final List<Entry> pending = new ArrayList<>();
+	private String settings = "";
+	
+	private ArchiveJournal(File journalFile, FileChannel archive) {
+		this.journalFile = journalFile;
+		this.archive = archive;
+	}
+	
+	/**
+	 * Gets the hidden file that holds the journal of a partial archive.
+	 * 
+	 * @param partialFile
+	 * @return
+	 */
+	public static File getJournalFile(File partialFile) {
+		return new File(partialFile.getParentFile(), partialFile.getName() + SUFFIX);
+	}
+	
+	/**
+	 * Opens the journal of a partial archive, loading the entries that a previous attempt completed. Entries that the
+	 * archive is too short to hold are dropped, and so is a journal that cannot be read.
+	 * 
+	 * @param partialFile
+	 * @param archive the partial archive, opened for writing without truncating it
+	 * @return
+	 * @throws IOException
+	 */
+	public static ArchiveJournal open(File partialFile, FileChannel archive) throws IOException {
+		ArchiveJournal journal = new ArchiveJournal(getJournalFile(partialFile), archive);
+		if (!journal.journalFile.isFile()) {
+			return journal;
+		}
+		
+		long archiveSize = archive.size();
+		try (BufferedReader reader = Files.newBufferedReader(journal.journalFile.toPath(), StandardCharsets.UTF_8)) {
+			if (!HEADER.equals(reader.readLine())) {
+				return journal;
+			}
+			String settingsLine = reader.readLine();
+			if (settingsLine == null || !settingsLine.startsWith(SETTINGS_PREFIX)) {
+				return journal;
+			}
+			journal.settings = settingsLine.substring(SETTINGS_PREFIX.length());
+			String line;
+			long end = 0;
+			while ((line = reader.readLine()) != null) {
+				Entry entry = Entry.parse(line);
+				// Entries are recorded in archive order, so a line that is cut short or out of order ends the journal
+				if (entry == null || entry.offset != end || entry.end > archiveSize) {
+					break;
+				}
+				journal.entries.add(entry);
+				end = entry.end;
+			}
+		} catch (IOException e) {
+			journal.entries.clear();
+		}
+		return journal;
+	}
+	
+	/**
+	 * Sets the settings the archive is made with, discarding the entries of a previous attempt that was made with other
+	 * settings. Called before the archive is resumed.
+	 * 
+	 * @param settings a single line that changes whenever the entries of the archive would be stored differently
+	 */
+	public void setSettings(String settings) {
+		if (!settings.equals(this.settings)) {
+			entries.clear();
+		}
+		this.settings = settings;
+	}
+	
+	/**
+	 * @return the entries completed by a previous attempt, in archive order
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+	
+	/**
+	 * Keeps the first count entries of the partial archive, discarding everything written after them, and positions the
+	 * archive after them for the next entry.
+	 * 
+	 * @param count
+	 * @throws IOException
+	 */
+	public void resumeAt(int count) throws IOException {
+		long offset = count == 0 ? 0L : entries.get(count - 1).end;
+		entries.subList(count, entries.size()).clear();
+		archive.truncate(offset);
+		archive.position(offset);
+		
+		File temporaryFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+			writeHeader(writer);
+			for (Entry entry : entries) {
+				writer.write(entry.format());
+				writer.newLine();
+			}
+		}
+		try {
+			Files.move(temporaryFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporaryFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Adds the first length bytes of the partial archive to a checksum, so the checksum of a resumed archive covers the
+	 * part written by the previous attempt.
+	 * 
+	 * @param checksum
+	 * @param length
+	 * @throws IOException
+	 */
+	public void updateChecksum(Checksum checksum, long length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = 0;
+		while (position < length) {
+			buffer.clear();
+			buffer.limit((int) Math.min(BUFFER_SIZE, length - position));
+			int read = archive.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("The partial archive ended before its journal did.");
+			}
+			checksum.update(buffer.array(), 0, read);
+			position += read;
+		}
+	}
+	
+	/**
+	 * Records an entry that is completely written, which is saved at the next checkpoint.
+	 * 
+	 * @param entry
+	 */
+	public void add(Entry entry) {
+		pending.add(entry);
+	}
+	
+	/**
+	 * @return the number of entries waiting for the next checkpoint
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+	
+	/**
+	 * Forces everything written to the partial archive so far to the disk, then saves the entries added since the last
+	 * checkpoint. The archive has to be flushed by the caller first. Saved entries are not kept in memory, since only the
+	 * next attempt reads them.
+	 * 
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException {
+		if (pending.isEmpty()) {
+			return;
+		}
+		archive.force(false);
+		boolean created = !journalFile.exists();
+		try (BufferedWriter writer = Files.newBufferedWriter(journalFile.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			if (created) {
+				writeHeader(writer);
+			}
+			for (Entry entry : pending) {
+				writer.write(entry.format());
+				writer.newLine();
+			}
+		}
+		pending.clear();
+	}
+	
+	private void writeHeader(BufferedWriter writer) throws IOException {
+		writer.write(HEADER);
+		writer.newLine();
+		writer.write(SETTINGS_PREFIX + settings);
+		writer.newLine();
+	}
+	
+	/**
+	 * Deletes the journal once its archive is committed or abandoned.
+	 * 
+	 * @throws IOException
+	 */
+	public void delete() throws IOException {
+		Files.deleteIfExists(journalFile.toPath());
+	}
+	
+	/**
+	 * An entry of the archive and the file it was made from.
+	 */
+	public static class Entry {
+		
+		protected final String name;
+		protected final boolean directory;
+		protected final boolean zip64;
+		protected final long modified;
+		protected final long fileSize;
+		protected final long offset;
+		protected final long end;
+		protected final long crc;
+		protected final long size;
+		protected final long compressedSize;
+		
+		/**
+		 * @param name the entry name, ending with '/' for a directory
+		 * @param directory
+		 * @param zip64 whether the local header of the entry has a ZIP64 extra field
+		 * @param modified the modification time of the file in milliseconds
+		 * @param fileSize the size of the file when it was read, which differs from size if its contents were replaced
+		 * @param offset the offset of the local header of the entry
+		 * @param end the offset right after the entry
+		 * @param crc the CRC-32 checksum of the stored contents
+		 * @param size the size of the stored contents
+		 * @param compressedSize
+		 */
+		public Entry(String name, boolean directory, boolean zip64, long modified, long fileSize, long offset, long end, long crc, long size, long compressedSize) {
+			this.name = name;
+			this.directory = directory;
+			this.zip64 = zip64;
+			this.modified = modified;
+			this.fileSize = fileSize;
+			this.offset = offset;
+			this.end = end;
+			this.crc = crc;
+			this.size = size;
+			this.compressedSize = compressedSize;
+		}
+		
+		/**
+		 * Formats the entry as a line that starts with its own checksum, so a line cut short by a crash is recognized.
+		 */
+		String format() {
+			String line = (directory ? "D" : zip64 ? "Z" : "F") + "\t" + modified + "\t" + fileSize + "\t" + offset + "\t" + end + "\t" + Long.toHexString(crc) + "\t" + size
+					+ "\t" + compressedSize + "\t" + name;
+			return Long.toHexString(lineChecksum(line)) + "\t" + line;
+		}
+		
+		static Entry parse(String line) {
+			int tab = line.indexOf('\t');
+			if (tab < 0 || !line.substring(0, tab).equals(Long.toHexString(lineChecksum(line.substring(tab + 1))))) {
+				return null;
+			}
+			String[] fields = line.substring(tab + 1).split("\t", 9);
+			if (fields.length != 9 || fields[0].length() != 1 || "DZF".indexOf(fields[0].charAt(0)) < 0) {
+				return null;
+			}
+			try {
+				return new Entry(fields[8], "D".equals(fields[0]), "Z".equals(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+						Long.parseLong(fields[4]), Long.parseLong(fields[5], 16), Long.parseLong(fields[6]), Long.parseLong(fields[7]));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		
+		private static long lineChecksum(String line) {
+			CRC32 crc = new CRC32();
+			byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+			crc.update(bytes, 0, bytes.length);
+			return crc.getValue();
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public boolean isDirectory() {
+			return directory;
+		}
+		
+		public long getModified() {
+			return modified;
+		}
+		
+		public long getFileSize() {
+			return fileSize;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+	}
+	
+}
@@ -0,0 +1,228 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class ArchiveJournalTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	private static final String SETTINGS = "incremental true Survival_2017-05-21_23-02-07.zip";
+	
+	private static File tempDirectory = new File("temp-journal");
+	
+	private File partialFile;
+	
+	@Before
+	public void setUp() {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		partialFile = new File(tempDirectory, ".Survival.partial");
+	}
+	
+	@After
+	public void tearDown() {
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * open()
+	 */
+	
+	@Test
+	public void testOpenLoadsCheckpointedEntries() throws IOException {
+		writeJournal(300);
+		
+		try (FileChannel channel = openPartial()) {
+			List<ArchiveJournal.Entry> entries = ArchiveJournal.open(partialFile, channel).getEntries();
+			assertEquals(3, entries.size());
+			assertEquals("world/", entries.get(0).getName());
+			assertEquals(true, entries.get(0).isDirectory());
+			assertEquals("world/level.dat", entries.get(1).getName());
+			assertEquals(1495407727000L, entries.get(1).getModified());
+			assertEquals(250, entries.get(2).getFileSize());
+			assertEquals(200, entries.get(2).getSize());
+		}
+	}
+	
+	@Test
+	public void testOpenIgnoresLineCutShort() throws IOException {
+		writeJournal(300);
+		File journalFile = ArchiveJournal.getJournalFile(partialFile);
+		String lastLine = new ArchiveJournal.Entry("world/region/r.0.1.mca", false, false, 1495407727000L, 10, 300, 310, 0, 10, 10).format();
+		Files.write(journalFile.toPath(), lastLine.substring(0, 20).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		
+		try (FileChannel channel = openPartial()) {
+			assertEquals(3, ArchiveJournal.open(partialFile, channel).getEntries().size());
+		}
+	}
+	
+	@Test
+	public void testOpenIgnoresDamagedLine() throws IOException {
+		writeJournal(300);
+		File journalFile = ArchiveJournal.getJournalFile(partialFile);
+		List<String> lines = Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8);
+		lines.set(3, lines.get(3).replace("world/level.dat", "world/level.dau"));
+		Files.write(journalFile.toPath(), lines, StandardCharsets.UTF_8);
+		
+		// Entries after a damaged one cannot be trusted either, since they are recorded in archive order
+		try (FileChannel channel = openPartial()) {
+			assertEquals(1, ArchiveJournal.open(partialFile, channel).getEntries().size());
+		}
+	}
+	
+	@Test
+	public void testOpenDropsEntriesBeyondArchive() throws IOException {
+		writeJournal(150);
+		
+		try (FileChannel channel = openPartial()) {
+			assertEquals(2, ArchiveJournal.open(partialFile, channel).getEntries().size());
+		}
+	}
+	
+	/*
+	 * resumeAt()
+	 */
+	
+	@Test
+	public void testResumeAtTruncatesArchiveAndJournal() throws IOException {
+		writeJournal(300);
+		
+		try (FileChannel channel = openPartial()) {
+			ArchiveJournal journal = ArchiveJournal.open(partialFile, channel);
+			journal.resumeAt(2);
+			
+			assertEquals(100, channel.size());
+			assertEquals(100, channel.position());
+			assertEquals(2, journal.getEntries().size());
+		}
+		try (FileChannel channel = openPartial()) {
+			assertEquals(2, ArchiveJournal.open(partialFile, channel).getEntries().size());
+		}
+	}
+	
+	/*
+	 * setSettings()
+	 */
+	
+	@Test
+	public void testSetSettingsKeepsEntriesOfSameSettings() throws IOException {
+		writeJournal(300);
+		
+		try (FileChannel channel = openPartial()) {
+			ArchiveJournal journal = ArchiveJournal.open(partialFile, channel);
+			journal.setSettings(SETTINGS);
+			assertEquals(3, journal.getEntries().size());
+		}
+	}
+	
+	@Test
+	public void testSetSettingsDiscardsEntriesOfOtherSettings() throws IOException {
+		writeJournal(300);
+		
+		try (FileChannel channel = openPartial()) {
+			ArchiveJournal journal = ArchiveJournal.open(partialFile, channel);
+			journal.setSettings("full false ");
+			assertEquals(0, journal.getEntries().size());
+			journal.resumeAt(0);
+			assertEquals(0, channel.size());
+		}
+		try (FileChannel channel = openPartial()) {
+			ArchiveJournal journal = ArchiveJournal.open(partialFile, channel);
+			journal.setSettings(SETTINGS);
+			assertEquals(0, journal.getEntries().size());
+		}
+	}
+	
+	/*
+	 * updateChecksum()
+	 */
+	
+	@Test
+	public void testUpdateChecksumCoversPrefix() throws IOException {
+		writeJournal(300);
+		byte[] archive = Files.readAllBytes(partialFile.toPath());
+		
+		CRC32 expected = new CRC32();
+		expected.update(archive, 0, 100);
+		CRC32 actual = new CRC32();
+		try (FileChannel channel = openPartial()) {
+			ArchiveJournal.open(partialFile, channel).updateChecksum(actual, 100);
+		}
+		assertEquals(expected.getValue(), actual.getValue());
+	}
+	
+	/*
+	 * delete()
+	 */
+	
+	@Test
+	public void testDelete() throws IOException {
+		writeJournal(300);
+		
+		try (FileChannel channel = openPartial()) {
+			ArchiveJournal.open(partialFile, channel).delete();
+		}
+		assertFalse(ArchiveJournal.getJournalFile(partialFile).exists());
+	}
+	
+	/**
+	 * Writes a partial archive of archiveSize bytes and a journal of three entries, which end at 50, 100 and 300 bytes.
+	 */
+	private void writeJournal(int archiveSize) throws IOException {
+		byte[] archive = new byte[archiveSize];
+		for (int i = 0; i < archive.length; i++) {
+			archive[i] = (byte) i;
+		}
+		try (FileChannel channel = openPartial()) {
+			channel.write(ByteBuffer.wrap(archive));
+			ArchiveJournal journal = ArchiveJournal.open(partialFile, channel);
+			journal.setSettings(SETTINGS);
+			journal.add(new ArchiveJournal.Entry("world/", true, false, 1495407727000L, 0, 0, 50, 0, 0, 0));
+			journal.add(new ArchiveJournal.Entry("world/level.dat", false, false, 1495407727000L, 20, 50, 100, 0x1234abcdL, 20, 10));
+			journal.add(new ArchiveJournal.Entry("world/region/r.0.0.mca", false, false, 1495407728000L, 250, 100, 300, 0xffffffffL, 200, 150));
+			journal.checkpoint();
+		}
+	}
+	
+	private FileChannel openPartial() throws IOException {
+		return FileChannel.open(partialFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+	
+}
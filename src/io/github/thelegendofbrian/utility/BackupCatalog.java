@@ -0,0 +1,326 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+/**
+ * Lists the backups in the backup folder of a server, with the size and CRC-32 checksum of each, so the latest backup
+ * can be found without listing the folder. The catalog is kept in a hidden file in the folder, whose modification time
+ * is set to the folder's own modification time each time it is saved. Adding or removing a file changes the folder's
+ * modification time, so a catalog whose modification time no longer matches is stale and the folder is listed again.
+ * <p>
+ * File systems with coarse time stamps, like FAT at two seconds, leave the folder's modification time unchanged when a
+ * backup is added or deleted within the same tick as the catalog was saved. The catalog also records how many backups
+ * it lists, so on such a file system the backups are counted to tell whether the catalog is still fresh.
+ */
+public class BackupCatalog {
+	
+	protected static final String FILE_NAME = ".catalog";
+	
+	/**
+	 * The checksum of a backup that was found by listing the folder rather than recorded when it was made.
+	 */
+	public static final long UNKNOWN_CHECKSUM = -1L;
+	
+	private static final String HEADER = "# mc-server-backup-util catalog 1";
+	
+	/**
+	 * A modification time that is a multiple of this may come from a file system with coarse time stamps.
+	 */
+	private static final long COARSE_TIMESTAMP_MILLIS = 1000L;
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("main");
+	
+	private final File backupFolder;
+	private final TreeMap<String, Entry> backups = new TreeMap<>();
+	
+	public BackupCatalog(File backupFolder) {
+		this.backupFolder = backupFolder;
+	}
+	
+	/**
+	 * Gets the catalog of a backup folder, listing the folder and saving a new catalog if the current one is missing,
+	 * stale or unreadable. Checksums of backups that are still in the folder are kept from the previous catalog.
+	 * 
+	 * @param backupFolder
+	 * @return
+	 */
+	public static BackupCatalog open(File backupFolder) {
+		BackupCatalog previous = null;
+		try {
+			previous = load(backupFolder);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to read the backup catalog of " + backupFolder.getAbsolutePath() + ", the folder will be listed: ", e);
+		}
+		if (previous != null && isFresh(backupFolder)) {
+			return previous;
+		}
+		
+		logger.fine("Listing backup folder " + backupFolder.getAbsolutePath() + " to update its catalog.");
+		BackupCatalog catalog = new BackupCatalog(backupFolder);
+		try (DirectoryStream<Path> backups = newBackupStream(backupFolder)) {
+			for (Path backup : backups) {
+				File file = backup.toFile();
+				Entry known = previous == null ? null : previous.get(file.getName());
+				long size = file.length();
+				catalog.put(file.getName(), size, known != null && known.getSize() == size ? known.getChecksum() : UNKNOWN_CHECKSUM);
+			}
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to list backup folder " + backupFolder.getAbsolutePath() + ": ", e);
+			return catalog;
+		}
+		catalog.saveQuietly();
+		return catalog;
+	}
+	
+	/**
+	 * Opens the backups of a backup folder, which are its files and link snapshots that are not hidden, for reading one
+	 * at a time. The folder is never held in memory as a whole, however many backups it holds.
+	 * 
+	 * @param backupFolder
+	 * @return the backups, in no particular order
+	 * @throws IOException if the folder cannot be listed
+	 */
+	public static DirectoryStream<Path> newBackupStream(File backupFolder) throws IOException {
+		return Files.newDirectoryStream(backupFolder.toPath(),
+				path -> !path.getFileName().toString().startsWith(".") && (Files.isRegularFile(path) || LinkSnapshot.isLinkSnapshot(path.toFile())));
+	}
+	
+	/**
+	 * Loads the catalog of a backup folder, whether or not it is stale.
+	 * 
+	 * @param backupFolder
+	 * @return the catalog, or null if the folder has none
+	 * @throws IOException if the catalog exists but cannot be read
+	 */
+	public static BackupCatalog load(File backupFolder) throws IOException {
+		File catalogFile = new File(backupFolder, FILE_NAME);
+		if (!catalogFile.isFile()) {
+			return null;
+		}
+		
+		BackupCatalog catalog = new BackupCatalog(backupFolder);
+		try (BufferedReader reader = Files.newBufferedReader(catalogFile.toPath(), StandardCharsets.UTF_8)) {
+			if (!HEADER.equals(reader.readLine())) {
+				throw new IOException("Unknown catalog format: " + catalogFile.getAbsolutePath());
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("B\t")) {
+					String[] fields = line.split("\t", 4);
+					long checksum = "-".equals(fields[2]) ? UNKNOWN_CHECKSUM : Long.parseLong(fields[2], 16);
+					catalog.put(fields[3], Long.parseLong(fields[1]), checksum);
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt catalog: " + catalogFile.getAbsolutePath(), e);
+		}
+		return catalog;
+	}
+	
+	/**
+	 * Reads only the name of the latest backup from a catalog that is not stale, without reading the list of backups.
+	 * 
+	 * @param backupFolder
+	 * @return the name of the latest backup, "" if the folder has no backups, or null if there is no catalog that can be
+	 *         trusted
+	 */
+	public static String loadLatest(File backupFolder) {
+		if (!isFresh(backupFolder)) {
+			return null;
+		}
+		
+		File catalogFile = new File(backupFolder, FILE_NAME);
+		try (BufferedReader reader = Files.newBufferedReader(catalogFile.toPath(), StandardCharsets.UTF_8)) {
+			if (HEADER.equals(reader.readLine())) {
+				String line = reader.readLine();
+				if (line != null && line.startsWith("latest=")) {
+					return line.substring(7);
+				}
+			}
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to read the backup catalog of " + backupFolder.getAbsolutePath() + ": ", e);
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks whether a backup folder has a catalog that was saved after the last change to the folder. If the folder's
+	 * modification time may be coarse, its backups are counted as well.
+	 * 
+	 * @param backupFolder
+	 * @return
+	 */
+	public static boolean isFresh(File backupFolder) {
+		File catalogFile = new File(backupFolder, FILE_NAME);
+		long catalogModified = catalogFile.lastModified();
+		long folderModified = backupFolder.lastModified();
+		if (catalogModified == 0L || catalogModified != folderModified) {
+			return false;
+		}
+		return folderModified % COARSE_TIMESTAMP_MILLIS != 0L || loadCount(catalogFile) == countBackups(backupFolder);
+	}
+	
+	/**
+	 * @return the number of backups a catalog lists, or -1 if it cannot be read or does not record it
+	 */
+	private static long loadCount(File catalogFile) {
+		try (BufferedReader reader = Files.newBufferedReader(catalogFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null && !line.startsWith("B\t")) {
+				if (line.startsWith("count=")) {
+					return Long.parseLong(line.substring(6));
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			logger.log(Level.FINE, "Unable to read the backup catalog " + catalogFile.getAbsolutePath() + ": ", e);
+		}
+		return -1L;
+	}
+	
+	/**
+	 * @return the number of backups in a backup folder, or -2 if it cannot be listed
+	 */
+	private static long countBackups(File backupFolder) {
+		long count = 0;
+		try (DirectoryStream<Path> backups = newBackupStream(backupFolder)) {
+			for (Iterator<Path> iterator = backups.iterator(); iterator.hasNext(); iterator.next()) {
+				count++;
+			}
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to list backup folder " + backupFolder.getAbsolutePath() + ": ", e);
+			return -2L;
+		}
+		return count;
+	}
+	
+	/**
+	 * Writes the catalog, replacing the previous catalog in a single step, and marks it as up to date with the folder.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		File catalogFile = new File(backupFolder, FILE_NAME);
+		File temporaryFile = new File(backupFolder, FILE_NAME + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			writer.write("latest=" + (backups.isEmpty() ? "" : backups.lastKey()));
+			writer.newLine();
+			writer.write("count=" + backups.size());
+			writer.newLine();
+			for (Map.Entry<String, Entry> backup : backups.entrySet()) {
+				long checksum = backup.getValue().checksum;
+				writer.write("B\t" + backup.getValue().size + "\t" + (checksum == UNKNOWN_CHECKSUM ? "-" : Long.toHexString(checksum)) + "\t" + backup.getKey());
+				writer.newLine();
+			}
+		}
+		
+		try {
+			Files.move(temporaryFile.toPath(), catalogFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporaryFile.toPath(), catalogFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		
+		// Moving the catalog into the folder was the last change to the folder
+		if (!catalogFile.setLastModified(backupFolder.lastModified())) {
+			logger.fine("Unable to set the modification time of " + catalogFile.getAbsolutePath() + ", it will be treated as stale.");
+		}
+	}
+	
+	/**
+	 * Saves the catalog, logging instead of throwing on failure, which only costs the next run a listing of the folder.
+	 */
+	public void saveQuietly() {
+		try {
+			save();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to save the backup catalog of " + backupFolder.getAbsolutePath() + ": ", e);
+		}
+	}
+	
+	/**
+	 * Records a backup that has just been made.
+	 * 
+	 * @param backup
+	 * @param checksum the CRC-32 checksum of the backup file
+	 */
+	public synchronized void add(File backup, long checksum) {
+		put(backup.getName(), backup.length(), checksum);
+	}
+	
+	/**
+	 * Forgets a backup that has been deleted.
+	 * 
+	 * @param name
+	 */
+	public synchronized void remove(String name) {
+		backups.remove(name);
+	}
+	
+	/**
+	 * @return the backup with the most recent time stamp in its name, or null if there are no backups
+	 */
+	public synchronized File getLatest() {
+		return backups.isEmpty() ? null : new File(backupFolder, backups.lastKey());
+	}
+	
+	/**
+	 * @param name
+	 * @return the entry of a backup, or null if the catalog does not list it
+	 */
+	public synchronized Entry get(String name) {
+		return backups.get(name);
+	}
+	
+	/**
+	 * @return the entries of all backups, sorted by name
+	 */
+	public synchronized Map<String, Entry> getBackups() {
+		return new TreeMap<>(backups);
+	}
+	
+	private void put(String name, long size, long checksum) {
+		backups.put(name, new Entry(size, checksum));
+	}
+	
+	/**
+	 * A backup in the folder.
+	 */
+	public static class Entry {
+		
+		protected final long size;
+		protected final long checksum;
+		
+		public Entry(long size, long checksum) {
+			this.size = size;
+			this.checksum = checksum;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		/**
+		 * @return the CRC-32 checksum of the backup file, or {@link BackupCatalog#UNKNOWN_CHECKSUM}
+		 */
+		public long getChecksum() {
+			return checksum;
+		}
+	}
+	
+}
@@ -0,0 +1,170 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class BackupCatalogTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-catalog");
+	
+	private File backupFolder;
+	
+	@Before
+	public void setUp() {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		backupFolder = new File(tempDirectory, "backups/Vanilla");
+		backupFolder.mkdirs();
+	}
+	
+	@After
+	public void tearDown() {
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * open()
+	 */
+	
+	@Test
+	public void testOpenListsFolder() throws IOException {
+		createBackup("Vanilla_2017-01-01_00-00-00.zip");
+		createBackup("Vanilla_2017-01-02_00-00-00.zip");
+		
+		BackupCatalog catalog = BackupCatalog.open(backupFolder);
+		
+		assertEquals(new File(backupFolder, "Vanilla_2017-01-02_00-00-00.zip"), catalog.getLatest());
+		assertEquals(2, catalog.getBackups().size());
+		assertEquals(BackupCatalog.UNKNOWN_CHECKSUM, catalog.get("Vanilla_2017-01-01_00-00-00.zip").getChecksum());
+		assertTrue(BackupCatalog.isFresh(backupFolder));
+	}
+	
+	@Test
+	public void testOpenEmptyFolder() {
+		assertNull(BackupCatalog.open(backupFolder).getLatest());
+		assertEquals("", BackupCatalog.loadLatest(backupFolder));
+	}
+	
+	@Test
+	public void testOpenKeepsKnownChecksums() throws IOException {
+		File backup = createBackup("Vanilla_2017-01-01_00-00-00.zip");
+		BackupCatalog catalog = BackupCatalog.open(backupFolder);
+		catalog.add(backup, 1234L);
+		catalog.save();
+		
+		// Adding a file makes the catalog stale, so the folder is listed again
+		createBackup("Vanilla_2017-01-02_00-00-00.zip");
+		backupFolder.setLastModified(backupFolder.lastModified() + 1000L);
+		assertFalse(BackupCatalog.isFresh(backupFolder));
+		
+		BackupCatalog reopened = BackupCatalog.open(backupFolder);
+		assertEquals(2, reopened.getBackups().size());
+		assertEquals(1234L, reopened.get(backup.getName()).getChecksum());
+	}
+	
+	/*
+	 * loadLatest()
+	 */
+	
+	@Test
+	public void testLoadLatestIgnoresStaleCatalog() throws IOException {
+		createBackup("Vanilla_2017-01-01_00-00-00.zip");
+		BackupCatalog.open(backupFolder);
+		assertEquals("Vanilla_2017-01-01_00-00-00.zip", BackupCatalog.loadLatest(backupFolder));
+		
+		createBackup("Vanilla_2017-01-02_00-00-00.zip");
+		backupFolder.setLastModified(backupFolder.lastModified() + 1000L);
+		
+		assertNull(BackupCatalog.loadLatest(backupFolder));
+		assertEquals(new File(backupFolder, "Vanilla_2017-01-02_00-00-00.zip"), BackupUtilityApplication.getLatestBackup(backupFolder));
+	}
+	
+	@Test
+	public void testLoadLatestCountsBackupsOnCoarseTimestamps() throws IOException {
+		createBackup("Vanilla_2017-01-01_00-00-00.zip");
+		BackupCatalog.open(backupFolder);
+		
+		// A file system that only keeps whole seconds
+		long modified = 1500000000000L;
+		new File(backupFolder, BackupCatalog.FILE_NAME).setLastModified(modified);
+		backupFolder.setLastModified(modified);
+		assertEquals("Vanilla_2017-01-01_00-00-00.zip", BackupCatalog.loadLatest(backupFolder));
+		
+		// A backup added within the same tick leaves the folder's modification time unchanged
+		createBackup("Vanilla_2017-01-02_00-00-00.zip");
+		backupFolder.setLastModified(modified);
+		
+		assertNull(BackupCatalog.loadLatest(backupFolder));
+		assertEquals("Vanilla_2017-01-02_00-00-00.zip", BackupCatalog.open(backupFolder).getLatest().getName());
+	}
+	
+	/*
+	 * add()
+	 */
+	
+	@Test
+	public void testBackupRecordsChecksum() throws IOException {
+		File serverFolder = new File(tempDirectory, "servers/Vanilla");
+		serverFolder.mkdirs();
+		Files.write(new File(serverFolder, "server.properties").toPath(), "motd=1".getBytes(StandardCharsets.UTF_8));
+		
+		BackupUtilityApplication application = new BackupUtilityApplication();
+		application.backupMode = BackupUtilityApplication.MODE_FULL;
+		application.compressionThreads = 1;
+		try {
+			application.backupSpecificServer(serverFolder, backupFolder);
+		} finally {
+			application.shutdownArchiver();
+		}
+		
+		File latest = BackupUtilityApplication.getLatestBackup(backupFolder);
+		CRC32 crc = new CRC32();
+		crc.update(Files.readAllBytes(latest.toPath()));
+		assertTrue(BackupCatalog.isFresh(backupFolder));
+		assertEquals(crc.getValue(), BackupCatalog.load(backupFolder).get(latest.getName()).getChecksum());
+	}
+	
+	private File createBackup(String name) throws IOException {
+		File backup = new File(backupFolder, name);
+		backup.createNewFile();
+		return backup;
+	}
+	
+}
@@ -0,0 +1,291 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+/**
+ * Keeps running and backs up each server shortly after it stops changing. Every directory of every server is watched
+ * for changes, so finding out which servers changed costs nothing. A changed server is backed up once it has not
+ * changed for the quiet period, or once it has been changing for the maximum delay, so a server that is constantly
+ * saved while players are online is still backed up regularly.
+ */
+public class BackupDaemon {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("main");
+	
+	private final BackupUtilityApplication application;
+	private final Path serversRoot;
+	private final long quietPeriodMillis;
+	private final long maxDelayMillis;
+	
+	private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+	private final Map<String, DirtyServer> dirtyServers = new HashMap<>();
+	private final Set<String> runningBackups = new HashSet<>();
+	private WatchService watchService;
+	private ScheduledExecutorService scheduler;
+	private ExecutorService backupExecutor;
+	
+	/**
+	 * @param application the configured application that backs up the servers
+	 * @param quietPeriodMillis how long a server must go without changes before it is backed up
+	 * @param maxDelayMillis the longest a changed server waits for a backup while it keeps changing
+	 */
+	public BackupDaemon(BackupUtilityApplication application, long quietPeriodMillis, long maxDelayMillis) {
+		this.application = application;
+		this.serversRoot = application.serversDirectory.toPath().toAbsolutePath();
+		this.quietPeriodMillis = quietPeriodMillis;
+		this.maxDelayMillis = Math.max(quietPeriodMillis, maxDelayMillis);
+	}
+	
+	/**
+	 * Starts watching the servers directory and every server in it. Changes made from this point on are picked up by
+	 * {@link #run()}, so servers can be checked for changes made before the daemon started once this returns.
+	 * 
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		scheduler = Executors.newSingleThreadScheduledExecutor(BackupUtilityApplication.newThreadFactory("daemon-scheduler-"));
+		backupExecutor = Executors.newFixedThreadPool(Math.max(1, application.backupThreads), BackupUtilityApplication.newThreadFactory("backup-worker-", application.getWorkerPriority()));
+		
+		register(serversRoot);
+		File[] servers = application.serversDirectory.listFiles(File::isDirectory);
+		if (servers != null) {
+			for (File server : servers) {
+				registerTree(server.toPath().toAbsolutePath());
+			}
+		}
+		logger.info("Watching " + watchedDirectories.size() + " directories for changes.");
+	}
+	
+	/**
+	 * Waits for changes and schedules backups until the daemon is stopped.
+	 */
+	public void run() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ClosedWatchServiceException e) {
+				return;
+			}
+			
+			Path directory = watchedDirectories.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					// Some events were lost, so any server may have changed
+					logger.fine("Too many changes to keep track of, checking every server.");
+					markAllDirty();
+					continue;
+				}
+				if (directory != null) {
+					handleEvent(directory.resolve((Path) event.context()), event.kind());
+				}
+			}
+			if (!key.reset()) {
+				watchedDirectories.remove(key);
+			}
+		}
+	}
+	
+	/**
+	 * Stops watching, waiting for running backups to finish.
+	 */
+	public void stop() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to stop watching for changes: ", e);
+		}
+		scheduler.shutdownNow();
+		backupExecutor.shutdown();
+		try {
+			backupExecutor.awaitTermination(1, TimeUnit.HOURS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		application.shutdownArchiver();
+	}
+	
+	private void handleEvent(Path path, WatchEvent.Kind<?> kind) {
+		Path relative = serversRoot.relativize(path);
+		if (relative.getNameCount() == 0) {
+			return;
+		}
+		String serverName = relative.getName(0).toString();
+		
+		// Paths that are not backed up, such as logs, do not make a server need a backup
+		if (relative.getNameCount() > 1) {
+			String serverPath = toServerPath(relative);
+			PathFilter filter = application.getPathFilter(serverName);
+			if (!filter.includesFile(serverPath) && !filter.includesDirectory(serverPath)) {
+				return;
+			}
+		}
+		
+		// New directories, including new servers, are not watched until they are registered
+		if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+			try {
+				registerTree(path);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Unable to watch new directory " + path + " for changes: ", e);
+			}
+			if (relative.getNameCount() == 1) {
+				logger.info("Found new server \"" + serverName + "\".");
+			}
+		}
+		if (relative.getNameCount() > 1 || Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+			markDirty(serverName);
+		}
+	}
+	
+	/**
+	 * Records that a server changed, scheduling its backup for the end of its quiet period.
+	 * 
+	 * @param serverName
+	 */
+	protected synchronized void markDirty(String serverName) {
+		long now = System.currentTimeMillis();
+		DirtyServer dirty = dirtyServers.get(serverName);
+		if (dirty == null) {
+			dirty = new DirtyServer(now);
+			dirtyServers.put(serverName, dirty);
+			logger.fine("Server \"" + serverName + "\" changed, backing it up after " + quietPeriodMillis / 1000 + "s without changes.");
+		}
+		dirty.lastChange = now;
+		if (!dirty.scheduled) {
+			dirty.scheduled = true;
+			scheduler.schedule(() -> checkServer(serverName), quietPeriodMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Marks every server in the servers directory as changed. A servers directory that cannot be listed is skipped with
+	 * a warning, so the daemon keeps watching the servers it already knows.
+	 */
+	protected void markAllDirty() {
+		File[] servers = application.serversDirectory.listFiles(File::isDirectory);
+		if (servers == null) {
+			logger.warning("Unable to list the servers directory " + application.serversDirectory.getAbsolutePath() + " to check every server.");
+			return;
+		}
+		for (File server : servers) {
+			markDirty(server.getName());
+		}
+	}
+	
+	/**
+	 * Backs up a changed server if it is due, and otherwise checks it again when it will be due.
+	 */
+	private synchronized void checkServer(String serverName) {
+		DirtyServer dirty = dirtyServers.get(serverName);
+		long now = System.currentTimeMillis();
+		long due = dirty.getDueTime(quietPeriodMillis, maxDelayMillis);
+		if (now < due) {
+			scheduler.schedule(() -> checkServer(serverName), due - now, TimeUnit.MILLISECONDS);
+			return;
+		}
+		if (runningBackups.contains(serverName)) {
+			// The server changed during its previous backup, which has to finish first
+			scheduler.schedule(() -> checkServer(serverName), quietPeriodMillis, TimeUnit.MILLISECONDS);
+			return;
+		}
+		
+		// Changes made while the backup runs mark the server dirty again
+		dirtyServers.remove(serverName);
+		runningBackups.add(serverName);
+		backupExecutor.submit(() -> backUp(serverName));
+	}
+	
+	private void backUp(String serverName) {
+		try {
+			application.backupChangedServer(new File(application.serversDirectory, serverName));
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Unable to back up server \"" + serverName + "\": ", e);
+		} finally {
+			synchronized (this) {
+				runningBackups.remove(serverName);
+			}
+		}
+	}
+	
+	private void registerTree(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Path relative = serversRoot.relativize(dir);
+				if (relative.getNameCount() > 1) {
+					if (!application.getPathFilter(relative.getName(0).toString()).includesDirectory(toServerPath(relative))) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+				}
+				register(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	/**
+	 * @param relative a path inside a server folder, relative to the servers directory
+	 * @return the path relative to the server folder, separated by '/'
+	 */
+	private static String toServerPath(Path relative) {
+		return relative.subpath(1, relative.getNameCount()).toString().replace(File.separatorChar, '/');
+	}
+	
+	private void register(Path directory) throws IOException {
+		WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		watchedDirectories.put(key, directory);
+	}
+	
+	/**
+	 * A server that changed since its last backup.
+	 */
+	protected static class DirtyServer {
+		
+		protected final long firstChange;
+		protected long lastChange;
+		protected boolean scheduled;
+		
+		public DirtyServer(long firstChange) {
+			this.firstChange = firstChange;
+			this.lastChange = firstChange;
+		}
+		
+		/**
+		 * @param quietPeriodMillis
+		 * @param maxDelayMillis
+		 * @return the time in milliseconds at which the server should be backed up
+		 */
+		public long getDueTime(long quietPeriodMillis, long maxDelayMillis) {
+			return Math.min(lastChange + quietPeriodMillis, firstChange + maxDelayMillis);
+		}
+	}
+	
+}
@@ -0,0 +1,142 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class BackupDaemonTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-daemon");
+	
+	private File serversFolder;
+	private File backupsFolder;
+	
+	@Before
+	public void setUp() {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		serversFolder = new File(tempDirectory, "servers");
+		backupsFolder = new File(tempDirectory, "backups");
+		serversFolder.mkdir();
+		backupsFolder.mkdir();
+	}
+	
+	@After
+	public void tearDown() {
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * DirtyServer.getDueTime()
+	 */
+	
+	@Test
+	public void testDueAfterQuietPeriod() {
+		BackupDaemon.DirtyServer dirty = new BackupDaemon.DirtyServer(1000L);
+		dirty.lastChange = 5000L;
+		
+		assertEquals(7000L, dirty.getDueTime(2000L, 10000L));
+	}
+	
+	@Test
+	public void testDueAfterMaxDelay() {
+		BackupDaemon.DirtyServer dirty = new BackupDaemon.DirtyServer(1000L);
+		dirty.lastChange = 10000L;
+		
+		// The server keeps changing, so it is backed up once it has waited for the maximum delay
+		assertEquals(11000L, dirty.getDueTime(2000L, 10000L));
+	}
+	
+	/*
+	 * markAllDirty()
+	 */
+	
+	@Test
+	public void testMarkAllDirtyWithoutServersDirectory() {
+		BackupUtilityApplication application = new BackupUtilityApplication();
+		application.serversDirectory = serversFolder;
+		BackupDaemon daemon = new BackupDaemon(application, 200L, 2000L);
+		
+		// A servers directory that disappeared must not stop the daemon
+		deleteFileOrFolder(serversFolder);
+		daemon.markAllDirty();
+	}
+	
+	/*
+	 * run()
+	 */
+	
+	@Test
+	public void testBackupAfterChange() throws IOException, InterruptedException {
+		File serverFolder = new File(serversFolder, "Vanilla");
+		new File(serverFolder, "world").mkdirs();
+		File backupFolder = new File(backupsFolder, "Vanilla");
+		backupFolder.mkdir();
+		
+		BackupUtilityApplication application = new BackupUtilityApplication();
+		application.serversDirectory = serversFolder;
+		application.backupsDirectory = backupsFolder;
+		application.pathToBackups = backupsFolder.getPath();
+		application.backupMode = BackupUtilityApplication.MODE_FULL;
+		application.backupThreads = 1;
+		application.compressionThreads = 1;
+		application.trustedDirectories = Collections.emptySet();
+		
+		BackupDaemon daemon = new BackupDaemon(application, 200L, 2000L);
+		daemon.start();
+		Thread watcher = new Thread(daemon::run);
+		watcher.start();
+		try {
+			Files.write(new File(serverFolder, "world/level.dat").toPath(), "level".getBytes(StandardCharsets.UTF_8));
+			
+			// The backup is recorded in the catalog once it is complete
+			String latestBackup = null;
+			for (int i = 0; i < 100 && (latestBackup == null || latestBackup.isEmpty()); i++) {
+				Thread.sleep(100L);
+				latestBackup = BackupCatalog.loadLatest(backupFolder);
+			}
+			assertNotNull(latestBackup);
+			assertTrue(latestBackup.endsWith(BackupUtilityApplication.FULL_EXTENSION));
+			assertTrue(new File(backupFolder, latestBackup).isFile());
+		} finally {
+			daemon.stop();
+			watcher.join();
+		}
+	}
+	
+}
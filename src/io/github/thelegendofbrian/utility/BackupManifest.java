@@ -0,0 +1,247 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lists every file a server contained at the time of a backup, and which of them are stored in that backup's archive.
+ * A manifest is kept next to its archive in a hidden file, so incremental backups can tell which files changed since
+ * the previous backup and restores can tell which archives hold the files of a point in time.
+ * <p>
+ * A region file may be stored as a {@link RegionFile} delta, holding only the chunks saved since the previous backup.
+ * Such a file has to be rebuilt from the version in the backup this one builds on.
+ */
+public class BackupManifest {
+	
+	protected static final String SUFFIX = ".manifest";
+	
+	private static final String HEADER = "# mc-server-backup-util manifest 2";
+	private static final String HEADER_VERSION_1 = "# mc-server-backup-util manifest 1";
+	private static final String ARCHIVED = "1";
+	private static final String NOT_ARCHIVED = "0";
+	private static final String DELTA = "d";
+	private static final String FULL = "full";
+	private static final String INCREMENTAL = "incremental";
+	
+	private boolean full;
+	private int sequence;
+	private String base = "";
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	
+	/**
+	 * Creates an empty manifest.
+	 * 
+	 * @param full whether the archive holds every file rather than only the files changed since base
+	 * @param sequence the number of incremental backups since the last full backup
+	 * @param base the file name of the backup this one builds on, or "" for a full backup
+	 */
+	public BackupManifest(boolean full, int sequence, String base) {
+		this.full = full;
+		this.sequence = sequence;
+		this.base = base;
+	}
+	
+	/**
+	 * Gets the hidden file that holds the manifest of an archive.
+	 * 
+	 * @param archive
+	 * @return
+	 */
+	public static File getManifestFile(File archive) {
+		return new File(archive.getParentFile(), "." + archive.getName() + SUFFIX);
+	}
+	
+	/**
+	 * Loads the manifest of an archive.
+	 * 
+	 * @param archive
+	 * @return the manifest, or null if the archive has none, such as a backup made before manifests existed
+	 * @throws IOException if the manifest exists but cannot be read
+	 */
+	public static BackupManifest load(File archive) throws IOException {
+		File manifestFile = getManifestFile(archive);
+		if (!manifestFile.isFile()) {
+			return null;
+		}
+		
+		BackupManifest manifest = new BackupManifest(true, 0, "");
+		try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+			if (!isKnownHeader(reader.readLine())) {
+				throw new IOException("Unknown manifest format: " + manifestFile.getAbsolutePath());
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("type=")) {
+					manifest.full = FULL.equals(line.substring(5));
+				} else if (line.startsWith("sequence=")) {
+					manifest.sequence = Integer.parseInt(line.substring(9));
+				} else if (line.startsWith("base=")) {
+					manifest.base = line.substring(5);
+				} else if (line.startsWith("F\t")) {
+					String[] fields = line.split("\t", 5);
+					boolean delta = DELTA.equals(fields[3]);
+					manifest.entries.put(fields[4], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), delta || ARCHIVED.equals(fields[3]), delta));
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt manifest: " + manifestFile.getAbsolutePath(), e);
+		}
+		return manifest;
+	}
+	
+	/**
+	 * Reads only the name of the backup an archive builds on, stopping before the list of files.
+	 * 
+	 * @param archive
+	 * @return the file name of the base backup, or "" for a full backup or an archive without a manifest
+	 * @throws IOException if the manifest exists but cannot be read
+	 */
+	public static String loadBase(File archive) throws IOException {
+		File manifestFile = getManifestFile(archive);
+		if (!manifestFile.isFile()) {
+			return "";
+		}
+		
+		try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+			if (!isKnownHeader(reader.readLine())) {
+				throw new IOException("Unknown manifest format: " + manifestFile.getAbsolutePath());
+			}
+			String line;
+			while ((line = reader.readLine()) != null && !line.startsWith("F\t")) {
+				if (line.startsWith("base=")) {
+					return line.substring(5);
+				}
+			}
+		}
+		return "";
+	}
+	
+	private static boolean isKnownHeader(String header) {
+		return HEADER.equals(header) || HEADER_VERSION_1.equals(header);
+	}
+	
+	/**
+	 * Writes the manifest of an archive, replacing any previous manifest in a single step.
+	 * 
+	 * @param archive
+	 * @throws IOException
+	 */
+	public void save(File archive) throws IOException {
+		File manifestFile = getManifestFile(archive);
+		File temporaryFile = new File(manifestFile.getParentFile(), manifestFile.getName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			writer.write("type=" + (full ? FULL : INCREMENTAL));
+			writer.newLine();
+			writer.write("sequence=" + sequence);
+			writer.newLine();
+			writer.write("base=" + base);
+			writer.newLine();
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				Entry value = entry.getValue();
+				writer.write("F\t" + value.size + "\t" + value.modified + "\t" + (value.delta ? DELTA : value.archived ? ARCHIVED : NOT_ARCHIVED) + "\t" + entry.getKey());
+				writer.newLine();
+			}
+		}
+		
+		try {
+			Files.move(temporaryFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporaryFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Records a file of the server.
+	 * 
+	 * @param path the path of the file relative to the server folder, separated by '/'
+	 * @param size
+	 * @param modified
+	 * @param archived whether the file is stored in this backup's archive
+	 */
+	public void put(String path, long size, long modified, boolean archived) {
+		entries.put(path, new Entry(size, modified, archived, false));
+	}
+	
+	/**
+	 * Records a region file of the server that is stored in this backup's archive as a {@link RegionFile} delta.
+	 * 
+	 * @param path the path of the file relative to the server folder, separated by '/'
+	 * @param size the size of the region file, not of the delta
+	 * @param modified
+	 */
+	public void putDelta(String path, long size, long modified) {
+		entries.put(path, new Entry(size, modified, true, true));
+	}
+	
+	/**
+	 * @param path
+	 * @return the entry of a file, or null if the server did not contain it
+	 */
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+	
+	public Map<String, Entry> getEntries() {
+		return entries;
+	}
+	
+	public boolean isFull() {
+		return full;
+	}
+	
+	public int getSequence() {
+		return sequence;
+	}
+	
+	public String getBase() {
+		return base;
+	}
+	
+	/**
+	 * A file of the server at the time of the backup.
+	 */
+	public static class Entry {
+		
+		protected final long size;
+		protected final long modified;
+		protected final boolean archived;
+		protected final boolean delta;
+		
+		public Entry(long size, long modified, boolean archived, boolean delta) {
+			this.size = size;
+			this.modified = modified;
+			this.archived = archived;
+			this.delta = delta;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		public long getModified() {
+			return modified;
+		}
+		
+		public boolean isArchived() {
+			return archived;
+		}
+		
+		/**
+		 * @return whether the archive holds a {@link RegionFile} delta rather than the whole file
+		 */
+		public boolean isDelta() {
+			return delta;
+		}
+	}
+	
+}
@@ -0,0 +1,369 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Collects how long each phase of a run took and what was backed up for each server, and reports it as JSON or in the
+ * Prometheus text format. In daemon mode the figures of each server are replaced by its most recent backup.
+ */
+public class BackupMetrics {
+	
+	protected static final String STATUS_SUCCEEDED = "succeeded";
+	protected static final String STATUS_SKIPPED = "skipped";
+	protected static final String STATUS_FAILED = "failed";
+	
+	private static final String PROMETHEUS_PREFIX = "mcbackup_";
+	
+	private final long startTime = System.currentTimeMillis();
+	private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+	private final Map<String, ServerMetrics> servers = new TreeMap<>();
+	private int prunedBackups;
+	private long prunedBytes;
+	private int prunedChunks;
+	
+	/**
+	 * Runs a phase of the backup and records how long it took.
+	 * 
+	 * @param phase
+	 * @param task
+	 */
+	public void time(String phase, Runnable task) {
+		long start = System.nanoTime();
+		try {
+			task.run();
+		} finally {
+			recordPhase(phase, System.nanoTime() - start);
+		}
+	}
+	
+	public synchronized void recordPhase(String phase, long nanos) {
+		phaseNanos.merge(phase, nanos, Long::sum);
+	}
+	
+	/**
+	 * Records the scan for changes of a server.
+	 * 
+	 * @param serverName
+	 * @param nanos
+	 * @param filesScanned
+	 * @param directoriesSkipped the number of directories that the scan index showed to be unchanged
+	 */
+	public synchronized void recordScan(String serverName, long nanos, long filesScanned, long directoriesSkipped) {
+		ServerMetrics server = getServer(serverName);
+		server.scanNanos = nanos;
+		server.filesScanned = filesScanned;
+		server.directoriesSkipped = directoriesSkipped;
+	}
+	
+	/**
+	 * Records the time spent copying a server while it was not saving.
+	 * 
+	 * @param serverName
+	 * @param nanos
+	 */
+	public synchronized void recordStage(String serverName, long nanos) {
+		getServer(serverName).stageNanos = nanos;
+	}
+	
+	/**
+	 * Records what was read and written by a backup.
+	 * 
+	 * @param serverName
+	 * @param mode
+	 * @param filesArchived
+	 * @param bytesRead the size of the files that were read
+	 * @param bytesWritten the size of the archive, or of the new chunks and the snapshot
+	 */
+	public synchronized void recordArchive(String serverName, String mode, long filesArchived, long bytesRead, long bytesWritten) {
+		ServerMetrics server = getServer(serverName);
+		server.mode = mode;
+		server.filesArchived = filesArchived;
+		server.bytesRead = bytesRead;
+		server.bytesWritten = bytesWritten;
+	}
+	
+	/**
+	 * Records how a backup ended.
+	 * 
+	 * @param serverName
+	 * @param status one of {@link #STATUS_SUCCEEDED}, {@link #STATUS_SKIPPED} or {@link #STATUS_FAILED}
+	 * @param nanos the time the whole backup took
+	 */
+	public synchronized void recordResult(String serverName, String status, long nanos) {
+		ServerMetrics server = getServer(serverName);
+		server.status = status;
+		server.backupNanos = nanos;
+		server.finishedTime = System.currentTimeMillis();
+		if (STATUS_FAILED.equals(status)) {
+			server.failures++;
+		}
+	}
+	
+	public synchronized void recordPrune(int backups, long bytes, int chunks) {
+		prunedBackups += backups;
+		prunedBytes += bytes;
+		prunedChunks += chunks;
+	}
+	
+	/**
+	 * @return the report as a JSON object
+	 */
+	public synchronized String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"startTime\": \"").append(Instant.ofEpochMilli(startTime)).append("\",\n");
+		json.append("  \"phases\": {");
+		String separator = "\n";
+		for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+			json.append(separator).append("    ").append(quote(phase.getKey())).append(": ").append(TimeUnit.NANOSECONDS.toMillis(phase.getValue()));
+			separator = ",\n";
+		}
+		json.append(phaseNanos.isEmpty() ? "},\n" : "\n  },\n");
+		json.append("  \"servers\": [");
+		separator = "\n";
+		for (ServerMetrics server : servers.values()) {
+			json.append(separator).append("    {");
+			json.append("\"name\": ").append(quote(server.name));
+			json.append(", \"status\": ").append(server.status == null ? "null" : quote(server.status));
+			json.append(", \"mode\": ").append(server.mode == null ? "null" : quote(server.mode));
+			json.append(", \"scanMillis\": ").append(TimeUnit.NANOSECONDS.toMillis(server.scanNanos));
+			json.append(", \"filesScanned\": ").append(server.filesScanned);
+			json.append(", \"directoriesSkipped\": ").append(server.directoriesSkipped);
+			json.append(", \"stageMillis\": ").append(TimeUnit.NANOSECONDS.toMillis(server.stageNanos));
+			json.append(", \"backupMillis\": ").append(TimeUnit.NANOSECONDS.toMillis(server.backupNanos));
+			json.append(", \"filesArchived\": ").append(server.filesArchived);
+			json.append(", \"bytesRead\": ").append(server.bytesRead);
+			json.append(", \"bytesWritten\": ").append(server.bytesWritten);
+			json.append(", \"compressionRatio\": ").append(formatDouble(server.getCompressionRatio()));
+			json.append(", \"failures\": ").append(server.failures);
+			json.append("}");
+			separator = ",\n";
+		}
+		json.append(servers.isEmpty() ? "],\n" : "\n  ],\n");
+		json.append("  \"pruning\": {\"backupsDeleted\": ").append(prunedBackups).append(", \"bytesFreed\": ").append(prunedBytes).append(", \"chunksDeleted\": ").append(prunedChunks).append("}\n");
+		json.append("}\n");
+		return json.toString();
+	}
+	
+	/**
+	 * @return the report in the Prometheus text exposition format
+	 */
+	public synchronized String toPrometheus() {
+		StringBuilder text = new StringBuilder();
+		gauge(text, "start_time_seconds", "When the run or daemon started.");
+		text.append(PROMETHEUS_PREFIX).append("start_time_seconds ").append(formatDouble(startTime / 1000.0)).append('\n');
+		
+		gauge(text, "phase_duration_seconds", "Time spent in each phase.");
+		for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+			sample(text, "phase_duration_seconds", "phase", phase.getKey(), phase.getValue() / 1e9);
+		}
+		
+		gauge(text, "server_scan_duration_seconds", "Time spent scanning each server for changes.");
+		servers.values().forEach(server -> sample(text, "server_scan_duration_seconds", "server", server.name, server.scanNanos / 1e9));
+		gauge(text, "server_files_scanned", "Files checked by the last scan of each server.");
+		servers.values().forEach(server -> sample(text, "server_files_scanned", "server", server.name, server.filesScanned));
+		gauge(text, "server_stage_duration_seconds", "Time saving was paused while each server was copied.");
+		servers.values().forEach(server -> sample(text, "server_stage_duration_seconds", "server", server.name, server.stageNanos / 1e9));
+		gauge(text, "server_backup_duration_seconds", "Time spent on the last backup of each server.");
+		servers.values().forEach(server -> sample(text, "server_backup_duration_seconds", "server", server.name, server.backupNanos / 1e9));
+		gauge(text, "server_files_archived", "Files stored by the last backup of each server.");
+		servers.values().forEach(server -> sample(text, "server_files_archived", "server", server.name, server.filesArchived));
+		gauge(text, "server_read_bytes", "Bytes read by the last backup of each server.");
+		servers.values().forEach(server -> sample(text, "server_read_bytes", "server", server.name, server.bytesRead));
+		gauge(text, "server_written_bytes", "Bytes written by the last backup of each server.");
+		servers.values().forEach(server -> sample(text, "server_written_bytes", "server", server.name, server.bytesWritten));
+		gauge(text, "server_compression_ratio", "Bytes written divided by bytes read by the last backup of each server.");
+		servers.values().forEach(server -> sample(text, "server_compression_ratio", "server", server.name, server.getCompressionRatio()));
+		gauge(text, "server_last_finished_seconds", "When the last backup of each server ended.");
+		servers.values().stream().filter(server -> server.finishedTime > 0).forEach(server -> sample(text, "server_last_finished_seconds", "server", server.name, server.finishedTime / 1000.0));
+		text.append("# HELP ").append(PROMETHEUS_PREFIX).append("server_failures_total Backups of each server that failed.\n");
+		text.append("# TYPE ").append(PROMETHEUS_PREFIX).append("server_failures_total counter\n");
+		servers.values().forEach(server -> sample(text, "server_failures_total", "server", server.name, server.failures));
+		
+		gauge(text, "pruned_backups", "Backups deleted by pruning.");
+		text.append(PROMETHEUS_PREFIX).append("pruned_backups ").append(prunedBackups).append('\n');
+		gauge(text, "pruned_bytes", "Bytes of archives deleted by pruning.");
+		text.append(PROMETHEUS_PREFIX).append("pruned_bytes ").append(prunedBytes).append('\n');
+		gauge(text, "pruned_chunks", "Unused chunks deleted by pruning.");
+		text.append(PROMETHEUS_PREFIX).append("pruned_chunks ").append(prunedChunks).append('\n');
+		return text.toString();
+	}
+	
+	/**
+	 * Writes a report to a file, replacing the previous report in a single step so readers never see half of one.
+	 * 
+	 * @param file
+	 * @param report
+	 * @throws IOException
+	 */
+	public static void write(File file, String report) throws IOException {
+		File temporaryFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+			writer.write(report);
+		}
+		try {
+			Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Serves the report on the loopback interface, in the Prometheus format at /metrics and as JSON at /metrics.json.
+	 * 
+	 * @param port the port to listen on, or 0 for any free port
+	 * @return the started server, to be stopped by the caller
+	 * @throws IOException
+	 */
+	public HttpServer startHttpServer(int port) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", exchange -> {
+			if ("/metrics.json".equals(exchange.getRequestURI().getPath())) {
+				respond(exchange, "application/json", toJson());
+			} else if ("/metrics".equals(exchange.getRequestURI().getPath())) {
+				respond(exchange, "text/plain; version=0.0.4", toPrometheus());
+			} else {
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+			}
+		});
+		server.setExecutor(null);
+		server.start();
+		return server;
+	}
+	
+	/**
+	 * @param serverName
+	 * @return a copy of the figures recorded for a server, or null if there are none
+	 */
+	public synchronized ServerMetrics getServerMetrics(String serverName) {
+		ServerMetrics server = servers.get(serverName);
+		return server == null ? null : server.copy();
+	}
+	
+	private ServerMetrics getServer(String serverName) {
+		return servers.computeIfAbsent(serverName, ServerMetrics::new);
+	}
+	
+	private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+	
+	private static void gauge(StringBuilder text, String name, String help) {
+		text.append("# HELP ").append(PROMETHEUS_PREFIX).append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(PROMETHEUS_PREFIX).append(name).append(" gauge\n");
+	}
+	
+	private static void sample(StringBuilder text, String name, String label, String labelValue, double value) {
+		String escaped = labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+		text.append(PROMETHEUS_PREFIX).append(name).append('{').append(label).append("=\"").append(escaped).append("\"} ").append(formatDouble(value)).append('\n');
+	}
+	
+	private static String formatDouble(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return String.format(Locale.ROOT, "%.6f", value);
+	}
+	
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+	
+	/**
+	 * The figures recorded for a single server.
+	 */
+	public static class ServerMetrics {
+		
+		protected final String name;
+		protected String status;
+		protected String mode;
+		protected long scanNanos;
+		protected long filesScanned;
+		protected long directoriesSkipped;
+		protected long stageNanos;
+		protected long backupNanos;
+		protected long filesArchived;
+		protected long bytesRead;
+		protected long bytesWritten;
+		protected long finishedTime;
+		protected int failures;
+		
+		public ServerMetrics(String name) {
+			this.name = name;
+		}
+		
+		/**
+		 * @return the bytes written divided by the bytes read, or 0 if nothing was read
+		 */
+		public double getCompressionRatio() {
+			return bytesRead == 0 ? 0.0 : (double) bytesWritten / bytesRead;
+		}
+		
+		public String getStatus() {
+			return status;
+		}
+		
+		public long getFilesArchived() {
+			return filesArchived;
+		}
+		
+		public long getBytesRead() {
+			return bytesRead;
+		}
+		
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+		
+		private ServerMetrics copy() {
+			ServerMetrics copy = new ServerMetrics(name);
+			copy.status = status;
+			copy.mode = mode;
+			copy.scanNanos = scanNanos;
+			copy.filesScanned = filesScanned;
+			copy.directoriesSkipped = directoriesSkipped;
+			copy.stageNanos = stageNanos;
+			copy.backupNanos = backupNanos;
+			copy.filesArchived = filesArchived;
+			copy.bytesRead = bytesRead;
+			copy.bytesWritten = bytesWritten;
+			copy.finishedTime = finishedTime;
+			copy.failures = failures;
+			return copy;
+		}
+	}
+	
+}
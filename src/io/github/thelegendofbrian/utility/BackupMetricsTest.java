@@ -0,0 +1,164 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.sun.net.httpserver.HttpServer;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class BackupMetricsTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-metrics");
+	
+	private BackupMetrics metrics;
+	
+	@Before
+	public void setUp() {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		metrics = new BackupMetrics();
+		metrics.recordPhase("scan", TimeUnit.MILLISECONDS.toNanos(1500));
+		metrics.recordScan("Vanilla", TimeUnit.MILLISECONDS.toNanos(250), 120, 3);
+		metrics.recordArchive("Vanilla", BackupUtilityApplication.MODE_FULL, 100, 4000, 1000);
+		metrics.recordResult("Vanilla", BackupMetrics.STATUS_SUCCEEDED, TimeUnit.SECONDS.toNanos(2));
+		metrics.recordResult("Modded \"1\"", BackupMetrics.STATUS_FAILED, 0L);
+		metrics.recordPrune(2, 5000, 7);
+	}
+	
+	@After
+	public void tearDown() {
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * recordResult()
+	 */
+	
+	@Test
+	public void testCompressionRatio() {
+		BackupMetrics.ServerMetrics server = metrics.getServerMetrics("Vanilla");
+		
+		assertEquals(BackupMetrics.STATUS_SUCCEEDED, server.getStatus());
+		assertEquals(0.25, server.getCompressionRatio(), 0.0);
+		assertEquals(0.0, metrics.getServerMetrics("Modded \"1\"").getCompressionRatio(), 0.0);
+	}
+	
+	/*
+	 * toJson()
+	 */
+	
+	@Test
+	public void testToJson() {
+		String json = metrics.toJson();
+		
+		assertTrue(json.contains("\"scan\": 1500"));
+		assertTrue(json.contains("{\"name\": \"Modded \\\"1\\\"\", \"status\": \"failed\", \"mode\": null"));
+		assertTrue(json.contains("\"name\": \"Vanilla\", \"status\": \"succeeded\", \"mode\": \"full\", \"scanMillis\": 250, \"filesScanned\": 120"));
+		assertTrue(json.contains("\"backupMillis\": 2000, \"filesArchived\": 100, \"bytesRead\": 4000, \"bytesWritten\": 1000, \"compressionRatio\": 0.250000, \"failures\": 0"));
+		assertTrue(json.contains("\"pruning\": {\"backupsDeleted\": 2, \"bytesFreed\": 5000, \"chunksDeleted\": 7}"));
+	}
+	
+	/*
+	 * toPrometheus()
+	 */
+	
+	@Test
+	public void testToPrometheus() {
+		String text = metrics.toPrometheus();
+		
+		assertTrue(text.contains("# TYPE mcbackup_phase_duration_seconds gauge\n"));
+		assertTrue(text.contains("mcbackup_phase_duration_seconds{phase=\"scan\"} 1.500000\n"));
+		assertTrue(text.contains("mcbackup_server_written_bytes{server=\"Vanilla\"} 1000\n"));
+		assertTrue(text.contains("mcbackup_server_failures_total{server=\"Modded \\\"1\\\"\"} 1\n"));
+		assertTrue(text.contains("mcbackup_pruned_chunks 7\n"));
+	}
+	
+	/*
+	 * write()
+	 */
+	
+	@Test
+	public void testWriteReplacesReport() throws IOException {
+		File report = new File(tempDirectory, "metrics.json");
+		BackupMetrics.write(report, "old");
+		BackupMetrics.write(report, metrics.toJson());
+		
+		assertEquals(metrics.toJson(), new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8));
+		assertFalse(new File(tempDirectory, "metrics.json.tmp").exists());
+	}
+	
+	/*
+	 * startHttpServer()
+	 */
+	
+	@Test
+	public void testHttpServer() throws IOException {
+		HttpServer server = metrics.startHttpServer(0);
+		try {
+			String base = "http://127.0.0.1:" + server.getAddress().getPort();
+			assertEquals(metrics.toPrometheus(), get(base + "/metrics"));
+			assertEquals(metrics.toJson(), get(base + "/metrics.json"));
+			
+			HttpURLConnection connection = (HttpURLConnection) new URL(base + "/metrics/other").openConnection();
+			assertEquals(404, connection.getResponseCode());
+			connection.disconnect();
+		} finally {
+			server.stop(0);
+		}
+	}
+	
+	private static String get(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			assertEquals(200, connection.getResponseCode());
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				body.write(buffer, 0, read);
+			}
+			return new String(body.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			connection.disconnect();
+		}
+	}
+	
+}
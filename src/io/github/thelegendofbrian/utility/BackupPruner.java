@@ -0,0 +1,308 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+/**
+ * Deletes the backups of a server that are no longer needed. The most recent backups are always kept, and so is the
+ * most recent backup of each of the last few hours, days and weeks that have backups. A kept incremental backup also
+ * keeps every backup it builds on, so it can still be restored.
+ * <p>
+ * Each backup folder is listed and each backup name parsed only once, and the backups are sorted only once, so
+ * pruning stays fast for folders holding thousands of backups.
+ */
+public class BackupPruner {
+	
+	private static final long HOUR = 60 * 60 * 1000L;
+	private static final long DAY = 24 * HOUR;
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("main");
+	
+	private final int keepLast;
+	private final int keepHourly;
+	private final int keepDaily;
+	private final int keepWeekly;
+	private BackupTarget target = new LocalBackupTarget();
+	
+	/**
+	 * @param keepLast the number of most recent backups that are always kept
+	 * @param keepHourly the number of hours, starting with the most recent hour that has a backup, to keep a backup of
+	 * @param keepDaily the number of days to keep a backup of
+	 * @param keepWeekly the number of weeks to keep a backup of
+	 */
+	public BackupPruner(int keepLast, int keepHourly, int keepDaily, int keepWeekly) {
+		this.keepLast = keepLast;
+		this.keepHourly = keepHourly;
+		this.keepDaily = keepDaily;
+		this.keepWeekly = keepWeekly;
+	}
+	
+	/**
+	 * Sets where the archives of backups are stored, so that archives stored elsewhere are deleted with their backups.
+	 * 
+	 * @param target
+	 */
+	public void setTarget(BackupTarget target) {
+		this.target = target;
+	}
+	
+	/**
+	 * Deletes the backups of backupFolder that are not kept, together with their manifests.
+	 * 
+	 * @param backupFolder the folder holding the backups of a single server
+	 * @return what was deleted
+	 * @throws IOException
+	 */
+	public Result prune(File backupFolder) throws IOException {
+		return prune(backupFolder, null);
+	}
+	
+	/**
+	 * Deletes the backups of backupFolder that are not kept, together with their manifests and checksums, and removes them from the
+	 * folder's catalog.
+	 * 
+	 * @param backupFolder the folder holding the backups of a single server
+	 * @param catalog the catalog of backupFolder, or null
+	 * @return what was deleted
+	 * @throws IOException
+	 */
+	public Result prune(File backupFolder, BackupCatalog catalog) throws IOException {
+		Result result = new Result();
+		for (File backup : selectBackupsToPrune(backupFolder)) {
+			long size;
+			
+			// A manifest or checksums without their archive are ignored, so the archive is deleted first
+			if (LinkSnapshot.isLinkSnapshot(backup)) {
+				size = LinkSnapshot.delete(backup);
+			} else {
+				size = backup.length();
+				target.delete(backup);
+				Files.deleteIfExists(backup.toPath());
+			}
+			Files.deleteIfExists(BackupManifest.getManifestFile(backup).toPath());
+			Files.deleteIfExists(ArchiveChecksums.getChecksumsFile(backup).toPath());
+			if (catalog != null) {
+				catalog.remove(backup.getName());
+			}
+			result.deletedCount++;
+			result.bytesFreed += size;
+			if (ChunkSnapshot.isSnapshot(backup)) {
+				result.snapshotDeleted = true;
+			}
+			logger.fine("Pruned backup " + backup.getName());
+		}
+		return result;
+	}
+	
+	/**
+	 * Decides which backups of backupFolder are no longer needed.
+	 * 
+	 * @param backupFolder the folder holding the backups of a single server
+	 * @return the backups to delete, newest first
+	 * @throws IOException if the manifest of a kept backup cannot be read
+	 */
+	public List<File> selectBackupsToPrune(File backupFolder) throws IOException {
+		List<Backup> backups = listBackups(backupFolder);
+		boolean[] kept = new boolean[backups.size()];
+		
+		long lastHour = Long.MIN_VALUE;
+		long lastDay = Long.MIN_VALUE;
+		long lastWeek = Long.MIN_VALUE;
+		int hours = 0;
+		int days = 0;
+		int weeks = 0;
+		for (int i = 0; i < backups.size(); i++) {
+			long time = backups.get(i).time;
+			kept[i] = i < keepLast;
+			
+			// Backups are sorted newest first, so the first backup seen in each period is the most recent one
+			long hour = Math.floorDiv(time, HOUR);
+			if (hour != lastHour && hours < keepHourly) {
+				kept[i] = true;
+				hours++;
+			}
+			lastHour = hour;
+			
+			long day = Math.floorDiv(time, DAY);
+			if (day != lastDay && days < keepDaily) {
+				kept[i] = true;
+				days++;
+			}
+			lastDay = day;
+			
+			// The epoch started on a Thursday, so weeks are shifted to start on Mondays
+			long week = Math.floorDiv(day + 3, 7);
+			if (week != lastWeek && weeks < keepWeekly) {
+				kept[i] = true;
+				weeks++;
+			}
+			lastWeek = week;
+		}
+		
+		keepBaseBackups(backups, kept);
+		
+		List<File> toPrune = new ArrayList<>();
+		for (int i = 0; i < backups.size(); i++) {
+			if (!kept[i]) {
+				toPrune.add(backups.get(i).file);
+			}
+		}
+		return toPrune;
+	}
+	
+	/**
+	 * Deletes the chunks that are not used by any snapshot in backupFolders. If a snapshot cannot be read, no chunks are
+	 * deleted, since they may belong to that snapshot.
+	 * 
+	 * @param chunkDirectory
+	 * @param backupFolders the folders holding the backups of every server using the chunk store
+	 * @return the number of chunks deleted
+	 * @throws IOException
+	 */
+	public static int deleteUnusedChunks(File chunkDirectory, Collection<File> backupFolders) throws IOException {
+		if (!chunkDirectory.isDirectory()) {
+			return 0;
+		}
+		
+		Set<String> usedChunks = new HashSet<>();
+		for (File backupFolder : backupFolders) {
+			try (DirectoryStream<Path> backups = BackupCatalog.newBackupStream(backupFolder)) {
+				for (Path backup : backups) {
+					File snapshot = backup.toFile();
+					if (snapshot.isFile() && ChunkSnapshot.isSnapshot(snapshot)) {
+						usedChunks.addAll(ChunkSnapshot.load(snapshot).getChunks());
+					}
+				}
+			}
+		}
+		
+		int deleted = 0;
+		try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(chunkDirectory.toPath())) {
+			for (Path prefix : prefixes) {
+				if (!Files.isDirectory(prefix)) {
+					continue;
+				}
+				try (DirectoryStream<Path> chunks = Files.newDirectoryStream(prefix)) {
+					for (Path chunk : chunks) {
+						String name = chunk.getFileName().toString();
+						// Temporary files may belong to a backup that is still running
+						if (!name.endsWith(".tmp") && !usedChunks.contains(name)) {
+							Files.deleteIfExists(chunk);
+							deleted++;
+						}
+					}
+				}
+			}
+		}
+		return deleted;
+	}
+	
+	/**
+	 * Lists the backups in a folder, skipping hidden files and files without a time stamp in their name.
+	 * 
+	 * @return the backups, newest first
+	 */
+	private static List<Backup> listBackups(File backupFolder) throws IOException {
+		List<Backup> backups = new ArrayList<>();
+		try (DirectoryStream<Path> paths = BackupCatalog.newBackupStream(backupFolder)) {
+			for (Path path : paths) {
+				// Backups whose names have no valid time stamp are logged and never pruned
+				File file = path.toFile();
+				Instant timeStamp = BackupUtilityApplication.getBackupTimeStamp(file);
+				if (timeStamp != null) {
+					backups.add(new Backup(file, timeStamp.toEpochMilli()));
+				}
+			}
+		}
+		backups.sort((a, b) -> a.time != b.time ? Long.compare(b.time, a.time) : b.file.getName().compareTo(a.file.getName()));
+		return backups;
+	}
+	
+	/**
+	 * Marks every backup that a kept incremental backup builds on as kept.
+	 */
+	private static void keepBaseBackups(List<Backup> backups, boolean[] kept) throws IOException {
+		Map<String, Integer> indexByName = new HashMap<>();
+		for (int i = 0; i < backups.size(); i++) {
+			indexByName.put(backups.get(i).file.getName(), i);
+		}
+		
+		// Bases are older than the backups built on them, so one pass from newest to oldest reaches every chain
+		for (int i = 0; i < backups.size(); i++) {
+			File backup = backups.get(i).file;
+			String name = S3BackupTarget.isRemote(backup) ? backup.getName().substring(0, backup.getName().length() - S3BackupTarget.REMOTE_EXTENSION.length()) : backup.getName();
+			if (!kept[i] || !name.endsWith(BackupUtilityApplication.INCREMENTAL_EXTENSION)) {
+				continue;
+			}
+			String base;
+			try {
+				base = BackupManifest.loadBase(backup);
+			} catch (IOException e) {
+				// Without its manifest the chain of the backup is unknown, so nothing older is pruned
+				logger.log(Level.WARNING, "Unable to read the manifest of " + backup.getName() + ", keeping all older backups: ", e);
+				for (int j = i; j < kept.length; j++) {
+					kept[j] = true;
+				}
+				return;
+			}
+			Integer baseIndex = indexByName.get(base);
+			if (baseIndex != null) {
+				kept[baseIndex] = true;
+			}
+		}
+	}
+	
+	/**
+	 * What was deleted from a single backup folder.
+	 */
+	public static class Result {
+		
+		protected int deletedCount;
+		protected long bytesFreed;
+		protected boolean snapshotDeleted;
+		
+		public int getDeletedCount() {
+			return deletedCount;
+		}
+		
+		public long getBytesFreed() {
+			return bytesFreed;
+		}
+		
+		/**
+		 * @return true if a snapshot was deleted, so its chunks may no longer be used
+		 */
+		public boolean isSnapshotDeleted() {
+			return snapshotDeleted;
+		}
+	}
+	
+	/**
+	 * A backup and the time in its name.
+	 */
+	private static class Backup {
+		
+		final File file;
+		final long time;
+		
+		Backup(File file, long time) {
+			this.file = file;
+			this.time = time;
+		}
+	}
+	
+}
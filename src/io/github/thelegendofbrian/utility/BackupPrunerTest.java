@@ -0,0 +1,200 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class BackupPrunerTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-pruner");
+	
+	private static final long START = 1577836800000L;
+	private static final long MINUTE = 60 * 1000L;
+	private static final long HOUR = 60 * MINUTE;
+	
+	private File backupFolder;
+	
+	@Before
+	public void setUp() {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		backupFolder = new File(tempDirectory, "Vanilla");
+		backupFolder.mkdir();
+	}
+	
+	@After
+	public void tearDown() {
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * selectBackupsToPrune()
+	 */
+	
+	@Test
+	public void testKeepLast() throws IOException {
+		for (int i = 0; i < 10; i++) {
+			createBackup(START + i * MINUTE, BackupUtilityApplication.FULL_EXTENSION);
+		}
+		
+		List<File> toPrune = new BackupPruner(3, 0, 0, 0).selectBackupsToPrune(backupFolder);
+		
+		assertEquals(7, toPrune.size());
+		assertEquals(backupName(START + 6 * MINUTE, BackupUtilityApplication.FULL_EXTENSION), toPrune.get(0).getName());
+	}
+	
+	@Test
+	public void testKeepHourly() throws IOException {
+		for (int i = 0; i < 48 * 4; i++) {
+			createBackup(START + i * 15 * MINUTE, BackupUtilityApplication.FULL_EXTENSION);
+		}
+		
+		List<File> toPrune = new BackupPruner(1, 24, 0, 0).selectBackupsToPrune(backupFolder);
+		
+		// The most recent backup of each of the last 24 hours is kept
+		assertEquals(48 * 4 - 24, toPrune.size());
+		assertFalse(toPrune.contains(new File(backupFolder, backupName(START + 47 * HOUR + 45 * MINUTE, BackupUtilityApplication.FULL_EXTENSION))));
+		assertTrue(toPrune.contains(new File(backupFolder, backupName(START + 47 * HOUR + 30 * MINUTE, BackupUtilityApplication.FULL_EXTENSION))));
+	}
+	
+	@Test
+	public void testKeepDailyAndWeekly() throws IOException {
+		for (int i = 0; i < 10 * 7 * 4; i++) {
+			createBackup(START + i * 6 * HOUR, BackupUtilityApplication.FULL_EXTENSION);
+		}
+		
+		List<File> toPrune = new BackupPruner(1, 0, 7, 4).selectBackupsToPrune(backupFolder);
+		
+		// The last backup is on a Tuesday, so the 7 daily backups also cover the last 2 weeks, leaving 2 older weeks
+		assertEquals(10 * 7 * 4 - 9, toPrune.size());
+	}
+	
+	@Test
+	public void testKeepBaseBackups() throws IOException {
+		File full0 = createChainedBackup(START, "");
+		File incremental1 = createChainedBackup(START + HOUR, full0.getName());
+		createChainedBackup(START + 2 * HOUR, incremental1.getName());
+		File full3 = createChainedBackup(START + 3 * HOUR, "");
+		File incremental4 = createChainedBackup(START + 4 * HOUR, full3.getName());
+		
+		List<File> toPrune = new BackupPruner(1, 0, 0, 0).selectBackupsToPrune(backupFolder);
+		assertEquals(3, toPrune.size());
+		assertFalse(toPrune.contains(full3));
+		assertFalse(toPrune.contains(incremental4));
+		
+		new BackupPruner(1, 0, 0, 0).prune(backupFolder);
+		assertFalse(full0.exists());
+		assertFalse(BackupManifest.getManifestFile(full0).exists());
+		assertTrue(BackupManifest.getManifestFile(full3).exists());
+	}
+	
+	@Test
+	public void testKeepWholeChainOfLatestBackup() throws IOException {
+		File full0 = createChainedBackup(START, "");
+		File incremental1 = createChainedBackup(START + HOUR, full0.getName());
+		createChainedBackup(START + 2 * HOUR, incremental1.getName());
+		
+		assertTrue(new BackupPruner(1, 0, 0, 0).selectBackupsToPrune(backupFolder).isEmpty());
+	}
+	
+	@Test
+	public void testIgnoreOtherFiles() throws IOException {
+		createBackup(START, BackupUtilityApplication.FULL_EXTENSION);
+		createBackup(START + HOUR, BackupUtilityApplication.FULL_EXTENSION);
+		new File(backupFolder, "notes.txt").createNewFile();
+		new File(backupFolder, ".Vanilla.partial").createNewFile();
+		
+		List<File> toPrune = new BackupPruner(1, 0, 0, 0).selectBackupsToPrune(backupFolder);
+		
+		assertEquals(Collections.singletonList(new File(backupFolder, backupName(START, BackupUtilityApplication.FULL_EXTENSION))), toPrune);
+	}
+	
+	/*
+	 * deleteUnusedChunks()
+	 */
+	
+	@Test
+	public void testDeleteUnusedChunks() throws IOException {
+		File serverFolder = new File(tempDirectory, "server");
+		serverFolder.mkdir();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		ChunkStore store = new ChunkStore(ChunkStore.getDirectory(tempDirectory), executor, 1, Deflater.DEFAULT_COMPRESSION);
+		try {
+			Files.write(new File(serverFolder, "kept.txt").toPath(), "kept".getBytes(StandardCharsets.UTF_8));
+			Files.write(new File(serverFolder, "removed.txt").toPath(), "removed".getBytes(StandardCharsets.UTF_8));
+			File oldSnapshot = new File(backupFolder, backupName(START, ChunkSnapshot.EXTENSION));
+			store.backup(serverFolder, oldSnapshot, null);
+			
+			new File(serverFolder, "removed.txt").delete();
+			store.backup(serverFolder, new File(backupFolder, backupName(START + HOUR, ChunkSnapshot.EXTENSION)), null);
+			String removedChunk = ChunkSnapshot.load(oldSnapshot).getFile("removed.txt").getChunks().get(0);
+			String keptChunk = ChunkSnapshot.load(oldSnapshot).getFile("kept.txt").getChunks().get(0);
+			
+			BackupPruner.Result result = new BackupPruner(1, 0, 0, 0).prune(backupFolder);
+			assertTrue(result.isSnapshotDeleted());
+			
+			assertEquals(1, BackupPruner.deleteUnusedChunks(store.getDirectory(), Collections.singletonList(backupFolder)));
+			assertFalse(store.getChunkFile(removedChunk).exists());
+			assertTrue(store.getChunkFile(keptChunk).exists());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	private File createBackup(long time, String extension) throws IOException {
+		File backup = new File(backupFolder, backupName(time, extension));
+		backup.createNewFile();
+		return backup;
+	}
+	
+	private File createChainedBackup(long time, String base) throws IOException {
+		File backup = createBackup(time, base.isEmpty() ? BackupUtilityApplication.FULL_EXTENSION : BackupUtilityApplication.INCREMENTAL_EXTENSION);
+		new BackupManifest(base.isEmpty(), 0, base).save(backup);
+		return backup;
+	}
+	
+	private static String backupName(long time, String extension) {
+		return "Vanilla_" + BackupUtilityApplication.formatBackupTimeStamp(Instant.ofEpochMilli(time)) + extension;
+	}
+	
+}
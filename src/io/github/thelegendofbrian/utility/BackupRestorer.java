@@ -0,0 +1,517 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+/**
+ * Restores a server folder as it was at the time of a backup. A full backup is extracted as is. An incremental backup
+ * is reassembled from the chain of backups it builds on: every file listed in its manifest is extracted from the most
+ * recent backup in the chain that stores it, so each file is only extracted once. A region file stored as a
+ * {@link RegionFile} delta is rebuilt from the version of it in the older backups of the chain. A snapshot is restored
+ * from the chunk store next to the backup folder, and a link snapshot by copying its files, never linking them, so the
+ * restored server cannot change the files of its backups.
+ */
+public class BackupRestorer {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("main");
+	
+	private BackupRestorer() {
+	}
+	
+	/**
+	 * Restores the most recent backup made at or before pointInTime into targetFolder.
+	 * 
+	 * @param backupFolder the folder holding the backups of a single server
+	 * @param pointInTime the latest backup time to restore, or null to restore the latest backup
+	 * @param targetFolder a folder that does not exist yet or is empty
+	 * @return the backup that was restored
+	 * @throws IOException if no backup could be found, the chain of backups is incomplete, or extracting fails
+	 */
+	public static File restore(File backupFolder, Instant pointInTime, File targetFolder) throws IOException {
+		return restore(backupFolder, pointInTime, targetFolder, Collections.emptyList());
+	}
+	
+	/**
+	 * Restores the files matching any of selection from the most recent backup made at or before pointInTime into
+	 * targetFolder. Only the central directory of each archive is read to find the selected files, which are then read
+	 * directly, so restoring a single file from a large archive does not decompress the rest of it. Selected files are
+	 * restored next to the files already in targetFolder, but never replace them.
+	 * 
+	 * @param backupFolder the folder holding the backups of a single server
+	 * @param pointInTime the latest backup time to restore, or null to restore the latest backup
+	 * @param targetFolder a folder that does not exist yet or is empty, unless selection is not empty
+	 * @param selection the files to restore, or an empty list to restore the whole backup
+	 * @return the backup that was restored
+	 * @throws IOException if no backup could be found, no file matches selection, the chain of backups is incomplete,
+	 *             or extracting fails
+	 */
+	public static File restore(File backupFolder, Instant pointInTime, File targetFolder, List<PathGlob> selection) throws IOException {
+		return restore(backupFolder, pointInTime, targetFolder, selection, new LocalBackupTarget());
+	}
+	
+	/**
+	 * Restores the files matching any of selection from the most recent backup made at or before pointInTime into
+	 * targetFolder, fetching archives that are stored elsewhere from backupTarget.
+	 * 
+	 * @param backupFolder the folder holding the backups of a single server
+	 * @param pointInTime the latest backup time to restore, or null to restore the latest backup
+	 * @param targetFolder a folder that does not exist yet or is empty, unless selection is not empty
+	 * @param selection the files to restore, or an empty list to restore the whole backup
+	 * @param backupTarget where the archives of the backups are stored
+	 * @return the backup that was restored
+	 * @throws IOException if no backup could be found, no file matches selection, the chain of backups is incomplete,
+	 *             or extracting fails
+	 */
+	public static File restore(File backupFolder, Instant pointInTime, File targetFolder, List<PathGlob> selection, BackupTarget backupTarget) throws IOException {
+		File backup = findBackup(backupFolder, pointInTime);
+		if (backup == null) {
+			throw new IOException("No backup was found in " + backupFolder.getAbsolutePath() + (pointInTime == null ? "" : " at or before the given time") + ".");
+		}
+		logger.info("Restoring " + (selection.isEmpty() ? "" : selection + " from ") + "backup " + backup.getName() + " into " + targetFolder.getAbsolutePath());
+		
+		String[] existingFiles = targetFolder.list();
+		if (selection.isEmpty() && existingFiles != null && existingFiles.length > 0) {
+			throw new IOException("The restore folder " + targetFolder.getAbsolutePath() + " is not empty.");
+		}
+		Files.createDirectories(targetFolder.toPath());
+		Path targetRoot = targetFolder.toPath().toAbsolutePath().normalize();
+		
+		if (ChunkSnapshot.isSnapshot(backup)) {
+			restoreSnapshot(backup, targetRoot, selection);
+			return backup;
+		}
+		if (LinkSnapshot.isLinkSnapshot(backup)) {
+			restoreLinkSnapshot(backup, targetRoot, selection);
+			return backup;
+		}
+		if (!selection.isEmpty()) {
+			try (Chain chain = new Chain(resolveChain(backup), backupTarget)) {
+				restoreSelected(chain, backup, targetRoot, selection);
+			}
+			return backup;
+		}
+		
+		Map<Path, FileTime> directoryTimes = new LinkedHashMap<>();
+		Set<String> remaining;
+		try (Chain chain = new Chain(resolveChain(backup), backupTarget)) {
+			BackupManifest manifest = chain.getManifest(0);
+			remaining = manifest == null ? null : new HashSet<>(manifest.getEntries().keySet());
+			for (int i = 0; i < chain.size() && (remaining == null || !remaining.isEmpty()); i++) {
+				logger.fine("Extracting files from " + chain.getBackup(i).getName());
+				ZipFile zipFile = chain.getZipFile(i);
+				Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					Path target = resolveEntry(targetRoot, entry.getName());
+					if (entry.isDirectory()) {
+						// Only the restored backup knows which directories existed at its time
+						if (i == 0) {
+							Files.createDirectories(target);
+							directoryTimes.put(target, entry.getLastModifiedTime());
+						}
+					} else if (remaining == null || remaining.remove(entry.getName())) {
+						extractFile(chain, i, entry, target);
+						BackupManifest.Entry manifestEntry = manifest == null ? null : manifest.get(entry.getName());
+						Files.setLastModifiedTime(target, manifestEntry == null ? entry.getLastModifiedTime() : FileTime.fromMillis(manifestEntry.getModified()));
+					}
+				}
+			}
+		}
+		
+		if (remaining != null && !remaining.isEmpty()) {
+			throw new IOException(remaining.size() + " file(s) of backup " + backup.getName() + " could not be found in any backup it builds on, such as " + remaining.iterator().next());
+		}
+		
+		// Restoring files changes the modification times of their directories, so those are set last
+		for (Map.Entry<Path, FileTime> directory : directoryTimes.entrySet()) {
+			Files.setLastModifiedTime(directory.getKey(), directory.getValue());
+		}
+		return backup;
+	}
+	
+	/**
+	 * Restores the selected files of an archive, looking each of them up in the central directory of the archives of
+	 * its chain, newest first.
+	 */
+	private static void restoreSelected(Chain chain, File backup, Path targetRoot, List<PathGlob> selection) throws IOException {
+		BackupManifest manifest = chain.getManifest(0);
+		
+		// The manifest lists every file of an incremental backup, a full backup lists them itself
+		Set<String> remaining = new LinkedHashSet<>();
+		if (manifest != null) {
+			for (String name : manifest.getEntries().keySet()) {
+				if (isSelected(name, selection)) {
+					remaining.add(name);
+				}
+			}
+		} else {
+			Enumeration<? extends ZipEntry> entries = chain.getZipFile(0).entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (!entry.isDirectory() && isSelected(entry.getName(), selection)) {
+					remaining.add(entry.getName());
+				}
+			}
+		}
+		if (remaining.isEmpty()) {
+			throw new IOException("No file of backup " + backup.getName() + " matches " + selection + ".");
+		}
+		int selected = remaining.size();
+		
+		for (int i = 0; i < chain.size() && !remaining.isEmpty(); i++) {
+			ZipFile zipFile = chain.getZipFile(i);
+			for (Iterator<String> names = remaining.iterator(); names.hasNext();) {
+				ZipEntry entry = zipFile.getEntry(names.next());
+				if (entry == null || entry.isDirectory()) {
+					continue;
+				}
+				Path target = resolveEntry(targetRoot, entry.getName());
+				extractFile(chain, i, entry, target);
+				BackupManifest.Entry manifestEntry = manifest == null ? null : manifest.get(entry.getName());
+				Files.setLastModifiedTime(target, manifestEntry == null ? entry.getLastModifiedTime() : FileTime.fromMillis(manifestEntry.getModified()));
+				names.remove();
+			}
+		}
+		
+		if (!remaining.isEmpty()) {
+			throw new IOException(remaining.size() + " file(s) of backup " + backup.getName() + " could not be found in any backup it builds on, such as " + remaining.iterator().next());
+		}
+		logger.info("Restored " + selected + " file(s).");
+	}
+	
+	/**
+	 * Restores a snapshot by putting the chunks of each of its files back together.
+	 */
+	private static void restoreSnapshot(File snapshotFile, Path targetRoot, List<PathGlob> selection) throws IOException {
+		ChunkSnapshot snapshot = ChunkSnapshot.load(snapshotFile);
+		ChunkStore store = new ChunkStore(ChunkStore.getDirectory(snapshotFile.getParentFile().getParentFile()), null, 1, Deflater.DEFAULT_COMPRESSION);
+		
+		if (selection.isEmpty()) {
+			for (String directory : snapshot.getDirectories().keySet()) {
+				Files.createDirectories(resolveEntry(targetRoot, directory));
+			}
+		}
+		int restored = 0;
+		for (Map.Entry<String, ChunkSnapshot.Entry> file : snapshot.getFiles().entrySet()) {
+			if (!isSelected(file.getKey(), selection)) {
+				continue;
+			}
+			Path target = resolveEntry(targetRoot, file.getKey());
+			Files.createDirectories(target.getParent());
+			if (!selection.isEmpty() && Files.exists(target)) {
+				throw new FileAlreadyExistsException(target.toString());
+			}
+			store.restoreFile(file.getValue(), target);
+			Files.setLastModifiedTime(target, FileTime.fromMillis(file.getValue().getModified()));
+			restored++;
+		}
+		if (!selection.isEmpty()) {
+			if (restored == 0) {
+				throw new IOException("No file of backup " + snapshotFile.getName() + " matches " + selection + ".");
+			}
+			logger.info("Restored " + restored + " file(s).");
+			return;
+		}
+		
+		// Restoring files changes the modification times of their directories, so those are set last
+		for (Map.Entry<String, Long> directory : snapshot.getDirectories().entrySet()) {
+			Files.setLastModifiedTime(resolveEntry(targetRoot, directory.getKey()), FileTime.fromMillis(directory.getValue()));
+		}
+	}
+	
+	/**
+	 * Restores a link snapshot by copying its files.
+	 */
+	private static void restoreLinkSnapshot(File snapshotFolder, Path targetRoot, List<PathGlob> selection) throws IOException {
+		Path source = snapshotFolder.toPath();
+		Map<Path, FileTime> directoryTimes = new LinkedHashMap<>();
+		int[] restored = new int[1];
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (selection.isEmpty()) {
+					Path target = resolveEntry(targetRoot, relativePath(dir));
+					Files.createDirectories(target);
+					directoryTimes.put(target, attrs.lastModifiedTime());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String name = relativePath(file);
+				if (!isSelected(name, selection)) {
+					return FileVisitResult.CONTINUE;
+				}
+				Path target = resolveEntry(targetRoot, name);
+				Files.createDirectories(target.getParent());
+				// Without REPLACE_EXISTING, a selected file never replaces a file already in the restore folder
+				Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+				restored[0]++;
+				return FileVisitResult.CONTINUE;
+			}
+			
+			private String relativePath(Path path) {
+				return source.relativize(path).toString().replace(File.separatorChar, '/');
+			}
+		});
+		if (!selection.isEmpty()) {
+			if (restored[0] == 0) {
+				throw new IOException("No file of backup " + snapshotFolder.getName() + " matches " + selection + ".");
+			}
+			logger.info("Restored " + restored[0] + " file(s).");
+			return;
+		}
+		
+		// Restoring files changes the modification times of their directories, so those are set last
+		for (Map.Entry<Path, FileTime> directory : directoryTimes.entrySet()) {
+			Files.setLastModifiedTime(directory.getKey(), directory.getValue());
+		}
+	}
+	
+	/**
+	 * @param entryName
+	 * @param selection
+	 * @return whether the file matches any pattern of selection, or true if selection is empty
+	 */
+	private static boolean isSelected(String entryName, List<PathGlob> selection) {
+		if (selection.isEmpty()) {
+			return true;
+		}
+		for (PathGlob glob : selection) {
+			if (glob.matches(entryName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Finds the most recent backup made at or before pointInTime.
+	 * 
+	 * @param backupFolder
+	 * @param pointInTime the latest backup time to consider, or null for the latest backup
+	 * @return the backup, or null if there is none
+	 */
+	public static File findBackup(File backupFolder, Instant pointInTime) {
+		if (pointInTime == null) {
+			return BackupUtilityApplication.getLatestBackup(backupFolder);
+		}
+		
+		// Only the best match so far is kept while the folder is read
+		File found = null;
+		try (DirectoryStream<Path> backups = BackupCatalog.newBackupStream(backupFolder)) {
+			for (Path path : backups) {
+				File backup = path.toFile();
+				Instant timeStamp = BackupUtilityApplication.getBackupTimeStamp(backup);
+				if (timeStamp != null && !timeStamp.isAfter(pointInTime) && (found == null || backup.compareTo(found) > 0)) {
+					found = backup;
+				}
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		return found;
+	}
+	
+	/**
+	 * Lists a backup followed by every backup it builds on, ending with a full backup.
+	 * 
+	 * @param backup
+	 * @return the chain of backups, newest first
+	 * @throws IOException if a backup in the chain is missing
+	 */
+	public static List<File> resolveChain(File backup) throws IOException {
+		List<File> chain = new ArrayList<>();
+		File current = backup;
+		while (true) {
+			if (!current.isFile()) {
+				throw new IOException("Backup " + current.getName() + " is needed to restore " + backup.getName() + " but does not exist.");
+			}
+			if (chain.contains(current)) {
+				throw new IOException("The backups that " + backup.getName() + " builds on refer to each other.");
+			}
+			chain.add(current);
+			
+			BackupManifest manifest = BackupManifest.load(current);
+			if (manifest == null || manifest.isFull()) {
+				return chain;
+			}
+			current = new File(current.getParentFile(), manifest.getBase());
+		}
+	}
+	
+	/**
+	 * Resolves the target path of an entry, refusing entries that would be extracted outside of the target folder.
+	 */
+	private static Path resolveEntry(Path targetRoot, String entryName) throws IOException {
+		Path target;
+		try {
+			target = targetRoot.resolve(entryName).normalize();
+		} catch (InvalidPathException e) {
+			throw new IOException("Unable to restore an entry whose name is not a valid path: " + entryName, e);
+		}
+		if (!target.startsWith(targetRoot)) {
+			throw new IOException("Refusing to restore an entry outside of the restore folder: " + entryName);
+		}
+		return target;
+	}
+	
+	/**
+	 * Extracts a file from the backup at index in chain, rebuilding it first if the backup holds a region file delta.
+	 */
+	private static void extractFile(Chain chain, int index, ZipEntry entry, Path target) throws IOException {
+		BackupManifest manifest = chain.getManifest(index);
+		BackupManifest.Entry stored = manifest == null ? null : manifest.get(entry.getName());
+		if (stored == null || !stored.isDelta()) {
+			extractEntry(chain.getZipFile(index), entry, target);
+			return;
+		}
+		Files.createDirectories(target.getParent());
+		Files.write(target, readFile(chain, index, entry.getName()), StandardOpenOption.CREATE_NEW);
+	}
+	
+	/**
+	 * Reads a file as it was at the time of the backup at index in chain, rebuilding region files stored as deltas from
+	 * the older backups of the chain.
+	 */
+	private static byte[] readFile(Chain chain, int index, String entryName) throws IOException {
+		for (int i = index; i < chain.size(); i++) {
+			ZipFile zipFile = chain.getZipFile(i);
+			ZipEntry entry = zipFile.getEntry(entryName);
+			if (entry == null || entry.isDirectory()) {
+				continue;
+			}
+			if (entry.getSize() > Integer.MAX_VALUE) {
+				throw new IOException("The file " + entryName + " in backup " + chain.getBackup(i).getName() + " is too large to be read at once.");
+			}
+			byte[] data = new byte[(int) entry.getSize()];
+			try (DataInputStream in = new DataInputStream(zipFile.getInputStream(entry))) {
+				in.readFully(data);
+			}
+			
+			BackupManifest manifest = chain.getManifest(i);
+			BackupManifest.Entry stored = manifest == null ? null : manifest.get(entryName);
+			if (stored == null || !stored.isDelta()) {
+				return data;
+			}
+			try {
+				return RegionFile.applyDelta(readFile(chain, i + 1, entryName), data, stored.getSize());
+			} catch (IOException e) {
+				throw new IOException("Unable to rebuild " + entryName + " from backup " + chain.getBackup(i).getName() + ": " + e.getMessage(), e);
+			}
+		}
+		throw new IOException("The region file " + entryName + " could not be found in the backups that " + chain.getBackup(index).getName() + " builds on.");
+	}
+	
+	/**
+	 * Extracts an entry, failing if the target already exists. A whole backup is only restored into an empty folder,
+	 * so only selected files can collide with files that were already there.
+	 */
+	private static void extractEntry(ZipFile zipFile, ZipEntry entry, Path target) throws IOException {
+		Files.createDirectories(target.getParent());
+		try (InputStream in = zipFile.getInputStream(entry)) {
+			Files.copy(in, target);
+		}
+	}
+	
+	/**
+	 * The backups of a chain, with their manifests and archives opened once when first needed. Archives stored elsewhere
+	 * are fetched into temporary files, which are deleted when the chain is closed.
+	 */
+	private static class Chain implements Closeable {
+		
+		private final List<File> backups;
+		private final BackupTarget target;
+		private final Map<Integer, BackupManifest> manifests = new HashMap<>();
+		private final Map<Integer, ZipFile> zipFiles = new HashMap<>();
+		private final List<File> temporaryFiles = new ArrayList<>();
+		
+		Chain(List<File> backups, BackupTarget target) {
+			this.backups = backups;
+			this.target = target;
+		}
+		
+		int size() {
+			return backups.size();
+		}
+		
+		File getBackup(int index) {
+			return backups.get(index);
+		}
+		
+		BackupManifest getManifest(int index) throws IOException {
+			if (!manifests.containsKey(index)) {
+				manifests.put(index, BackupManifest.load(backups.get(index)));
+			}
+			return manifests.get(index);
+		}
+		
+		ZipFile getZipFile(int index) throws IOException {
+			ZipFile zipFile = zipFiles.get(index);
+			if (zipFile == null) {
+				File archive = target.fetch(backups.get(index));
+				if (!archive.equals(backups.get(index))) {
+					temporaryFiles.add(archive);
+				}
+				zipFile = new ZipFile(archive);
+				zipFiles.put(index, zipFile);
+			}
+			return zipFile;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			IOException exception = null;
+			for (ZipFile zipFile : zipFiles.values()) {
+				try {
+					zipFile.close();
+				} catch (IOException e) {
+					exception = e;
+				}
+			}
+			for (File temporaryFile : temporaryFiles) {
+				try {
+					Files.deleteIfExists(temporaryFile.toPath());
+				} catch (IOException e) {
+					exception = e;
+				}
+			}
+			if (exception != null) {
+				throw exception;
+			}
+		}
+	}
+	
+}
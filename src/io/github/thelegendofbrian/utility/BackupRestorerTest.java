@@ -0,0 +1,353 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class BackupRestorerTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-restorer");
+	
+	private File serverFolder;
+	private File backupFolder;
+	private BackupUtilityApplication application;
+	
+	@Before
+	public void setUp() {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		serverFolder = new File(tempDirectory, "servers/Vanilla");
+		backupFolder = new File(tempDirectory, "backups/Vanilla");
+		serverFolder.mkdirs();
+		backupFolder.mkdirs();
+		
+		application = new BackupUtilityApplication();
+		application.backupMode = BackupUtilityApplication.MODE_INCREMENTAL;
+		application.fullBackupInterval = 3;
+		application.compressionThreads = 2;
+	}
+	
+	@After
+	public void tearDown() {
+		application.shutdownArchiver();
+		
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * backupSpecificServer() in incremental mode
+	 */
+	
+	@Test
+	public void testIncrementalBackupOnlyStoresChangedFiles() throws IOException {
+		writeServerFile("server.properties", "motd=1", 1000000000000L);
+		writeServerFile("world/level.dat", "level", 1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		writeServerFile("world/level.dat", "level changed", 1000000002000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		File latest = BackupUtilityApplication.getLatestBackup(backupFolder);
+		assertTrue(latest.getName().endsWith(BackupUtilityApplication.INCREMENTAL_EXTENSION));
+		
+		BackupManifest manifest = BackupManifest.load(latest);
+		assertFalse(manifest.isFull());
+		assertEquals(1, manifest.getSequence());
+		assertFalse(manifest.get("server.properties").isArchived());
+		assertTrue(manifest.get("world/level.dat").isArchived());
+	}
+	
+	@Test
+	public void testFullBackupInterval() throws IOException {
+		for (int i = 0; i < 4; i++) {
+			writeServerFile("world/level.dat", "level " + i, 1000000000000L + i * 1000L);
+			application.backupSpecificServer(serverFolder, backupFolder);
+		}
+		
+		String[] backups = backupFolder.list((dir, name) -> !name.startsWith("."));
+		Arrays.sort(backups);
+		assertEquals(4, backups.length);
+		assertFalse(backups[0].endsWith(BackupUtilityApplication.INCREMENTAL_EXTENSION));
+		assertTrue(backups[1].endsWith(BackupUtilityApplication.INCREMENTAL_EXTENSION));
+		assertTrue(backups[2].endsWith(BackupUtilityApplication.INCREMENTAL_EXTENSION));
+		assertFalse(backups[3].endsWith(BackupUtilityApplication.INCREMENTAL_EXTENSION));
+	}
+	
+	/*
+	 * restore()
+	 */
+	
+	@Test
+	public void testRestoreIncrementalChain() throws IOException {
+		writeServerFile("server.properties", "motd=1", 1000000000000L);
+		writeServerFile("world/level.dat", "level 1", 1000000001000L);
+		writeServerFile("world/region/r.0.0.mca", "region 1", 1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		writeServerFile("world/level.dat", "level 2", 1000000002000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		writeServerFile("world/region/r.0.0.mca", "region 3", 1000000003000L);
+		new File(serverFolder, "server.properties").delete();
+		serverFolder.setLastModified(1000000003000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		File restoreFolder = new File(tempDirectory, "restore");
+		BackupRestorer.restore(backupFolder, null, restoreFolder);
+		
+		assertFalse(new File(restoreFolder, "server.properties").exists());
+		assertFileContent("level 2", new File(restoreFolder, "world/level.dat"));
+		assertFileContent("region 3", new File(restoreFolder, "world/region/r.0.0.mca"));
+		assertEquals(1000000003000L, new File(restoreFolder, "world/region/r.0.0.mca").lastModified());
+	}
+	
+	@Test
+	public void testRestoreRegionDeltas() throws IOException {
+		application.regionDeltas = true;
+		byte[] region = RegionFileTest.createRegion(34);
+		for (int i = 0; i < 32; i++) {
+			RegionFileTest.putChunk(region, i, 2 + i, 1000000001, 3000, i);
+		}
+		writeServerFile("world/region/r.0.0.mca", region, 1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		RegionFileTest.putChunk(region, 5, 7, 1000000002, 2000, 105);
+		writeServerFile("world/region/r.0.0.mca", region, 1000000002000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		File secondBackup = BackupUtilityApplication.getLatestBackup(backupFolder);
+		byte[] secondRegion = region.clone();
+		
+		RegionFileTest.putChunk(region, 20, 22, 1000000003, 1000, 120);
+		writeServerFile("world/region/r.0.0.mca", region, 1000000003000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		File latest = BackupUtilityApplication.getLatestBackup(backupFolder);
+		assertTrue(BackupManifest.load(latest).get("world/region/r.0.0.mca").isDelta());
+		assertTrue(latest.length() < region.length / 4);
+		
+		File restoreFolder = new File(tempDirectory, "restore");
+		BackupRestorer.restore(backupFolder, null, restoreFolder);
+		assertArrayEquals(region, Files.readAllBytes(new File(restoreFolder, "world/region/r.0.0.mca").toPath()));
+		assertEquals(1000000003000L, new File(restoreFolder, "world/region/r.0.0.mca").lastModified());
+		
+		File selectedFolder = new File(tempDirectory, "selected");
+		BackupRestorer.restore(backupFolder, BackupUtilityApplication.getBackupTimeStamp(secondBackup), selectedFolder, Collections.singletonList(new PathGlob("world/region")));
+		assertArrayEquals(secondRegion, Files.readAllBytes(new File(selectedFolder, "world/region/r.0.0.mca").toPath()));
+	}
+	
+	@Test
+	public void testRestorePointInTime() throws IOException {
+		writeServerFile("world/level.dat", "level 1", 1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		File firstBackup = BackupUtilityApplication.getLatestBackup(backupFolder);
+		
+		writeServerFile("world/level.dat", "level 2", 1000000002000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		File restoreFolder = new File(tempDirectory, "restore");
+		File restored = BackupRestorer.restore(backupFolder, BackupUtilityApplication.getBackupTimeStamp(firstBackup), restoreFolder);
+		
+		assertEquals(firstBackup, restored);
+		assertFileContent("level 1", new File(restoreFolder, "world/level.dat"));
+	}
+	
+	@Test
+	public void testRestoreDeduplicatedSnapshot() throws IOException {
+		application.backupMode = BackupUtilityApplication.MODE_DEDUPLICATED;
+		String region = String.join("", Collections.nCopies(10000, "region data "));
+		writeServerFile("server.properties", "motd=1", 1000000000000L);
+		writeServerFile("world/region/r.0.0.mca", region, 1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		writeServerFile("world/level.dat", "level 2", 1000000002000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		File latest = BackupUtilityApplication.getLatestBackup(backupFolder);
+		assertTrue(ChunkSnapshot.isSnapshot(latest));
+		
+		File restoreFolder = new File(tempDirectory, "restore");
+		BackupRestorer.restore(backupFolder, null, restoreFolder);
+		
+		assertFileContent("motd=1", new File(restoreFolder, "server.properties"));
+		assertFileContent(region, new File(restoreFolder, "world/region/r.0.0.mca"));
+		assertFileContent("level 2", new File(restoreFolder, "world/level.dat"));
+		assertEquals(1000000001000L, new File(restoreFolder, "world/region/r.0.0.mca").lastModified());
+	}
+	
+	@Test
+	public void testRestoreLinkSnapshot() throws IOException {
+		application.backupMode = BackupUtilityApplication.MODE_LINK;
+		writeServerFile("server.properties", "motd=1", 1000000000000L);
+		writeServerFile("world/level.dat", "level 1", 1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		File firstSnapshot = BackupUtilityApplication.getLatestBackup(backupFolder);
+		
+		writeServerFile("world/level.dat", "level 2", 1000000002000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		File latest = BackupUtilityApplication.getLatestBackup(backupFolder);
+		assertTrue(LinkSnapshot.isLinkSnapshot(latest));
+		assertEquals("Vanilla_2001-09-09_01-46-42", latest.getName());
+		assertTrue(Files.isSameFile(new File(firstSnapshot, "server.properties").toPath(), new File(latest, "server.properties").toPath()));
+		
+		File restoreFolder = new File(tempDirectory, "restore");
+		BackupRestorer.restore(backupFolder, null, restoreFolder);
+		
+		assertFileContent("motd=1", new File(restoreFolder, "server.properties"));
+		assertFileContent("level 2", new File(restoreFolder, "world/level.dat"));
+		assertEquals(1000000002000L, new File(restoreFolder, "world/level.dat").lastModified());
+		assertFalse(Files.isSameFile(new File(latest, "server.properties").toPath(), new File(restoreFolder, "server.properties").toPath()));
+	}
+	
+	@Test
+	public void testRestoreSelectedFiles() throws IOException {
+		writeServerFile("server.properties", "motd=1", 1000000000000L);
+		writeServerFile("world/playerdata/a.dat", "player a 1", 1000000001000L);
+		writeServerFile("world/playerdata/b.dat", "player b 1", 1000000001000L);
+		writeServerFile("world/region/r.0.0.mca", "region 1", 1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		writeServerFile("world/playerdata/b.dat", "player b 2", 1000000002000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		File restoreFolder = new File(tempDirectory, "restore");
+		restoreFolder.mkdirs();
+		writeFile(new File(restoreFolder, "notes.txt"), "kept");
+		BackupRestorer.restore(backupFolder, null, restoreFolder, Arrays.asList(new PathGlob("world/playerdata/*.dat"), new PathGlob("server.properties")));
+		
+		assertFileContent("player a 1", new File(restoreFolder, "world/playerdata/a.dat"));
+		assertFileContent("player b 2", new File(restoreFolder, "world/playerdata/b.dat"));
+		assertFileContent("motd=1", new File(restoreFolder, "server.properties"));
+		assertFileContent("kept", new File(restoreFolder, "notes.txt"));
+		assertFalse(new File(restoreFolder, "world/region").exists());
+		assertEquals(1000000002000L, new File(restoreFolder, "world/playerdata/b.dat").lastModified());
+	}
+	
+	@Test
+	public void testRestoreSelectedFilesFromSnapshot() throws IOException {
+		application.backupMode = BackupUtilityApplication.MODE_DEDUPLICATED;
+		writeServerFile("server.properties", "motd=1", 1000000000000L);
+		writeServerFile("world/region/r.0.0.mca", "region 1", 1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		File restoreFolder = new File(tempDirectory, "restore");
+		BackupRestorer.restore(backupFolder, null, restoreFolder, Collections.singletonList(new PathGlob("world/region")));
+		
+		assertFileContent("region 1", new File(restoreFolder, "world/region/r.0.0.mca"));
+		assertFalse(new File(restoreFolder, "server.properties").exists());
+	}
+	
+	@Test(expected = IOException.class)
+	public void testRestoreSelectedFileDoesNotReplace() throws IOException {
+		writeServerFile("server.properties", "motd=1", 1000000000000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		File restoreFolder = new File(tempDirectory, "restore");
+		restoreFolder.mkdirs();
+		writeFile(new File(restoreFolder, "server.properties"), "motd=changed");
+		BackupRestorer.restore(backupFolder, null, restoreFolder, Collections.singletonList(new PathGlob("server.properties")));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testRestoreSelectionMatchesNothing() throws IOException {
+		writeServerFile("server.properties", "motd=1", 1000000000000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		BackupRestorer.restore(backupFolder, null, new File(tempDirectory, "restore"), Collections.singletonList(new PathGlob("world/*.dat")));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testRestoreBrokenChain() throws IOException {
+		writeServerFile("world/level.dat", "level 1", 1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		File firstBackup = BackupUtilityApplication.getLatestBackup(backupFolder);
+		
+		writeServerFile("world/level.dat", "level 2", 1000000002000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		firstBackup.delete();
+		
+		BackupRestorer.restore(backupFolder, null, new File(tempDirectory, "restore"));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testRestoreEntryWithInvalidName() throws IOException {
+		application.backupMode = BackupUtilityApplication.MODE_FULL;
+		writeServerFile("world/level.dat", "level 1", 1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		File backup = BackupUtilityApplication.getLatestBackup(backupFolder);
+		
+		// A name with a NUL character is a valid zip entry, but no valid path
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(backup))) {
+			out.putNextEntry(new ZipEntry("world/level\u0000.dat"));
+			out.write("level 1".getBytes(StandardCharsets.UTF_8));
+			out.closeEntry();
+		}
+		
+		BackupRestorer.restore(backupFolder, null, new File(tempDirectory, "restore"));
+	}
+	
+	private void writeServerFile(String path, String content, long modified) throws IOException {
+		writeServerFile(path, content.getBytes(StandardCharsets.UTF_8), modified);
+	}
+	
+	private void writeServerFile(String path, byte[] content, long modified) throws IOException {
+		File file = new File(serverFolder, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content);
+		file.setLastModified(modified);
+		
+		// Backups are named after the newest modification, which includes directories
+		for (File parent = file.getParentFile(); !parent.equals(serverFolder.getParentFile()); parent = parent.getParentFile()) {
+			parent.setLastModified(modified);
+		}
+	}
+	
+	private static void writeFile(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static void assertFileContent(String expected, File file) throws IOException {
+		assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file.toPath()));
+	}
+	
+}
@@ -0,0 +1,80 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Where the archives of backups are stored. Every backup is represented by a file in the local backup folder of its
+ * server, which the catalog, manifests and checksums refer to. That file is either the archive itself or a small
+ * reference to an archive stored elsewhere.
+ */
+public interface BackupTarget {
+	
+	/**
+	 * Starts writing a new archive of a server. The archive is not visible under any backup name until it is committed.
+	 * 
+	 * @param backupFolder the local backup folder of the server
+	 * @param serverName
+	 * @return
+	 * @throws IOException
+	 */
+	Upload begin(File backupFolder, String serverName) throws IOException;
+	
+	/**
+	 * Gets a local archive with the contents of a backup, downloading it if it is stored elsewhere.
+	 * 
+	 * @param backup a backup in a local backup folder
+	 * @return backup itself, or a temporary file that the caller deletes once it is done with it
+	 * @throws IOException
+	 */
+	File fetch(File backup) throws IOException;
+	
+	/**
+	 * Deletes the archive of a backup if it is stored elsewhere. The local file of the backup is left to the caller.
+	 * 
+	 * @param backup a backup in a local backup folder
+	 * @throws IOException
+	 */
+	void delete(File backup) throws IOException;
+	
+	/**
+	 * An archive that is being written.
+	 */
+	interface Upload {
+		
+		/**
+		 * @return the stream to write the archive to, which is closed by the writer before the upload is committed
+		 */
+		OutputStream getOutputStream();
+		
+		/**
+		 * @param archiveName the name of the archive, including its extension
+		 * @return the local file that will represent the backup once it is committed, next to which its manifest and
+		 *         checksums are saved
+		 */
+		File getBackupFile(String archiveName);
+		
+		/**
+		 * Makes the archive visible under its name.
+		 * 
+		 * @param archiveName the name of the archive, including its extension
+		 * @return the local file that represents the backup
+		 * @throws IOException
+		 */
+		File commit(String archiveName) throws IOException;
+		
+		/**
+		 * Discards an archive that could not be completed.
+		 */
+		void abort();
+		
+		/**
+		 * @return the journal of the partial archive, if the archive can be resumed after an interruption, or null
+		 */
+		default ArchiveJournal getJournal() {
+			return null;
+		}
+	}
+	
+}
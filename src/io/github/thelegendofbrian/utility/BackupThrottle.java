@@ -0,0 +1,235 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how fast backups read and write, so that a backup does not take the disk away from the servers running on the
+ * same machine. Every byte read from a server or written to a backup, by any backup thread, takes a token from a single
+ * bucket that is refilled at the configured rate and holds at most one second of tokens.
+ * <p>
+ * In adaptive mode the time each read takes is tracked as well. When reads suddenly take several times longer than
+ * usual, the disk is busy with something else, most likely a server saving its world, so the rate is halved. While
+ * reads stay fast the rate is raised again step by step, up to the configured rate or, without one, until the backup
+ * is no longer limited at all.
+ */
+public class BackupThrottle {
+	
+	/**
+	 * A throttle that never waits.
+	 */
+	public static final BackupThrottle UNLIMITED = new BackupThrottle(0L, false);
+	
+	// Reads shorter than this mostly measure opening a file, not how busy the disk is
+	protected static final int MIN_SAMPLE_SIZE = 64 * 1024;
+	protected static final int WARM_UP_SAMPLES = 8;
+	protected static final double SPIKE_FACTOR = 3.0;
+	protected static final long MIN_BYTES_PER_SECOND = 1024L * 1024L;
+	
+	private static final long ADJUST_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+	private static final double BASELINE_WEIGHT = 0.02;
+	private static final double RECENT_WEIGHT = 0.25;
+	
+	private final long maxBytesPerSecond;
+	private final boolean adaptive;
+	
+	// The rate currently enforced, which is below maxBytesPerSecond while adaptive mode is backing off
+	private double bytesPerSecond;
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+	
+	private double baselineNanosPerByte;
+	private double recentNanosPerByte;
+	private int samples;
+	private long lastAdjustment;
+	
+	/**
+	 * @param maxBytesPerSecond the most bytes to read and write per second, or 0 for no fixed limit
+	 * @param adaptive whether to slow down while reads take longer than usual
+	 */
+	public BackupThrottle(long maxBytesPerSecond, boolean adaptive) {
+		this.maxBytesPerSecond = Math.max(0L, maxBytesPerSecond);
+		this.adaptive = adaptive;
+		this.bytesPerSecond = this.maxBytesPerSecond > 0 ? this.maxBytesPerSecond : Double.POSITIVE_INFINITY;
+		this.tokens = this.maxBytesPerSecond;
+	}
+	
+	/**
+	 * @return whether this throttle can ever slow anything down
+	 */
+	public boolean isEnabled() {
+		return maxBytesPerSecond > 0 || adaptive;
+	}
+	
+	/**
+	 * @return the rate currently enforced in bytes per second, or {@link Double#POSITIVE_INFINITY} if there is none
+	 */
+	public synchronized double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+	
+	/**
+	 * Takes tokens for bytes that were just read or written, waiting until the bucket has refilled if it ran out.
+	 * 
+	 * @param bytes
+	 * @throws InterruptedIOException if the thread was interrupted while waiting
+	 */
+	public void acquire(long bytes) throws InterruptedIOException {
+		long waitNanos = reserve(bytes, System.nanoTime());
+		if (waitNanos <= 0) {
+			return;
+		}
+		try {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while throttling a backup.");
+		}
+	}
+	
+	/**
+	 * Takes tokens for bytes, letting the bucket go into debt so that the caller can wait outside of the lock.
+	 * 
+	 * @param bytes
+	 * @param now the current {@link System#nanoTime()}
+	 * @return how many nanoseconds the caller has to wait
+	 */
+	protected synchronized long reserve(long bytes, long now) {
+		if (Double.isInfinite(bytesPerSecond)) {
+			lastRefill = now;
+			return 0L;
+		}
+		tokens = Math.min(bytesPerSecond, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+		lastRefill = now;
+		tokens -= bytes;
+		return tokens >= 0 ? 0L : (long) (-tokens / bytesPerSecond * 1e9);
+	}
+	
+	/**
+	 * Records how long a read took, and adjusts the rate in adaptive mode.
+	 * 
+	 * @param bytes
+	 * @param nanos
+	 * @param now the current {@link System#nanoTime()}
+	 */
+	protected synchronized void recordRead(long bytes, long nanos, long now) {
+		if (!adaptive || bytes < MIN_SAMPLE_SIZE) {
+			return;
+		}
+		double nanosPerByte = Math.max(1L, nanos) / (double) bytes;
+		if (samples++ == 0) {
+			baselineNanosPerByte = nanosPerByte;
+			recentNanosPerByte = nanosPerByte;
+			lastAdjustment = now;
+			return;
+		}
+		recentNanosPerByte += RECENT_WEIGHT * (nanosPerByte - recentNanosPerByte);
+		boolean spike = samples > WARM_UP_SAMPLES && recentNanosPerByte > SPIKE_FACTOR * baselineNanosPerByte;
+		if (!spike) {
+			// The baseline only learns from normal reads, or a long spike would become the new normal
+			baselineNanosPerByte += BASELINE_WEIGHT * (nanosPerByte - baselineNanosPerByte);
+		}
+		if (now - lastAdjustment < ADJUST_INTERVAL) {
+			return;
+		}
+		lastAdjustment = now;
+		
+		// The rate the disk would allow if it was not busy, used as the ceiling when there is no fixed limit
+		double baselineRate = 1e9 / baselineNanosPerByte;
+		if (spike) {
+			double current = Double.isInfinite(bytesPerSecond) ? 1e9 / recentNanosPerByte : bytesPerSecond;
+			setRate(Math.max(MIN_BYTES_PER_SECOND, current / 2));
+		} else if (!Double.isInfinite(bytesPerSecond)) {
+			double ceiling = maxBytesPerSecond > 0 ? maxBytesPerSecond : baselineRate;
+			double raised = bytesPerSecond + ceiling / 10;
+			if (raised < ceiling) {
+				setRate(raised);
+			} else {
+				setRate(maxBytesPerSecond > 0 ? maxBytesPerSecond : Double.POSITIVE_INFINITY);
+			}
+		}
+	}
+	
+	private void setRate(double rate) {
+		bytesPerSecond = rate;
+		tokens = Math.min(tokens, Double.isInfinite(rate) ? 0 : rate);
+	}
+	
+	/**
+	 * Wraps a stream that reads from a server, or returns it as it is if this throttle is not enabled.
+	 * 
+	 * @param in
+	 * @return
+	 */
+	public InputStream wrap(InputStream in) {
+		return isEnabled() ? new ThrottledInputStream(in) : in;
+	}
+	
+	/**
+	 * Wraps a stream that writes a backup, or returns it as it is if this throttle is not enabled.
+	 * 
+	 * @param out
+	 * @return
+	 */
+	public OutputStream wrap(OutputStream out) {
+		return isEnabled() ? new ThrottledOutputStream(out) : out;
+	}
+	
+	private class ThrottledInputStream extends FilterInputStream {
+		
+		ThrottledInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0) {
+				acquire(1);
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			int read = in.read(b, off, len);
+			if (read > 0) {
+				long now = System.nanoTime();
+				recordRead(read, now - start, now);
+				acquire(read);
+			}
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			return in.skip(n);
+		}
+	}
+	
+	private class ThrottledOutputStream extends FilterOutputStream {
+		
+		ThrottledOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			acquire(1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			acquire(len);
+		}
+	}
+	
+}
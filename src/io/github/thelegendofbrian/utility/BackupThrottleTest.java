@@ -0,0 +1,117 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class BackupThrottleTest {
+	
+	private static final long MIB = 1024L * 1024L;
+	private static final long NORMAL_READ = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long SLOW_READ = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long SAMPLE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+	
+	/*
+	 * reserve()
+	 */
+	
+	@Test
+	public void testReserveWaitsForTokens() {
+		BackupThrottle throttle = new BackupThrottle(1000L, false);
+		long now = System.nanoTime();
+		
+		assertEquals(0L, throttle.reserve(1000L, now));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(500), throttle.reserve(500L, now));
+		
+		// The debt is paid off after half a second, and the bucket never holds more than a second of tokens
+		assertEquals(0L, throttle.reserve(0L, now + TimeUnit.SECONDS.toNanos(5)));
+		assertEquals(TimeUnit.SECONDS.toNanos(1), throttle.reserve(2000L, now + TimeUnit.SECONDS.toNanos(5)));
+	}
+	
+	@Test
+	public void testUnlimitedNeverWaits() {
+		assertEquals(0L, BackupThrottle.UNLIMITED.reserve(Long.MAX_VALUE / 2, System.nanoTime()));
+	}
+	
+	/*
+	 * recordRead()
+	 */
+	
+	@Test
+	public void testAdaptiveBacksOffAndRecovers() {
+		BackupThrottle throttle = new BackupThrottle(10 * MIB, true);
+		long now = System.nanoTime();
+		now = recordReads(throttle, now, 20, NORMAL_READ);
+		assertEquals(10 * MIB, throttle.getBytesPerSecond(), 0.0);
+		
+		now = recordReads(throttle, now, 10, SLOW_READ);
+		assertEquals(5 * MIB, throttle.getBytesPerSecond(), 0.0);
+		
+		recordReads(throttle, now, 100, NORMAL_READ);
+		assertEquals(10 * MIB, throttle.getBytesPerSecond(), 0.0);
+	}
+	
+	@Test
+	public void testAdaptiveWithoutLimit() {
+		BackupThrottle throttle = new BackupThrottle(0L, true);
+		long now = System.nanoTime();
+		now = recordReads(throttle, now, 20, NORMAL_READ);
+		assertTrue(Double.isInfinite(throttle.getBytesPerSecond()));
+		
+		now = recordReads(throttle, now, 10, SLOW_READ);
+		assertTrue(throttle.getBytesPerSecond() < 1000 * MIB);
+		
+		recordReads(throttle, now, 200, NORMAL_READ);
+		assertTrue(Double.isInfinite(throttle.getBytesPerSecond()));
+	}
+	
+	@Test
+	public void testSmallReadsAreIgnored() {
+		BackupThrottle throttle = new BackupThrottle(10 * MIB, true);
+		long now = System.nanoTime();
+		now = recordReads(throttle, now, 20, NORMAL_READ);
+		for (int i = 0; i < 20; i++) {
+			now += SAMPLE_INTERVAL;
+			throttle.recordRead(BackupThrottle.MIN_SAMPLE_SIZE - 1, SLOW_READ, now);
+		}
+		assertEquals(10 * MIB, throttle.getBytesPerSecond(), 0.0);
+	}
+	
+	/*
+	 * wrap()
+	 */
+	
+	@Test
+	public void testWrap() throws IOException {
+		InputStream in = new ByteArrayInputStream(new byte[100]);
+		assertSame(in, BackupThrottle.UNLIMITED.wrap(in));
+		
+		BackupThrottle throttle = new BackupThrottle(1000L, false);
+		InputStream wrapped = throttle.wrap(in);
+		assertNotSame(in, wrapped);
+		assertEquals(100, wrapped.read(new byte[200]));
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		throttle.wrap(out).write(new byte[50]);
+		assertEquals(50, out.size());
+		
+		// 150 of the 1000 tokens were taken
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(150), throttle.reserve(1000L, System.nanoTime()), TimeUnit.MILLISECONDS.toNanos(50));
+	}
+	
+	private static long recordReads(BackupThrottle throttle, long now, int count, long nanosPerMiB) {
+		for (int i = 0; i < count; i++) {
+			now += SAMPLE_INTERVAL;
+			throttle.recordRead(MIB, nanosPerMiB, now);
+		}
+		return now;
+	}
+	
+}
@@ -5,21 +5,50 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.TimeZone;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.zeroturnaround.zip.ZipException;
-import org.zeroturnaround.zip.ZipUtil;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+import com.sun.net.httpserver.HttpServer;
 import io.github.talkarcabbage.logger.LoggerManager;
 
 public class BackupUtilityApplication {
@@ -34,16 +63,60 @@ public class BackupUtilityApplication {
 	protected File[] serverList;
 	protected File[] backupList;
 	
-	protected Date lastModified;
-	
-	protected HashMap<File, Date> serverMap = new HashMap<>();
-	protected HashMap<File, Date> backupMap = new HashMap<>();
+	protected HashMap<File, Instant> serverMap = new HashMap<>();
+	protected HashMap<File, Instant> backupMap = new HashMap<>();
 	protected ArrayList<File> serversToBackup = new ArrayList<>();
+	protected Map<File, BackupCatalog> catalogs = new ConcurrentHashMap<>();
+	
+	protected Set<String> trustedDirectories;
+	protected Set<String> includePaths = Collections.emptySet();
+	protected Set<String> excludePaths = Collections.emptySet();
+	protected String backupMode;
+	protected int fullBackupInterval;
+	protected boolean regionDeltas;
+	protected int backupThreads;
+	protected int compressionThreads;
+	protected int scanThreads;
+	protected MemoryBudget memoryBudget = MemoryBudget.UNLIMITED;
+	protected int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	protected Set<String> storeExtensions = Collections.emptySet();
+	protected boolean enablePruning;
+	protected int pruningThreshold;
+	protected int pruningKeepHourly;
+	protected int pruningKeepDaily;
+	protected int pruningKeepWeekly;
+	protected int daemonQuietPeriod;
+	protected int daemonMaxDelay;
+	protected boolean consistentSnapshots;
+	protected String rconHost = "localhost";
+	protected String metricsFile = "";
+	protected String prometheusFile = "";
+	protected int metricsPort;
+	protected boolean lowPriorityThreads;
+	protected BackupThrottle throttle = BackupThrottle.UNLIMITED;
+	protected BackupTarget backupTarget = new LocalBackupTarget();
+	
+	// Settings overridden for a single server, by server name
+	protected Map<String, String> serverBackupModes = new HashMap<>();
+	protected Map<String, Integer> serverCompressionLevels = new HashMap<>();
+	protected Map<String, Set<String>> serverStoreExtensions = new HashMap<>();
+	protected Map<String, Boolean> serverConsistentSnapshots = new HashMap<>();
+	protected Map<String, Set<String>> serverIncludePaths = new HashMap<>();
+	protected Map<String, Set<String>> serverExcludePaths = new HashMap<>();
+	protected Map<String, PathFilter> serverPathFilters = new ConcurrentHashMap<>();
+	
+	protected ExecutorService compressionExecutor;
+	protected ForkJoinPool scanPool;
+	protected ParallelZipArchiver archiver;
+	protected Map<String, ParallelZipArchiver> serverArchivers = new ConcurrentHashMap<>();
+	protected ChunkStore chunkStore;
 	
-	protected static long mostRecentTime;
+	// Backups into the chunk store hold the read lock, deleting unused chunks holds the write lock
+	protected final ReadWriteLock chunkStoreLock = new ReentrantReadWriteLock();
 	
-	// Defined as non-static to promote thread safety
-	protected final SimpleDateFormat sdfPretty = new SimpleDateFormat("MMM dd yyyy - hh:mm:ss z");
+	protected final BackupMetrics metrics = new BackupMetrics();
+	
+	protected static final DateTimeFormatter PRETTY_FORMAT = DateTimeFormatter.ofPattern("MMM dd yyyy - hh:mm:ss z").withZone(ZoneId.of("GMT"));
 	
 	// Define config property literals
 	protected static final String SERVERS_DIRECTORY = "serversDirectory";
@@ -51,35 +124,278 @@ public class BackupUtilityApplication {
 	protected static final String LOG_LEVEL = "logLevel";
 	protected static final String ENABLE_PRUNING = "enablePruning";
 	protected static final String PRUNING_THRESHOLD = "pruningThreshold";
+	protected static final String PRUNING_KEEP_HOURLY = "pruningKeepHourly";
+	protected static final String PRUNING_KEEP_DAILY = "pruningKeepDaily";
+	protected static final String PRUNING_KEEP_WEEKLY = "pruningKeepWeekly";
+	protected static final String BACKUP_THREADS = "backupThreads";
+	protected static final String COMPRESSION_THREADS = "compressionThreads";
+	protected static final String SCAN_THREADS = "scanThreads";
+	protected static final String MEMORY_BUDGET = "memoryBudget";
+	protected static final String COMPRESSION_LEVEL = "compressionLevel";
+	protected static final String STORE_EXTENSIONS = "storeExtensions";
+	protected static final String TRUSTED_DIRECTORIES = "trustedDirectories";
+	protected static final String INCLUDE_PATHS = "includePaths";
+	protected static final String EXCLUDE_PATHS = "excludePaths";
+	
+	protected static final String BACKUP_MODE = "backupMode";
+	protected static final String FULL_BACKUP_INTERVAL = "fullBackupInterval";
+	protected static final String REGION_DELTAS = "regionDeltas";
+	protected static final String DAEMON_QUIET_PERIOD = "daemonQuietPeriod";
+	protected static final String DAEMON_MAX_DELAY = "daemonMaxDelay";
+	protected static final String CONSISTENT_SNAPSHOTS = "consistentSnapshots";
+	protected static final String RCON_HOST = "rconHost";
+	protected static final String METRICS_FILE = "metricsFile";
+	protected static final String PROMETHEUS_FILE = "prometheusFile";
+	protected static final String METRICS_PORT = "metricsPort";
+	protected static final String IO_LIMIT = "ioLimit";
+	protected static final String ADAPTIVE_THROTTLING = "adaptiveThrottling";
+	protected static final String LOW_PRIORITY_THREADS = "lowPriorityThreads";
+	protected static final String BACKUP_TARGET = "backupTarget";
+	protected static final String S3_ENDPOINT = "s3Endpoint";
+	protected static final String S3_REGION = "s3Region";
+	protected static final String S3_BUCKET = "s3Bucket";
+	protected static final String S3_PREFIX = "s3Prefix";
+	protected static final String S3_ACCESS_KEY = "s3AccessKey";
+	protected static final String S3_SECRET_KEY = "s3SecretKey";
+	protected static final String S3_PART_SIZE = "s3PartSize";
+	protected static final String S3_UPLOAD_THREADS = "s3UploadThreads";
+	
+	// Define backup modes
+	protected static final String MODE_FULL = "full";
+	protected static final String MODE_INCREMENTAL = "incremental";
+	protected static final String MODE_DEDUPLICATED = "dedup";
+	protected static final String MODE_LINK = "link";
+	
+	// Define backup targets
+	protected static final String TARGET_LOCAL = "local";
+	protected static final String TARGET_S3 = "s3";
 	
 	// Define other literals
 	protected static final String CONFIG_NAME = "config.ini";
+	protected static final String RESTORE_COMMAND = "restore";
+	protected static final String DAEMON_COMMAND = "daemon";
+	protected static final String VERIFY_COMMAND = "verify";
+	protected static final String LATEST_BACKUP = "latest";
+	protected static final String FULL_EXTENSION = ".zip";
+	protected static final String INCREMENTAL_EXTENSION = ".inc.zip";
+	protected static final Pattern BACKUP_TIME_STAMP_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}");
+	protected static final DateTimeFormatter BACKUP_TIME_STAMP_FORMAT = DateTimeFormatter.ofPattern("uuuu-MM-dd_HH-mm-ss").withZone(ZoneOffset.UTC);
 	
-	protected static final Logger logger = LoggerManager.getInstance().getLogger("main");
+	// Two chunks in flight, with as much again for the central directory and the records of the archive
+	protected static final long MIN_BACKUP_MEMORY = 4 * ParallelZipArchiver.CHUNK_MEMORY;
 	
-	public BackupUtilityApplication() {
-		sdfPretty.setTimeZone(TimeZone.getTimeZone("GMT"));
-	}
+	// Backup names never change, so their time stamps are parsed once, by any thread
+	private static final int MAX_CACHED_TIME_STAMPS = 100000;
+	private static final Map<String, Instant> backupTimeStamps = new ConcurrentHashMap<>();
+	
+	protected static final Logger logger = LoggerManager.getInstance().getLogger("main");
 	
 	public static void main(String[] args) {
 		LoggerManager.getInstance().getFormatter().setLoggerNameLevel(Level.FINE);
 		
 		BackupUtilityApplication instance = new BackupUtilityApplication();
-		instance.runBackupUtility();
+		if (args.length > 0 && RESTORE_COMMAND.equals(args[0])) {
+			instance.runRestore(Arrays.copyOfRange(args, 1, args.length));
+		} else if (args.length > 0 && DAEMON_COMMAND.equals(args[0])) {
+			instance.runDaemon();
+		} else if (args.length > 0 && VERIFY_COMMAND.equals(args[0])) {
+			instance.runVerify(Arrays.copyOfRange(args, 1, args.length));
+		} else {
+			instance.runBackupUtility();
+		}
 	}
 	
-	public void runBackupUtility() {
+	/**
+	 * Restores a server from its backups. Expects the server name, the time stamp of the backup to restore (or
+	 * "latest") and a new or empty folder to restore into, optionally followed by patterns of the files to restore.
+	 * 
+	 * @param args
+	 */
+	public void runRestore(String[] args) {
+		if (args.length < 3) {
+			logger.severe("Usage: " + RESTORE_COMMAND + " <server name> <yyyy-MM-dd_HH-mm-ss|latest> <restore folder> [file or pattern...]");
+			crashProgram();
+		}
+		configSetup();
+		
+		File backupFolder = generateBackupFileFromString(args[0], pathToBackups);
+		Instant pointInTime = null;
+		if (!LATEST_BACKUP.equals(args[1])) {
+			try {
+				pointInTime = parseBackupTimeStamp(args[1]);
+			} catch (DateTimeParseException e) {
+				logger.severe("The time \"" + args[1] + "\" is not in the format yyyy-MM-dd_HH-mm-ss or \"" + LATEST_BACKUP + "\".");
+				crashProgram();
+			}
+		}
+		List<PathGlob> selection = new ArrayList<>();
+		for (int i = 3; i < args.length; i++) {
+			selection.add(new PathGlob(args[i]));
+		}
+		try {
+			BackupRestorer.restore(backupFolder, pointInTime, new File(args[2]), selection, backupTarget);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Unable to restore server \"" + args[0] + "\": ", e);
+			crashProgram();
+		}
+		logger.info("Restore complete.");
+	}
+	
+	/**
+	 * Verifies the backups of the servers named in args, or of every server if none are named, and exits with an error
+	 * if any of them are damaged.
+	 * 
+	 * @param args
+	 */
+	public void runVerify(String[] args) {
 		configSetup();
-		storeServersDirectories();
-		checkDirectories();
-		createBackupDirectories();
-		storeEachServerLastModified();
 		storeBackupsDirectories();
-		determineServersToBackup();
-		backupServers();
+		
+		List<String> serverNames = Arrays.asList(args);
+		List<File> backupFolders = new ArrayList<>();
+		for (File backupFolder : backupList == null ? new File[0] : backupList) {
+			if (serverNames.isEmpty() || serverNames.contains(backupFolder.getName())) {
+				backupFolders.add(backupFolder);
+			}
+		}
+		if (backupFolders.isEmpty()) {
+			logger.severe("No backup folders were found to verify.");
+			crashProgram();
+		}
+		
+		if (verifyBackups(backupFolders) > 0) {
+			crashProgram();
+		}
+		logger.info("Verification complete.");
+	}
+	
+	/**
+	 * Verifies every backup in the given backup folders, running up to {@link #compressionThreads} verifications at once
+	 * since reading an archive is bound by inflating it.
+	 * 
+	 * @param backupFolders
+	 * @return the number of damaged backups
+	 */
+	protected int verifyBackups(List<File> backupFolders) {
+		BackupVerifier verifier = new BackupVerifier();
+		long startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, compressionThreads), newThreadFactory("verify-worker-", getWorkerPriority()));
+		Map<File, Future<BackupVerifier.Result>> results = new LinkedHashMap<>();
+		for (File backupFolder : backupFolders) {
+			BackupCatalog catalog = getCatalog(backupFolder);
+			for (Map.Entry<String, BackupCatalog.Entry> backup : catalog.getBackups().entrySet()) {
+				File backupFile = new File(backupFolder, backup.getKey());
+				results.put(backupFile, executor.submit(() -> {
+					File archive = backupTarget.fetch(backupFile);
+					try {
+						return verifier.verify(backupFile, archive, backup.getValue().getChecksum());
+					} finally {
+						if (!archive.equals(backupFile)) {
+							Files.deleteIfExists(archive.toPath());
+						}
+					}
+				}));
+			}
+		}
+		executor.shutdown();
+		
+		long bytesRead = 0;
+		List<String> damaged = new ArrayList<>();
+		for (Map.Entry<File, Future<BackupVerifier.Result>> entry : results.entrySet()) {
+			String backupName = entry.getKey().getName();
+			try {
+				BackupVerifier.Result result = entry.getValue().get();
+				bytesRead += result.getBytesRead();
+				logger.fine("Verified " + result.getEntryCount() + " files of backup " + backupName + ".");
+			} catch (ExecutionException e) {
+				logger.log(Level.SEVERE, "Backup " + backupName + " is damaged: ", e.getCause());
+				damaged.add(backupName);
+			} catch (InterruptedException e) {
+				logger.log(Level.SEVERE, "Interrupted while verifying backup " + backupName + ": ", e);
+				damaged.add(backupName);
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		
+		long elapsedMillis = Math.max(1L, (System.nanoTime() - startTime) / 1_000_000L);
+		logger.info("Verified " + (results.size() - damaged.size()) + " of " + results.size() + " backup(s), reading " + bytesRead / (1024 * 1024) + " MiB at "
+				+ bytesRead * 1000L / elapsedMillis / (1024 * 1024) + " MiB/s.");
+		if (!damaged.isEmpty()) {
+			logger.warning("Damaged backups: " + String.join(", ", damaged));
+		}
+		return damaged.size();
+	}
+	
+	public void runBackupUtility() {
+		metrics.time("config", this::configSetup);
+		metrics.time("directories", () -> {
+			storeServersDirectories();
+			checkDirectories();
+			createBackupDirectories();
+			storeBackupsDirectories();
+			removeOrphans();
+		});
+		metrics.time("timestamps", this::parseBackupTimeStamps);
+		metrics.time("scan", this::storeEachServerLastModified);
+		metrics.time("compare", this::determineServersToBackup);
+		metrics.time("backup", () -> {
+			backupServers();
+			shutdownArchiver();
+		});
+		metrics.time("prune", this::pruneBackups);
+		saveCatalogs();
+		writeMetrics();
 		logger.info("Backup process complete.");
 	}
 	
+	/**
+	 * Backs up every server that changed since its last backup, then keeps running and backs up each server shortly
+	 * after it changes, until the program is stopped.
+	 */
+	public void runDaemon() {
+		metrics.time("config", this::configSetup);
+		metrics.time("directories", () -> {
+			storeServersDirectories();
+			checkDirectories();
+			createBackupDirectories();
+			storeBackupsDirectories();
+			removeOrphans();
+		});
+		
+		BackupDaemon daemon = new BackupDaemon(this, daemonQuietPeriod * 1000L, daemonMaxDelay * 1000L);
+		try {
+			daemon.start();
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Unable to watch the servers directory for changes: ", e);
+			crashProgram();
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop, "daemon-shutdown"));
+		
+		if (metricsPort > 0) {
+			try {
+				HttpServer metricsServer = metrics.startHttpServer(metricsPort);
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> metricsServer.stop(0), "metrics-shutdown"));
+				logger.info("Serving metrics on http://localhost:" + metricsPort + "/metrics");
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Unable to serve metrics on port " + metricsPort + ": ", e);
+			}
+		}
+		
+		// Changes made while the daemon was not running are caught up on once it is watching for new ones
+		metrics.time("directories", this::storeBackupsDirectories);
+		metrics.time("timestamps", this::parseBackupTimeStamps);
+		metrics.time("scan", this::storeEachServerLastModified);
+		metrics.time("compare", this::determineServersToBackup);
+		metrics.time("backup", this::backupServers);
+		metrics.time("prune", this::pruneBackups);
+		saveCatalogs();
+		writeMetrics();
+		
+		logger.info("Waiting for changes.");
+		daemon.run();
+	}
+	
 	/**
 	 * Sets default config values and loads the config file.
 	 */
@@ -90,6 +406,40 @@ public class BackupUtilityApplication {
 		defaultProps.setProperty(LOG_LEVEL, "CONFIG");
 		defaultProps.setProperty(ENABLE_PRUNING, "false");
 		defaultProps.setProperty(PRUNING_THRESHOLD, "60");
+		defaultProps.setProperty(PRUNING_KEEP_HOURLY, "24");
+		defaultProps.setProperty(PRUNING_KEEP_DAILY, "7");
+		defaultProps.setProperty(PRUNING_KEEP_WEEKLY, "4");
+		defaultProps.setProperty(BACKUP_THREADS, "1");
+		defaultProps.setProperty(COMPRESSION_THREADS, Integer.toString(Runtime.getRuntime().availableProcessors()));
+		defaultProps.setProperty(SCAN_THREADS, Integer.toString(Runtime.getRuntime().availableProcessors()));
+		defaultProps.setProperty(MEMORY_BUDGET, "0");
+		defaultProps.setProperty(COMPRESSION_LEVEL, "6");
+		defaultProps.setProperty(STORE_EXTENSIONS, "");
+		defaultProps.setProperty(TRUSTED_DIRECTORIES, "");
+		defaultProps.setProperty(INCLUDE_PATHS, "");
+		defaultProps.setProperty(EXCLUDE_PATHS, "");
+		defaultProps.setProperty(BACKUP_MODE, MODE_FULL);
+		defaultProps.setProperty(FULL_BACKUP_INTERVAL, "7");
+		defaultProps.setProperty(REGION_DELTAS, "true");
+		defaultProps.setProperty(DAEMON_QUIET_PERIOD, "120");
+		defaultProps.setProperty(DAEMON_MAX_DELAY, "1800");
+		defaultProps.setProperty(CONSISTENT_SNAPSHOTS, "false");
+		defaultProps.setProperty(RCON_HOST, "localhost");
+		defaultProps.setProperty(METRICS_FILE, "");
+		defaultProps.setProperty(PROMETHEUS_FILE, "");
+		defaultProps.setProperty(METRICS_PORT, "0");
+		defaultProps.setProperty(IO_LIMIT, "0");
+		defaultProps.setProperty(ADAPTIVE_THROTTLING, "false");
+		defaultProps.setProperty(LOW_PRIORITY_THREADS, "false");
+		defaultProps.setProperty(BACKUP_TARGET, TARGET_LOCAL);
+		defaultProps.setProperty(S3_ENDPOINT, "");
+		defaultProps.setProperty(S3_REGION, "us-east-1");
+		defaultProps.setProperty(S3_BUCKET, "");
+		defaultProps.setProperty(S3_PREFIX, "");
+		defaultProps.setProperty(S3_ACCESS_KEY, "");
+		defaultProps.setProperty(S3_SECRET_KEY, "");
+		defaultProps.setProperty(S3_PART_SIZE, "16");
+		defaultProps.setProperty(S3_UPLOAD_THREADS, "4");
 		
 		properties = new Properties(defaultProps);
 		properties.setProperty(SERVERS_DIRECTORY, "");
@@ -120,6 +470,250 @@ public class BackupUtilityApplication {
 		pathToBackups = properties.getProperty(BACKUPS_DIRECTORY);
 		backupsDirectory = new File(pathToBackups);
 		logger.fine("Backups directory found in config: " + backupsDirectory.getAbsolutePath());
+		
+		backupThreads = getIntegerProperty(BACKUP_THREADS, 1);
+		logger.fine("Backup threads found in config: " + backupThreads);
+		
+		compressionThreads = getIntegerProperty(COMPRESSION_THREADS, 1);
+		logger.fine("Compression threads found in config: " + compressionThreads);
+		
+		scanThreads = getIntegerProperty(SCAN_THREADS, 1);
+		logger.fine("Scan threads found in config: " + scanThreads);
+		
+		memoryBudget = MemoryBudget.ofMegabytes(getIntegerProperty(MEMORY_BUDGET, 0));
+		logger.fine("Memory budget found in config: " + memoryBudget);
+		limitThreadsToMemoryBudget();
+		
+		compressionLevel = getCompressionLevelProperty(COMPRESSION_LEVEL);
+		logger.fine("Compression level found in config: " + compressionLevel);
+		
+		storeExtensions = getListProperty(STORE_EXTENSIONS);
+		logger.fine("Extensions to store without compression found in config: " + storeExtensions);
+		
+		trustedDirectories = getListProperty(TRUSTED_DIRECTORIES);
+		logger.fine("Trusted directories found in config: " + trustedDirectories);
+		
+		includePaths = getListProperty(INCLUDE_PATHS);
+		excludePaths = getListProperty(EXCLUDE_PATHS);
+		logger.fine("Paths to include found in config: " + includePaths + ", paths to exclude: " + excludePaths);
+		
+		backupMode = getBackupModeProperty(BACKUP_MODE);
+		logger.fine("Backup mode found in config: " + backupMode);
+		
+		// Any of these can be set for a single server by adding its name to the key, as in "backupMode.Survival"
+		for (String serverName : getServerOverrides(BACKUP_MODE)) {
+			serverBackupModes.put(serverName, getBackupModeProperty(BACKUP_MODE + "." + serverName));
+		}
+		for (String serverName : getServerOverrides(COMPRESSION_LEVEL)) {
+			serverCompressionLevels.put(serverName, getCompressionLevelProperty(COMPRESSION_LEVEL + "." + serverName));
+		}
+		for (String serverName : getServerOverrides(STORE_EXTENSIONS)) {
+			serverStoreExtensions.put(serverName, getListProperty(STORE_EXTENSIONS + "." + serverName));
+		}
+		for (String serverName : getServerOverrides(CONSISTENT_SNAPSHOTS)) {
+			serverConsistentSnapshots.put(serverName, Boolean.parseBoolean(properties.getProperty(CONSISTENT_SNAPSHOTS + "." + serverName).trim()));
+		}
+		for (String serverName : getServerOverrides(INCLUDE_PATHS)) {
+			serverIncludePaths.put(serverName, getListProperty(INCLUDE_PATHS + "." + serverName));
+		}
+		for (String serverName : getServerOverrides(EXCLUDE_PATHS)) {
+			serverExcludePaths.put(serverName, getListProperty(EXCLUDE_PATHS + "." + serverName));
+		}
+		logger.fine("Per-server settings found in config: backup mode " + serverBackupModes + ", compression level " + serverCompressionLevels + ", stored extensions " + serverStoreExtensions
+				+ ", consistent snapshots " + serverConsistentSnapshots + ", included paths " + serverIncludePaths + ", excluded paths " + serverExcludePaths);
+		
+		fullBackupInterval = getIntegerProperty(FULL_BACKUP_INTERVAL, 1);
+		logger.fine("Full backup interval found in config: " + fullBackupInterval);
+		
+		regionDeltas = Boolean.parseBoolean(properties.getProperty(REGION_DELTAS).trim());
+		logger.fine("Region deltas found in config: " + regionDeltas);
+		
+		enablePruning = Boolean.parseBoolean(properties.getProperty(ENABLE_PRUNING).trim());
+		logger.fine("Pruning enabled found in config: " + enablePruning);
+		
+		pruningThreshold = getIntegerProperty(PRUNING_THRESHOLD, 1);
+		pruningKeepHourly = getIntegerProperty(PRUNING_KEEP_HOURLY, 0);
+		pruningKeepDaily = getIntegerProperty(PRUNING_KEEP_DAILY, 0);
+		pruningKeepWeekly = getIntegerProperty(PRUNING_KEEP_WEEKLY, 0);
+		logger.fine("Pruning retention found in config: last " + pruningThreshold + ", hourly " + pruningKeepHourly + ", daily " + pruningKeepDaily + ", weekly " + pruningKeepWeekly);
+		
+		consistentSnapshots = Boolean.parseBoolean(properties.getProperty(CONSISTENT_SNAPSHOTS).trim());
+		rconHost = properties.getProperty(RCON_HOST).trim();
+		logger.fine("Consistent snapshots found in config: " + consistentSnapshots + ", using RCON on " + rconHost);
+		
+		daemonQuietPeriod = getIntegerProperty(DAEMON_QUIET_PERIOD, 1);
+		daemonMaxDelay = getIntegerProperty(DAEMON_MAX_DELAY, daemonQuietPeriod);
+		logger.fine("Daemon quiet period and maximum delay found in config: " + daemonQuietPeriod + "s, " + daemonMaxDelay + "s");
+		
+		int ioLimit = getIntegerProperty(IO_LIMIT, 0);
+		boolean adaptiveThrottling = Boolean.parseBoolean(properties.getProperty(ADAPTIVE_THROTTLING).trim());
+		throttle = new BackupThrottle(ioLimit * 1024L * 1024L, adaptiveThrottling);
+		lowPriorityThreads = Boolean.parseBoolean(properties.getProperty(LOW_PRIORITY_THREADS).trim());
+		logger.fine("I/O limit found in config: " + ioLimit + " MiB/s, adaptive " + adaptiveThrottling + ", low priority threads " + lowPriorityThreads);
+		
+		metricsFile = properties.getProperty(METRICS_FILE).trim();
+		prometheusFile = properties.getProperty(PROMETHEUS_FILE).trim();
+		metricsPort = getIntegerProperty(METRICS_PORT, 0);
+		logger.fine("Metrics files found in config: \"" + metricsFile + "\", \"" + prometheusFile + "\", served on port " + metricsPort);
+		
+		backupTarget = createBackupTarget();
+	}
+	
+	/**
+	 * Creates the target that archives are stored in, stopping the program if the target is unknown or an object
+	 * storage target is missing a setting.
+	 * 
+	 * @return
+	 */
+	protected BackupTarget createBackupTarget() {
+		String target = properties.getProperty(BACKUP_TARGET).trim();
+		if (TARGET_LOCAL.equals(target)) {
+			return new LocalBackupTarget();
+		}
+		if (!TARGET_S3.equals(target)) {
+			logger.severe("The config value \"" + target + "\" for " + BACKUP_TARGET + " must be " + TARGET_LOCAL + " or " + TARGET_S3 + ".");
+			crashProgram();
+		}
+		
+		for (String key : Arrays.asList(S3_ENDPOINT, S3_BUCKET, S3_ACCESS_KEY, S3_SECRET_KEY)) {
+			if (properties.getProperty(key).trim().isEmpty()) {
+				logger.severe("The config value " + key + " must be set when " + BACKUP_TARGET + " is " + TARGET_S3 + ".");
+				crashProgram();
+			}
+		}
+		int partSize = getIntegerProperty(S3_PART_SIZE, S3BackupTarget.MIN_PART_SIZE / (1024 * 1024));
+		int uploadThreads = getIntegerProperty(S3_UPLOAD_THREADS, 1);
+		// Every upload holds a part for each upload thread and the part being written
+		int allowedUploadThreads = Math.max(1, getBackupMemoryBudget().limit(uploadThreads + 1, partSize * 1024L * 1024L) - 1);
+		if (allowedUploadThreads < uploadThreads) {
+			logger.info("Using " + allowedUploadThreads + " upload threads instead of " + uploadThreads + " to stay within the memory budget of " + memoryBudget + ".");
+			uploadThreads = allowedUploadThreads;
+		}
+		S3Client client = null;
+		try {
+			client = new S3Client(properties.getProperty(S3_ENDPOINT).trim(), properties.getProperty(S3_REGION).trim(), properties.getProperty(S3_BUCKET).trim(),
+					properties.getProperty(S3_ACCESS_KEY).trim(), properties.getProperty(S3_SECRET_KEY).trim());
+		} catch (MalformedURLException e) {
+			logger.severe("The config value for " + S3_ENDPOINT + " is not a valid URL: " + e.getMessage());
+			crashProgram();
+		}
+		logger.fine("Backup target found in config: " + TARGET_S3 + " " + properties.getProperty(S3_ENDPOINT).trim() + ", part size " + partSize + " MiB, " + uploadThreads + " upload threads");
+		
+		// Parts are only uploaded while a backup is running, so the threads never keep the program alive
+		ExecutorService uploadExecutor = Executors.newFixedThreadPool(uploadThreads, newThreadFactory("upload-worker-"));
+		return new S3BackupTarget(client, properties.getProperty(S3_PREFIX).trim(), partSize * 1024 * 1024, uploadExecutor, uploadThreads);
+	}
+	
+	/**
+	 * Lowers the numbers of backup and compression threads if the buffers they keep would not fit in
+	 * {@link #memoryBudget}. Every backup needs room for at least {@link #MIN_BACKUP_MEMORY}, and every compression
+	 * thread for two chunks in flight in each backup.
+	 */
+	protected void limitThreadsToMemoryBudget() {
+		int allowedBackupThreads = memoryBudget.limit(backupThreads, MIN_BACKUP_MEMORY);
+		if (allowedBackupThreads < backupThreads) {
+			logger.info("Running " + allowedBackupThreads + " backups at once instead of " + backupThreads + " to stay within the memory budget of " + memoryBudget + ".");
+			backupThreads = allowedBackupThreads;
+		}
+		int allowedCompressionThreads = getBackupMemoryBudget().limit(compressionThreads, 2 * ParallelZipArchiver.CHUNK_MEMORY);
+		if (allowedCompressionThreads < compressionThreads) {
+			logger.info("Using " + allowedCompressionThreads + " compression threads instead of " + compressionThreads + " to stay within the memory budget of " + memoryBudget
+					+ ".");
+			compressionThreads = allowedCompressionThreads;
+		}
+	}
+	
+	/**
+	 * @return the part of {@link #memoryBudget} that each of the backups running at once may use
+	 */
+	protected MemoryBudget getBackupMemoryBudget() {
+		return memoryBudget.share(backupThreads);
+	}
+	
+	/**
+	 * Reads a comma separated config value, ignoring blank items.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	protected Set<String> getListProperty(String key) {
+		Set<String> result = new LinkedHashSet<>();
+		for (String item : properties.getProperty(key).split(",")) {
+			if (!item.trim().isEmpty()) {
+				result.add(item.trim());
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Finds the servers whose value for a config key is overridden by a "key.serverName" entry.
+	 * 
+	 * @param key
+	 * @return the names of the servers
+	 */
+	protected Set<String> getServerOverrides(String key) {
+		Set<String> serverNames = new LinkedHashSet<>();
+		String prefix = key + ".";
+		for (String name : properties.stringPropertyNames()) {
+			if (name.startsWith(prefix) && name.length() > prefix.length()) {
+				serverNames.add(name.substring(prefix.length()));
+			}
+		}
+		return serverNames;
+	}
+	
+	/**
+	 * Reads a backup mode config value, stopping the program if it is not a known mode.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	protected String getBackupModeProperty(String key) {
+		String value = properties.getProperty(key).trim();
+		if (!MODE_FULL.equals(value) && !MODE_INCREMENTAL.equals(value) && !MODE_DEDUPLICATED.equals(value) && !MODE_LINK.equals(value)) {
+			logger.severe("The config value \"" + value + "\" for " + key + " must be " + MODE_FULL + ", " + MODE_INCREMENTAL + ", " + MODE_DEDUPLICATED + " or " + MODE_LINK + ".");
+			crashProgram();
+		}
+		return value;
+	}
+	
+	/**
+	 * Reads a deflate level config value, stopping the program if it is not between 0 and 9.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	protected int getCompressionLevelProperty(String key) {
+		int value = getIntegerProperty(key, Deflater.NO_COMPRESSION);
+		if (value > Deflater.BEST_COMPRESSION) {
+			logger.severe("The config value for " + key + " must be at most " + Deflater.BEST_COMPRESSION + ".");
+			crashProgram();
+		}
+		return value;
+	}
+	
+	/**
+	 * Reads an integer config value, stopping the program if it is not a number or is below the given minimum.
+	 * 
+	 * @param key
+	 * @param minimum
+	 * @return
+	 */
+	protected int getIntegerProperty(String key, int minimum) {
+		String value = properties.getProperty(key).trim();
+		int result = 0;
+		try {
+			result = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			logger.severe("The config value \"" + value + "\" for " + key + " is not a valid number.");
+			crashProgram();
+		}
+		if (result < minimum) {
+			logger.severe("The config value for " + key + " must be at least " + minimum + ".");
+			crashProgram();
+		}
+		return result;
 	}
 	
 	/**
@@ -165,10 +759,72 @@ public class BackupUtilityApplication {
 	}
 	
 	/**
-	 * Stores the list of directories in the backups directory into {@link #backupsList}.
+	 * Stores the list of directories in the backups directory into {@link #backupsList}. Hidden directories, such as the
+	 * chunk store, are not backup folders.
 	 */
 	protected void storeBackupsDirectories() {
-		backupList = backupsDirectory.listFiles(File::isDirectory);
+		backupList = backupsDirectory.listFiles(file -> file.isDirectory() && !file.getName().startsWith("."));
+	}
+	
+	/**
+	 * Removes what interrupted backups left behind in every backup folder. Intended to be run at startup, before any
+	 * backup is started.
+	 */
+	protected void removeOrphans() {
+		for (File backupFolder : backupList == null ? new File[0] : backupList) {
+			removeOrphans(backupFolder);
+		}
+	}
+	
+	/**
+	 * Deletes temporary files, partial link snapshots, partial archives that cannot be resumed, and the manifests and
+	 * checksums of backups that no longer exist from a backup folder. A partial archive with a journal is kept, since the
+	 * next backup of the server resumes it.
+	 * 
+	 * @param backupFolder
+	 */
+	protected static void removeOrphans(File backupFolder) {
+		List<File> orphans = new ArrayList<>();
+		try (DirectoryStream<Path> hiddenFiles = Files.newDirectoryStream(backupFolder.toPath(), ".*")) {
+			for (Path path : hiddenFiles) {
+				if (isOrphan(backupFolder, path.getFileName().toString())) {
+					orphans.add(path.toFile());
+				}
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to list backup folder " + backupFolder.getAbsolutePath() + ": ", e);
+			return;
+		}
+		for (File file : orphans) {
+			try {
+				LinkSnapshot.delete(file);
+				logger.fine("Removed " + file.getAbsolutePath() + ", which an interrupted backup left behind.");
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Unable to remove " + file.getAbsolutePath() + ": ", e);
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the hidden file called name in backupFolder was left behind by an interrupted backup
+	 */
+	private static boolean isOrphan(File backupFolder, String name) {
+		if (name.endsWith(".tmp") || name.endsWith(".linking")) {
+			return true;
+		}
+		if (name.endsWith(".partial")) {
+			return !ArchiveJournal.getJournalFile(new File(backupFolder, name)).isFile();
+		}
+		if (name.endsWith(".partial" + ArchiveJournal.SUFFIX)) {
+			return !new File(backupFolder, name.substring(0, name.length() - ArchiveJournal.SUFFIX.length())).exists();
+		}
+		if (name.endsWith(ArchiveChecksums.SUFFIX)) {
+			return !new File(backupFolder, name.substring(1, name.length() - ArchiveChecksums.SUFFIX.length())).exists();
+		}
+		if (name.endsWith(BackupManifest.SUFFIX)) {
+			return !new File(backupFolder, name.substring(1, name.length() - BackupManifest.SUFFIX.length())).exists();
+		}
+		return false;
 	}
 	
 	/**
@@ -214,26 +870,66 @@ public class BackupUtilityApplication {
 	}
 	
 	/**
-	 * Finds the most recently changed file in each server directory and stores when it was last modified.
+	 * Finds the most recently changed file in each server directory and stores when it was last modified. The scan of a
+	 * server stops as soon as a file newer than its most recent backup is found, since that server will be backed up
+	 * either way, so the stored time of such a server is only a lower bound.
+	 * <p>
+	 * The servers are scanned at the same time on the {@link #scanThreads} scan threads, which also share the top-level
+	 * directories of each server between them, so the scan is not limited by the latency of a single file system call.
 	 */
 	protected void storeEachServerLastModified() {
 		logger.fine("Checking when each server was last modified.");
 		
+		ForkJoinPool pool = getScanPool();
+		Map<File, ForkJoinTask<Instant>> scans = new LinkedHashMap<>();
 		for (File serverDir : serverList) {
-			lastModified = roundDateToSeconds(lastModifiedInFolder(serverDir));
-			logger.fine(() -> "Found server named: \"" + serverDir.getName() + "\" last modified: " + sdfPretty.format(lastModified));
-			serverMap.put(serverDir, lastModified);
+			Instant backupLastModified = backupMap.get(generateBackupFileFromString(serverDir.getName(), pathToBackups));
+			scans.put(serverDir, pool.submit(() -> findServerLastModified(serverDir, backupLastModified)));
+		}
+		for (Map.Entry<File, ForkJoinTask<Instant>> scan : scans.entrySet()) {
+			File serverDir = scan.getKey();
+			Instant serverLastModified = scan.getValue().join();
+			logger.fine(() -> "Found server named: \"" + serverDir.getName() + "\" last modified: " + PRETTY_FORMAT.format(serverLastModified));
+			serverMap.put(serverDir, serverLastModified);
+		}
+	}
+	
+	/**
+	 * Scans a server for its most recently changed file, stopping as soon as a file newer than its most recent backup is
+	 * found, and saves the scan index for the next scan if the scan was complete.
+	 * 
+	 * @param serverDir
+	 * @param backupLastModified the time stamp of the most recent backup of the server, or null if it has none
+	 * @return when the server was last modified, rounded down to the second, or a lower bound of it that is newer than
+	 *         backupLastModified
+	 */
+	protected Instant findServerLastModified(File serverDir, Instant backupLastModified) {
+		// Backup time stamps are rounded down to the second, so anything within that second is not newer
+		long stopAfter = (backupLastModified == null ? 0L : backupLastModified.toEpochMilli()) + 999L;
+		
+		File indexFile = new File(generateBackupFileFromString(serverDir.getName(), pathToBackups), ScanIndex.FILE_NAME);
+		DirectoryScanner scanner = new DirectoryScanner(stopAfter);
+		scanner.setPreviousIndex(ScanIndex.load(indexFile));
+		scanner.setTrustedDirectories(trustedDirectories);
+		scanner.setPathFilter(getPathFilter(serverDir.getName()));
+		scanner.setPool(getScanPool());
+		// The previous index of every server being scanned is in memory next to its new index
+		scanner.setMemoryBudget(memoryBudget.share(2 * Math.max(1, Math.min(scanThreads, serverList == null ? 1 : serverList.length))));
+		
+		DirectoryScanner.ScanResult scan = scanServer(serverDir, scanner);
+		metrics.recordScan(serverDir.getName(), scan.getElapsedNanos(), scan.getFileCount(), scan.getSkippedDirectoryCount());
+		if (scan.isComplete()) {
+			saveScanIndex(scan.getIndex(), indexFile);
 		}
+		return roundToSeconds(Instant.ofEpochMilli(scan.getNewestModified()));
 	}
 	
 	/**
-	 * Determines which servers need to be backed up. Gets the most recent time stamp in each backup directory. If {@link #backupList()} is empty, all servers will be marked to back up.
+	 * Determines which servers need to be backed up by comparing each server with the most recent time stamp in its
+	 * backup directory. If {@link #backupMap} is empty, all servers will be marked to back up.
 	 */
 	public void determineServersToBackup() {
-		if (backupList.length != 0) {
-			// Figure out the time stamps for the most recent backup for each server
-			parseBackupTimeStamps();
-			
+		if (!backupMap.isEmpty()) {
 			// Check which servers have been modified since the last backup
 			compareServerAndBackupTimestamps();
 		} else {
@@ -243,31 +939,34 @@ public class BackupUtilityApplication {
 			}
 		}
 	}
-
+	
 	/**
 	 * Stores the time stamps for the most recent backup for each server into {@link #backupMap}.
 	 * If the backup folder for a server is empty, the time stamp for the most recent backup is set to epoch time.
 	 */
 	protected void parseBackupTimeStamps() {
 		for (File backupDir : backupList) {
+			File latestBackup = getCatalog(backupDir).getLatest();
 			// If the backup directory for a server is empty, make a backup for that server
-			if (backupDir.list().length == 0) {
+			if (latestBackup == null) {
 				logger.fine("Backup directory for server \"" + backupDir.getName() + "\" is empty. A backup will be made.");
-				backupMap.put(backupDir, new Date(0L));
+				backupMap.put(backupDir, Instant.EPOCH);
 			} else {
-				lastModified = roundDateToSeconds(getBackupTimeStamp(getLatestBackup(backupDir)));
-				logger.fine(() -> "Found most recent backup for server: \"" + backupDir.getName() + "\" last modified: " + sdfPretty.format(lastModified));
-				backupMap.put(backupDir, lastModified);
+				// A backup whose name cannot be read is treated like no backup, so a new one is made
+				Instant timeStamp = getBackupTimeStamp(latestBackup);
+				Instant backupLastModified = timeStamp == null ? Instant.EPOCH : roundToSeconds(timeStamp);
+				logger.fine(() -> "Found most recent backup for server: \"" + backupDir.getName() + "\" last modified: " + PRETTY_FORMAT.format(backupLastModified));
+				backupMap.put(backupDir, backupLastModified);
 			}
 		}
 	}
 	
 	protected void compareServerAndBackupTimestamps() {
 		logger.fine("Checking which servers need to be backed up.");
-		Date backupLastModified;
-		for (Map.Entry<File, Date> entry : serverMap.entrySet()) {
+		Instant backupLastModified;
+		for (Map.Entry<File, Instant> entry : serverMap.entrySet()) {
 			File serverFile = entry.getKey();
-			Date serverLastModified = entry.getValue();
+			Instant serverLastModified = entry.getValue();
 			
 			backupLastModified = backupMap.get(generateBackupFileFromString(serverFile.getName(), pathToBackups));
 			if (serverLastModified.compareTo(backupLastModified) > 0) {
@@ -276,37 +975,229 @@ public class BackupUtilityApplication {
 			}
 		}
 	}
-
+	
 	/**
-	 * Iterates through the servers that need to be backed up.
+	 * Backs up the servers that need to be backed up, running up to {@link #backupThreads} backups at once. A failure
+	 * while backing up one server is logged and does not stop the backups of the other servers.
 	 */
 	protected void backupServers() {
 		if (serversToBackup.isEmpty()) {
 			logger.info("All backups were already up-to-date.");
-		} else {
-			for (File serverFolder : serversToBackup) {
-				logger.info("Backing up server: " + serverFolder.getName());
-				
-				File backupFolder;
-				backupFolder = generateBackupFileFromString(serverFolder.getName(), pathToBackups);
-				try {
-					backupSpecificServer(serverFolder, backupFolder);
-				} catch (ZipException e) {
-					logger.log(Level.WARNING, "Server folder \"" + serverFolder.getName() + "\" contains no files: ", e);
+			return;
+		}
+		
+		int threadCount = Math.min(backupThreads, serversToBackup.size());
+		logger.fine("Backing up " + serversToBackup.size() + " server(s) using " + threadCount + " thread(s).");
+		
+		long startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, newThreadFactory("backup-worker-", getWorkerPriority()));
+		Map<File, Future<Boolean>> results = new LinkedHashMap<>();
+		for (File serverFolder : serversToBackup) {
+			results.put(serverFolder, executor.submit(() -> backupServer(serverFolder)));
+		}
+		executor.shutdown();
+		
+		int succeeded = 0;
+		int skipped = 0;
+		List<String> failed = new ArrayList<>();
+		for (Map.Entry<File, Future<Boolean>> entry : results.entrySet()) {
+			String serverName = entry.getKey().getName();
+			try {
+				if (entry.getValue().get()) {
+					succeeded++;
+				} else {
+					skipped++;
 				}
+			} catch (ExecutionException e) {
+				logger.log(Level.SEVERE, "Unable to back up server \"" + serverName + "\": ", e.getCause());
+				failed.add(serverName);
+				metrics.recordResult(serverName, BackupMetrics.STATUS_FAILED, 0L);
+			} catch (InterruptedException e) {
+				logger.log(Level.SEVERE, "Interrupted while waiting for the backup of server \"" + serverName + "\": ", e);
+				failed.add(serverName);
+				Thread.currentThread().interrupt();
 			}
 		}
+		
+		long elapsedSeconds = (System.nanoTime() - startTime) / 1_000_000_000L;
+		logger.info("Backup summary: " + succeeded + " succeeded, " + skipped + " skipped, " + failed.size() + " failed in " + elapsedSeconds + "s.");
+		if (!failed.isEmpty()) {
+			logger.warning("Servers that failed to back up: " + String.join(", ", failed));
+		}
+	}
+	
+	/**
+	 * Deletes the backups that are no longer needed from every backup folder, pruning up to {@link #backupThreads}
+	 * folders at once, and then deletes the chunks that no remaining snapshot uses.
+	 */
+	protected void pruneBackups() {
+		pruneBackups(backupList);
 	}
 	
 	/**
-	 * Rounds the Date object to the nearest second.
+	 * Deletes the backups that are no longer needed from the given backup folders, and then deletes the chunks that no
+	 * remaining snapshot in any folder of {@link #backupList} uses.
 	 * 
-	 * @param date
+	 * @param backupFolders
+	 */
+	protected void pruneBackups(File[] backupFolders) {
+		if (!enablePruning || backupFolders == null || backupFolders.length == 0) {
+			return;
+		}
+		
+		BackupPruner pruner = new BackupPruner(pruningThreshold, pruningKeepHourly, pruningKeepDaily, pruningKeepWeekly);
+		pruner.setTarget(backupTarget);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(backupThreads, backupFolders.length), newThreadFactory("prune-worker-", getWorkerPriority()));
+		Map<File, Future<BackupPruner.Result>> results = new LinkedHashMap<>();
+		for (File backupFolder : backupFolders) {
+			results.put(backupFolder, executor.submit(() -> pruner.prune(backupFolder, getCatalog(backupFolder))));
+		}
+		executor.shutdown();
+		
+		int deleted = 0;
+		long bytesFreed = 0;
+		boolean snapshotDeleted = false;
+		for (Map.Entry<File, Future<BackupPruner.Result>> entry : results.entrySet()) {
+			try {
+				BackupPruner.Result result = entry.getValue().get();
+				deleted += result.getDeletedCount();
+				bytesFreed += result.getBytesFreed();
+				snapshotDeleted |= result.isSnapshotDeleted();
+			} catch (ExecutionException e) {
+				logger.log(Level.SEVERE, "Unable to prune the backups of server \"" + entry.getKey().getName() + "\": ", e.getCause());
+			} catch (InterruptedException e) {
+				logger.log(Level.SEVERE, "Interrupted while pruning the backups of server \"" + entry.getKey().getName() + "\": ", e);
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		
+		int chunksDeleted = 0;
+		if (snapshotDeleted) {
+			// A backup that is still running may use chunks that no saved snapshot uses yet
+			chunkStoreLock.writeLock().lock();
+			try {
+				chunksDeleted = BackupPruner.deleteUnusedChunks(ChunkStore.getDirectory(backupsDirectory), Arrays.asList(backupList));
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Unable to delete unused chunks, they will be deleted the next time a snapshot is pruned: ", e);
+			} finally {
+				chunkStoreLock.writeLock().unlock();
+			}
+		}
+		metrics.recordPrune(deleted, bytesFreed, chunksDeleted);
+		logger.info("Pruned " + deleted + " backup(s) and " + chunksDeleted + " chunk(s), freeing " + bytesFreed / (1024 * 1024) + " MiB of archives.");
+	}
+	
+	/**
+	 * Backs up a server if it changed since its most recent backup, then prunes its backups. Used by the daemon, which
+	 * only knows that something in the server folder changed.
+	 * 
+	 * @param serverFolder
+	 * @throws IOException
+	 */
+	protected void backupChangedServer(File serverFolder) throws IOException {
+		File backupFolder = generateBackupFileFromString(serverFolder.getName(), pathToBackups);
+		if (backupFolder.mkdir()) {
+			logger.info("Backup directory did not exist for \"" + serverFolder.getName() + "\". Creating directory.");
+		}
+		
+		// The daemon saves every catalog it changes, so a stale catalog was changed by something else
+		if (!BackupCatalog.isFresh(backupFolder)) {
+			catalogs.remove(backupFolder);
+		}
+		File latestBackup = getCatalog(backupFolder).getLatest();
+		Instant timeStamp = latestBackup == null ? null : getBackupTimeStamp(latestBackup);
+		Instant backupLastModified = timeStamp == null ? null : roundToSeconds(timeStamp);
+		Instant serverLastModified = findServerLastModified(serverFolder, backupLastModified);
+		if (backupLastModified != null && serverLastModified.compareTo(backupLastModified) <= 0) {
+			logger.fine("Server \"" + serverFolder.getName() + "\" has not changed since its last backup.");
+			return;
+		}
+		
+		try {
+			backupServer(serverFolder);
+		} catch (IOException | RuntimeException e) {
+			metrics.recordResult(serverFolder.getName(), BackupMetrics.STATUS_FAILED, 0L);
+			writeMetrics();
+			throw e;
+		}
+		if (enablePruning) {
+			storeBackupsDirectories();
+			pruneBackups(new File[] {backupFolder});
+		}
+		saveCatalogs();
+		writeMetrics();
+	}
+	
+	/**
+	 * Backs up a single server. Intended to be run on a backup worker thread.
+	 * 
+	 * @param serverFolder
+	 * @return true if a backup was made, false if the server was skipped
+	 */
+	protected boolean backupServer(File serverFolder) throws IOException {
+		logger.info("Backing up server: " + serverFolder.getName());
+		
+		File backupFolder;
+		backupFolder = generateBackupFileFromString(serverFolder.getName(), pathToBackups);
+		long startTime = System.nanoTime();
+		try {
+			backupSpecificServer(serverFolder, backupFolder);
+		} catch (ZipException e) {
+			logger.log(Level.WARNING, "Server folder \"" + serverFolder.getName() + "\" contains no files: ", e);
+			metrics.recordResult(serverFolder.getName(), BackupMetrics.STATUS_SKIPPED, System.nanoTime() - startTime);
+			return false;
+		}
+		metrics.recordResult(serverFolder.getName(), BackupMetrics.STATUS_SUCCEEDED, System.nanoTime() - startTime);
+		logger.fine(() -> "Finished backing up server \"" + serverFolder.getName() + "\" in " + (System.nanoTime() - startTime) / 1_000_000L + "ms.");
+		return true;
+	}
+	
+	/**
+	 * Creates a thread factory that names worker threads so their log messages can be told apart.
+	 * 
+	 * @param namePrefix
+	 * @return
+	 */
+	protected static ThreadFactory newThreadFactory(String namePrefix) {
+		return newThreadFactory(namePrefix, Thread.NORM_PRIORITY);
+	}
+	
+	/**
+	 * Creates a thread factory that names worker threads so their log messages can be told apart, and gives them a
+	 * priority.
+	 * 
+	 * @param namePrefix
+	 * @param priority
+	 * @return
+	 */
+	protected static ThreadFactory newThreadFactory(String namePrefix, int priority) {
+		AtomicInteger threadNumber = new AtomicInteger(1);
+		return runnable -> {
+			Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			thread.setPriority(priority);
+			return thread;
+		};
+	}
+	
+	/**
+	 * @return the priority of the threads that back up, compress and prune, which is the lowest priority if
+	 *         {@link #lowPriorityThreads} is set so that the threads of servers in the same JVM or on the same
+	 *         machine come first
+	 */
+	protected int getWorkerPriority() {
+		return lowPriorityThreads ? Thread.MIN_PRIORITY : Thread.NORM_PRIORITY;
+	}
+	
+	/**
+	 * Rounds a time down to the second, which is the precision of backup time stamps.
+	 * 
+	 * @param time
 	 * @return
 	 */
-	public static Date roundDateToSeconds(Date date) {
-		long roundedDate = (date.getTime() / 1000) * 1000;
-		return new Date(roundedDate);
+	public static Instant roundToSeconds(Instant time) {
+		return time.truncatedTo(ChronoUnit.SECONDS);
 	}
 	
 	/**
@@ -320,80 +1211,545 @@ public class BackupUtilityApplication {
 	}
 	
 	/**
-	 * Recursively finds the Date of the most recently changed file in a directory.
+	 * Recursively finds when the most recently changed file in a directory was modified.
+	 * 
+	 * @return
+	 */
+	public static Instant lastModifiedInFolder(File file) {
+		return Instant.ofEpochMilli(scanServer(file, new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING)).getNewestModified());
+	}
+	
+	/**
+	 * Scans a server directory and logs how long the scan took.
 	 * 
+	 * @param serverDir
+	 * @param scanner
 	 * @return
 	 */
-	public static Date lastModifiedInFolder(File file) {
-		mostRecentTime = 0L;
+	protected static DirectoryScanner.ScanResult scanServer(File serverDir, DirectoryScanner scanner) {
+		DirectoryScanner.ScanResult result = null;
 		try {
-			Files.find(file.toPath(), Integer.MAX_VALUE, (filePath, fileAttr) -> true)
-					.forEach(x -> {
-						if (mostRecentTime < x.toFile().lastModified())
-							mostRecentTime = x.toFile().lastModified();
-					});
+			result = scanner.scan(serverDir.toPath());
 		} catch (IOException e) {
 			logger.log(Level.SEVERE, "Exception caught while scanning a server directory for most recently modified file: ", e);
 			crashProgram();
 		}
 		
-		return new Date(mostRecentTime);
+		DirectoryScanner.ScanResult scan = result;
+		logger.fine(() -> "Scanned " + scan.getFileCount() + " files and " + scan.getDirectoryCount() + " directories of \"" + serverDir.getName() + "\" in "
+				+ scan.getElapsedNanos() / 1_000_000L + "ms, trusting the files of " + scan.getSkippedDirectoryCount() + " unchanged directories"
+				+ (scan.isComplete() ? "." : ", stopping early at a change since the last backup."));
+		return result;
+	}
+	
+	/**
+	 * Saves the index of a complete scan for the next run. A failure only costs the next run a full scan.
+	 * 
+	 * @param index
+	 * @param indexFile
+	 */
+	protected static void saveScanIndex(ScanIndex index, File indexFile) {
+		try {
+			index.save(indexFile);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to save scan index " + indexFile.getAbsolutePath() + ": ", e);
+		}
+	}
+	
+	/**
+	 * Gets the catalog of a backup folder, reading it or listing the folder only the first time it is needed during a
+	 * run. Safe to call from several backup threads.
+	 * 
+	 * @param backupFolder
+	 * @return
+	 */
+	protected BackupCatalog getCatalog(File backupFolder) {
+		return catalogs.computeIfAbsent(backupFolder, BackupCatalog::open);
+	}
+	
+	/**
+	 * Writes the metrics of the run to {@link #metricsFile} as JSON and to {@link #prometheusFile} in the Prometheus text
+	 * format, if they are set. A report that cannot be written is logged and does not fail the backup.
+	 */
+	protected void writeMetrics() {
+		try {
+			if (!metricsFile.isEmpty()) {
+				BackupMetrics.write(new File(metricsFile), metrics.toJson());
+			}
+			if (!prometheusFile.isEmpty()) {
+				BackupMetrics.write(new File(prometheusFile), metrics.toPrometheus());
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to write the backup metrics: ", e);
+		}
+	}
+	
+	/**
+	 * Saves the catalogs of the backup folders that changed after their catalog was last saved, such as by saving a scan
+	 * index, so the next run does not have to list them.
+	 */
+	protected void saveCatalogs() {
+		for (Map.Entry<File, BackupCatalog> entry : catalogs.entrySet()) {
+			if (!BackupCatalog.isFresh(entry.getKey())) {
+				entry.getValue().saveQuietly();
+			}
+		}
 	}
 	
 	/**
-	 * Gets the time stamp of the backup archive with the most recent time stamp in its filename.
+	 * Gets the time stamp of the backup archive with the most recent time stamp in its filename. Hidden files, such as
+	 * archives that are still being written, are ignored, while the folders of link snapshots are backups too. The name
+	 * is read from the folder's catalog if it is up to date, and otherwise found by listing the folder.
+	 * 
+	 * @return the latest backup, or null if the directory contains no backups
 	 */
 	public static File getLatestBackup(File singleBackupDirectory) {
-		// Get a list of all the files in the directory
-		File[] backupList = singleBackupDirectory.listFiles(File::isFile);
+		String latestName = BackupCatalog.loadLatest(singleBackupDirectory);
+		if (latestName != null) {
+			return latestName.isEmpty() ? null : new File(singleBackupDirectory, latestName);
+		}
 		
-		// Check which filename contains the most recent time stamp
-		Arrays.sort(backupList);
+		// Check which filename contains the most recent time stamp, without listing the whole folder at once
+		File latestBackup = null;
+		try (DirectoryStream<Path> backups = BackupCatalog.newBackupStream(singleBackupDirectory)) {
+			for (Path backup : backups) {
+				if (latestBackup == null || backup.toFile().compareTo(latestBackup) > 0) {
+					latestBackup = backup.toFile();
+				}
+			}
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to list backup folder " + singleBackupDirectory.getAbsolutePath() + ": ", e);
+			return null;
+		}
 		
-		return backupList[backupList.length - 1];
+		return latestBackup;
 	}
 	
 	/**
-	 * Returns a Date corresponding to the time stamp in a backup archive's file name.
+	 * Returns the time stamp in a backup archive's file name. Each name is only parsed once, so this is cheap to call
+	 * repeatedly and from several threads.
 	 * 
 	 * @param backupFile
-	 * @return
+	 * @return the time stamp, or null if the name has no valid time stamp, which is logged
 	 */
-	public static Date getBackupTimeStamp(File backupFile) {
+	public static Instant getBackupTimeStamp(File backupFile) {
 		String nameOfFile = backupFile.getName();
-		
-		// Remove file extension
-		if (nameOfFile.indexOf('.') > 0) { // NOSONAR: This is needed to handle files starting with '.'
-			nameOfFile = nameOfFile.substring(0, nameOfFile.lastIndexOf('.'));
+		Instant cached = backupTimeStamps.get(nameOfFile);
+		if (cached != null) {
+			return cached;
 		}
 		
-		// Remove backup name
-		nameOfFile = nameOfFile.substring(nameOfFile.length() - 19);
+		// Find the last time stamp in the name, which is followed by one or more file extensions
+		Matcher matcher = BACKUP_TIME_STAMP_PATTERN.matcher(nameOfFile);
+		String timeStamp = null;
+		while (matcher.find()) {
+			timeStamp = matcher.group();
+		}
+		if (timeStamp == null) {
+			logger.warning("Ignoring " + nameOfFile + " since its name has no time stamp.");
+			return null;
+		}
 		
-		Date date = null;
+		Instant time;
 		try {
-			date = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").parse(nameOfFile);
-		} catch (ParseException e) {
-			logger.log(Level.SEVERE, "Unable to parse date format of backup archive: ", e);
-			crashProgram();
+			time = parseBackupTimeStamp(timeStamp);
+		} catch (DateTimeParseException e) {
+			logger.warning("Ignoring " + nameOfFile + " since the time stamp in its name is not a valid time: " + e.getMessage());
+			return null;
 		}
-		
-		return date;
+		if (backupTimeStamps.size() >= MAX_CACHED_TIME_STAMPS) {
+			backupTimeStamps.clear();
+		}
+		backupTimeStamps.put(nameOfFile, time);
+		return time;
+	}
+	
+	/**
+	 * Returns the time of a time stamp in the format used in backup archive names, which is always in UTC.
+	 * 
+	 * @param timeStamp
+	 * @return
+	 * @throws DateTimeParseException if the time stamp is not a valid time in that format
+	 */
+	public static Instant parseBackupTimeStamp(String timeStamp) {
+		return Instant.from(BACKUP_TIME_STAMP_FORMAT.parse(timeStamp));
+	}
+	
+	/**
+	 * @param time
+	 * @return the time stamp of a backup of a server last modified at time, as used in its name
+	 */
+	public static String formatBackupTimeStamp(Instant time) {
+		return BACKUP_TIME_STAMP_FORMAT.format(roundToSeconds(time));
 	}
 	
 	/**
 	 * Zips the contents of the serverFolder directory into the backupFolder directory. Appends a time stamp to the end
 	 * of the zip file name indicating when the server was last modified.
+	 * <p>
+	 * In incremental mode, only the files that changed since the previous backup are zipped, unless
+	 * {@link #fullBackupInterval} backups have been made since the last full backup. A manifest of all files is saved
+	 * next to each archive so the next backup can tell what changed and restores can find every file. With
+	 * {@link #regionDeltas}, a changed region file is stored as a {@link RegionFile} delta of the chunks saved since the
+	 * previous backup.
+	 * <p>
+	 * In dedup mode, no archive is made. The files are stored in the {@link ChunkStore} shared by all servers instead, and
+	 * a {@link ChunkSnapshot} listing them is saved under the name the archive would have had.
+	 * <p>
+	 * In link mode, no archive is made either. The files are copied into a {@link LinkSnapshot} folder named like the
+	 * archive without its extension, hard linking the files that did not change since the previous link snapshot.
 	 * 
 	 * @param serverFolder
 	 * @param backupFolder
+	 * @throws ZipException if the server folder contains no files
+	 * @throws IOException
 	 */
-	public void backupSpecificServer(File serverFolder, File backupFolder) {
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
-		sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
-		String zipFile = backupFolder.getAbsolutePath() + File.separator + serverFolder.getName() + "_" + sdf.format(serverMap.get(serverFolder)) + ".zip";
+	public void backupSpecificServer(File serverFolder, File backupFolder) throws IOException {
+		// The files are read from a copy taken while the server was not saving, if there is one
+		File sourceFolder = serverFolder;
+		if (serverConsistentSnapshots.getOrDefault(serverFolder.getName(), consistentSnapshots)) {
+			long startTime = System.nanoTime();
+			SnapshotCoordinator coordinator = new SnapshotCoordinator(rconHost);
+			coordinator.setPathFilter(getPathFilter(serverFolder.getName()));
+			sourceFolder = coordinator.stage(serverFolder, backupFolder);
+			metrics.recordStage(serverFolder.getName(), System.nanoTime() - startTime);
+		}
+		
+		String mode = getBackupMode(serverFolder.getName());
+		if (MODE_DEDUPLICATED.equals(mode)) {
+			backupServerToChunkStore(serverFolder, sourceFolder, backupFolder);
+			return;
+		}
+		if (MODE_LINK.equals(mode)) {
+			backupServerToLinkSnapshot(serverFolder, sourceFolder, backupFolder);
+			return;
+		}
 		
-		ZipUtil.pack(serverFolder, new File(zipFile));
+		BackupManifest manifest = null;
+		BackupManifest previousManifest = null;
+		BackupCatalog catalog = getCatalog(backupFolder);
+		if (MODE_INCREMENTAL.equals(mode)) {
+			File previousBackup = catalog.getLatest();
+			previousManifest = loadManifest(previousBackup);
+			if (previousManifest == null || previousManifest.getSequence() + 1 >= fullBackupInterval) {
+				previousManifest = null;
+				manifest = new BackupManifest(true, 0, "");
+			} else {
+				manifest = new BackupManifest(false, previousManifest.getSequence() + 1, previousBackup.getName());
+			}
+		}
+		
+		// The archive is named after it is written, since the scan of a changed server may have stopped early
+		BackupTarget.Upload upload = backupTarget.begin(backupFolder, serverFolder.getName());
+		if (upload.getJournal() != null) {
+			// An interrupted archive made in another mode or on another base stores its files differently
+			upload.getJournal().setSettings(mode + " " + regionDeltas + " " + (manifest == null ? "" : manifest.getBase()));
+		}
+		ParallelZipArchiver.Result result;
+		File backupFile;
+		try {
+			result = getArchiver(serverFolder.getName()).pack(sourceFolder, upload.getOutputStream(), getPathFilter(serverFolder.getName()),
+					createManifestSelector(manifest, previousManifest, regionDeltas), upload.getJournal());
+			if (result.getResumedEntryCount() > 0) {
+				logger.info("Resumed the interrupted archive of \"" + serverFolder.getName() + "\" after " + result.getResumedEntryCount() + " entries.");
+			}
+			metrics.recordArchive(serverFolder.getName(), mode, result.getFileCount(), result.getBytesRead(), result.getBytesWritten());
+			logger.fine(() -> "Archived " + result.getFileCount() + " files of \"" + serverFolder.getName() + "\" (" + result.getBytesRead() + " bytes) into " + result.getBytesWritten() + " bytes.");
+			
+			String extension = manifest == null || manifest.isFull() ? FULL_EXTENSION : INCREMENTAL_EXTENSION;
+			String archiveName = serverFolder.getName() + "_" + formatBackupTimeStamp(Instant.ofEpochMilli(result.getNewestModified())) + extension;
+			
+			// A manifest or checksums without their archive are ignored, so they are saved first
+			try (ArchiveChecksums entryChecksums = result.getEntryChecksums()) {
+				if (manifest != null) {
+					manifest.save(upload.getBackupFile(archiveName));
+				}
+				entryChecksums.save(upload.getBackupFile(archiveName));
+			}
+			backupFile = upload.commit(archiveName);
+		} catch (IOException | RuntimeException e) {
+			// An interrupted archive is kept, so the next backup of the server resumes it
+			boolean interrupted = e instanceof InterruptedIOException || e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted();
+			if (!interrupted || upload.getJournal() == null) {
+				upload.abort();
+			}
+			throw e;
+		}
+		catalog.add(backupFile, result.getChecksum());
+		catalog.saveQuietly();
+	}
+	
+	/**
+	 * Stores the files of a server in the chunk store and saves a snapshot of them into backupFolder.
+	 * 
+	 * @param serverFolder
+	 * @param sourceFolder the folder to read the files from, either serverFolder or a copy of it
+	 * @param backupFolder
+	 * @throws ZipException if the server folder contains no files
+	 * @throws IOException
+	 */
+	protected void backupServerToChunkStore(File serverFolder, File sourceFolder, File backupFolder) throws IOException {
+		BackupCatalog catalog = getCatalog(backupFolder);
+		File previousBackup = catalog.getLatest();
+		ChunkSnapshot previousSnapshot = null;
+		if (previousBackup != null && ChunkSnapshot.isSnapshot(previousBackup)) {
+			try {
+				previousSnapshot = ChunkSnapshot.load(previousBackup);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Unable to read the snapshot " + previousBackup.getName() + ", every file will be read again: ", e);
+			}
+		}
+		
+		File partialFile = new File(backupFolder, "." + serverFolder.getName() + ".partial");
+		ChunkStore.Result result;
+		chunkStoreLock.readLock().lock();
+		try {
+			result = getChunkStore(backupFolder.getParentFile()).backup(sourceFolder, partialFile, previousSnapshot, getPathFilter(serverFolder.getName()));
+		} finally {
+			chunkStoreLock.readLock().unlock();
+		}
+		if (result.getFileCount() == 0) {
+			Files.delete(partialFile.toPath());
+			throw new ZipException("The server folder " + serverFolder.getAbsolutePath() + " doesn't contain any files.");
+		}
+		metrics.recordArchive(serverFolder.getName(), MODE_DEDUPLICATED, result.getFileCount(), result.getBytesRead(), result.getBytesWritten());
+		logger.fine(() -> "Stored " + result.getNewChunkCount() + " new of " + result.getChunkCount() + " chunks from " + (result.getFileCount() - result.getUnchangedFileCount())
+				+ " changed files of \"" + serverFolder.getName() + "\" (" + result.getBytesRead() + " bytes) in " + result.getBytesWritten() + " bytes.");
+		
+		File snapshotFile = new File(backupFolder, serverFolder.getName() + "_" + formatBackupTimeStamp(Instant.ofEpochMilli(result.getNewestModified())) + ChunkSnapshot.EXTENSION);
+		Files.move(partialFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		catalog.add(snapshotFile, result.getChecksum());
+		catalog.saveQuietly();
+	}
+	
+	/**
+	 * Copies the files of a server into a new link snapshot in backupFolder, linking the files that did not change since
+	 * the latest backup if that is a link snapshot too.
+	 * 
+	 * @param serverFolder
+	 * @param sourceFolder the folder to read the files from, either serverFolder or a copy of it
+	 * @param backupFolder
+	 * @throws ZipException if the server folder contains no files
+	 * @throws IOException
+	 */
+	protected void backupServerToLinkSnapshot(File serverFolder, File sourceFolder, File backupFolder) throws IOException {
+		BackupCatalog catalog = getCatalog(backupFolder);
+		File previousBackup = catalog.getLatest();
+		if (previousBackup != null && !LinkSnapshot.isLinkSnapshot(previousBackup)) {
+			previousBackup = null;
+		}
+		
+		// A partial snapshot left behind by an interrupted backup is started over
+		File partialFolder = new File(backupFolder, "." + serverFolder.getName() + ".linking");
+		LinkSnapshot.delete(partialFolder);
+		LinkSnapshot snapshot = new LinkSnapshot();
+		snapshot.setThrottle(throttle);
+		LinkSnapshot.Result result;
+		File snapshotFolder;
+		try {
+			result = snapshot.create(sourceFolder, partialFolder, previousBackup, getPathFilter(serverFolder.getName()));
+			if (result.getFileCount() == 0) {
+				throw new ZipException("The server folder " + serverFolder.getAbsolutePath() + " doesn't contain any files.");
+			}
+			metrics.recordArchive(serverFolder.getName(), MODE_LINK, result.getFileCount(), result.getBytesCopied(), result.getBytesCopied());
+			logger.fine(() -> "Linked " + result.getLinkedCount() + " unchanged files and copied " + (result.getFileCount() - result.getLinkedCount()) + " changed files of \""
+					+ serverFolder.getName() + "\" (" + result.getBytesCopied() + " bytes).");
+			
+			snapshotFolder = new File(backupFolder, serverFolder.getName() + "_" + formatBackupTimeStamp(Instant.ofEpochMilli(result.getNewestModified())));
+			// The checksums without their snapshot are ignored, so they are saved first
+			result.getChecksums().save(snapshotFolder);
+			if (snapshotFolder.exists()) {
+				LinkSnapshot.delete(snapshotFolder);
+			}
+			Files.move(partialFolder.toPath(), snapshotFolder.toPath());
+		} catch (IOException | RuntimeException e) {
+			LinkSnapshot.delete(partialFolder);
+			throw e;
+		}
+		catalog.add(snapshotFolder, BackupCatalog.UNKNOWN_CHECKSUM);
+		catalog.saveQuietly();
+	}
+	
+	/**
+	 * Creates the selector that records every file of a server in manifest and archives the files that changed since
+	 * previousManifest.
+	 * 
+	 * @param manifest the manifest of the new backup, or null if no manifest is kept
+	 * @param previousManifest the manifest of the backup that the new backup builds on, or null for a full backup
+	 * @param regionDeltas whether to store a changed region file as a delta of its chunks saved since the previous
+	 *            backup, when that is less than half of the file
+	 * @return
+	 */
+	protected static ParallelZipArchiver.FileSelector createManifestSelector(BackupManifest manifest, BackupManifest previousManifest, boolean regionDeltas) {
+		if (manifest == null) {
+			return null;
+		}
+		return new ParallelZipArchiver.FileSelector() {
+			@Override
+			public boolean include(String entryName, BasicFileAttributes attrs) {
+				long size = attrs.size();
+				long modified = attrs.lastModifiedTime().toMillis();
+				BackupManifest.Entry previous = previousManifest == null ? null : previousManifest.get(entryName);
+				boolean changed = previous == null || previous.getSize() != size || previous.getModified() != modified;
+				manifest.put(entryName, size, modified, changed);
+				return changed;
+			}
+			
+			@Override
+			public byte[] replace(String entryName, Path file, BasicFileAttributes attrs) throws IOException {
+				BackupManifest.Entry previous = previousManifest == null ? null : previousManifest.get(entryName);
+				if (!regionDeltas || previous == null || !RegionFile.isRegionFile(entryName)) {
+					return null;
+				}
+				byte[] region = Files.readAllBytes(file);
+				if (region.length != attrs.size()) {
+					// Changed while it was being read, the delta would not match the size in the manifest
+					return null;
+				}
+				// Chunks saved in the same second as the previous version are stored again, in case they were saved after it
+				byte[] delta = RegionFile.createDelta(region, previous.getModified() / 1000);
+				if (delta == null || delta.length >= region.length / 2) {
+					return null;
+				}
+				manifest.putDelta(entryName, attrs.size(), attrs.lastModifiedTime().toMillis());
+				return delta;
+			}
+			
+			@Override
+			public void reuse(String entryName, BasicFileAttributes attrs, long storedSize) {
+				if (storedSize != attrs.size()) {
+					manifest.putDelta(entryName, attrs.size(), attrs.lastModifiedTime().toMillis());
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Loads the manifest of a backup, treating an unreadable manifest like a missing one so that a full backup is made.
+	 * 
+	 * @param backup the backup, or null
+	 * @return the manifest, or null
+	 */
+	protected static BackupManifest loadManifest(File backup) {
+		if (backup == null) {
+			return null;
+		}
+		try {
+			return BackupManifest.load(backup);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to read the manifest of " + backup.getName() + ", a full backup will be made: ", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the archiver shared by all backup threads, creating it and its compression threads on first use.
+	 * 
+	 * @return
+	 */
+	protected synchronized ParallelZipArchiver getArchiver() {
+		if (archiver == null) {
+			archiver = new ParallelZipArchiver(getCompressionExecutor(), Math.max(1, compressionThreads), compressionLevel, storeExtensions);
+			archiver.setThrottle(throttle);
+			archiver.setMemoryBudget(getBackupMemoryBudget());
+		}
+		return archiver;
+	}
+	
+	/**
+	 * Gets the archiver for a server, which only differs from {@link #getArchiver()} if the server has its own
+	 * compression settings.
+	 * 
+	 * @param serverName
+	 * @return
+	 */
+	protected ParallelZipArchiver getArchiver(String serverName) {
+		if (!serverCompressionLevels.containsKey(serverName) && !serverStoreExtensions.containsKey(serverName)) {
+			return getArchiver();
+		}
+		return serverArchivers.computeIfAbsent(serverName, name -> {
+			ParallelZipArchiver serverArchiver = new ParallelZipArchiver(getCompressionExecutor(), Math.max(1, compressionThreads),
+					serverCompressionLevels.getOrDefault(name, compressionLevel), serverStoreExtensions.getOrDefault(name, storeExtensions));
+			serverArchiver.setThrottle(throttle);
+			serverArchiver.setMemoryBudget(getBackupMemoryBudget());
+			return serverArchiver;
+		});
+	}
+	
+	/**
+	 * @param serverName
+	 * @return the filter of the paths of the server that are scanned and backed up
+	 */
+	protected PathFilter getPathFilter(String serverName) {
+		return serverPathFilters.computeIfAbsent(serverName,
+				name -> new PathFilter(serverIncludePaths.getOrDefault(name, includePaths), serverExcludePaths.getOrDefault(name, excludePaths)));
+	}
+	
+	/**
+	 * @param serverName
+	 * @return the backup mode of the server
+	 */
+	protected String getBackupMode(String serverName) {
+		return serverBackupModes.getOrDefault(serverName, backupMode);
+	}
+	
+	/**
+	 * Gets the chunk store shared by all backup threads, creating it on first use.
+	 * 
+	 * @param backupsDirectory the directory containing the backup folders
+	 * @return
+	 */
+	protected synchronized ChunkStore getChunkStore(File backupsDirectory) {
+		if (chunkStore == null) {
+			chunkStore = new ChunkStore(ChunkStore.getDirectory(backupsDirectory), getCompressionExecutor(), Math.max(1, compressionThreads), compressionLevel);
+			chunkStore.setThrottle(throttle);
+		}
+		return chunkStore;
+	}
+	
+	/**
+	 * Gets the compression threads shared by the archiver and the chunk store, starting them on first use.
+	 * 
+	 * @return
+	 */
+	protected synchronized ExecutorService getCompressionExecutor() {
+		if (compressionExecutor == null) {
+			compressionExecutor = Executors.newFixedThreadPool(Math.max(1, compressionThreads), newThreadFactory("compression-worker-", getWorkerPriority()));
+		}
+		return compressionExecutor;
+	}
+	
+	/**
+	 * Gets the pool that servers are scanned on, creating it on first use. Its threads are daemon threads that end on
+	 * their own once idle, so it is never shut down.
+	 * 
+	 * @return
+	 */
+	protected synchronized ForkJoinPool getScanPool() {
+		if (scanPool == null) {
+			AtomicInteger threadNumber = new AtomicInteger(1);
+			int priority = getWorkerPriority();
+			scanPool = new ForkJoinPool(Math.max(1, scanThreads), pool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("scan-worker-" + threadNumber.getAndIncrement());
+				thread.setPriority(priority);
+				return thread;
+			}, null, false);
+		}
+		return scanPool;
+	}
+	
+	/**
+	 * Stops the compression threads once all backups are done.
+	 */
+	protected synchronized void shutdownArchiver() {
+		if (compressionExecutor != null) {
+			compressionExecutor.shutdown();
+			compressionExecutor = null;
+			archiver = null;
+			serverArchivers.clear();
+			chunkStore = null;
+		}
 	}
 	
 	/**
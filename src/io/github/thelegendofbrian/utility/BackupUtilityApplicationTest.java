@@ -1,13 +1,18 @@
 package io.github.thelegendofbrian.utility;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.Collections;
 import java.util.logging.Logger;
 import org.junit.After;
 import org.junit.Before;
@@ -55,19 +60,16 @@ public class BackupUtilityApplicationTest {
 	}
 	
 	/*
-	 * roundDateToSeconds()
+	 * roundToSeconds()
 	 */
 	
 	@Test
-	public void testRoundDateToSeconds() {
+	public void testRoundToSeconds() {
 		final long[] TIMES = {0L, 1495407727000L, 1495407727067L, 1495407727500L};
-		final long[] EXPECTED_TIMES = {0L, 1495407727000L, 1495407727000L, 1495407728000L};
-		Date roundCheck = new Date(0L);
-		for (int i = 0; i < 3; i++) {
-			roundCheck.setTime(TIMES[i]);
-			roundCheck = BackupUtilityApplication.roundDateToSeconds(roundCheck);
-			long roundedTime = roundCheck.getTime();
-			assertEquals(EXPECTED_TIMES[i], roundedTime);
+		final long[] EXPECTED_TIMES = {0L, 1495407727000L, 1495407727000L, 1495407727000L};
+		for (int i = 0; i < TIMES.length; i++) {
+			Instant roundCheck = BackupUtilityApplication.roundToSeconds(Instant.ofEpochMilli(TIMES[i]));
+			assertEquals(EXPECTED_TIMES[i], roundCheck.toEpochMilli());
 		}
 	}
 	
@@ -187,13 +189,13 @@ public class BackupUtilityApplicationTest {
 		 * Compare actual and expected dates
 		 */
 		
-		Date actual1 = BackupUtilityApplication.lastModifiedInFolder(testServerDirectory1);
-		Date actual2 = BackupUtilityApplication.lastModifiedInFolder(testServerDirectory2);
-		Date actual3 = BackupUtilityApplication.lastModifiedInFolder(testServerDirectory3);
+		Instant actual1 = BackupUtilityApplication.lastModifiedInFolder(testServerDirectory1);
+		Instant actual2 = BackupUtilityApplication.lastModifiedInFolder(testServerDirectory2);
+		Instant actual3 = BackupUtilityApplication.lastModifiedInFolder(testServerDirectory3);
 		
-		Date expected1 = new Date(time3);
-		Date expected2 = new Date(time3);
-		Date expected3 = new Date(time5);
+		Instant expected1 = Instant.ofEpochMilli(time3);
+		Instant expected2 = Instant.ofEpochMilli(time3);
+		Instant expected3 = Instant.ofEpochMilli(time5);
 		
 		assertTrue(expected1.equals(actual1));
 		assertTrue(expected2.equals(actual2));		
@@ -318,6 +320,31 @@ public class BackupUtilityApplicationTest {
 		assertTrue(expected.equals(actual));
 	}
 	
+	@Test
+	public void testGetLatestBackup7() throws IOException {
+		// Hidden files, such as partially written archives, are not backups
+		ArrayList<String> backupNames = new ArrayList<>();
+		backupNames.add("Backup_2000-01-01_00-00-00.zip"); // NOSONAR
+		backupNames.add("Backup_2000-01-01_00-00-01.zip");
+		backupNames.add(".Backup.partial");
+		
+		for (String zipName : backupNames) {
+			makeFileInTempDirectory(zipName);
+		}
+		
+		File actual = BackupUtilityApplication.getLatestBackup(tempDirectory);
+		File expected = new File(tempDirectory, "Backup_2000-01-01_00-00-01.zip");
+		
+		assertTrue(expected.equals(actual));
+	}
+	
+	@Test
+	public void testGetLatestBackup8() throws IOException {
+		makeFileInTempDirectory(".Backup.partial");
+		
+		assertNull(BackupUtilityApplication.getLatestBackup(tempDirectory));
+	}
+	
 	private void makeFileInTempDirectory(String fileName) throws IOException {
 		File file = new File(tempDirectory, fileName);
 		if (!file.createNewFile()) {
@@ -334,8 +361,8 @@ public class BackupUtilityApplicationTest {
 	public void testGetBackupTimeStamp1() {
 		File file = new File(tempDirectory, "Backup_2017-06-01_09-28-49.zip");
 		
-		Date actual = BackupUtilityApplication.getBackupTimeStamp(file);
-		Date expected = new GregorianCalendar(2017, 6 - 1, 1, 9, 28, 49).getTime();
+		Instant actual = BackupUtilityApplication.getBackupTimeStamp(file);
+		Instant expected = Instant.parse("2017-06-01T09:28:49Z");
 		
 		assertTrue(expected.equals(actual));
 	}
@@ -344,18 +371,132 @@ public class BackupUtilityApplicationTest {
 	public void testGetBackupTimeStamp2() {
 		File file = new File(tempDirectory, "Backup_2016-11-21_12-13-00.zip");
 		
-		Date actual = BackupUtilityApplication.getBackupTimeStamp(file);
-		Date expected = new GregorianCalendar(2016, 11 - 1, 21, 12, 13, 00).getTime();
+		Instant actual = BackupUtilityApplication.getBackupTimeStamp(file);
+		Instant expected = Instant.parse("2016-11-21T12:13:00Z");
 		
 		assertTrue(expected.equals(actual));
 	}
 	
+	@Test
+	public void testGetBackupTimeStampOfInvalidName() {
+		assertNull(BackupUtilityApplication.getBackupTimeStamp(new File(tempDirectory, "Backup_2016-13-45_12-13-00.zip")));
+		assertNull(BackupUtilityApplication.getBackupTimeStamp(new File(tempDirectory, "notes.txt")));
+	}
+	
+	/*
+	 * formatBackupTimeStamp()
+	 */
+	
+	@Test
+	public void testFormatBackupTimeStampMatchesParse() {
+		Instant time = Instant.ofEpochMilli(1495407727067L);
+		String timeStamp = BackupUtilityApplication.formatBackupTimeStamp(time);
+		
+		assertEquals("2017-05-21_23-02-07", timeStamp);
+		assertEquals(BackupUtilityApplication.roundToSeconds(time), BackupUtilityApplication.parseBackupTimeStamp(timeStamp));
+	}
+	
+	/*
+	 * getArchiver()
+	 */
+	
+	@Test
+	public void testGetArchiverForServer() {
+		BackupUtilityApplication application = new BackupUtilityApplication();
+		application.compressionThreads = 1;
+		application.serverCompressionLevels.put("Creative", 1);
+		try {
+			assertSame(application.getArchiver(), application.getArchiver("Survival"));
+			assertNotSame(application.getArchiver(), application.getArchiver("Creative"));
+			assertSame(application.getArchiver("Creative"), application.getArchiver("Creative"));
+		} finally {
+			application.shutdownArchiver();
+		}
+	}
+	
+	@Test
+	public void testGetBackupModeForServer() {
+		BackupUtilityApplication application = new BackupUtilityApplication();
+		application.backupMode = BackupUtilityApplication.MODE_FULL;
+		application.serverBackupModes.put("Creative", BackupUtilityApplication.MODE_DEDUPLICATED);
+		
+		assertEquals(BackupUtilityApplication.MODE_FULL, application.getBackupMode("Survival"));
+		assertEquals(BackupUtilityApplication.MODE_DEDUPLICATED, application.getBackupMode("Creative"));
+	}
+	
 	@Ignore
 	@Test
 	public void testBackupSpecificServer() {
 		fail("Not yet implemented"); // NOSONAR
 	}
 	
+	/*
+	 * removeOrphans()
+	 */
+	
+	@Test
+	public void testRemoveOrphans() throws IOException {
+		makeFileInTempDirectory("Backup_2000-01-01_00-00-00.zip");
+		makeFileInTempDirectory(".Backup_2000-01-01_00-00-00.zip.sums");
+		makeFileInTempDirectory(".Backup_1999-01-01_00-00-00.zip.sums");
+		makeFileInTempDirectory(".Backup_1999-01-01_00-00-00.zip.manifest");
+		makeFileInTempDirectory(".catalog.tmp");
+		makeFileInTempDirectory(".Survival.partial");
+		makeFileInTempDirectory(".Survival.partial.journal");
+		makeFileInTempDirectory(".Creative.partial");
+		makeFileInTempDirectory(".Modded.partial.journal");
+		new File(tempDirectory, ".Survival.linking/world").mkdirs();
+		
+		BackupUtilityApplication.removeOrphans(tempDirectory);
+		
+		assertTrue(new File(tempDirectory, "Backup_2000-01-01_00-00-00.zip").exists());
+		assertTrue(new File(tempDirectory, ".Backup_2000-01-01_00-00-00.zip.sums").exists());
+		assertTrue(new File(tempDirectory, ".Survival.partial").exists());
+		assertTrue(new File(tempDirectory, ".Survival.partial.journal").exists());
+		assertEquals(4, tempDirectory.list().length);
+	}
+	
+	/*
+	 * backupServers()
+	 */
+	
+	@Test
+	public void testBackupServersInParallel() throws IOException {
+		File serversFolder = new File(tempDirectory, "servers");
+		File backupsFolder = new File(tempDirectory, "backups");
+		backupsFolder.mkdir();
+		BackupUtilityApplication application = new BackupUtilityApplication();
+		application.pathToBackups = backupsFolder.getPath();
+		application.backupMode = BackupUtilityApplication.MODE_FULL;
+		application.backupThreads = 2;
+		application.compressionThreads = 1;
+		application.trustedDirectories = Collections.emptySet();
+		for (String serverName : new String[] {"Survival", "Creative", "Broken"}) {
+			File serverFolder = new File(serversFolder, serverName);
+			new File(serverFolder, "world").mkdirs();
+			Files.write(new File(serverFolder, "world/level.dat").toPath(), serverName.getBytes(StandardCharsets.UTF_8));
+			new File(backupsFolder, serverName).mkdir();
+			application.serversToBackup.add(serverFolder);
+		}
+		
+		// A file in place of its backup folder makes the backup of one server fail
+		deleteFileOrFolder(new File(backupsFolder, "Broken"));
+		new File(backupsFolder, "Broken").createNewFile();
+		
+		try {
+			application.backupServers();
+		} finally {
+			application.shutdownArchiver();
+		}
+		
+		for (String serverName : new String[] {"Survival", "Creative"}) {
+			File[] archives = new File(backupsFolder, serverName).listFiles((dir, name) -> name.endsWith(BackupUtilityApplication.FULL_EXTENSION));
+			assertEquals(1, archives.length);
+			assertEquals(BackupMetrics.STATUS_SUCCEEDED, application.metrics.getServerMetrics(serverName).getStatus());
+		}
+		assertEquals(BackupMetrics.STATUS_FAILED, application.metrics.getServerMetrics("Broken").getStatus());
+	}
+	
 	/*
 	 * runBackupUtility()
 	 */
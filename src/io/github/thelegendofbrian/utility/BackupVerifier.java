@@ -0,0 +1,235 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Checks that backups can still be restored, without the server files they were made from. An archive is read once
+ * from start to end: every entry is inflated and its checksum compared with the one recorded in its
+ * {@link ArchiveChecksums} while it was written, and the checksum of the whole file is compared with the one in the
+ * catalog. A snapshot is checked by reading every chunk it uses, each of which is checked against its hash. Chunks
+ * shared by several snapshots are only read once per verifier. A link snapshot is checked by reading every file in it
+ * against its checksums.
+ * <p>
+ * A verifier can check several backups at once from different threads.
+ */
+public class BackupVerifier {
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final Set<String> verifiedChunks = ConcurrentHashMap.newKeySet();
+	private final Set<String> damagedChunks = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Verifies a single backup.
+	 * 
+	 * @param backup an archive or a snapshot
+	 * @param expectedChecksum the CRC-32 checksum of the whole file recorded in the catalog, or
+	 *            {@link BackupCatalog#UNKNOWN_CHECKSUM}
+	 * @return what was checked
+	 * @throws IOException if the backup is damaged or cannot be read
+	 */
+	public Result verify(File backup, long expectedChecksum) throws IOException {
+		return verify(backup, backup, expectedChecksum);
+	}
+	
+	/**
+	 * Verifies a single backup whose archive has been fetched into a different file.
+	 * 
+	 * @param backup an archive or a snapshot in its backup folder
+	 * @param archive the file holding the contents of backup, which may be backup itself
+	 * @param expectedChecksum the CRC-32 checksum of the whole file recorded in the catalog, or
+	 *            {@link BackupCatalog#UNKNOWN_CHECKSUM}
+	 * @return what was checked
+	 * @throws IOException if the backup is damaged or cannot be read
+	 */
+	public Result verify(File backup, File archive, long expectedChecksum) throws IOException {
+		if (ChunkSnapshot.isSnapshot(backup)) {
+			return verifySnapshot(backup, expectedChecksum);
+		}
+		if (LinkSnapshot.isLinkSnapshot(backup)) {
+			return verifyLinkSnapshot(backup);
+		}
+		return verifyArchive(backup, archive, expectedChecksum);
+	}
+	
+	private Result verifyLinkSnapshot(File snapshotFolder) throws IOException {
+		ArchiveChecksums checksums = ArchiveChecksums.load(snapshotFolder);
+		if (checksums == null) {
+			throw new IOException("Link snapshot " + snapshotFolder.getName() + " has no checksums.");
+		}
+		Set<String> missing = new HashSet<>(checksums.getEntries().keySet());
+		Result result = new Result();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		Path root = snapshotFolder.toPath();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+				ArchiveChecksums.Entry expected = checksums.get(name);
+				if (expected == null) {
+					throw new IOException("Link snapshot " + snapshotFolder.getName() + " contains " + name + ", which is not listed in its checksums.");
+				}
+				long size = 0;
+				try (CheckedInputStream in = new CheckedInputStream(Files.newInputStream(file), new CRC32())) {
+					int read;
+					while ((read = in.read(buffer)) > 0) {
+						size += read;
+					}
+					if (expected.getSize() != size || expected.getCrc() != in.getChecksum().getValue()) {
+						throw new IOException("The contents of " + name + " in link snapshot " + snapshotFolder.getName() + " do not match its checksum.");
+					}
+				}
+				missing.remove(name);
+				result.entryCount++;
+				result.bytesVerified += size;
+				result.bytesRead += size;
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		
+		if (!missing.isEmpty()) {
+			throw new IOException(missing.size() + " file(s) listed in the checksums of link snapshot " + snapshotFolder.getName() + " are missing from it, such as "
+					+ missing.iterator().next());
+		}
+		return result;
+	}
+	
+	private Result verifyArchive(File backup, File archive, long expectedChecksum) throws IOException {
+		ArchiveChecksums checksums = ArchiveChecksums.load(backup);
+		Set<String> missing = checksums == null ? new HashSet<>() : new HashSet<>(checksums.getEntries().keySet());
+		Result result = new Result();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		CRC32 crc = new CRC32();
+		try (CheckedInputStream file = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(archive.toPath()), BUFFER_SIZE), new CRC32());
+				ZipInputStream zip = new ZipInputStream(file, StandardCharsets.UTF_8)) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (entry.isDirectory()) {
+					continue;
+				}
+				crc.reset();
+				long size = 0;
+				int read;
+				while ((read = zip.read(buffer)) > 0) {
+					crc.update(buffer, 0, read);
+					size += read;
+				}
+				result.entryCount++;
+				result.bytesVerified += size;
+				
+				if (checksums != null) {
+					ArchiveChecksums.Entry expected = checksums.get(entry.getName());
+					if (expected == null) {
+						throw new IOException("Archive " + backup.getName() + " contains " + entry.getName() + ", which is not listed in its checksums.");
+					}
+					if (expected.getSize() != size || expected.getCrc() != crc.getValue()) {
+						throw new IOException("The contents of " + entry.getName() + " in archive " + backup.getName() + " do not match its checksum.");
+					}
+					missing.remove(entry.getName());
+				}
+			}
+			
+			// Entries end at the central directory, which is still part of the checksum of the whole file
+			while (file.read(buffer) >= 0) {
+				// Only read for the checksum
+			}
+			checkFileChecksum(backup, expectedChecksum, file.getChecksum().getValue());
+		} catch (ZipException e) {
+			throw new IOException("Archive " + backup.getName() + " is damaged: " + e.getMessage(), e);
+		}
+		
+		if (!missing.isEmpty()) {
+			throw new IOException(missing.size() + " file(s) listed in the checksums of archive " + backup.getName() + " are missing from it, such as " + missing.iterator().next());
+		}
+		result.bytesRead = archive.length();
+		return result;
+	}
+	
+	private Result verifySnapshot(File snapshotFile, long expectedChecksum) throws IOException {
+		Result result = new Result();
+		try (CheckedInputStream file = new CheckedInputStream(Files.newInputStream(snapshotFile.toPath()), new CRC32())) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (file.read(buffer) >= 0) {
+				// Only read for the checksum
+			}
+			checkFileChecksum(snapshotFile, expectedChecksum, file.getChecksum().getValue());
+		}
+		result.bytesRead = snapshotFile.length();
+		
+		ChunkSnapshot snapshot = ChunkSnapshot.load(snapshotFile);
+		ChunkStore store = new ChunkStore(ChunkStore.getDirectory(snapshotFile.getParentFile().getParentFile()), null, 1, Deflater.DEFAULT_COMPRESSION);
+		for (String hash : snapshot.getChunks()) {
+			if (damagedChunks.contains(hash)) {
+				throw new IOException("Snapshot " + snapshotFile.getName() + " uses the damaged chunk " + hash + ".");
+			}
+			if (!verifiedChunks.add(hash)) {
+				continue;
+			}
+			try {
+				byte[] data = store.readChunk(hash);
+				result.bytesVerified += data.length;
+				result.bytesRead += store.getChunkFile(hash).length();
+			} catch (IOException e) {
+				damagedChunks.add(hash);
+				throw new IOException("Snapshot " + snapshotFile.getName() + " uses a chunk that cannot be read: " + e.getMessage(), e);
+			}
+		}
+		result.entryCount = snapshot.getFiles().size();
+		return result;
+	}
+	
+	private static void checkFileChecksum(File backup, long expectedChecksum, long actualChecksum) throws IOException {
+		if (expectedChecksum != BackupCatalog.UNKNOWN_CHECKSUM && expectedChecksum != actualChecksum) {
+			throw new IOException("The checksum of " + backup.getName() + " does not match the one recorded when it was made.");
+		}
+	}
+	
+	/**
+	 * What was checked in a backup.
+	 */
+	public static class Result {
+		
+		protected long entryCount;
+		protected long bytesRead;
+		protected long bytesVerified;
+		
+		/**
+		 * @return the number of files in the backup
+		 */
+		public long getEntryCount() {
+			return entryCount;
+		}
+		
+		/**
+		 * @return the number of bytes read from the disk
+		 */
+		public long getBytesRead() {
+			return bytesRead;
+		}
+		
+		/**
+		 * @return the number of uncompressed bytes that were checked
+		 */
+		public long getBytesVerified() {
+			return bytesVerified;
+		}
+	}
+	
+}
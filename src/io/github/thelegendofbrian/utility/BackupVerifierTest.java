@@ -0,0 +1,165 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class BackupVerifierTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-verifier");
+	
+	private ExecutorService executor;
+	private File serverFolder;
+	private File backupFolder;
+	
+	@Before
+	public void setUp() throws IOException {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		executor = Executors.newFixedThreadPool(2);
+		serverFolder = new File(tempDirectory, "servers/Vanilla");
+		backupFolder = new File(tempDirectory, "backups/Vanilla");
+		new File(serverFolder, "world").mkdirs();
+		backupFolder.mkdirs();
+		
+		byte[] region = new byte[200 * 1024];
+		new Random(1).nextBytes(region);
+		Files.write(new File(serverFolder, "world/r.0.0.mca").toPath(), region);
+		Files.write(new File(serverFolder, "server.properties").toPath(), "motd=A Minecraft Server\n".getBytes("UTF-8"));
+	}
+	
+	@After
+	public void tearDown() {
+		executor.shutdown();
+		
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * verify()
+	 */
+	
+	@Test
+	public void testVerifyIntactArchive() throws IOException {
+		File archive = new File(backupFolder, "Vanilla_2001-09-09_01-46-40.zip");
+		ParallelZipArchiver.Result written = pack(archive);
+		
+		BackupVerifier.Result result = new BackupVerifier().verify(archive, written.getChecksum());
+		assertEquals(2, result.getEntryCount());
+		assertEquals(written.getBytesRead(), result.getBytesVerified());
+		assertEquals(archive.length(), result.getBytesRead());
+	}
+	
+	@Test(expected = IOException.class)
+	public void testVerifyDamagedArchive() throws IOException {
+		File archive = new File(backupFolder, "Vanilla_2001-09-09_01-46-40.zip");
+		pack(archive);
+		try (RandomAccessFile file = new RandomAccessFile(archive, "rw")) {
+			file.seek(file.length() / 2);
+			int b = file.read();
+			file.seek(file.length() / 2);
+			file.write(b ^ 0xFF);
+		}
+		
+		new BackupVerifier().verify(archive, BackupCatalog.UNKNOWN_CHECKSUM);
+	}
+	
+	@Test(expected = IOException.class)
+	public void testVerifyEntryChecksumMismatch() throws IOException {
+		File archive = new File(backupFolder, "Vanilla_2001-09-09_01-46-40.zip");
+		pack(archive);
+		ArchiveChecksums checksums = ArchiveChecksums.load(archive);
+		ArchiveChecksums.Entry entry = checksums.get("server.properties");
+		checksums.put("server.properties", entry.getSize(), entry.getCrc() ^ 1);
+		checksums.save(archive);
+		
+		new BackupVerifier().verify(archive, BackupCatalog.UNKNOWN_CHECKSUM);
+	}
+	
+	@Test(expected = IOException.class)
+	public void testVerifyFileChecksumMismatch() throws IOException {
+		File archive = new File(backupFolder, "Vanilla_2001-09-09_01-46-40.zip");
+		ParallelZipArchiver.Result written = pack(archive);
+		
+		new BackupVerifier().verify(archive, written.getChecksum() ^ 1);
+	}
+	
+	@Test
+	public void testVerifySnapshotWithDamagedChunk() throws IOException {
+		ChunkStore store = new ChunkStore(ChunkStore.getDirectory(backupFolder.getParentFile()), executor, 2, Deflater.DEFAULT_COMPRESSION);
+		File snapshotFile = new File(backupFolder, "Vanilla_2001-09-09_01-46-40.snapshot");
+		long checksum = store.backup(serverFolder, snapshotFile, null).getChecksum();
+		
+		BackupVerifier verifier = new BackupVerifier();
+		assertEquals(2, verifier.verify(snapshotFile, checksum).getEntryCount());
+		
+		String hash = ChunkSnapshot.load(snapshotFile).getFile("server.properties").getChunks().get(0);
+		Files.write(store.getChunkFile(hash).toPath(), new byte[] {0, 1, 2});
+		try {
+			new BackupVerifier().verify(snapshotFile, checksum);
+			fail();
+		} catch (IOException e) {
+			// Expected, the chunk no longer matches its hash
+		}
+	}
+	
+	@Test
+	public void testVerifyDamagedLinkSnapshot() throws IOException {
+		File snapshotFolder = new File(backupFolder, "Vanilla_2001-09-09_01-46-40");
+		new LinkSnapshot().create(serverFolder, snapshotFolder, null, PathFilter.ALL).getChecksums().save(snapshotFolder);
+		
+		assertEquals(2, new BackupVerifier().verify(snapshotFolder, BackupCatalog.UNKNOWN_CHECKSUM).getEntryCount());
+		
+		Files.write(new File(snapshotFolder, "server.properties").toPath(), "motd=changed".getBytes(StandardCharsets.UTF_8));
+		try {
+			new BackupVerifier().verify(snapshotFolder, BackupCatalog.UNKNOWN_CHECKSUM);
+			fail();
+		} catch (IOException e) {
+			// Expected, the file no longer matches its checksum
+		}
+	}
+	
+	private ParallelZipArchiver.Result pack(File archive) throws IOException {
+		ParallelZipArchiver.Result result = new ParallelZipArchiver(executor, 2, Deflater.DEFAULT_COMPRESSION).pack(serverFolder, archive);
+		result.getEntryChecksums().save(archive);
+		return result;
+	}
+	
+}
@@ -0,0 +1,181 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Lists every directory and file a server contained at the time of a backup made into a {@link ChunkStore}, and the
+ * chunks that each file is made of. A snapshot replaces the archive of a backup, so it is stored under the name the
+ * archive would have had, with {@link #EXTENSION} as its extension.
+ */
+public class ChunkSnapshot {
+	
+	protected static final String EXTENSION = ".snapshot";
+	
+	private static final String HEADER = "# mc-server-backup-util snapshot 1";
+	
+	private final Map<String, Long> directories = new LinkedHashMap<>();
+	private final Map<String, Entry> files = new LinkedHashMap<>();
+	
+	/**
+	 * Checks whether a backup is a snapshot rather than an archive.
+	 * 
+	 * @param backup
+	 * @return
+	 */
+	public static boolean isSnapshot(File backup) {
+		return backup.getName().endsWith(EXTENSION);
+	}
+	
+	/**
+	 * Loads a snapshot.
+	 * 
+	 * @param snapshotFile
+	 * @return
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	public static ChunkSnapshot load(File snapshotFile) throws IOException {
+		ChunkSnapshot snapshot = new ChunkSnapshot();
+		try (BufferedReader reader = Files.newBufferedReader(snapshotFile.toPath(), StandardCharsets.UTF_8)) {
+			if (!HEADER.equals(reader.readLine())) {
+				throw new IOException("Unknown snapshot format: " + snapshotFile.getAbsolutePath());
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("D\t")) {
+					String[] fields = line.split("\t", 3);
+					snapshot.directories.put(fields[2], Long.parseLong(fields[1]));
+				} else if (line.startsWith("F\t")) {
+					String[] fields = line.split("\t", 5);
+					List<String> chunks = fields[3].isEmpty() ? Collections.emptyList() : Arrays.asList(fields[3].split(","));
+					snapshot.files.put(fields[4], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), chunks));
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt snapshot: " + snapshotFile.getAbsolutePath(), e);
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Writes the snapshot to snapshotFile.
+	 * 
+	 * @param snapshotFile
+	 * @return the CRC-32 checksum of the written file
+	 * @throws IOException
+	 */
+	public long save(File snapshotFile) throws IOException {
+		CheckedOutputStream out = new CheckedOutputStream(Files.newOutputStream(snapshotFile.toPath()), new CRC32());
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+			writer.write(HEADER);
+			writer.newLine();
+			for (Map.Entry<String, Long> directory : directories.entrySet()) {
+				writer.write("D\t" + directory.getValue() + "\t" + directory.getKey());
+				writer.newLine();
+			}
+			for (Map.Entry<String, Entry> file : files.entrySet()) {
+				Entry value = file.getValue();
+				writer.write("F\t" + value.size + "\t" + value.modified + "\t" + String.join(",", value.chunks) + "\t" + file.getKey());
+				writer.newLine();
+			}
+		}
+		return out.getChecksum().getValue();
+	}
+	
+	/**
+	 * Records a directory of the server.
+	 * 
+	 * @param path the path of the directory relative to the server folder, separated by '/'
+	 * @param modified
+	 */
+	public void putDirectory(String path, long modified) {
+		directories.put(path, modified);
+	}
+	
+	/**
+	 * Records a file of the server.
+	 * 
+	 * @param path the path of the file relative to the server folder, separated by '/'
+	 * @param size
+	 * @param modified
+	 * @param chunks the hashes of the chunks the file is made of, in order
+	 */
+	public void putFile(String path, long size, long modified, List<String> chunks) {
+		files.put(path, new Entry(size, modified, chunks));
+	}
+	
+	/**
+	 * @param path
+	 * @return the entry of a file, or null if the server did not contain it
+	 */
+	public Entry getFile(String path) {
+		return files.get(path);
+	}
+	
+	public Map<String, Entry> getFiles() {
+		return files;
+	}
+	
+	/**
+	 * @return the modification time of every directory, keyed by path
+	 */
+	public Map<String, Long> getDirectories() {
+		return directories;
+	}
+	
+	/**
+	 * Lists the chunks the snapshot refers to.
+	 * 
+	 * @return the hashes of the chunks, each listed once
+	 */
+	public Set<String> getChunks() {
+		Set<String> chunks = new LinkedHashSet<>();
+		for (Entry entry : files.values()) {
+			chunks.addAll(entry.chunks);
+		}
+		return chunks;
+	}
+	
+	/**
+	 * A file of the server at the time of the backup.
+	 */
+	public static class Entry {
+		
+		protected final long size;
+		protected final long modified;
+		protected final List<String> chunks;
+		
+		public Entry(long size, long modified, List<String> chunks) {
+			this.size = size;
+			this.modified = modified;
+			this.chunks = chunks;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		public long getModified() {
+			return modified;
+		}
+		
+		public List<String> getChunks() {
+			return chunks;
+		}
+	}
+	
+}
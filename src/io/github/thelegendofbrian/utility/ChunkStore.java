@@ -0,0 +1,556 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A repository of file contents shared by the backups of all servers. Files are split into chunks at boundaries chosen
+ * by their content, so a change to a few bytes of a file, such as a few sectors of a region file, only changes the
+ * chunks around it. Each chunk is stored once under the SHA-256 hash of its contents, so chunks that are unchanged since
+ * an earlier backup, or shared with another server, such as the same mod jar in several servers, are never written
+ * again. What a backup contains is recorded in a {@link ChunkSnapshot}.
+ */
+public class ChunkStore {
+	
+	protected static final String DIRECTORY_NAME = ".chunks";
+	
+	protected static final int MIN_CHUNK_SIZE = 4 * 1024;
+	protected static final int MAX_CHUNK_SIZE = 64 * 1024;
+	
+	// A boundary is placed where the top 14 bits of the rolling hash are zero, making chunks about 16 KiB on average
+	private static final long BOUNDARY_MASK = ((1L << 14) - 1) << 50;
+	private static final long[] GEAR = new long[256];
+	
+	private static final int READ_BUFFER_SIZE = 16 * MAX_CHUNK_SIZE;
+	private static final byte FORMAT_STORED = 0;
+	private static final byte FORMAT_DEFLATED = 1;
+	
+	private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(ChunkStore::newDigest);
+	private static final ThreadLocal<Deflater[]> deflaters = ThreadLocal.withInitial(() -> new Deflater[Deflater.BEST_COMPRESSION + 2]);
+	
+	static {
+		// The table must never change, or the chunks of unchanged files would no longer match earlier backups
+		Random random = new Random(0x4D43534255L);
+		for (int i = 0; i < GEAR.length; i++) {
+			GEAR[i] = random.nextLong();
+		}
+	}
+	
+	private final File directory;
+	private final ExecutorService executor;
+	private final int maxFilesInFlight;
+	private final int compressionLevel;
+	private BackupThrottle throttle = BackupThrottle.UNLIMITED;
+	
+	/**
+	 * @param directory the directory holding the chunks, usually {@link #DIRECTORY_NAME} in the backups directory
+	 * @param executor the executor that files are chunked, hashed and compressed on
+	 * @param threads the number of threads backing the executor, used to bound how many files are held in memory
+	 * @param compressionLevel the deflate level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public ChunkStore(File directory, ExecutorService executor, int threads, int compressionLevel) {
+		this.directory = directory;
+		this.executor = executor;
+		this.maxFilesInFlight = Math.max(2, threads * 2);
+		this.compressionLevel = compressionLevel;
+	}
+	
+	/**
+	 * Gets the chunk store shared by the servers whose backups are in backupsDirectory.
+	 * 
+	 * @param backupsDirectory
+	 * @return
+	 */
+	public static File getDirectory(File backupsDirectory) {
+		return new File(backupsDirectory, DIRECTORY_NAME);
+	}
+	
+	public File getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * @param throttle limits how fast files are read and chunks are written by backups
+	 */
+	public void setThrottle(BackupThrottle throttle) {
+		this.throttle = throttle;
+	}
+	
+	/**
+	 * Stores every file of sourceFolder that is not already in the store and records the folder in snapshotFile. Files
+	 * whose size and modification time match previousSnapshot are not read at all; their chunks are taken from
+	 * previousSnapshot.
+	 * 
+	 * @param sourceFolder
+	 * @param snapshotFile
+	 * @param previousSnapshot the snapshot of the previous backup of the same folder, or null
+	 * @return statistics about the backup
+	 * @throws IOException
+	 */
+	public Result backup(File sourceFolder, File snapshotFile, ChunkSnapshot previousSnapshot) throws IOException {
+		return backup(sourceFolder, snapshotFile, previousSnapshot, PathFilter.ALL);
+	}
+	
+	/**
+	 * Stores every file of sourceFolder that filter includes and that is not already in the store, and records them in
+	 * snapshotFile. Directories that filter rejects are not entered.
+	 * 
+	 * @param sourceFolder
+	 * @param snapshotFile
+	 * @param previousSnapshot the snapshot of the previous backup of the same folder, or null
+	 * @param filter decides which paths are backed up
+	 * @return statistics about the backup
+	 * @throws IOException
+	 */
+	public Result backup(File sourceFolder, File snapshotFile, ChunkSnapshot previousSnapshot, PathFilter filter) throws IOException {
+		BackupOperation operation = new BackupOperation(sourceFolder.toPath(), previousSnapshot, filter);
+		Files.walkFileTree(sourceFolder.toPath(), operation);
+		operation.finish();
+		
+		boolean completed = false;
+		try {
+			operation.result.checksum = operation.snapshot.save(snapshotFile);
+			completed = true;
+		} finally {
+			if (!completed) {
+				Files.deleteIfExists(snapshotFile.toPath());
+			}
+		}
+		return operation.result;
+	}
+	
+	/**
+	 * Writes the contents of a file recorded in a snapshot to target.
+	 * 
+	 * @param entry
+	 * @param target
+	 * @throws IOException if a chunk is missing or damaged
+	 */
+	public void restoreFile(ChunkSnapshot.Entry entry, Path target) throws IOException {
+		try (OutputStream out = Files.newOutputStream(target)) {
+			for (String hash : entry.getChunks()) {
+				out.write(readChunk(hash));
+			}
+		}
+	}
+	
+	/**
+	 * Reads a chunk and checks that its contents still match its hash.
+	 * 
+	 * @param hash
+	 * @return the contents of the chunk
+	 * @throws IOException if the chunk is missing or damaged
+	 */
+	public byte[] readChunk(String hash) throws IOException {
+		Path chunkFile = getChunkFile(hash).toPath();
+		byte[] stored = Files.readAllBytes(chunkFile);
+		if (stored.length == 0) {
+			throw new IOException("Damaged chunk: " + chunkFile);
+		}
+		
+		byte[] data;
+		if (stored[0] == FORMAT_STORED) {
+			data = Arrays.copyOfRange(stored, 1, stored.length);
+		} else if (stored[0] == FORMAT_DEFLATED) {
+			data = inflate(stored, chunkFile);
+		} else {
+			throw new IOException("Unknown chunk format: " + chunkFile);
+		}
+		
+		if (!hash.equals(hash(data, 0, data.length))) {
+			throw new IOException("Damaged chunk, its contents do not match its hash: " + chunkFile);
+		}
+		return data;
+	}
+	
+	/**
+	 * Gets the file a chunk is stored in. Chunks are spread over 256 directories named after the first two characters
+	 * of their hash, so that no single directory grows too large.
+	 * 
+	 * @param hash
+	 * @return
+	 */
+	public File getChunkFile(String hash) {
+		return new File(new File(directory, hash.substring(0, 2)), hash);
+	}
+	
+	/**
+	 * Finds where the chunk starting at offset ends. The boundary only depends on the bytes of the chunk itself, so the
+	 * same contents are split the same way wherever they appear in a file.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length the number of bytes available, which must include at least {@link #MAX_CHUNK_SIZE} bytes unless
+	 *            the end of the file has been reached
+	 * @return the length of the chunk
+	 */
+	protected static int findBoundary(byte[] data, int offset, int length) {
+		if (length <= MIN_CHUNK_SIZE) {
+			return length;
+		}
+		int limit = Math.min(length, MAX_CHUNK_SIZE);
+		long hash = 0;
+		for (int i = MIN_CHUNK_SIZE; i < limit; i++) {
+			hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+			if ((hash & BOUNDARY_MASK) == 0) {
+				return i + 1;
+			}
+		}
+		return limit;
+	}
+	
+	/**
+	 * Splits a file into chunks and stores the chunks that are not in the store yet. Intended to be run on the
+	 * executor.
+	 */
+	private FileChunks storeFile(Path file) throws IOException {
+		FileChunks chunks = new FileChunks();
+		byte[] buffer = new byte[READ_BUFFER_SIZE];
+		int start = 0;
+		int end = 0;
+		boolean endOfFile = false;
+		try (InputStream in = throttle.wrap(Files.newInputStream(file))) {
+			while (true) {
+				// Keep at least one maximum sized chunk in the buffer so boundaries do not depend on how the file is read
+				if (!endOfFile && end - start < MAX_CHUNK_SIZE) {
+					System.arraycopy(buffer, start, buffer, 0, end - start);
+					end -= start;
+					start = 0;
+					while (end < buffer.length) {
+						int read = in.read(buffer, end, buffer.length - end);
+						if (read < 0) {
+							endOfFile = true;
+							break;
+						}
+						end += read;
+					}
+				}
+				if (start == end) {
+					break;
+				}
+				
+				int length = findBoundary(buffer, start, end - start);
+				chunks.hashes.add(storeChunk(buffer, start, length, chunks));
+				chunks.bytesRead += length;
+				start += length;
+			}
+		}
+		return chunks;
+	}
+	
+	/**
+	 * Stores a single chunk unless the store already has it.
+	 * 
+	 * @return the hash of the chunk
+	 */
+	private String storeChunk(byte[] data, int offset, int length, FileChunks chunks) throws IOException {
+		String hash = hash(data, offset, length);
+		File chunkFile = getChunkFile(hash);
+		if (chunkFile.isFile()) {
+			return hash;
+		}
+		
+		byte[] compressed = deflate(data, offset, length);
+		Files.createDirectories(chunkFile.getParentFile().toPath());
+		Path temporaryFile = Files.createTempFile(chunkFile.getParentFile().toPath(), hash, ".tmp");
+		try (OutputStream out = throttle.wrap(Files.newOutputStream(temporaryFile))) {
+			if (compressed != null) {
+				out.write(FORMAT_DEFLATED);
+				out.write(compressed);
+			} else {
+				out.write(FORMAT_STORED);
+				out.write(data, offset, length);
+			}
+		}
+		chunks.bytesWritten += (compressed != null ? compressed.length : length) + 1;
+		chunks.newChunkCount++;
+		
+		// Another backup thread may have stored the same chunk in the meantime, which is fine since it is identical
+		try {
+			Files.move(temporaryFile, chunkFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			try {
+				Files.move(temporaryFile, chunkFile.toPath());
+			} catch (FileAlreadyExistsException e2) {
+				Files.delete(temporaryFile);
+			}
+		}
+		return hash;
+	}
+	
+	/**
+	 * Deflates a chunk.
+	 * 
+	 * @return the compressed bytes, or null if they would not be smaller than the chunk itself
+	 */
+	private byte[] deflate(byte[] data, int offset, int length) {
+		Deflater[] threadDeflaters = deflaters.get();
+		Deflater deflater = threadDeflaters[compressionLevel + 1];
+		if (deflater == null) {
+			deflater = new Deflater(compressionLevel, true);
+			threadDeflaters[compressionLevel + 1] = deflater;
+		}
+		deflater.reset();
+		deflater.setInput(data, offset, length);
+		deflater.finish();
+		
+		byte[] output = new byte[length];
+		int position = 0;
+		while (!deflater.finished() && position < output.length) {
+			position += deflater.deflate(output, position, output.length - position);
+		}
+		return deflater.finished() && position < length ? Arrays.copyOf(output, position) : null;
+	}
+	
+	private static byte[] inflate(byte[] stored, Path chunkFile) throws IOException {
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(stored, 1, stored.length - 1);
+			byte[] output = new byte[MAX_CHUNK_SIZE];
+			int position = 0;
+			while (!inflater.finished()) {
+				if (position == output.length || inflater.needsInput()) {
+					throw new IOException("Damaged chunk: " + chunkFile);
+				}
+				position += inflater.inflate(output, position, output.length - position);
+			}
+			return Arrays.copyOf(output, position);
+		} catch (DataFormatException e) {
+			throw new IOException("Damaged chunk: " + chunkFile, e);
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	private static String hash(byte[] data, int offset, int length) {
+		MessageDigest digest = digests.get();
+		digest.reset();
+		digest.update(data, offset, length);
+		byte[] hash = digest.digest();
+		
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = Character.forDigit((hash[i] >> 4) & 0xF, 16);
+			hex[i * 2 + 1] = Character.forDigit(hash[i] & 0xF, 16);
+		}
+		return new String(hex);
+	}
+	
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Statistics about a backup into the store.
+	 */
+	public static class Result {
+		
+		protected long fileCount;
+		protected long unchangedFileCount;
+		protected long chunkCount;
+		protected long newChunkCount;
+		protected long bytesRead;
+		protected long bytesWritten;
+		protected long newestModified;
+		protected long checksum;
+		
+		/**
+		 * @return the number of files in the snapshot
+		 */
+		public long getFileCount() {
+			return fileCount;
+		}
+		
+		/**
+		 * @return the number of files that were taken from the previous snapshot without reading them
+		 */
+		public long getUnchangedFileCount() {
+			return unchangedFileCount;
+		}
+		
+		/**
+		 * @return the number of chunks of the files that were read
+		 */
+		public long getChunkCount() {
+			return chunkCount;
+		}
+		
+		/**
+		 * @return the number of chunks that were not in the store yet
+		 */
+		public long getNewChunkCount() {
+			return newChunkCount;
+		}
+		
+		public long getBytesRead() {
+			return bytesRead;
+		}
+		
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+		
+		/**
+		 * @return the most recent modification time in milliseconds of any file or directory in the snapshot
+		 */
+		public long getNewestModified() {
+			return newestModified;
+		}
+		
+		/**
+		 * @return the CRC-32 checksum of the snapshot file
+		 */
+		public long getChecksum() {
+			return checksum;
+		}
+	}
+	
+	/**
+	 * The chunks of a single file that was read.
+	 */
+	private static class FileChunks {
+		
+		final List<String> hashes = new ArrayList<>();
+		long newChunkCount;
+		long bytesRead;
+		long bytesWritten;
+	}
+	
+	/**
+	 * A file waiting for its chunks to be stored, so that files are added to the snapshot in order.
+	 */
+	private static class PendingFile {
+		
+		final String name;
+		final BasicFileAttributes attrs;
+		final Future<FileChunks> future;
+		
+		PendingFile(String name, BasicFileAttributes attrs, Future<FileChunks> future) {
+			this.name = name;
+			this.attrs = attrs;
+			this.future = future;
+		}
+	}
+	
+	/**
+	 * The state of a single call to {@link ChunkStore#backup(File, File, ChunkSnapshot, PathFilter)}.
+	 */
+	private class BackupOperation extends SimpleFileVisitor<Path> {
+		
+		private final Path root;
+		private final ChunkSnapshot previousSnapshot;
+		private final PathFilter filter;
+		private final ChunkSnapshot snapshot = new ChunkSnapshot();
+		private final Deque<PendingFile> pending = new ArrayDeque<>();
+		private final Result result = new Result();
+		
+		BackupOperation(Path root, ChunkSnapshot previousSnapshot, PathFilter filter) {
+			this.root = root;
+			this.previousSnapshot = previousSnapshot;
+			this.filter = filter;
+		}
+		
+		@Override
+		public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+			if (!dir.equals(root) && !filter.includesDirectory(entryName(dir))) {
+				return FileVisitResult.SKIP_SUBTREE;
+			}
+			result.newestModified = Math.max(result.newestModified, attrs.lastModifiedTime().toMillis());
+			if (!dir.equals(root)) {
+				snapshot.putDirectory(entryName(dir), attrs.lastModifiedTime().toMillis());
+			}
+			return FileVisitResult.CONTINUE;
+		}
+		
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+			String name = entryName(file);
+			if (!attrs.isRegularFile() || !filter.includesFile(name)) {
+				return FileVisitResult.CONTINUE;
+			}
+			long modified = attrs.lastModifiedTime().toMillis();
+			result.newestModified = Math.max(result.newestModified, modified);
+			result.fileCount++;
+			
+			ChunkSnapshot.Entry previous = previousSnapshot == null ? null : previousSnapshot.getFile(name);
+			if (previous != null && previous.getSize() == attrs.size() && previous.getModified() == modified) {
+				pending.add(new PendingFile(name, attrs, null));
+			} else {
+				pending.add(new PendingFile(name, attrs, executor.submit(() -> storeFile(file))));
+			}
+			while (pending.size() > maxFilesInFlight) {
+				completeNext();
+			}
+			return FileVisitResult.CONTINUE;
+		}
+		
+		void finish() throws IOException {
+			while (!pending.isEmpty()) {
+				completeNext();
+			}
+		}
+		
+		private void completeNext() throws IOException {
+			PendingFile next = pending.poll();
+			long modified = next.attrs.lastModifiedTime().toMillis();
+			if (next.future == null) {
+				result.unchangedFileCount++;
+				snapshot.putFile(next.name, next.attrs.size(), modified, previousSnapshot.getFile(next.name).getChunks());
+				return;
+			}
+			
+			FileChunks chunks = awaitFile(next);
+			result.chunkCount += chunks.hashes.size();
+			result.newChunkCount += chunks.newChunkCount;
+			result.bytesRead += chunks.bytesRead;
+			result.bytesWritten += chunks.bytesWritten;
+			snapshot.putFile(next.name, chunks.bytesRead, modified, chunks.hashes);
+		}
+		
+		private FileChunks awaitFile(PendingFile file) throws IOException {
+			try {
+				return file.future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while storing " + file.name);
+			} catch (ExecutionException e) {
+				throw new IOException("Unable to store " + file.name, e.getCause());
+			}
+		}
+		
+		private String entryName(Path path) {
+			return root.relativize(path).toString().replace(File.separatorChar, '/');
+		}
+	}
+	
+}
@@ -0,0 +1,197 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class ChunkStoreTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-chunks");
+	
+	private ExecutorService executor;
+	private ChunkStore store;
+	
+	@Before
+	public void setUp() {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		executor = Executors.newFixedThreadPool(2);
+		store = new ChunkStore(ChunkStore.getDirectory(tempDirectory), executor, 2, Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	@After
+	public void tearDown() {
+		executor.shutdown();
+		
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * findBoundary()
+	 */
+	
+	@Test
+	public void testChunkSizeLimits() {
+		byte[] data = randomBytes(1024 * 1024, 1);
+		int offset = 0;
+		while (offset < data.length) {
+			int length = ChunkStore.findBoundary(data, offset, data.length - offset);
+			assertTrue(length <= ChunkStore.MAX_CHUNK_SIZE);
+			assertTrue(length >= ChunkStore.MIN_CHUNK_SIZE || offset + length == data.length);
+			offset += length;
+		}
+	}
+	
+	@Test
+	public void testBoundariesRealignAfterInsertion() {
+		byte[] data = randomBytes(1024 * 1024, 2);
+		byte[] shifted = new byte[data.length + 100];
+		System.arraycopy(data, 0, shifted, 100, data.length);
+		
+		Set<Integer> boundaries = boundaryEnds(data, 0);
+		Set<Integer> shiftedBoundaries = boundaryEnds(shifted, -100);
+		shiftedBoundaries.retainAll(boundaries);
+		
+		// Apart from the first few, the chunks of the shifted data end where the chunks of the original data end
+		assertTrue(shiftedBoundaries.size() >= boundaries.size() - 3);
+	}
+	
+	/*
+	 * backup()
+	 */
+	
+	@Test
+	public void testBackupAndRestoreFile() throws IOException {
+		byte[] content = randomBytes(300 * 1024, 3);
+		File server = createServer("server1", content);
+		
+		File snapshotFile = new File(tempDirectory, "server1.snapshot");
+		ChunkStore.Result result = store.backup(server, snapshotFile, null);
+		assertEquals(2, result.getFileCount());
+		assertEquals(content.length, result.getBytesRead());
+		
+		ChunkSnapshot snapshot = ChunkSnapshot.load(snapshotFile);
+		File restored = new File(tempDirectory, "restored");
+		store.restoreFile(snapshot.getFile("world/region.mca"), restored.toPath());
+		assertArrayEquals(content, Files.readAllBytes(restored.toPath()));
+		assertTrue(snapshot.getFile("eula.txt").getChunks().isEmpty());
+	}
+	
+	@Test
+	public void testIdenticalFilesAreStoredOnce() throws IOException {
+		byte[] content = randomBytes(300 * 1024, 4);
+		File server1 = createServer("server1", content);
+		File server2 = createServer("server2", content);
+		
+		ChunkStore.Result first = store.backup(server1, new File(tempDirectory, "server1.snapshot"), null);
+		ChunkStore.Result second = store.backup(server2, new File(tempDirectory, "server2.snapshot"), null);
+		
+		assertTrue(first.getNewChunkCount() > 0);
+		assertEquals(0, second.getNewChunkCount());
+		assertEquals(first.getChunkCount(), second.getChunkCount());
+	}
+	
+	@Test
+	public void testUnchangedFilesAreNotRead() throws IOException {
+		File server = createServer("server1", randomBytes(100 * 1024, 5));
+		File firstSnapshot = new File(tempDirectory, "first.snapshot");
+		store.backup(server, firstSnapshot, null);
+		
+		ChunkStore.Result result = store.backup(server, new File(tempDirectory, "second.snapshot"), ChunkSnapshot.load(firstSnapshot));
+		assertEquals(2, result.getUnchangedFileCount());
+		assertEquals(0, result.getBytesRead());
+	}
+	
+	@Test
+	public void testSmallChangeOnlyStoresNearbyChunks() throws IOException {
+		byte[] content = randomBytes(1024 * 1024, 6);
+		File server = createServer("server1", content);
+		ChunkStore.Result first = store.backup(server, new File(tempDirectory, "first.snapshot"), null);
+		
+		content[512 * 1024] ^= 1;
+		Files.write(new File(server, "world/region.mca").toPath(), content);
+		ChunkStore.Result second = store.backup(server, new File(tempDirectory, "second.snapshot"), null);
+		
+		assertEquals(first.getChunkCount(), second.getChunkCount());
+		assertTrue(second.getNewChunkCount() <= 2);
+	}
+	
+	@Test(expected = IOException.class)
+	public void testDamagedChunkIsDetected() throws IOException {
+		File server = createServer("server1", randomBytes(10 * 1024, 7));
+		File snapshotFile = new File(tempDirectory, "server1.snapshot");
+		store.backup(server, snapshotFile, null);
+		
+		String hash = ChunkSnapshot.load(snapshotFile).getFile("world/region.mca").getChunks().get(0);
+		byte[] stored = Files.readAllBytes(store.getChunkFile(hash).toPath());
+		stored[stored.length - 1] ^= 1;
+		Files.write(store.getChunkFile(hash).toPath(), stored);
+		
+		store.readChunk(hash);
+	}
+	
+	private File createServer(String name, byte[] regionContent) throws IOException {
+		File server = new File(tempDirectory, name);
+		new File(server, "world").mkdirs();
+		Files.write(new File(server, "world/region.mca").toPath(), regionContent);
+		Files.write(new File(server, "eula.txt").toPath(), new byte[0]);
+		return server;
+	}
+	
+	private static Set<Integer> boundaryEnds(byte[] data, int shift) {
+		Set<Integer> ends = new HashSet<>();
+		int offset = 0;
+		while (offset < data.length) {
+			int length = ChunkStore.findBoundary(data, offset, data.length - offset);
+			offset += length;
+			ends.add(offset + shift);
+		}
+		return ends;
+	}
+	
+	private static byte[] randomBytes(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+	
+}
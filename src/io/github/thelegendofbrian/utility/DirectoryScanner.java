@@ -0,0 +1,534 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the most recently modified file or directory in a directory tree. The attributes of each entry are read only
+ * once, and all state is kept in the returned {@link ScanResult}, so several trees can be scanned at the same time.
+ * <p>
+ * Given the {@link ScanIndex} of a previous scan, directories whose modification time has not changed are not listed
+ * again; their recorded children are checked directly instead. Files modified in place do not change the modification
+ * time of their directory, so every file is still checked, unless its directory is in one of the trusted directories.
+ * The files of an unchanged trusted directory are taken from the index without being checked, but its subdirectories
+ * still are, since a file added deeper down only changes the modification time of the directory it was added to.
+ * <p>
+ * Paths rejected by the {@link PathFilter} are left out of the scan, so changes to them never make a server look
+ * modified. An excluded path is recognized by its name alone, so its attributes are never read.
+ * <p>
+ * When a scan runs in a {@link ForkJoinPool}, either because it is called from one of its tasks or because the pool
+ * was set with {@link #setPool(ForkJoinPool)}, each top-level directory is scanned as a separate task. A scan that
+ * stops early stops all of them.
+ * <p>
+ * Directories are read through a {@link DirectoryStream} one entry at a time, so even a directory with millions of
+ * files is never held in memory as a whole. The index is the only state that grows with the tree, so it is dropped once
+ * it holds more files than its {@link MemoryBudget} allows, and the next scan lists every directory instead.
+ */
+public class DirectoryScanner {
+	
+	/**
+	 * Used as stopAfter to scan the whole tree.
+	 */
+	public static final long SCAN_EVERYTHING = Long.MAX_VALUE;
+	
+	/**
+	 * The memory a file takes in the index, with its name.
+	 */
+	protected static final long INDEXED_FILE_MEMORY = 128L;
+	
+	private final long stopAfter;
+	private ScanIndex previousIndex = new ScanIndex();
+	private Set<String> trustedDirectories = Collections.emptySet();
+	private PathFilter filter = PathFilter.ALL;
+	private ForkJoinPool pool;
+	private long maxIndexedFiles = Long.MAX_VALUE;
+	
+	/**
+	 * @param stopAfter the time in milliseconds after which a modification ends the scan early, or
+	 *            {@link #SCAN_EVERYTHING}
+	 */
+	public DirectoryScanner(long stopAfter) {
+		this.stopAfter = stopAfter;
+	}
+	
+	/**
+	 * Scans a directory tree for its most recent modification time. If stopAfter is not {@link #SCAN_EVERYTHING}, the
+	 * scan stops as soon as an entry modified after stopAfter is found, in which case the result is incomplete and its
+	 * newest modification time is only a lower bound.
+	 * 
+	 * @param root
+	 * @param stopAfter the time in milliseconds after which a modification ends the scan early
+	 * @return
+	 * @throws IOException
+	 */
+	public static ScanResult scan(Path root, long stopAfter) throws IOException {
+		return new DirectoryScanner(stopAfter).scan(root);
+	}
+	
+	/**
+	 * Sets the index of the previous scan of the same tree.
+	 * 
+	 * @param previousIndex
+	 */
+	public void setPreviousIndex(ScanIndex previousIndex) {
+		this.previousIndex = previousIndex;
+	}
+	
+	/**
+	 * Sets the directories, relative to the scanned root and separated by '/', whose files are only ever added or
+	 * replaced and never modified in place. While the modification time of such a directory, or of a directory below
+	 * it, is unchanged, its files are not checked; only its subdirectories are.
+	 * 
+	 * @param trustedDirectories
+	 */
+	public void setTrustedDirectories(Set<String> trustedDirectories) {
+		this.trustedDirectories = trustedDirectories;
+	}
+	
+	/**
+	 * Sets which paths are scanned. A previous index made with a different filter is not used, since it does not list
+	 * the children that only one of the filters includes.
+	 * 
+	 * @param filter
+	 */
+	public void setPathFilter(PathFilter filter) {
+		this.filter = filter;
+	}
+	
+	/**
+	 * Sets the pool to scan the top-level directories on in parallel, when the scan is not already called from a task of
+	 * a pool.
+	 * 
+	 * @param pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Limits the number of files recorded in the index to what fits in budget. A tree with more files is scanned
+	 * without leaving an index.
+	 * 
+	 * @param budget the budget of the index of this scan
+	 */
+	public void setMemoryBudget(MemoryBudget budget) {
+		this.maxIndexedFiles = budget.getBytes() / INDEXED_FILE_MEMORY;
+	}
+	
+	/**
+	 * Scans a directory tree. If the scan is complete, {@link ScanResult#getIndex()} holds the index for the next scan.
+	 * 
+	 * @param root
+	 * @return
+	 * @throws IOException
+	 */
+	public ScanResult scan(Path root) throws IOException {
+		if (pool != null && !ForkJoinTask.inForkJoinPool()) {
+			try {
+				return pool.invoke(new RecursiveTask<ScanResult>() {
+					@Override
+					protected ScanResult compute() {
+						try {
+							return scanTree(root);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+		return scanTree(root);
+	}
+	
+	private ScanResult scanTree(Path root) throws IOException {
+		ScanResult result = new ScanResult(new AtomicBoolean(), new AtomicLong());
+		long startTime = System.nanoTime();
+		if (!previousIndex.getFilter().equals(filter.toString())) {
+			previousIndex = new ScanIndex();
+		}
+		result.index.setFilter(filter.toString());
+		
+		BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		result.directoryCount++;
+		scanDirectory(root, "", attrs, result);
+		
+		if (!result.complete || result.indexedFiles.get() > maxIndexedFiles) {
+			result.index = null;
+		}
+		result.elapsedNanos = System.nanoTime() - startTime;
+		return result;
+	}
+	
+	/**
+	 * Scans a single directory and everything below it.
+	 * 
+	 * @return the record of the directory, or null if the scan stopped early
+	 */
+	private ScanIndex.DirectoryRecord scanDirectory(Path dir, String relativePath, BasicFileAttributes dirAttrs, ScanResult result) throws IOException {
+		long modified = dirAttrs.lastModifiedTime().toMillis();
+		if (!record(modified, result)) {
+			return null;
+		}
+		
+		ScanIndex.DirectoryRecord previous = previousIndex.get(relativePath);
+		boolean unchanged = previous != null && previous.getModified() == modified;
+		
+		ScanIndex.DirectoryRecord record = new ScanIndex.DirectoryRecord(modified);
+		List<SubdirectoryScan> forked = relativePath.isEmpty() && ForkJoinTask.inForkJoinPool() ? new ArrayList<>() : null;
+		boolean complete;
+		try {
+			complete = scanChildren(dir, relativePath, previous, unchanged, record, forked, result);
+		} catch (IOException | RuntimeException e) {
+			// The tasks already forked are stopped and waited for, so none of them keeps scanning once the scan failed
+			if (forked != null) {
+				result.stopped.set(true);
+				forked.forEach(ForkJoinTask::quietlyJoin);
+			}
+			throw e;
+		}
+		if (forked != null && !joinForked(forked, record, result)) {
+			complete = false;
+		}
+		if (!complete) {
+			return null;
+		}
+		
+		// Once the index is over its limit it is dropped, so the records of further directories are not kept
+		if (result.indexedFiles.get() <= maxIndexedFiles) {
+			result.index.put(relativePath, record);
+		}
+		return record;
+	}
+	
+	/**
+	 * Scans the children of a directory, which are taken from the previous index while the directory is unchanged.
+	 * 
+	 * @return false if the scan stopped early
+	 */
+	private boolean scanChildren(Path dir, String relativePath, ScanIndex.DirectoryRecord previous, boolean unchanged, ScanIndex.DirectoryRecord record,
+			List<SubdirectoryScan> forked, ScanResult result) throws IOException {
+		List<Path> children = null;
+		List<BasicFileAttributes> childAttrs = new ArrayList<>();
+		if (unchanged && isTrusted(relativePath)) {
+			children = readRecordedSubdirectories(dir, previous, childAttrs);
+			if (children != null) {
+				result.skippedDirectoryCount++;
+				for (ScanIndex.FileRecord file : previous.getFiles()) {
+					if (!addFile(file, record, result)) {
+						return false;
+					}
+				}
+			}
+		} else if (unchanged) {
+			children = readRecordedChildren(dir, previous, childAttrs);
+		}
+		if (children != null) {
+			for (int i = 0; i < children.size(); i++) {
+				if (!scanChild(children.get(i), childAttrs.get(i), relativePath, record, forked, result)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path child : stream) {
+				BasicFileAttributes attrs = readIncludedAttributes(child, relativePath);
+				if (attrs != null && !scanChild(child, attrs, relativePath, record, forked, result)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Waits for the tasks forked for the top-level directories and merges their results. They are merged even when the
+	 * scan stopped early, since the task that stopped it holds the modification that stopped it, and every task is
+	 * joined before the failure of one of them is thrown, so none of them keeps running once the scan returns.
+	 * 
+	 * @return false if the scan stopped early
+	 */
+	private boolean joinForked(List<SubdirectoryScan> forked, ScanIndex.DirectoryRecord record, ScanResult result) throws IOException {
+		forked.forEach(ForkJoinTask::quietlyJoin);
+		boolean complete = true;
+		for (SubdirectoryScan task : forked) {
+			ScanIndex.DirectoryRecord childRecord = task.await();
+			result.merge(task.result);
+			if (childRecord == null) {
+				complete = false;
+			} else {
+				record.newestModified = Math.max(record.newestModified, childRecord.getNewestModified());
+			}
+		}
+		return complete;
+	}
+	
+	/**
+	 * Scans an entry of a directory, forking a task for it if it is a top-level directory scanned in parallel.
+	 * 
+	 * @param forked the tasks forked for the top-level directories, or null to scan subdirectories right away
+	 * @return false if the scan stopped early
+	 */
+	private boolean scanChild(Path child, BasicFileAttributes attrs, String relativePath, ScanIndex.DirectoryRecord record, List<SubdirectoryScan> forked, ScanResult result)
+			throws IOException {
+		String name = child.getFileName().toString();
+		if (attrs.isDirectory()) {
+			result.directoryCount++;
+			record.subdirectories.add(name);
+			String childPath = relativePath.isEmpty() ? name : relativePath + "/" + name;
+			if (forked != null) {
+				SubdirectoryScan task = new SubdirectoryScan(child, childPath, attrs, new ScanResult(result.stopped, result.indexedFiles));
+				task.fork();
+				forked.add(task);
+				return true;
+			}
+			ScanIndex.DirectoryRecord childRecord = scanDirectory(child, childPath, attrs, result);
+			if (childRecord == null) {
+				return false;
+			}
+			record.newestModified = Math.max(record.newestModified, childRecord.getNewestModified());
+			return true;
+		}
+		return addFile(new ScanIndex.FileRecord(name, attrs.size(), attrs.lastModifiedTime().toMillis()), record, result);
+	}
+	
+	/**
+	 * Adds a file to the record of its directory.
+	 * 
+	 * @return false if the scan stopped early
+	 */
+	private boolean addFile(ScanIndex.FileRecord file, ScanIndex.DirectoryRecord record, ScanResult result) {
+		result.fileCount++;
+		if (!record(file.getModified(), result)) {
+			return false;
+		}
+		if (result.indexedFiles.incrementAndGet() <= maxIndexedFiles) {
+			record.files.add(file);
+		}
+		record.newestModified = Math.max(record.newestModified, file.getModified());
+		return true;
+	}
+	
+	/**
+	 * Checks whether a directory is one of the trusted directories or inside one.
+	 */
+	private boolean isTrusted(String relativePath) {
+		for (String path = relativePath; !path.isEmpty(); path = path.substring(0, Math.max(0, path.lastIndexOf('/')))) {
+			if (trustedDirectories.contains(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Scans a top-level directory into its own result, which is merged into the result of the whole scan once done.
+	 */
+	private class SubdirectoryScan extends RecursiveTask<ScanIndex.DirectoryRecord> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Path dir;
+		private final String relativePath;
+		private final BasicFileAttributes attrs;
+		private final ScanResult result;
+		
+		SubdirectoryScan(Path dir, String relativePath, BasicFileAttributes attrs, ScanResult result) {
+			this.dir = dir;
+			this.relativePath = relativePath;
+			this.attrs = attrs;
+			this.result = result;
+		}
+		
+		@Override
+		protected ScanIndex.DirectoryRecord compute() {
+			try {
+				return scanDirectory(dir, relativePath, attrs, result);
+			} catch (IOException e) {
+				// The scan fails anyway, so the other tasks are stopped
+				result.stopped.set(true);
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		ScanIndex.DirectoryRecord await() throws IOException {
+			try {
+				return join();
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+	}
+	
+	/**
+	 * Reads the attributes of the children recorded by the previous scan.
+	 * 
+	 * @return the children, or null if one of them no longer exists and the directory must be listed after all
+	 */
+	private static List<Path> readRecordedChildren(Path dir, ScanIndex.DirectoryRecord previous, List<BasicFileAttributes> childAttrs) throws IOException {
+		List<Path> children = new ArrayList<>(previous.getFiles().size() + previous.getSubdirectories().size());
+		try {
+			for (ScanIndex.FileRecord file : previous.getFiles()) {
+				Path child = dir.resolve(file.getName());
+				childAttrs.add(Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+				children.add(child);
+			}
+			for (String subdirectory : previous.getSubdirectories()) {
+				Path child = dir.resolve(subdirectory);
+				childAttrs.add(Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+				children.add(child);
+			}
+		} catch (NoSuchFileException e) {
+			childAttrs.clear();
+			return null;
+		}
+		return children;
+	}
+	
+	/**
+	 * Reads the attributes of the subdirectories recorded by the previous scan, for a directory whose files are trusted.
+	 * 
+	 * @return the subdirectories, or null if one of them no longer exists and the directory must be listed after all
+	 */
+	private static List<Path> readRecordedSubdirectories(Path dir, ScanIndex.DirectoryRecord previous, List<BasicFileAttributes> childAttrs) throws IOException {
+		List<Path> children = new ArrayList<>(previous.getSubdirectories().size());
+		try {
+			for (String subdirectory : previous.getSubdirectories()) {
+				Path child = dir.resolve(subdirectory);
+				childAttrs.add(Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+				children.add(child);
+			}
+		} catch (NoSuchFileException e) {
+			childAttrs.clear();
+			return null;
+		}
+		return children;
+	}
+	
+	/**
+	 * Reads the attributes of a listed child of a directory, if the filter includes it.
+	 * 
+	 * @return the attributes, or null if the child is left out
+	 */
+	private BasicFileAttributes readIncludedAttributes(Path child, String relativePath) throws IOException {
+		String name = child.getFileName().toString();
+		String childPath = relativePath.isEmpty() ? name : relativePath + "/" + name;
+		if (filter.isExcluded(childPath)) {
+			return null;
+		}
+		BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		return (attrs.isDirectory() ? filter.includesDirectory(childPath) : filter.includesFile(childPath)) ? attrs : null;
+	}
+	
+	/**
+	 * Records a modification time in the result.
+	 * 
+	 * @return false if the scan should stop, because of this modification or one found by another task
+	 */
+	private boolean record(long modified, ScanResult result) {
+		if (modified > result.newestModified) {
+			result.newestModified = modified;
+		}
+		if (modified > stopAfter) {
+			result.stopped.set(true);
+		}
+		if (result.stopped.get()) {
+			result.complete = false;
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * The outcome of a single scan.
+	 */
+	public static class ScanResult {
+		
+		protected long newestModified;
+		protected long fileCount;
+		protected long directoryCount;
+		protected long skippedDirectoryCount;
+		protected long elapsedNanos;
+		protected boolean complete = true;
+		protected ScanIndex index = new ScanIndex();
+		
+		// Shared by the results of all tasks of a scan
+		private final AtomicBoolean stopped;
+		private final AtomicLong indexedFiles;
+		
+		ScanResult(AtomicBoolean stopped, AtomicLong indexedFiles) {
+			this.stopped = stopped;
+			this.indexedFiles = indexedFiles;
+		}
+		
+		/**
+		 * Adds the result of a task that scanned part of the same tree.
+		 */
+		void merge(ScanResult other) {
+			newestModified = Math.max(newestModified, other.newestModified);
+			fileCount += other.fileCount;
+			directoryCount += other.directoryCount;
+			skippedDirectoryCount += other.skippedDirectoryCount;
+			complete &= other.complete;
+			index.putAll(other.index);
+		}
+		
+		/**
+		 * @return the most recent modification time in milliseconds, or 0 if nothing was found
+		 */
+		public long getNewestModified() {
+			return newestModified;
+		}
+		
+		public long getFileCount() {
+			return fileCount;
+		}
+		
+		public long getDirectoryCount() {
+			return directoryCount;
+		}
+		
+		/**
+		 * @return the number of unchanged trusted directories whose files were taken from the index without being checked
+		 */
+		public long getSkippedDirectoryCount() {
+			return skippedDirectoryCount;
+		}
+		
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+		
+		/**
+		 * @return false if the scan stopped early because a modification after its stopAfter time was found
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+		
+		/**
+		 * @return the index for the next scan, or null if the scan was not complete
+		 */
+		public ScanIndex getIndex() {
+			return index;
+		}
+	}
+	
+}
@@ -0,0 +1,287 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class DirectoryScannerTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-scanner");
+	
+	@Before
+	public void setUp() throws IOException {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		File subDirectory = new File(tempDirectory, "world");
+		subDirectory.mkdir();
+		for (int i = 0; i < 10; i++) {
+			File file = new File(subDirectory, "file" + i);
+			file.createNewFile();
+			file.setLastModified(1000L * i);
+		}
+		subDirectory.setLastModified(0L);
+		tempDirectory.setLastModified(0L);
+	}
+	
+	@After
+	public void tearDown() {
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * scan()
+	 */
+	
+	@Test
+	public void testScanEverything() throws IOException {
+		DirectoryScanner.ScanResult result = DirectoryScanner.scan(tempDirectory.toPath(), DirectoryScanner.SCAN_EVERYTHING);
+		
+		assertTrue(result.isComplete());
+		assertEquals(9000L, result.getNewestModified());
+		assertEquals(10, result.getFileCount());
+		assertEquals(2, result.getDirectoryCount());
+	}
+	
+	@Test
+	public void testScanStopsEarly() throws IOException {
+		DirectoryScanner.ScanResult result = DirectoryScanner.scan(tempDirectory.toPath(), 4500L);
+		
+		assertFalse(result.isComplete());
+		assertTrue(result.getNewestModified() > 4500L);
+	}
+	
+	@Test
+	public void testScanWithoutNewerFiles() throws IOException {
+		DirectoryScanner.ScanResult result = DirectoryScanner.scan(tempDirectory.toPath(), 9000L);
+		
+		assertTrue(result.isComplete());
+		assertEquals(9000L, result.getNewestModified());
+	}
+	
+	/*
+	 * scan() with a ScanIndex
+	 */
+	
+	@Test
+	public void testScanWithIndexFindsFilesModifiedInPlace() throws IOException {
+		ScanIndex index = DirectoryScanner.scan(tempDirectory.toPath(), DirectoryScanner.SCAN_EVERYTHING).getIndex();
+		
+		// Modifying a file in place does not change the modification time of its directory
+		new File(tempDirectory, "world/file3").setLastModified(20000L);
+		
+		DirectoryScanner scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+		scanner.setPreviousIndex(index);
+		DirectoryScanner.ScanResult result = scanner.scan(tempDirectory.toPath());
+		
+		assertEquals(20000L, result.getNewestModified());
+		assertEquals(10, result.getFileCount());
+	}
+	
+	@Test
+	public void testScanWithIndexFindsNewFiles() throws IOException {
+		ScanIndex index = DirectoryScanner.scan(tempDirectory.toPath(), DirectoryScanner.SCAN_EVERYTHING).getIndex();
+		
+		File subDirectory = new File(tempDirectory, "world");
+		File newFile = new File(subDirectory, "newfile");
+		newFile.createNewFile();
+		newFile.setLastModified(30000L);
+		subDirectory.setLastModified(1L);
+		
+		DirectoryScanner scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+		scanner.setPreviousIndex(index);
+		DirectoryScanner.ScanResult result = scanner.scan(tempDirectory.toPath());
+		
+		assertEquals(30000L, result.getNewestModified());
+		assertEquals(11, result.getFileCount());
+	}
+	
+	@Test
+	public void testScanSkipsUnchangedTrustedDirectories() throws IOException {
+		ScanIndex index = DirectoryScanner.scan(tempDirectory.toPath(), DirectoryScanner.SCAN_EVERYTHING).getIndex();
+		File indexFile = new File(tempDirectory, ScanIndex.FILE_NAME);
+		index.save(indexFile);
+		indexFile.setLastModified(0L);
+		tempDirectory.setLastModified(0L);
+		
+		DirectoryScanner scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+		scanner.setPreviousIndex(ScanIndex.load(indexFile));
+		scanner.setTrustedDirectories(Collections.singleton("world"));
+		DirectoryScanner.ScanResult result = scanner.scan(tempDirectory.toPath());
+		
+		assertEquals(1, result.getSkippedDirectoryCount());
+		assertEquals(9000L, result.getNewestModified());
+		assertEquals(index.size(), result.getIndex().size());
+	}
+	
+	@Test
+	public void testScanFindsNewFilesDeepInTrustedDirectories() throws IOException {
+		File version = new File(tempDirectory, "libraries/org/foo/1.0");
+		version.mkdirs();
+		new File(version, "foo.jar").createNewFile();
+		new File(version, "foo.jar").setLastModified(0L);
+		for (File dir = version; dir != null; dir = dir.getParentFile()) {
+			dir.setLastModified(0L);
+		}
+		ScanIndex index = DirectoryScanner.scan(tempDirectory.toPath(), DirectoryScanner.SCAN_EVERYTHING).getIndex();
+		
+		// Adding a version only changes the modification time of the directory it is added to
+		File newVersion = new File(tempDirectory, "libraries/org/foo/1.1");
+		newVersion.mkdir();
+		new File(newVersion, "foo.jar").createNewFile();
+		new File(newVersion, "foo.jar").setLastModified(40000L);
+		newVersion.setLastModified(40000L);
+		new File(tempDirectory, "libraries/org/foo").setLastModified(40000L);
+		
+		DirectoryScanner scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+		scanner.setPreviousIndex(index);
+		scanner.setTrustedDirectories(Collections.singleton("libraries"));
+		DirectoryScanner.ScanResult result = scanner.scan(tempDirectory.toPath());
+		
+		assertEquals(40000L, result.getNewestModified());
+		assertEquals(12, result.getFileCount());
+		assertEquals(3, result.getSkippedDirectoryCount());
+		assertEquals(1, result.getIndex().get("libraries/org/foo/1.1").getFiles().size());
+	}
+	
+	@Test
+	public void testScanLeavesOutExcludedPaths() throws IOException {
+		File logs = new File(tempDirectory, "logs");
+		logs.mkdir();
+		new File(logs, "latest.log").createNewFile();
+		new File(logs, "latest.log").setLastModified(50000L);
+		logs.setLastModified(50000L);
+		new File(tempDirectory, "world/session.lock").createNewFile();
+		new File(tempDirectory, "world/session.lock").setLastModified(60000L);
+		new File(tempDirectory, "world").setLastModified(0L);
+		tempDirectory.setLastModified(0L);
+		
+		DirectoryScanner scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+		scanner.setPathFilter(new PathFilter(Collections.emptyList(), Arrays.asList("logs", "**/*.lock")));
+		DirectoryScanner.ScanResult result = scanner.scan(tempDirectory.toPath());
+		
+		assertEquals(9000L, result.getNewestModified());
+		assertEquals(10, result.getFileCount());
+		assertEquals(2, result.getDirectoryCount());
+		assertNull(result.getIndex().get("logs"));
+	}
+	
+	@Test
+	public void testScanIgnoresIndexOfOtherFilter() throws IOException {
+		DirectoryScanner scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+		scanner.setPathFilter(new PathFilter(Collections.emptyList(), Collections.singletonList("world/file9")));
+		ScanIndex index = scanner.scan(tempDirectory.toPath()).getIndex();
+		File indexFile = new File(tempDirectory, ScanIndex.FILE_NAME);
+		index.save(indexFile);
+		indexFile.setLastModified(0L);
+		tempDirectory.setLastModified(0L);
+		
+		// The index does not list the excluded file, so it cannot be used once the file is included
+		scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+		scanner.setPreviousIndex(ScanIndex.load(indexFile));
+		DirectoryScanner.ScanResult result = scanner.scan(tempDirectory.toPath());
+		
+		assertEquals(9000L, result.getNewestModified());
+		assertEquals(11, result.getFileCount());
+	}
+	
+	@Test
+	public void testIncompleteScanHasNoIndex() throws IOException {
+		assertNull(DirectoryScanner.scan(tempDirectory.toPath(), 4500L).getIndex());
+	}
+	
+	@Test
+	public void testScanDropsIndexOverMemoryBudget() throws IOException {
+		DirectoryScanner scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+		scanner.setMemoryBudget(new MemoryBudget(5 * DirectoryScanner.INDEXED_FILE_MEMORY));
+		DirectoryScanner.ScanResult result = scanner.scan(tempDirectory.toPath());
+		
+		// The scan still counts every file, only the index for the next scan is given up
+		assertTrue(result.isComplete());
+		assertEquals(10, result.getFileCount());
+		assertNull(result.getIndex());
+	}
+	
+	/*
+	 * scan() on a ForkJoinPool
+	 */
+	
+	@Test
+	public void testParallelScanMatchesSequentialScan() throws IOException {
+		addRegionFolders();
+		DirectoryScanner.ScanResult sequential = DirectoryScanner.scan(tempDirectory.toPath(), DirectoryScanner.SCAN_EVERYTHING);
+		
+		DirectoryScanner scanner = new DirectoryScanner(DirectoryScanner.SCAN_EVERYTHING);
+		scanner.setPool(new ForkJoinPool(4));
+		DirectoryScanner.ScanResult result = scanner.scan(tempDirectory.toPath());
+		
+		assertTrue(result.isComplete());
+		assertEquals(sequential.getNewestModified(), result.getNewestModified());
+		assertEquals(sequential.getFileCount(), result.getFileCount());
+		assertEquals(sequential.getDirectoryCount(), result.getDirectoryCount());
+		assertEquals(sequential.getIndex().size(), result.getIndex().size());
+	}
+	
+	@Test
+	public void testParallelScanStopsEarly() throws IOException {
+		addRegionFolders();
+		
+		DirectoryScanner scanner = new DirectoryScanner(12500L);
+		scanner.setPool(new ForkJoinPool(4));
+		DirectoryScanner.ScanResult result = scanner.scan(tempDirectory.toPath());
+		
+		assertFalse(result.isComplete());
+		assertTrue(result.getNewestModified() > 12500L);
+		assertNull(result.getIndex());
+	}
+	
+	private static void addRegionFolders() throws IOException {
+		for (int i = 0; i < 4; i++) {
+			File folder = new File(tempDirectory, "dim" + i);
+			folder.mkdir();
+			for (int j = 0; j < 5; j++) {
+				File file = new File(folder, "r." + j + ".mca");
+				file.createNewFile();
+				file.setLastModified(10000L + 1000L * i + j);
+			}
+			folder.setLastModified(0L);
+		}
+		tempDirectory.setLastModified(0L);
+	}
+	
+}
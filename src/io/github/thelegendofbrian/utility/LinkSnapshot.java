@@ -0,0 +1,259 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+/**
+ * Keeps a backup as a plain copy of the server folder, in a folder named like the archive would have been but without
+ * an extension. A file whose size and modification time match its copy in the previous link snapshot of the server is
+ * hard linked to that copy instead of being copied again, so a snapshot of a server that barely changed takes seconds
+ * and hardly any space. Hard links only work within a single file system, so files are copied whenever linking fails.
+ * <p>
+ * The size and CRC-32 checksum of every file are kept in the {@link ArchiveChecksums} of the snapshot, as for archives.
+ * A linked file is the same file as in the previous snapshot, so it takes its checksum from there without being read.
+ */
+public class LinkSnapshot {
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("main");
+	
+	private BackupThrottle throttle = BackupThrottle.UNLIMITED;
+	
+	/**
+	 * Checks whether a backup is a link snapshot rather than an archive or a chunk snapshot.
+	 * 
+	 * @param backup
+	 * @return
+	 */
+	public static boolean isLinkSnapshot(File backup) {
+		return backup.isDirectory();
+	}
+	
+	/**
+	 * @param throttle limits how fast changed files are copied
+	 */
+	public void setThrottle(BackupThrottle throttle) {
+		this.throttle = throttle;
+	}
+	
+	/**
+	 * Copies the paths of sourceFolder that filter includes into snapshotFolder, linking the files that did not change
+	 * since previousSnapshot. Modification times of files and directories are kept, since backups are named after them.
+	 * 
+	 * @param sourceFolder
+	 * @param snapshotFolder a folder that does not exist yet
+	 * @param previousSnapshot the previous link snapshot of the server, or null to copy every file
+	 * @param filter decides which paths are copied at all
+	 * @return what was copied and linked, including the checksums to save next to the snapshot
+	 * @throws IOException
+	 */
+	public Result create(File sourceFolder, File snapshotFolder, File previousSnapshot, PathFilter filter) throws IOException {
+		Path source = sourceFolder.toPath();
+		Path target = snapshotFolder.toPath();
+		Path previous = previousSnapshot == null ? null : previousSnapshot.toPath();
+		ArchiveChecksums previousChecksums = null;
+		if (previousSnapshot != null) {
+			try {
+				previousChecksums = ArchiveChecksums.load(previousSnapshot);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Unable to read the checksums of " + previousSnapshot.getName() + ", every file will be copied: ", e);
+			}
+		}
+		ArchiveChecksums knownChecksums = previousChecksums;
+		
+		Result result = new Result();
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(source) && !filter.includesDirectory(relativePath(dir))) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				result.newestModified = Math.max(result.newestModified, attrs.lastModifiedTime().toMillis());
+				Files.createDirectories(target.resolve(source.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String name = relativePath(file);
+				if (!attrs.isRegularFile() || !filter.includesFile(name)) {
+					return FileVisitResult.CONTINUE;
+				}
+				result.newestModified = Math.max(result.newestModified, attrs.lastModifiedTime().toMillis());
+				result.fileCount++;
+				Path targetFile = target.resolve(source.relativize(file));
+				
+				ArchiveChecksums.Entry known = knownChecksums == null ? null : knownChecksums.get(name);
+				Path previousFile = previous == null ? null : previous.resolve(source.relativize(file));
+				if (known != null && known.getSize() == attrs.size() && isUnchanged(previousFile, attrs) && link(targetFile, previousFile, result)) {
+					result.checksums.put(name, known.getSize(), known.getCrc());
+					result.linkedCount++;
+					return FileVisitResult.CONTINUE;
+				}
+				copy(file, targetFile, name, attrs, result);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				// Creating files changed the modification time of the copy
+				Files.setLastModifiedTime(target.resolve(source.relativize(dir)), Files.getLastModifiedTime(dir));
+				return FileVisitResult.CONTINUE;
+			}
+			
+			private String relativePath(Path path) {
+				return source.relativize(path).toString().replace(File.separatorChar, '/');
+			}
+		});
+		return result;
+	}
+	
+	private static boolean isUnchanged(Path previousFile, BasicFileAttributes attrs) throws IOException {
+		BasicFileAttributes previousAttrs;
+		try {
+			previousAttrs = Files.readAttributes(previousFile, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		return previousAttrs.isRegularFile() && previousAttrs.size() == attrs.size() && previousAttrs.lastModifiedTime().equals(attrs.lastModifiedTime());
+	}
+	
+	private static boolean link(Path link, Path existing, Result result) {
+		try {
+			Files.createLink(link, existing);
+			return true;
+		} catch (UnsupportedOperationException | FileSystemException e) {
+			// Usually the backups are on another file system, which would make every link fail, so it is only logged once
+			if (!result.linkFailed) {
+				result.linkFailed = true;
+				logger.log(Level.WARNING, "Unable to hard link " + existing + ", unchanged files are copied instead: ", e);
+			}
+			return false;
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to hard link " + existing + ", copying it instead: ", e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Copies a changed file, computing its checksum on the way.
+	 */
+	private void copy(Path file, Path targetFile, String name, BasicFileAttributes attrs, Result result) throws IOException {
+		CRC32 crc = new CRC32();
+		long size = 0;
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try (InputStream in = new CheckedInputStream(throttle.wrap(Files.newInputStream(file)), crc); OutputStream out = Files.newOutputStream(targetFile)) {
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+				size += read;
+			}
+		}
+		Files.setLastModifiedTime(targetFile, attrs.lastModifiedTime());
+		result.checksums.put(name, size, crc.getValue());
+		result.bytesCopied += size;
+	}
+	
+	/**
+	 * Deletes a link snapshot and everything in it.
+	 * 
+	 * @param snapshotFolder
+	 * @return the number of bytes freed, which leaves out files still linked from other snapshots
+	 * @throws IOException
+	 */
+	public static long delete(File snapshotFolder) throws IOException {
+		return deleteRecursively(snapshotFolder.toPath());
+	}
+	
+	private static long deleteRecursively(Path path) throws IOException {
+		long freed = 0;
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException e) {
+			return 0;
+		}
+		if (attrs.isDirectory()) {
+			try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+				for (Path child : children) {
+					freed += deleteRecursively(child);
+				}
+			}
+		} else if (getLinkCount(path) <= 1) {
+			freed += attrs.size();
+		}
+		Files.deleteIfExists(path);
+		return freed;
+	}
+	
+	private static int getLinkCount(Path file) throws IOException {
+		try {
+			return (Integer) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+		} catch (UnsupportedOperationException | IllegalArgumentException e) {
+			return 1;
+		}
+	}
+	
+	/**
+	 * What was copied and linked into a link snapshot.
+	 */
+	public static class Result {
+		
+		protected long fileCount;
+		protected long linkedCount;
+		protected long bytesCopied;
+		protected long newestModified;
+		protected boolean linkFailed;
+		protected final ArchiveChecksums checksums = new ArchiveChecksums();
+		
+		public long getFileCount() {
+			return fileCount;
+		}
+		
+		/**
+		 * @return the number of files that were hard linked to the previous snapshot instead of copied
+		 */
+		public long getLinkedCount() {
+			return linkedCount;
+		}
+		
+		public long getBytesCopied() {
+			return bytesCopied;
+		}
+		
+		/**
+		 * @return the most recent modification time in milliseconds of any file or directory that was copied or linked
+		 */
+		public long getNewestModified() {
+			return newestModified;
+		}
+		
+		/**
+		 * @return the size and CRC-32 checksum of every file in the snapshot
+		 */
+		public ArchiveChecksums getChecksums() {
+			return checksums;
+		}
+	}
+	
+}
@@ -0,0 +1,156 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class LinkSnapshotTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-links");
+	
+	private File serverFolder;
+	private File backupFolder;
+	
+	@Before
+	public void setUp() throws IOException {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		serverFolder = new File(tempDirectory, "servers/Vanilla");
+		backupFolder = new File(tempDirectory, "backups/Vanilla");
+		backupFolder.mkdirs();
+		writeServerFile("server.properties", "motd=A Minecraft Server", 1000000000000L);
+		writeServerFile("world/level.dat", "level 1", 1000000001000L);
+	}
+	
+	@After
+	public void tearDown() {
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * create()
+	 */
+	
+	@Test
+	public void testCreateCopiesEveryFileWithoutPreviousSnapshot() throws IOException {
+		File snapshotFolder = new File(backupFolder, "first");
+		LinkSnapshot.Result result = new LinkSnapshot().create(serverFolder, snapshotFolder, null, PathFilter.ALL);
+		
+		assertEquals(2, result.getFileCount());
+		assertEquals(0, result.getLinkedCount());
+		assertEquals(1000000001000L, result.getNewestModified());
+		assertFileContent("level 1", new File(snapshotFolder, "world/level.dat"));
+		assertEquals(1000000001000L, new File(snapshotFolder, "world/level.dat").lastModified());
+		assertEquals(7, result.getChecksums().get("world/level.dat").getSize());
+	}
+	
+	@Test
+	public void testCreateLinksUnchangedFiles() throws IOException {
+		File firstFolder = new File(backupFolder, "first");
+		new LinkSnapshot().create(serverFolder, firstFolder, null, PathFilter.ALL).getChecksums().save(firstFolder);
+		writeServerFile("world/level.dat", "level 2", 1000000002000L);
+		
+		File secondFolder = new File(backupFolder, "second");
+		LinkSnapshot.Result result = new LinkSnapshot().create(serverFolder, secondFolder, firstFolder, PathFilter.ALL);
+		
+		assertEquals(1, result.getLinkedCount());
+		assertEquals(7, result.getBytesCopied());
+		assertTrue(Files.isSameFile(new File(firstFolder, "server.properties").toPath(), new File(secondFolder, "server.properties").toPath()));
+		assertFalse(Files.isSameFile(new File(firstFolder, "world/level.dat").toPath(), new File(secondFolder, "world/level.dat").toPath()));
+		assertFileContent("level 1", new File(firstFolder, "world/level.dat"));
+		assertFileContent("level 2", new File(secondFolder, "world/level.dat"));
+		assertEquals(ArchiveChecksums.load(firstFolder).get("server.properties").getCrc(), result.getChecksums().get("server.properties").getCrc());
+	}
+	
+	@Test
+	public void testCreateCopiesFilesWithoutChecksums() throws IOException {
+		File firstFolder = new File(backupFolder, "first");
+		new LinkSnapshot().create(serverFolder, firstFolder, null, PathFilter.ALL);
+		
+		// Without the checksums of the previous snapshot, the checksums of linked files would be unknown
+		LinkSnapshot.Result result = new LinkSnapshot().create(serverFolder, new File(backupFolder, "second"), firstFolder, PathFilter.ALL);
+		
+		assertEquals(0, result.getLinkedCount());
+		assertEquals(2, result.getChecksums().getEntries().size());
+	}
+	
+	@Test
+	public void testCreateLeavesOutExcludedPaths() throws IOException {
+		writeServerFile("logs/latest.log", "log", 1000000003000L);
+		
+		File snapshotFolder = new File(backupFolder, "first");
+		LinkSnapshot.Result result = new LinkSnapshot().create(serverFolder, snapshotFolder, null, new PathFilter(Collections.emptyList(), Collections.singletonList("logs")));
+		
+		assertEquals(2, result.getFileCount());
+		assertFalse(new File(snapshotFolder, "logs").exists());
+	}
+	
+	/*
+	 * delete()
+	 */
+	
+	@Test
+	public void testDeleteOnlyCountsFilesNotLinkedElsewhere() throws IOException {
+		File firstFolder = new File(backupFolder, "first");
+		new LinkSnapshot().create(serverFolder, firstFolder, null, PathFilter.ALL).getChecksums().save(firstFolder);
+		writeServerFile("world/level.dat", "level 2", 1000000002000L);
+		File secondFolder = new File(backupFolder, "second");
+		new LinkSnapshot().create(serverFolder, secondFolder, firstFolder, PathFilter.ALL);
+		
+		// server.properties is still linked from the second snapshot
+		assertEquals(7, LinkSnapshot.delete(firstFolder));
+		assertFalse(firstFolder.exists());
+		assertFileContent("motd=A Minecraft Server", new File(secondFolder, "server.properties"));
+	}
+	
+	private void writeServerFile(String path, String content, long modified) throws IOException {
+		File file = new File(serverFolder, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		file.setLastModified(modified);
+		for (File parent = file.getParentFile(); !parent.equals(serverFolder.getParentFile()); parent = parent.getParentFile()) {
+			parent.setLastModified(modified);
+		}
+	}
+	
+	private static void assertFileContent(String expected, File file) throws IOException {
+		assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file.toPath()));
+	}
+	
+}
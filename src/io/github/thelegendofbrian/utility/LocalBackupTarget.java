@@ -0,0 +1,137 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+/**
+ * Stores archives in the local backup folder of their server. An archive is written to a hidden partial file and only
+ * moved to its name once it is complete and forced to the disk, so a crash never leaves a truncated archive under the
+ * name of a backup. The partial file keeps an {@link ArchiveJournal}, so an interrupted archive is resumed by the next
+ * backup of the server.
+ */
+public class LocalBackupTarget implements BackupTarget {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("main");
+	
+	@Override
+	public Upload begin(File backupFolder, String serverName) throws IOException {
+		File partialFile = new File(backupFolder, "." + serverName + ".partial");
+		// Not truncated, since the journal decides how much of a previous attempt is kept
+		FileChannel channel = FileChannel.open(partialFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ArchiveJournal journal;
+		try {
+			journal = ArchiveJournal.open(partialFile, channel);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		OutputStream out = new SyncedOutputStream(channel);
+		return new Upload() {
+			@Override
+			public OutputStream getOutputStream() {
+				return out;
+			}
+			
+			@Override
+			public File getBackupFile(String archiveName) {
+				return new File(backupFolder, archiveName);
+			}
+			
+			@Override
+			public File commit(String archiveName) throws IOException {
+				File archive = getBackupFile(archiveName);
+				try {
+					Files.move(partialFile.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(partialFile.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				syncDirectory(backupFolder.toPath());
+				journal.delete();
+				return archive;
+			}
+			
+			@Override
+			public void abort() {
+				try {
+					channel.close();
+					Files.deleteIfExists(partialFile.toPath());
+					journal.delete();
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Unable to delete the partial archive " + partialFile.getAbsolutePath() + ": ", e);
+				}
+			}
+			
+			@Override
+			public ArchiveJournal getJournal() {
+				return journal;
+			}
+		};
+	}
+	
+	/**
+	 * Forces a rename in a directory to the disk. Not every platform can open a directory, in which case the rename is
+	 * left to the file system.
+	 */
+	private static void syncDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to sync directory " + directory + ": ", e);
+		}
+	}
+	
+	@Override
+	public File fetch(File backup) throws IOException {
+		if (S3BackupTarget.isRemote(backup)) {
+			throw new IOException("Backup " + backup.getName() + " is stored in object storage, set backupTarget to s3 to read it.");
+		}
+		return backup;
+	}
+	
+	@Override
+	public void delete(File backup) throws IOException {
+		if (S3BackupTarget.isRemote(backup)) {
+			logger.warning("Only the local reference to backup " + backup.getName() + " is deleted, since backupTarget is not s3.");
+		}
+	}
+	
+	/**
+	 * Writes to a partial archive, forcing it to the disk when it is closed.
+	 */
+	private static class SyncedOutputStream extends FilterOutputStream {
+		
+		private final FileChannel channel;
+		
+		SyncedOutputStream(FileChannel channel) {
+			super(Channels.newOutputStream(channel));
+			this.channel = channel;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (channel.isOpen()) {
+				flush();
+				channel.force(true);
+			}
+			super.close();
+		}
+	}
+	
+}
@@ -0,0 +1,84 @@
+package io.github.thelegendofbrian.utility;
+
+/**
+ * Limits how much of the heap backups use for the buffers and records they keep while running, so the utility can run
+ * next to servers on a machine with little memory to spare. The budget bounds the number of workers and the chunks
+ * and uploads each of them keeps in flight, and decides how much per-file state is kept in memory before it is written
+ * to disk or dropped.
+ * <p>
+ * The budget is shared by everything running at once, so a part of it is handed to each backup with
+ * {@link #share(int)}.
+ */
+public class MemoryBudget {
+	
+	/**
+	 * A budget that never limits anything.
+	 */
+	public static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE);
+	
+	private static final long MEGABYTE = 1024L * 1024L;
+	
+	private final long bytes;
+	
+	/**
+	 * @param bytes the number of bytes that may be used
+	 */
+	public MemoryBudget(long bytes) {
+		this.bytes = Math.max(0L, bytes);
+	}
+	
+	/**
+	 * Creates a budget from the memoryBudget setting.
+	 * 
+	 * @param megabytes the budget in MiB, or 0 for half of the maximum heap size
+	 * @return
+	 */
+	public static MemoryBudget ofMegabytes(long megabytes) {
+		if (megabytes <= 0) {
+			return new MemoryBudget(Runtime.getRuntime().maxMemory() / 2);
+		}
+		return new MemoryBudget(megabytes * MEGABYTE);
+	}
+	
+	public long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * @return the budget in MiB, for messages
+	 */
+	public long getMegabytes() {
+		return bytes / MEGABYTE;
+	}
+	
+	/**
+	 * Splits the budget between things running at the same time.
+	 * 
+	 * @param parts
+	 * @return the budget of each of them
+	 */
+	public MemoryBudget share(int parts) {
+		if (this == UNLIMITED || parts <= 1) {
+			return this;
+		}
+		return new MemoryBudget(bytes / parts);
+	}
+	
+	/**
+	 * Limits a number of workers or buffers to what fits in the budget.
+	 * 
+	 * @param wanted the number that was asked for
+	 * @param bytesEach the memory each of them takes
+	 * @return wanted, or as many as fit in the budget but always at least 1
+	 */
+	public int limit(int wanted, long bytesEach) {
+		long fitting = bytes / Math.max(1L, bytesEach);
+		return (int) Math.max(1L, Math.min(wanted, fitting));
+	}
+	
+	@Override
+	public String toString() {
+		return this == UNLIMITED ? "unlimited" : getMegabytes() + " MiB";
+	}
+	
+}
@@ -0,0 +1,144 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.ZipFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class MemoryBudgetTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-memory");
+	
+	private static final int SMALL_FILES = 30000;
+	
+	@Before
+	public void setUp() {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+	}
+	
+	@After
+	public void tearDown() {
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * limit() and share()
+	 */
+	
+	@Test
+	public void testLimitKeepsWhatFits() {
+		MemoryBudget budget = new MemoryBudget(10 * 1024);
+		
+		assertEquals(4, budget.limit(4, 1024));
+		assertEquals(10, budget.limit(16, 1024));
+		assertEquals(1, budget.limit(16, 1024 * 1024));
+	}
+	
+	@Test
+	public void testUnlimitedBudgetNeverLimits() {
+		assertEquals(64, MemoryBudget.UNLIMITED.limit(64, 1024L * 1024L * 1024L));
+		assertSame(MemoryBudget.UNLIMITED, MemoryBudget.UNLIMITED.share(8));
+	}
+	
+	@Test
+	public void testShare() {
+		assertEquals(256, new MemoryBudget(1024).share(4).getBytes());
+		assertEquals(1024, new MemoryBudget(1024).share(0).getBytes());
+	}
+	
+	/*
+	 * ofMegabytes()
+	 */
+	
+	@Test
+	public void testOfMegabytes() {
+		assertEquals(64, MemoryBudget.ofMegabytes(64).getMegabytes());
+		assertEquals(Runtime.getRuntime().maxMemory() / 2, MemoryBudget.ofMegabytes(0).getBytes());
+	}
+	
+	/*
+	 * A backup on a small heap
+	 */
+	
+	@Test
+	public void testBackupOfManySmallFilesFitsSmallHeap() throws IOException, InterruptedException {
+		File serverFolder = new File(tempDirectory, "servers/Vanilla");
+		File backupFolder = new File(tempDirectory, "backups/Vanilla");
+		backupFolder.mkdirs();
+		for (int i = 0; i < SMALL_FILES; i++) {
+			File file = new File(serverFolder, "world/data" + i / 1000 + "/file" + i + ".dat");
+			file.getParentFile().mkdirs();
+			Files.write(file.toPath(), Integer.toString(i).getBytes("UTF-8"));
+		}
+		
+		// Without the budget, the per-file state of the backup alone would not fit in this heap
+		String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+		Process process = new ProcessBuilder(java, "-Xmx16m", "-cp", System.getProperty("java.class.path"), SmallHeapBackup.class.getName(), serverFolder.getPath(),
+				backupFolder.getPath()).inheritIO().start();
+		assertTrue(process.waitFor(5, TimeUnit.MINUTES));
+		assertEquals(0, process.exitValue());
+		
+		File[] archives = backupFolder.listFiles((dir, name) -> name.endsWith(BackupUtilityApplication.FULL_EXTENSION));
+		assertEquals(1, archives.length);
+		try (ZipFile zipFile = new ZipFile(archives[0])) {
+			// Every file plus the world folder and its 30 data folders
+			assertEquals(SMALL_FILES + 31, zipFile.size());
+		}
+		assertEquals(SMALL_FILES, Files.readAllLines(ArchiveChecksums.getChecksumsFile(archives[0]).toPath()).size() - 1);
+	}
+	
+	/**
+	 * Backs up a server with the default memory budget, in a JVM of its own.
+	 */
+	public static class SmallHeapBackup {
+		
+		public static void main(String[] args) throws IOException {
+			BackupUtilityApplication application = new BackupUtilityApplication();
+			application.backupMode = BackupUtilityApplication.MODE_FULL;
+			application.backupThreads = 1;
+			application.compressionThreads = 2;
+			application.memoryBudget = MemoryBudget.ofMegabytes(0);
+			application.limitThreadsToMemoryBudget();
+			try {
+				application.backupSpecificServer(new File(args[0]), new File(args[1]));
+			} finally {
+				application.shutdownArchiver();
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,1055 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Packs a directory into a standard zip archive while deflating its contents on several threads at once.
+ * <p>
+ * Every file is read sequentially and split into chunks of {@link #CHUNK_SIZE} bytes. Each chunk is deflated as an
+ * independent task, primed with the last 32 KiB of the previous chunk as its dictionary, and ended with a sync flush
+ * so the compressed chunks can simply be concatenated into one deflate stream. The archive is written in entry order
+ * using data descriptors and ZIP64 records where needed, so the result can be read by any unzip tool.
+ * <p>
+ * Reading, deflating and writing overlap: the calling thread walks the folder and reads files into pooled chunk
+ * buffers, the chunks are deflated on the compression threads, and a writer thread of its own writes the archive in
+ * order. Only a bounded number of chunks may be between being read and being written, so a slow disk on either end
+ * holds back the other stages instead of filling the memory. The central directory and the checksums of the entries
+ * are collected while the entries are written and moved to temporary files once they outgrow their share of the
+ * {@link MemoryBudget}, so the number of files in an archive is not limited by the heap either.
+ * <p>
+ * Files with one of the stored extensions, which are usually compressed already, are deflated at level 0. That only
+ * wraps their bytes in uncompressed deflate blocks, so they cost no compression time while the archive keeps a single
+ * entry format.
+ */
+public class ParallelZipArchiver {
+	
+	protected static final int CHUNK_SIZE = 1 << 20;
+	protected static final int DICTIONARY_SIZE = 32 * 1024;
+	
+	/**
+	 * The memory a chunk in flight takes, with its compressed copy.
+	 */
+	protected static final long CHUNK_MEMORY = 2L * CHUNK_SIZE;
+	
+	/**
+	 * The most memory the central directory of an archive takes before it is moved to a temporary file.
+	 */
+	protected static final int MAX_CENTRAL_DIRECTORY_MEMORY = 256 * 1024 * 1024;
+	
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	
+	private static final int VERSION_DEFAULT = 20;
+	private static final int VERSION_ZIP64 = 45;
+	private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final int TIMESTAMP_EXTRA_ID = 0x5455;
+	private static final int DIRECTORY_ATTRIBUTE = 0x10;
+	
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+	
+	// An empty final block of fixed Huffman codes, used to end a stream whose last chunk was only sync flushed
+	private static final byte[] FINAL_EMPTY_BLOCK = {0x03, 0x00};
+	
+	// One deflater per level and thread, since changing the level of a deflater that has a dictionary corrupts its output
+	private static final ThreadLocal<Deflater[]> deflaters = ThreadLocal.withInitial(() -> new Deflater[Deflater.BEST_COMPRESSION + 2]);
+	
+	private final ExecutorService compressionExecutor;
+	private final int compressionThreads;
+	private int maxChunksInFlight;
+	private int centralDirectoryMemory = MAX_CENTRAL_DIRECTORY_MEMORY;
+	private long checksumMemory = Long.MAX_VALUE;
+	private final int compressionLevel;
+	private final Set<String> storedExtensions;
+	private BackupThrottle throttle = BackupThrottle.UNLIMITED;
+	
+	/**
+	 * @param compressionExecutor the executor that chunks are deflated on, which may be shared between archivers
+	 * @param compressionThreads the number of threads backing the executor, used to bound how many chunks are held in
+	 *            memory at once
+	 * @param compressionLevel the deflate level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public ParallelZipArchiver(ExecutorService compressionExecutor, int compressionThreads, int compressionLevel) {
+		this(compressionExecutor, compressionThreads, compressionLevel, Collections.emptySet());
+	}
+	
+	/**
+	 * @param compressionExecutor the executor that chunks are deflated on, which may be shared between archivers
+	 * @param compressionThreads the number of threads backing the executor, used to bound how many chunks are held in
+	 *            memory at once
+	 * @param compressionLevel the deflate level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param storedExtensions the extensions of files that are not compressed, such as "mca" or "jar"
+	 */
+	public ParallelZipArchiver(ExecutorService compressionExecutor, int compressionThreads, int compressionLevel, Set<String> storedExtensions) {
+		this.compressionExecutor = compressionExecutor;
+		this.compressionThreads = compressionThreads;
+		this.maxChunksInFlight = Math.max(2, compressionThreads * 2);
+		this.compressionLevel = compressionLevel;
+		this.storedExtensions = new HashSet<>();
+		for (String extension : storedExtensions) {
+			this.storedExtensions.add(normalizeExtension(extension));
+		}
+	}
+	
+	/**
+	 * @param throttle limits how fast files are read and the archive is written
+	 */
+	public void setThrottle(BackupThrottle throttle) {
+		this.throttle = throttle;
+	}
+	
+	/**
+	 * Limits the memory each archive takes. A quarter of the budget is left to the central directory and another to the
+	 * checksums of the entries, and the rest bounds the number of chunks in flight, which is never less than two. The
+	 * checksums of a result then have to be closed once they are saved.
+	 * 
+	 * @param budget the budget of a single archive
+	 */
+	public void setMemoryBudget(MemoryBudget budget) {
+		this.centralDirectoryMemory = (int) Math.min(MAX_CENTRAL_DIRECTORY_MEMORY, budget.getBytes() / 4);
+		this.checksumMemory = budget.getBytes() / 4;
+		this.maxChunksInFlight = Math.max(2, new MemoryBudget(budget.getBytes() - centralDirectoryMemory - checksumMemory).limit(compressionThreads * 2, CHUNK_MEMORY));
+	}
+	
+	/**
+	 * Zips the contents of sourceFolder into zipFile. Entry names are relative to sourceFolder. If the archive cannot be
+	 * completed, the partially written zipFile is deleted.
+	 * 
+	 * @param sourceFolder
+	 * @param zipFile
+	 * @return statistics about the written archive
+	 * @throws ZipException if sourceFolder does not contain any files
+	 * @throws IOException
+	 */
+	public Result pack(File sourceFolder, File zipFile) throws IOException {
+		return pack(sourceFolder, zipFile, null);
+	}
+	
+	/**
+	 * Zips the contents of sourceFolder into zipFile, storing only the files accepted by selector. Directories are
+	 * always stored. If the archive cannot be completed, the partially written zipFile is deleted.
+	 * 
+	 * @param sourceFolder
+	 * @param zipFile
+	 * @param selector decides which files are stored, or null to store every file
+	 * @return statistics about the written archive
+	 * @throws ZipException if sourceFolder does not contain any files
+	 * @throws IOException
+	 */
+	public Result pack(File sourceFolder, File zipFile, FileSelector selector) throws IOException {
+		boolean completed = false;
+		try {
+			Result result = pack(sourceFolder, new FileOutputStream(zipFile), selector);
+			completed = true;
+			return result;
+		} finally {
+			if (!completed) {
+				Files.deleteIfExists(zipFile.toPath());
+			}
+		}
+	}
+	
+	/**
+	 * Zips the contents of sourceFolder into output, storing only the files accepted by selector. Directories are
+	 * always stored. The output is closed once the archive is written, or when writing it fails.
+	 * 
+	 * @param sourceFolder
+	 * @param output
+	 * @param selector decides which files are stored, or null to store every file
+	 * @return statistics about the written archive
+	 * @throws ZipException if sourceFolder does not contain any files
+	 * @throws IOException
+	 */
+	public Result pack(File sourceFolder, OutputStream output, FileSelector selector) throws IOException {
+		return pack(sourceFolder, output, PathFilter.ALL, selector);
+	}
+	
+	/**
+	 * Zips the contents of sourceFolder into output, leaving out the paths rejected by filter and storing only the
+	 * files accepted by selector. Directories that filter rejects are not entered, and rejected files neither count as
+	 * contents of sourceFolder nor as modifications of it. The output is closed once the archive is written, or when
+	 * writing it fails.
+	 * 
+	 * @param sourceFolder
+	 * @param output
+	 * @param filter decides which paths are archived at all
+	 * @param selector decides which files are stored, or null to store every file
+	 * @return statistics about the written archive
+	 * @throws ZipException if sourceFolder does not contain any files that filter includes
+	 * @throws IOException
+	 */
+	public Result pack(File sourceFolder, OutputStream output, PathFilter filter, FileSelector selector) throws IOException {
+		return pack(sourceFolder, output, filter, selector, null);
+	}
+	
+	/**
+	 * Zips the contents of sourceFolder into output like {@link #pack(File, OutputStream, PathFilter, FileSelector)},
+	 * resuming the partial archive of journal. Entries of the partial archive are kept as long as they match the files
+	 * being archived, in the same order, and the archive continues after the last of them. Every entry written is
+	 * recorded in journal, so an interrupted archive can be resumed again.
+	 * 
+	 * @param sourceFolder
+	 * @param output writes to the partial archive of journal, at the position that journal sets when it resumes
+	 * @param filter decides which paths are archived at all
+	 * @param selector decides which files are stored, or null to store every file
+	 * @param journal the journal of the partial archive, or null to write the archive without one
+	 * @return statistics about the written archive
+	 * @throws ZipException if sourceFolder does not contain any files that filter includes
+	 * @throws IOException
+	 */
+	public Result pack(File sourceFolder, OutputStream output, PathFilter filter, FileSelector selector, ArchiveJournal journal) throws IOException {
+		CRC32 checksum = new CRC32();
+		try (CheckedOutputStream out = new CheckedOutputStream(new BufferedOutputStream(throttle.wrap(output), 1 << 16), checksum)) {
+			PackOperation operation = new PackOperation(sourceFolder.toPath(), out, filter, selector, journal, checksum);
+			Result result = operation.run();
+			result.checksum = checksum.getValue();
+			return result;
+		}
+	}
+	
+	/**
+	 * Deflates a single chunk of a file. Every chunk but the last is ended with a sync flush so that the next chunk's
+	 * output can be appended directly to it.
+	 * 
+	 * @param data
+	 * @param length
+	 * @param dictionary the previous chunk of the same file, or null if this is the first chunk
+	 * @param dictionaryLength the number of valid bytes in dictionary
+	 * @param last
+	 * @param level
+	 * @return the compressed bytes, trimmed to length
+	 */
+	protected static byte[] deflateChunk(byte[] data, int length, byte[] dictionary, int dictionaryLength, boolean last, int level) {
+		Deflater[] threadDeflaters = deflaters.get();
+		Deflater deflater = threadDeflaters[level + 1];
+		if (deflater == null) {
+			deflater = new Deflater(level, true);
+			threadDeflaters[level + 1] = deflater;
+		}
+		deflater.reset();
+		if (dictionary != null && dictionaryLength > 0) {
+			int usableLength = Math.min(DICTIONARY_SIZE, dictionaryLength);
+			deflater.setDictionary(dictionary, dictionaryLength - usableLength, usableLength);
+		}
+		deflater.setInput(data, 0, length);
+		
+		// Upper bound of the deflated size, taken from zlib's deflateBound()
+		byte[] output = new byte[length + (length >> 3) + (length >> 6) + 64];
+		int position = 0;
+		if (last) {
+			deflater.finish();
+			while (!deflater.finished()) {
+				if (position == output.length) {
+					output = Arrays.copyOf(output, output.length * 2);
+				}
+				position += deflater.deflate(output, position, output.length - position);
+			}
+		} else {
+			while (true) {
+				position += deflater.deflate(output, position, output.length - position, Deflater.SYNC_FLUSH);
+				if (position < output.length) {
+					break;
+				}
+				output = Arrays.copyOf(output, output.length * 2);
+			}
+		}
+		return Arrays.copyOf(output, position);
+	}
+	
+	/**
+	 * @param entryName
+	 * @return the deflate level used for the file
+	 */
+	protected int getCompressionLevel(String entryName) {
+		int dot = entryName.lastIndexOf('.');
+		if (dot >= 0 && dot > entryName.lastIndexOf('/') && storedExtensions.contains(normalizeExtension(entryName.substring(dot + 1)))) {
+			return Deflater.NO_COMPRESSION;
+		}
+		return compressionLevel;
+	}
+	
+	private static String normalizeExtension(String extension) {
+		return (extension.startsWith(".") ? extension.substring(1) : extension).toLowerCase(Locale.ROOT);
+	}
+	
+	/**
+	 * Converts a modification time into the MS-DOS date and time format used by zip headers.
+	 * 
+	 * @param time
+	 * @return the date in the upper 16 bits and the time in the lower 16 bits
+	 */
+	protected static long toDosTime(FileTime time) {
+		LocalDateTime local = LocalDateTime.ofInstant(time.toInstant(), ZoneId.systemDefault());
+		if (local.getYear() < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (long) (local.getYear() - 1980) << 25 | (long) local.getMonthValue() << 21 | (long) local.getDayOfMonth() << 16
+				| local.getHour() << 11 | local.getMinute() << 5 | local.getSecond() >> 1;
+	}
+	
+	/**
+	 * Decides which files of a folder are stored in its archive.
+	 */
+	@FunctionalInterface
+	public interface FileSelector {
+		
+		/**
+		 * Called once for every regular file in the folder, in the order the files are archived.
+		 * 
+		 * @param entryName the path of the file relative to the folder, separated by '/'
+		 * @param attrs
+		 * @return true to store the file in the archive
+		 */
+		boolean include(String entryName, BasicFileAttributes attrs);
+		
+		/**
+		 * Called for every file that was included, before it is read.
+		 * 
+		 * @param entryName the path of the file relative to the folder, separated by '/'
+		 * @param file
+		 * @param attrs
+		 * @return the contents to store instead of the contents of the file, or null to store the file as it is
+		 * @throws IOException
+		 */
+		default byte[] replace(String entryName, Path file, BasicFileAttributes attrs) throws IOException {
+			return null;
+		}
+		
+		/**
+		 * Called instead of {@link #replace(String, Path, BasicFileAttributes)} for an included file whose entry is kept
+		 * from an interrupted archive that is being resumed.
+		 * 
+		 * @param entryName the path of the file relative to the folder, separated by '/'
+		 * @param attrs
+		 * @param storedSize the size of the stored contents, which differs from the size of the file if they were replaced
+		 */
+		default void reuse(String entryName, BasicFileAttributes attrs, long storedSize) {
+		}
+	}
+	
+	/**
+	 * Statistics about a written archive.
+	 */
+	public static class Result {
+		
+		protected long entryCount;
+		protected long fileCount;
+		protected long bytesRead;
+		protected long bytesWritten;
+		protected long newestModified;
+		protected long checksum;
+		protected int resumedEntryCount;
+		protected final ArchiveChecksums entryChecksums = new ArchiveChecksums();
+		
+		public long getEntryCount() {
+			return entryCount;
+		}
+		
+		/**
+		 * @return the number of files stored in the archive
+		 */
+		public long getFileCount() {
+			return fileCount;
+		}
+		
+		/**
+		 * @return the number of bytes of the files stored in the archive, including those kept from an interrupted
+		 *         attempt, so that it covers the same files as {@link #getBytesWritten()}
+		 */
+		public long getBytesRead() {
+			return bytesRead;
+		}
+		
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+		
+		/**
+		 * @return the most recent modification time in milliseconds of any file or directory that was archived
+		 */
+		public long getNewestModified() {
+			return newestModified;
+		}
+		
+		/**
+		 * @return the CRC-32 checksum of the whole archive file
+		 */
+		public long getChecksum() {
+			return checksum;
+		}
+		
+		/**
+		 * @return the number of entries kept from an interrupted archive rather than written again
+		 */
+		public int getResumedEntryCount() {
+			return resumedEntryCount;
+		}
+		
+		/**
+		 * @return the size and CRC-32 checksum of every file stored in the archive, computed while it was read
+		 */
+		public ArchiveChecksums getEntryChecksums() {
+			return entryChecksums;
+		}
+	}
+	
+	/**
+	 * The central directory information about an entry that has been written.
+	 */
+	private static class EntryRecord {
+		
+		final String entryName;
+		final byte[] name;
+		final long modified;
+		final long dosTime;
+		final int mtimeSeconds;
+		final boolean hasTimestamp;
+		final boolean directory;
+		final boolean zip64;
+		long fileSize;
+		long offset;
+		long crc;
+		long size;
+		long compressedSize;
+		
+		EntryRecord(String name, FileTime lastModified, boolean directory, boolean zip64) {
+			this.entryName = name;
+			this.name = name.getBytes(StandardCharsets.UTF_8);
+			this.modified = lastModified.toMillis();
+			this.dosTime = toDosTime(lastModified);
+			long seconds = lastModified.toMillis() / 1000;
+			this.hasTimestamp = seconds >= 0 && seconds <= Integer.MAX_VALUE;
+			this.mtimeSeconds = (int) seconds;
+			this.directory = directory;
+			this.zip64 = zip64;
+		}
+		
+		int method() {
+			return directory ? METHOD_STORED : METHOD_DEFLATED;
+		}
+		
+		int flags() {
+			return directory ? FLAG_UTF8 : FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+		}
+	}
+	
+	/**
+	 * A piece of output waiting to be written to the archive in order.
+	 */
+	private interface PendingWrite {
+		
+		// Queued after the last piece of output, or once the archive is abandoned
+		PendingWrite END = () -> {};
+		
+		void write() throws IOException;
+		
+		default boolean isChunk() {
+			return false;
+		}
+		
+		/**
+		 * @return true if this is an entry kept from an interrupted archive, which writes nothing
+		 */
+		default boolean isReused() {
+			return false;
+		}
+	}
+	
+	/**
+	 * The state of a single call to {@link ParallelZipArchiver#pack(File, File)}.
+	 */
+	private class PackOperation extends SimpleFileVisitor<Path> {
+		
+		private final Path root;
+		private final OutputStream out;
+		private final PathFilter filter;
+		private final FileSelector selector;
+		private final ArchiveJournal journal;
+		private final CRC32 checksum;
+		private final BlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<>();
+		private final SpillBuffer centralDirectory = new SpillBuffer(centralDirectoryMemory);
+		private long entryCount;
+		private final Result result = new Result();
+		
+		// A permit is taken for every chunk when it is read and returned once it is written
+		private final int chunksInFlight = maxChunksInFlight;
+		private final Semaphore chunkPermits = new Semaphore(chunksInFlight);
+		private final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(chunksInFlight);
+		private volatile IOException writeFailure;
+		private volatile boolean aborted;
+		private long position;
+		private long filesFound;
+		
+		// Read by the walking thread, which decides which entries of an interrupted archive are kept
+		private List<ArchiveJournal.Entry> previousEntries;
+		private int reusedEntries;
+		private boolean reusing;
+		
+		// Written by the writer thread
+		private int reusedWritten;
+		private boolean resumed;
+		private long lastCheckpoint;
+		
+		PackOperation(Path root, OutputStream out, PathFilter filter, FileSelector selector, ArchiveJournal journal, CRC32 checksum) {
+			this.root = root;
+			this.out = out;
+			this.filter = filter;
+			this.selector = selector;
+			this.journal = journal;
+			this.checksum = checksum;
+			this.previousEntries = journal == null ? Collections.emptyList() : new ArrayList<>(journal.getEntries());
+			this.reusing = !previousEntries.isEmpty();
+			result.entryChecksums.setMemoryLimit(checksumMemory);
+		}
+		
+		Result run() throws IOException {
+			boolean written = false;
+			try {
+				Thread writer = new Thread(this::writeAll, Thread.currentThread().getName() + "-writer");
+				writer.start();
+				boolean completed = false;
+				try {
+					Files.walkFileTree(root, this);
+					if (filesFound == 0) {
+						throw new ZipException("Given directory '" + root + "' doesn't contain any files!");
+					}
+					completed = true;
+				} finally {
+					if (!completed) {
+						aborted = true;
+					}
+					pending.add(PendingWrite.END);
+					awaitWriter(writer);
+				}
+				if (writeFailure != null) {
+					throw writeFailure;
+				}
+				if (aborted) {
+					throw new InterruptedIOException("Interrupted while writing the archive.");
+				}
+				resume();
+				writeCentralDirectory();
+				written = true;
+			} finally {
+				centralDirectory.close();
+				if (!written) {
+					result.entryChecksums.close();
+				}
+			}
+			result.resumedEntryCount = reusedEntries;
+			result.entryCount = entryCount;
+			result.bytesWritten = position;
+			return result;
+		}
+		
+		@Override
+		public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+			if (!dir.equals(root) && !filter.includesDirectory(entryName(dir))) {
+				return FileVisitResult.SKIP_SUBTREE;
+			}
+			result.newestModified = Math.max(result.newestModified, attrs.lastModifiedTime().toMillis());
+			if (!dir.equals(root)) {
+				EntryRecord record = new EntryRecord(entryName(dir) + "/", attrs.lastModifiedTime(), true, false);
+				ArchiveJournal.Entry previous = nextReusable(record.entryName, true, attrs);
+				if (previous != null) {
+					queueReused(record, previous);
+				} else {
+					pending.add(() -> {
+						writeLocalHeader(record);
+						recordEntry(record);
+					});
+				}
+			}
+			return FileVisitResult.CONTINUE;
+		}
+		
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+			String name = entryName(file);
+			if (!attrs.isRegularFile() || !filter.includesFile(name)) {
+				return FileVisitResult.CONTINUE;
+			}
+			result.newestModified = Math.max(result.newestModified, attrs.lastModifiedTime().toMillis());
+			filesFound++;
+			if (selector != null && !selector.include(name, attrs)) {
+				return FileVisitResult.CONTINUE;
+			}
+			result.fileCount++;
+			
+			ArchiveJournal.Entry reused = nextReusable(name, false, attrs);
+			if (reused != null) {
+				queueReused(new EntryRecord(name, attrs.lastModifiedTime(), false, reused.zip64), reused);
+				result.bytesRead += reused.size;
+				result.entryChecksums.put(name, reused.size, reused.crc);
+				if (selector != null) {
+					selector.reuse(name, attrs, reused.size);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			
+			EntryRecord record = new EntryRecord(name, attrs.lastModifiedTime(), false, maxDeflatedSize(attrs.size()) >= ZIP64_MAGIC);
+			record.fileSize = attrs.size();
+			pending.add(() -> writeLocalHeader(record));
+			
+			byte[] replacement = selector == null ? null : selector.replace(name, file, attrs);
+			long expectedSize = replacement == null ? attrs.size() : replacement.length;
+			int level = getCompressionLevel(name);
+			CRC32 crc = new CRC32();
+			long size = 0;
+			try (InputStream in = replacement == null ? throttle.wrap(Files.newInputStream(file)) : new ByteArrayInputStream(replacement)) {
+				byte[] dictionary = null;
+				while (true) {
+					long remainingHint = Math.max(0L, expectedSize - size);
+					int limit = (int) Math.min(CHUNK_SIZE, remainingHint + 1);
+					byte[] buffer = takeBuffer();
+					int length = readFully(in, buffer, limit);
+					if (length == 0 && dictionary != null) {
+						freeBuffers.offer(buffer);
+						queueChunk(record, CompletableFuture.completedFuture(FINAL_EMPTY_BLOCK));
+						break;
+					}
+					crc.update(buffer, 0, length);
+					size += length;
+					
+					boolean last = length < limit;
+					byte[] previous = dictionary;
+					// The buffer goes back to the pool once it is deflated, so the next chunk keeps its own copy of the tail
+					dictionary = last ? null : Arrays.copyOfRange(buffer, Math.max(0, length - DICTIONARY_SIZE), length);
+					Future<byte[]> future = compressionExecutor.submit(() -> {
+						try {
+							return deflateChunk(buffer, length, previous, previous == null ? 0 : previous.length, last, level);
+						} finally {
+							freeBuffers.offer(buffer);
+						}
+					});
+					queueChunk(record, future);
+					if (last) {
+						break;
+					}
+				}
+			}
+			
+			record.crc = crc.getValue();
+			record.size = size;
+			result.bytesRead += size;
+			result.entryChecksums.put(name, size, record.crc);
+			pending.add(() -> {
+				writeDataDescriptor(record);
+				recordEntry(record);
+			});
+			return FileVisitResult.CONTINUE;
+		}
+		
+		private String entryName(Path path) {
+			return root.relativize(path).toString().replace(File.separatorChar, '/');
+		}
+		
+		/**
+		 * Takes the next entry of the interrupted archive if it matches the entry about to be written. Once an entry does
+		 * not match, the rest of the interrupted archive is discarded.
+		 * 
+		 * @return the entry to keep, or null if the entry has to be written
+		 */
+		private ArchiveJournal.Entry nextReusable(String name, boolean directory, BasicFileAttributes attrs) {
+			if (reusing && reusedEntries < previousEntries.size()) {
+				ArchiveJournal.Entry previous = previousEntries.get(reusedEntries);
+				// Without a selector, every file is stored as it is, so an entry of another size was replaced by a selector
+				if (previous.getName().equals(name) && previous.isDirectory() == directory && previous.getModified() == attrs.lastModifiedTime().toMillis()
+						&& (directory || previous.getFileSize() == attrs.size() && (selector != null || previous.getSize() == attrs.size()))) {
+					reusedEntries++;
+					return previous;
+				}
+			}
+			// The rest of the interrupted archive is not needed anymore
+			reusing = false;
+			previousEntries = Collections.emptyList();
+			return null;
+		}
+		
+		private void queueReused(EntryRecord record, ArchiveJournal.Entry previous) {
+			record.fileSize = previous.fileSize;
+			record.offset = previous.offset;
+			record.crc = previous.crc;
+			record.size = previous.size;
+			record.compressedSize = previous.compressedSize;
+			pending.add(new PendingWrite() {
+				@Override
+				public void write() throws IOException {
+					position = previous.end;
+					addCentralHeader(record);
+					reusedWritten++;
+				}
+				
+				@Override
+				public boolean isReused() {
+					return true;
+				}
+			});
+		}
+		
+		/**
+		 * Discards what the interrupted archive holds after the entries that are kept, before anything else is written.
+		 * The kept part is added to the checksum of the archive, which it is part of.
+		 */
+		private void resume() throws IOException {
+			if (resumed) {
+				return;
+			}
+			resumed = true;
+			if (journal != null) {
+				journal.resumeAt(reusedWritten);
+				journal.updateChecksum(checksum, position);
+				lastCheckpoint = position;
+			}
+		}
+		
+		/**
+		 * Records an entry that is completely written in the central directory and the journal, saving the journal every
+		 * {@link ArchiveJournal#CHECKPOINT_INTERVAL} bytes or {@link ArchiveJournal#CHECKPOINT_ENTRIES} entries.
+		 */
+		private void recordEntry(EntryRecord record) throws IOException {
+			addCentralHeader(record);
+			if (journal == null) {
+				return;
+			}
+			journal.add(new ArchiveJournal.Entry(record.entryName, record.directory, record.zip64, record.modified, record.fileSize, record.offset, position, record.crc,
+					record.size, record.compressedSize));
+			if (position - lastCheckpoint >= ArchiveJournal.CHECKPOINT_INTERVAL || journal.getPendingCount() >= ArchiveJournal.CHECKPOINT_ENTRIES) {
+				out.flush();
+				journal.checkpoint();
+				lastCheckpoint = position;
+			}
+		}
+		
+		/**
+		 * Takes a buffer for the next chunk, waiting while too many chunks are between being read and being written.
+		 */
+		private byte[] takeBuffer() throws IOException {
+			try {
+				chunkPermits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the archive to be written.");
+			}
+			if (writeFailure != null) {
+				throw new IOException("Unable to write the archive: " + writeFailure.getMessage(), writeFailure);
+			}
+			byte[] buffer = freeBuffers.poll();
+			return buffer != null ? buffer : new byte[CHUNK_SIZE];
+		}
+		
+		private void queueChunk(EntryRecord record, Future<byte[]> future) {
+			pending.add(new PendingWrite() {
+				@Override
+				public void write() throws IOException {
+					writeChunk(record, awaitChunk(future));
+				}
+				
+				@Override
+				public boolean isChunk() {
+					return true;
+				}
+			});
+		}
+		
+		/**
+		 * Writes the queued output in order until the end of the archive is queued, running on the writer thread.
+		 */
+		private void writeAll() {
+			try {
+				while (true) {
+					PendingWrite next = pending.take();
+					if (next == PendingWrite.END || aborted) {
+						return;
+					}
+					if (!next.isReused()) {
+						resume();
+					}
+					next.write();
+					if (next.isChunk()) {
+						chunkPermits.release();
+					}
+				}
+			} catch (IOException e) {
+				writeFailure = e;
+			} catch (RuntimeException | Error e) {
+				// An error such as running out of memory has to stop the reader too, or it waits for chunks forever
+				writeFailure = new IOException("Unable to write the archive.", e);
+			} catch (InterruptedException e) {
+				writeFailure = new InterruptedIOException("Interrupted while writing the archive.");
+			} finally {
+				// Wakes up the reader if it is waiting for a chunk that will never be written
+				chunkPermits.release(chunksInFlight);
+			}
+		}
+		
+		private void awaitWriter(Thread writer) {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					writer.join();
+					break;
+				} catch (InterruptedException e) {
+					// Stop writing, but wait for the writer so that nothing touches the output once it is closed
+					interrupted = true;
+					aborted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		private byte[] awaitChunk(Future<byte[]> future) throws IOException {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while compressing archive entries.");
+			} catch (ExecutionException e) {
+				throw new IOException("Unable to compress an archive entry.", e.getCause());
+			}
+		}
+		
+		private void writeLocalHeader(EntryRecord record) throws IOException {
+			record.offset = position;
+			
+			byte[] zip64Extra = new byte[0];
+			if (record.zip64) {
+				zip64Extra = new byte[20];
+				putShort(zip64Extra, 0, ZIP64_EXTRA_ID);
+				putShort(zip64Extra, 2, 16);
+			}
+			byte[] timestampExtra = timestampExtra(record);
+			
+			writeInt(LOCAL_HEADER_SIGNATURE);
+			writeShort(record.zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+			writeShort(record.flags());
+			writeShort(record.method());
+			writeInt(record.dosTime);
+			writeInt(0L);
+			writeInt(record.zip64 ? ZIP64_MAGIC : 0L);
+			writeInt(record.zip64 ? ZIP64_MAGIC : 0L);
+			writeShort(record.name.length);
+			writeShort(zip64Extra.length + timestampExtra.length);
+			writeBytes(record.name);
+			writeBytes(zip64Extra);
+			writeBytes(timestampExtra);
+		}
+		
+		private void writeChunk(EntryRecord record, byte[] compressed) throws IOException {
+			record.compressedSize += compressed.length;
+			writeBytes(compressed);
+		}
+		
+		private void writeDataDescriptor(EntryRecord record) throws IOException {
+			writeInt(DATA_DESCRIPTOR_SIGNATURE);
+			writeInt(record.crc);
+			if (record.zip64) {
+				writeLong(record.compressedSize);
+				writeLong(record.size);
+			} else {
+				if (record.compressedSize >= ZIP64_MAGIC || record.size >= ZIP64_MAGIC) {
+					throw new ZipException("File grew past 4 GiB while being archived: " + new String(record.name, StandardCharsets.UTF_8));
+				}
+				writeInt(record.compressedSize);
+				writeInt(record.size);
+			}
+		}
+		
+		/**
+		 * Adds the central directory header of an entry that is completely written.
+		 */
+		private void addCentralHeader(EntryRecord record) throws IOException {
+			boolean sizeOverflow = record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC;
+			boolean offsetOverflow = record.offset >= ZIP64_MAGIC;
+			int zip64Length = (sizeOverflow ? 16 : 0) + (offsetOverflow ? 8 : 0);
+			byte[] zip64Extra = new byte[zip64Length == 0 ? 0 : zip64Length + 4];
+			if (zip64Length > 0) {
+				putShort(zip64Extra, 0, ZIP64_EXTRA_ID);
+				putShort(zip64Extra, 2, zip64Length);
+				int index = 4;
+				if (sizeOverflow) {
+					putLong(zip64Extra, index, record.size);
+					putLong(zip64Extra, index + 8, record.compressedSize);
+					index += 16;
+				}
+				if (offsetOverflow) {
+					putLong(zip64Extra, index, record.offset);
+				}
+			}
+			byte[] timestampExtra = timestampExtra(record);
+			int version = record.zip64 || zip64Length > 0 ? VERSION_ZIP64 : VERSION_DEFAULT;
+			
+			byte[] header = new byte[46 + record.name.length + zip64Extra.length + timestampExtra.length];
+			putInt(header, 0, CENTRAL_HEADER_SIGNATURE);
+			putShort(header, 4, version);
+			putShort(header, 6, version);
+			putShort(header, 8, record.flags());
+			putShort(header, 10, record.method());
+			putInt(header, 12, (int) record.dosTime);
+			putInt(header, 16, (int) record.crc);
+			putInt(header, 20, (int) (sizeOverflow ? ZIP64_MAGIC : record.compressedSize));
+			putInt(header, 24, (int) (sizeOverflow ? ZIP64_MAGIC : record.size));
+			putShort(header, 28, record.name.length);
+			putShort(header, 30, zip64Extra.length + timestampExtra.length);
+			// The comment length, disk number and internal attributes at 32 to 37 are all 0
+			putInt(header, 38, record.directory ? DIRECTORY_ATTRIBUTE : 0);
+			putInt(header, 42, (int) (offsetOverflow ? ZIP64_MAGIC : record.offset));
+			System.arraycopy(record.name, 0, header, 46, record.name.length);
+			System.arraycopy(zip64Extra, 0, header, 46 + record.name.length, zip64Extra.length);
+			System.arraycopy(timestampExtra, 0, header, 46 + record.name.length + zip64Extra.length, timestampExtra.length);
+			centralDirectory.write(header);
+			entryCount++;
+		}
+		
+		private void writeCentralDirectory() throws IOException {
+			long centralDirectoryOffset = position;
+			centralDirectory.writeTo(out);
+			position += centralDirectory.size();
+			long centralDirectorySize = position - centralDirectoryOffset;
+			
+			boolean zip64End = entryCount >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC;
+			if (zip64End) {
+				long zip64EndOffset = position;
+				writeInt(ZIP64_END_SIGNATURE);
+				writeLong(44L);
+				writeShort(VERSION_ZIP64);
+				writeShort(VERSION_ZIP64);
+				writeInt(0L);
+				writeInt(0L);
+				writeLong(entryCount);
+				writeLong(entryCount);
+				writeLong(centralDirectorySize);
+				writeLong(centralDirectoryOffset);
+				
+				writeInt(ZIP64_LOCATOR_SIGNATURE);
+				writeInt(0L);
+				writeLong(zip64EndOffset);
+				writeInt(1L);
+			}
+			
+			int count = zip64End ? ZIP64_MAGIC_COUNT : (int) entryCount;
+			writeInt(END_SIGNATURE);
+			writeShort(0);
+			writeShort(0);
+			writeShort(count);
+			writeShort(count);
+			writeInt(zip64End ? ZIP64_MAGIC : centralDirectorySize);
+			writeInt(zip64End ? ZIP64_MAGIC : centralDirectoryOffset);
+			writeShort(0);
+		}
+		
+		private byte[] timestampExtra(EntryRecord record) {
+			if (!record.hasTimestamp) {
+				return new byte[0];
+			}
+			byte[] extra = new byte[9];
+			putShort(extra, 0, TIMESTAMP_EXTRA_ID);
+			putShort(extra, 2, 5);
+			extra[4] = 1;
+			putInt(extra, 5, record.mtimeSeconds);
+			return extra;
+		}
+		
+		private void writeBytes(byte[] bytes) throws IOException {
+			out.write(bytes);
+			position += bytes.length;
+		}
+		
+		private void writeShort(int value) throws IOException {
+			out.write(value & 0xFF);
+			out.write((value >>> 8) & 0xFF);
+			position += 2;
+		}
+		
+		private void writeInt(long value) throws IOException {
+			writeShort((int) (value & 0xFFFF));
+			writeShort((int) ((value >>> 16) & 0xFFFF));
+		}
+		
+		private void writeLong(long value) throws IOException {
+			writeInt(value & 0xFFFFFFFFL);
+			writeInt(value >>> 32);
+		}
+	}
+	
+	/**
+	 * Returns an upper bound of the deflated size of a file, which is larger than the file itself when its data does
+	 * not compress or is stored at level 0, so that a file just under 4 GiB still gets the room of a ZIP64 entry.
+	 */
+	static long maxDeflatedSize(long size) {
+		return size + size / 16000 * 5 + 64;
+	}
+	
+	private static int readFully(InputStream in, byte[] buffer, int limit) throws IOException {
+		int total = 0;
+		while (total < limit) {
+			int read = in.read(buffer, total, limit - total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+	
+	private static void putShort(byte[] bytes, int index, int value) {
+		bytes[index] = (byte) value;
+		bytes[index + 1] = (byte) (value >>> 8);
+	}
+	
+	private static void putInt(byte[] bytes, int index, int value) {
+		putShort(bytes, index, value & 0xFFFF);
+		putShort(bytes, index + 2, value >>> 16);
+	}
+	
+	private static void putLong(byte[] bytes, int index, long value) {
+		putInt(bytes, index, (int) value);
+		putInt(bytes, index + 4, (int) (value >>> 32));
+	}
+	
+}
@@ -0,0 +1,471 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class ParallelZipArchiverTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-archiver");
+	
+	private ExecutorService executor;
+	
+	@Before
+	public void setUp() {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		executor = Executors.newFixedThreadPool(4);
+	}
+	
+	@After
+	public void tearDown() {
+		executor.shutdown();
+		
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * pack()
+	 */
+	
+	@Test
+	public void testPackIsReadableByZipFile() throws IOException {
+		File server = new File(tempDirectory, "server");
+		byte[][] contents = makeTestServer(server);
+		File zip = new File(tempDirectory, "server.zip");
+		
+		ParallelZipArchiver archiver = new ParallelZipArchiver(executor, 4, Deflater.DEFAULT_COMPRESSION);
+		ParallelZipArchiver.Result result = archiver.pack(server, zip);
+		
+		assertEquals(5, result.getFileCount());
+		assertEquals(zip.length(), result.getBytesWritten());
+		
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			assertArrayEquals(contents[0], readEntry(zipFile, "empty.txt"));
+			assertArrayEquals(contents[1], readEntry(zipFile, "small.txt"));
+			assertArrayEquals(contents[2], readEntry(zipFile, "world/region/r.0.0.mca"));
+			assertArrayEquals(contents[3], readEntry(zipFile, "world/region/r.0.1.mca"));
+			assertArrayEquals(contents[4], readEntry(zipFile, "world/level.dat"));
+			assertNotNull(zipFile.getEntry("world/"));
+			assertNotNull(zipFile.getEntry("emptydir/"));
+		}
+	}
+	
+	@Test
+	public void testPackIsReadableByZipInputStream() throws IOException {
+		File server = new File(tempDirectory, "server");
+		byte[][] contents = makeTestServer(server);
+		File zip = new File(tempDirectory, "server.zip");
+		
+		new ParallelZipArchiver(executor, 4, Deflater.BEST_SPEED).pack(server, zip);
+		
+		int files = 0;
+		try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				if (entry.getName().equals("world/region/r.0.0.mca")) {
+					assertArrayEquals(contents[2], readFully(in));
+				}
+				if (!entry.isDirectory()) {
+					files++;
+				}
+			}
+		}
+		assertEquals(5, files);
+	}
+	
+	@Test
+	public void testPackKeepsModificationTimes() throws IOException {
+		File server = new File(tempDirectory, "server");
+		makeTestServer(server);
+		File level = new File(server, "world/level.dat");
+		level.setLastModified(1495407727000L);
+		File zip = new File(tempDirectory, "server.zip");
+		
+		new ParallelZipArchiver(executor, 4, Deflater.DEFAULT_COMPRESSION).pack(server, zip);
+		
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			assertEquals(1495407727000L, zipFile.getEntry("world/level.dat").getLastModifiedTime().toMillis());
+		}
+	}
+	
+	@Test
+	public void testPackStoresExtensions() throws IOException {
+		File server = new File(tempDirectory, "server");
+		byte[][] contents = makeTestServer(server);
+		File zip = new File(tempDirectory, "server.zip");
+		
+		new ParallelZipArchiver(executor, 4, Deflater.BEST_COMPRESSION, Collections.singleton(".MCA")).pack(server, zip);
+		
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			// The compressible region file is not compressed, while the compressible level.dat still is
+			ZipEntry region = zipFile.getEntry("world/region/r.0.1.mca");
+			assertTrue(region.getCompressedSize() >= region.getSize());
+			assertTrue(zipFile.getEntry("world/level.dat").getCompressedSize() < contents[4].length / 10);
+		}
+		try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				if (entry.getName().equals("world/region/r.0.1.mca")) {
+					assertArrayEquals(contents[3], readFully(in));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testPackLeavesOutFilteredPaths() throws IOException {
+		File server = new File(tempDirectory, "server");
+		byte[][] contents = makeTestServer(server);
+		new File(server, "logs").mkdirs();
+		Files.write(new File(server, "logs/latest.log").toPath(), contents[1]);
+		Files.write(new File(server, "world/session.lock").toPath(), contents[1]);
+		new File(server, "logs/latest.log").setLastModified(System.currentTimeMillis() + 60000L);
+		File zip = new File(tempDirectory, "server.zip");
+		
+		PathFilter filter = new PathFilter(Arrays.asList("world", "*.txt"), Arrays.asList("logs", "**/*.lock", "world/region/r.0.1.mca"));
+		ParallelZipArchiver.Result result = new ParallelZipArchiver(executor, 4, Deflater.DEFAULT_COMPRESSION).pack(server, new FileOutputStream(zip), filter, null);
+		
+		assertEquals(4, result.getFileCount());
+		assertTrue(result.getNewestModified() < System.currentTimeMillis() + 30000L);
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			assertArrayEquals(contents[2], readEntry(zipFile, "world/region/r.0.0.mca"));
+			assertNotNull(zipFile.getEntry("small.txt"));
+			assertNull(zipFile.getEntry("world/region/r.0.1.mca"));
+			assertNull(zipFile.getEntry("world/session.lock"));
+			assertNull(zipFile.getEntry("logs/"));
+			assertNull(zipFile.getEntry("emptydir/"));
+		}
+	}
+	
+	@Test
+	public void testPackEmptyFolder() throws IOException {
+		File server = new File(tempDirectory, "server");
+		new File(server, "emptydir").mkdirs();
+		File zip = new File(tempDirectory, "server.zip");
+		
+		try {
+			new ParallelZipArchiver(executor, 4, Deflater.DEFAULT_COMPRESSION).pack(server, zip);
+			fail("Expected a ZipException for a folder without files");
+		} catch (ZipException e) {
+			assertFalse(zip.exists());
+		}
+	}
+	
+	@Test
+	public void testPackWithFewChunksInFlight() throws IOException {
+		File server = new File(tempDirectory, "server");
+		byte[][] contents = makeTestServer(server);
+		File zip = new File(tempDirectory, "server.zip");
+		
+		// A single compression thread lets only two chunks be between being read and being written
+		new ParallelZipArchiver(executor, 1, Deflater.DEFAULT_COMPRESSION).pack(server, zip);
+		
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			assertArrayEquals(contents[2], readEntry(zipFile, "world/region/r.0.0.mca"));
+			assertArrayEquals(contents[3], readEntry(zipFile, "world/region/r.0.1.mca"));
+			assertArrayEquals(contents[4], readEntry(zipFile, "world/level.dat"));
+		}
+	}
+	
+	@Test
+	public void testPackWithSmallMemoryBudget() throws IOException {
+		File server = new File(tempDirectory, "server");
+		byte[][] contents = makeTestServer(server);
+		File zip = new File(tempDirectory, "server.zip");
+		
+		// The central directory and the checksums outgrow a tiny budget right away and are moved to temporary files
+		ParallelZipArchiver archiver = new ParallelZipArchiver(executor, 4, Deflater.DEFAULT_COMPRESSION);
+		archiver.setMemoryBudget(new MemoryBudget(100));
+		try (ArchiveChecksums checksums = archiver.pack(server, zip).getEntryChecksums()) {
+			assertTrue(checksums.isSpilled());
+			checksums.save(zip);
+		}
+		
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			assertArrayEquals(contents[1], readEntry(zipFile, "small.txt"));
+			assertArrayEquals(contents[2], readEntry(zipFile, "world/region/r.0.0.mca"));
+			assertNotNull(zipFile.getEntry("emptydir/"));
+		}
+		ArchiveChecksums saved = ArchiveChecksums.load(zip);
+		assertEquals(5, saved.getEntries().size());
+		CRC32 crc = new CRC32();
+		crc.update(contents[2]);
+		assertEquals(crc.getValue(), saved.get("world/region/r.0.0.mca").getCrc());
+	}
+	
+	@Test
+	public void testPackFailsWhenOutputFails() throws IOException {
+		File server = new File(tempDirectory, "server");
+		makeTestServer(server);
+		OutputStream output = new OutputStream() {
+			private int written;
+			
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+			
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				written += len;
+				if (written > ParallelZipArchiver.CHUNK_SIZE) {
+					throw new IOException("Disk full");
+				}
+			}
+		};
+		
+		try {
+			new ParallelZipArchiver(executor, 1, Deflater.NO_COMPRESSION).pack(server, output, null);
+			fail("Expected the failure of the output to be thrown");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("Disk full"));
+		}
+	}
+	
+	@Test
+	public void testPackResumesInterruptedArchive() throws IOException {
+		File server = new File(tempDirectory, "server");
+		byte[][] contents = makeTestServer(server);
+		File partial = new File(tempDirectory, ".server.partial");
+		ParallelZipArchiver archiver = new ParallelZipArchiver(executor, 4, Deflater.DEFAULT_COMPRESSION);
+		
+		try (FileChannel channel = openPartial(partial)) {
+			ArchiveJournal journal = ArchiveJournal.open(partial, channel);
+			// The channel is kept open to save the journal, as the archive would have been at a checkpoint
+			archiver.pack(server, new FilterOutputStream(Channels.newOutputStream(channel)) {
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			}, PathFilter.ALL, null, journal);
+			journal.checkpoint();
+			
+			// Cut the archive off right after the fourth entry started
+			channel.truncate(ArchiveJournal.open(partial, channel).getEntries().get(3).end + 1);
+		}
+		
+		ParallelZipArchiver.Result result;
+		try (FileChannel channel = openPartial(partial)) {
+			ArchiveJournal journal = ArchiveJournal.open(partial, channel);
+			assertEquals(4, journal.getEntries().size());
+			result = archiver.pack(server, Channels.newOutputStream(channel), PathFilter.ALL, null, journal);
+		}
+		
+		assertEquals(4, result.getResumedEntryCount());
+		assertEquals(5, result.getFileCount());
+		assertEquals(Arrays.stream(contents).mapToLong(content -> content.length).sum(), result.getBytesRead());
+		byte[] archive = Files.readAllBytes(partial.toPath());
+		assertEquals(archive.length, result.getBytesWritten());
+		CRC32 checksum = new CRC32();
+		checksum.update(archive, 0, archive.length);
+		assertEquals(checksum.getValue(), result.getChecksum());
+		try (ZipFile zipFile = new ZipFile(partial)) {
+			assertArrayEquals(contents[1], readEntry(zipFile, "small.txt"));
+			assertArrayEquals(contents[2], readEntry(zipFile, "world/region/r.0.0.mca"));
+			assertArrayEquals(contents[3], readEntry(zipFile, "world/region/r.0.1.mca"));
+			assertArrayEquals(contents[4], readEntry(zipFile, "world/level.dat"));
+			assertEquals(5, result.getEntryChecksums().getEntries().size());
+		}
+	}
+	
+	@Test
+	public void testPackDiscardsEntriesOfChangedFiles() throws IOException {
+		File server = new File(tempDirectory, "server");
+		makeTestServer(server);
+		File partial = new File(tempDirectory, ".server.partial");
+		ParallelZipArchiver archiver = new ParallelZipArchiver(executor, 4, Deflater.DEFAULT_COMPRESSION);
+		
+		try (FileChannel channel = openPartial(partial)) {
+			ArchiveJournal journal = ArchiveJournal.open(partial, channel);
+			archiver.pack(server, new FilterOutputStream(Channels.newOutputStream(channel)) {
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			}, PathFilter.ALL, null, journal);
+			journal.checkpoint();
+		}
+		for (File file : new File[] {new File(server, "empty.txt"), new File(server, "small.txt"), new File(server, "world/level.dat")}) {
+			file.setLastModified(1495407727000L);
+		}
+		
+		ParallelZipArchiver.Result result;
+		try (FileChannel channel = openPartial(partial)) {
+			result = archiver.pack(server, Channels.newOutputStream(channel), PathFilter.ALL, null, ArchiveJournal.open(partial, channel));
+		}
+		
+		try (ZipFile zipFile = new ZipFile(partial)) {
+			assertEquals(1495407727000L, zipFile.getEntry("world/level.dat").getLastModifiedTime().toMillis());
+			assertEquals(1495407727000L, zipFile.getEntry("small.txt").getLastModifiedTime().toMillis());
+			assertEquals(partial.length(), result.getBytesWritten());
+		}
+	}
+	
+	@Test
+	public void testPackDiscardsEntriesReplacedBySelector() throws IOException {
+		File server = new File(tempDirectory, "server");
+		byte[][] contents = makeTestServer(server);
+		File partial = new File(tempDirectory, ".server.partial");
+		ParallelZipArchiver archiver = new ParallelZipArchiver(executor, 4, Deflater.DEFAULT_COMPRESSION);
+		
+		// An interrupted attempt that stored a region file as something else, like a delta
+		try (FileChannel channel = openPartial(partial)) {
+			ArchiveJournal journal = ArchiveJournal.open(partial, channel);
+			archiver.pack(server, new FilterOutputStream(Channels.newOutputStream(channel)) {
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			}, PathFilter.ALL, new ParallelZipArchiver.FileSelector() {
+				@Override
+				public boolean include(String entryName, BasicFileAttributes attrs) {
+					return true;
+				}
+				
+				@Override
+				public byte[] replace(String entryName, Path file, BasicFileAttributes attrs) {
+					return entryName.endsWith(".mca") ? new byte[] {1, 2, 3} : null;
+				}
+			}, journal);
+			journal.checkpoint();
+		}
+		
+		try (FileChannel channel = openPartial(partial)) {
+			archiver.pack(server, Channels.newOutputStream(channel), PathFilter.ALL, null, ArchiveJournal.open(partial, channel));
+		}
+		
+		try (ZipFile zipFile = new ZipFile(partial)) {
+			assertArrayEquals(contents[2], readEntry(zipFile, "world/region/r.0.0.mca"));
+			assertArrayEquals(contents[3], readEntry(zipFile, "world/region/r.0.1.mca"));
+		}
+	}
+	
+	@Test
+	public void testMaxDeflatedSizeCoversIncompressibleFiles() {
+		byte[] data = new byte[3 << 20];
+		new Random(42).nextBytes(data);
+		for (int level : new int[] {Deflater.NO_COMPRESSION, Deflater.DEFAULT_COMPRESSION}) {
+			Deflater deflater = new Deflater(level, true);
+			deflater.setInput(data);
+			deflater.finish();
+			byte[] buffer = new byte[data.length * 2];
+			int deflated = 0;
+			while (!deflater.finished()) {
+				deflated += deflater.deflate(buffer, deflated, buffer.length - deflated);
+			}
+			deflater.end();
+			assertTrue(deflated > data.length);
+			assertTrue(deflated <= ParallelZipArchiver.maxDeflatedSize(data.length));
+		}
+		assertTrue(ParallelZipArchiver.maxDeflatedSize(0xFFFFFFFFL - 1024) >= 0xFFFFFFFFL);
+	}
+	
+	private static FileChannel openPartial(File partial) throws IOException {
+		return FileChannel.open(partial.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+	
+	/**
+	 * Creates a server folder containing an empty file, a small file, a file spanning several chunks, a file that is an
+	 * exact multiple of the chunk size and a compressible file.
+	 */
+	private static byte[][] makeTestServer(File server) throws IOException {
+		Random random = new Random(42);
+		byte[][] contents = new byte[5][];
+		contents[0] = new byte[0];
+		contents[1] = "motd=A Minecraft Server".getBytes("UTF-8");
+		contents[2] = new byte[ParallelZipArchiver.CHUNK_SIZE * 2 + 12345];
+		random.nextBytes(contents[2]);
+		contents[3] = new byte[ParallelZipArchiver.CHUNK_SIZE * 2];
+		for (int i = 0; i < contents[3].length; i++) {
+			contents[3][i] = (byte) (i % 251 ^ random.nextInt(4));
+		}
+		contents[4] = new byte[100000];
+		
+		new File(server, "world/region").mkdirs();
+		new File(server, "emptydir").mkdirs();
+		Files.write(new File(server, "empty.txt").toPath(), contents[0]);
+		Files.write(new File(server, "small.txt").toPath(), contents[1]);
+		Files.write(new File(server, "world/region/r.0.0.mca").toPath(), contents[2]);
+		Files.write(new File(server, "world/region/r.0.1.mca").toPath(), contents[3]);
+		Files.write(new File(server, "world/level.dat").toPath(), contents[4]);
+		return contents;
+	}
+	
+	private static byte[] readEntry(ZipFile zipFile, String name) throws IOException {
+		ZipEntry entry = zipFile.getEntry(name);
+		assertNotNull(name, entry);
+		try (InputStream in = zipFile.getInputStream(entry)) {
+			return readFully(in);
+		}
+	}
+	
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) > 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+	
+}
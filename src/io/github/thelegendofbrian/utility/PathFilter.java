@@ -0,0 +1,104 @@
+package io.github.thelegendofbrian.utility;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides which paths of a server folder are backed up, from patterns of paths to include and to exclude. Without any
+ * include pattern every path is included. Exclusions win over inclusions, and an excluded directory is skipped with
+ * everything in it, so nothing below it is listed, checked or read.
+ */
+public class PathFilter {
+	
+	/**
+	 * Includes every path.
+	 */
+	public static final PathFilter ALL = new PathFilter(Collections.emptyList(), Collections.emptyList());
+	
+	private final List<PathGlob> includes = new ArrayList<>();
+	private final List<PathGlob> excludes = new ArrayList<>();
+	
+	/**
+	 * @param includes the {@link PathGlob} patterns of the paths to back up, or none to back up every path
+	 * @param excludes the {@link PathGlob} patterns of the paths not to back up
+	 */
+	public PathFilter(Collection<String> includes, Collection<String> excludes) {
+		for (String include : includes) {
+			this.includes.add(new PathGlob(include));
+		}
+		for (String exclude : excludes) {
+			this.excludes.add(new PathGlob(exclude));
+		}
+	}
+	
+	/**
+	 * Checks a path before its attributes are read, since it is excluded the same way whether it is a file or a
+	 * directory.
+	 * 
+	 * @param path a path relative to the server folder, separated by '/'
+	 * @return whether the path, or a directory that contains it, is excluded
+	 */
+	public boolean isExcluded(String path) {
+		for (PathGlob exclude : excludes) {
+			if (exclude.matches(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param path the path of a file relative to the server folder, separated by '/'
+	 * @return whether the file is backed up
+	 */
+	public boolean includesFile(String path) {
+		if (isExcluded(path)) {
+			return false;
+		}
+		if (includes.isEmpty()) {
+			return true;
+		}
+		for (PathGlob include : includes) {
+			if (include.matches(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param path the path of a directory relative to the server folder, separated by '/', or "" for the server folder
+	 * @return whether the directory may contain files that are backed up, so it has to be searched
+	 */
+	public boolean includesDirectory(String path) {
+		if (path.isEmpty()) {
+			return true;
+		}
+		if (isExcluded(path)) {
+			return false;
+		}
+		if (includes.isEmpty()) {
+			return true;
+		}
+		for (PathGlob include : includes) {
+			if (include.mayMatchWithin(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return a description of the patterns, which is empty for a filter that includes every path
+	 */
+	@Override
+	public String toString() {
+		if (includes.isEmpty() && excludes.isEmpty()) {
+			return "";
+		}
+		return "include " + includes + " exclude " + excludes;
+	}
+	
+}
@@ -0,0 +1,52 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class PathFilterTest {
+	
+	/*
+	 * includesFile() and includesDirectory()
+	 */
+	
+	@Test
+	public void testExcludes() {
+		PathFilter filter = new PathFilter(Collections.emptyList(), Arrays.asList("logs", "crash-reports", "**/*.lock", "plugins/dynmap/web/tiles"));
+		assertTrue(filter.includesFile("server.properties"));
+		assertTrue(filter.includesFile("world/region/r.0.0.mca"));
+		assertFalse(filter.includesFile("world/session.lock"));
+		assertFalse(filter.includesFile("logs/latest.log"));
+		assertFalse(filter.includesDirectory("logs"));
+		assertTrue(filter.includesDirectory("plugins/dynmap/web"));
+		assertFalse(filter.includesDirectory("plugins/dynmap/web/tiles"));
+		assertTrue(filter.isExcluded("plugins/dynmap/web/tiles/world/0_0.png"));
+	}
+	
+	@Test
+	public void testIncludes() {
+		PathFilter filter = new PathFilter(Arrays.asList("world", "*.properties"), Collections.singletonList("world/playerdata"));
+		assertTrue(filter.includesFile("server.properties"));
+		assertFalse(filter.includesFile("banned-ips.json"));
+		assertTrue(filter.includesFile("world/level.dat"));
+		assertFalse(filter.includesFile("world/playerdata/a.dat"));
+		assertTrue(filter.includesDirectory(""));
+		assertTrue(filter.includesDirectory("world/region"));
+		assertFalse(filter.includesDirectory("world/playerdata"));
+		assertFalse(filter.includesDirectory("plugins"));
+	}
+	
+	/*
+	 * toString()
+	 */
+	
+	@Test
+	public void testEmptyFilterHasEmptyDescription() {
+		assertEquals("", PathFilter.ALL.toString());
+		assertEquals("include [] exclude [logs]", new PathFilter(Collections.emptyList(), Collections.singleton("logs/")).toString());
+	}
+	
+}
@@ -0,0 +1,105 @@
+package io.github.thelegendofbrian.utility;
+
+import java.util.regex.Pattern;
+
+/**
+ * A pattern for paths relative to a server folder, separated by '/'. "*" matches any part of a single name, "?" matches
+ * a single character of a name and "**" matches any number of directories. A pattern that matches a directory also
+ * matches everything in it, so "world/region" matches every region file of the world.
+ */
+public class PathGlob {
+	
+	private final String glob;
+	private final Pattern pattern;
+	
+	/**
+	 * @param glob the pattern, which may use '\' as separator and may start with "./" or "/"
+	 */
+	public PathGlob(String glob) {
+		String normalized = glob.trim().replace('\\', '/');
+		while (normalized.startsWith("./")) {
+			normalized = normalized.substring(2);
+		}
+		while (normalized.startsWith("/")) {
+			normalized = normalized.substring(1);
+		}
+		while (normalized.endsWith("/")) {
+			normalized = normalized.substring(0, normalized.length() - 1);
+		}
+		this.glob = normalized;
+		this.pattern = Pattern.compile(toRegex(normalized) + "(?:/.*)?");
+	}
+	
+	/**
+	 * @param path a path relative to the server folder, separated by '/'
+	 * @return whether the path, or a directory that contains it, matches
+	 */
+	public boolean matches(String path) {
+		return pattern.matcher(path).matches();
+	}
+	
+	/**
+	 * @param directory a directory relative to the server folder, separated by '/', or "" for the server folder itself
+	 * @return whether the directory or a path inside it may match, so the directory has to be searched
+	 */
+	public boolean mayMatchWithin(String directory) {
+		if (directory.isEmpty() || matches(directory)) {
+			return true;
+		}
+		String[] globNames = glob.split("/");
+		String[] names = directory.split("/");
+		for (int i = 0; i < names.length; i++) {
+			// A shorter pattern that matched a parent of the directory would have matched the directory itself
+			if (i >= globNames.length) {
+				return false;
+			}
+			if (globNames[i].contains("**")) {
+				return true;
+			}
+			if (!Pattern.matches(toRegex(globNames[i]), names[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static String toRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c != '*' && c != '?') {
+				literal.append(c);
+				continue;
+			}
+			if (literal.length() > 0) {
+				regex.append(Pattern.quote(literal.toString()));
+				literal.setLength(0);
+			}
+			if (c == '?') {
+				regex.append("[^/]");
+			} else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+				// "**/" may also match no directory at all
+				if (i + 2 < glob.length() && glob.charAt(i + 2) == '/') {
+					regex.append("(?:.*/)?");
+					i += 2;
+				} else {
+					regex.append(".*");
+					i++;
+				}
+			} else {
+				regex.append("[^/]*");
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return regex.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return glob;
+	}
+	
+}
@@ -0,0 +1,69 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class PathGlobTest {
+	
+	/*
+	 * matches()
+	 */
+	
+	@Test
+	public void testSingleNameWildcards() {
+		PathGlob glob = new PathGlob("world/playerdata/*.dat");
+		assertTrue(glob.matches("world/playerdata/069a79f4-44e9-4726-a5be-fca90e38aaf5.dat"));
+		assertFalse(glob.matches("world/playerdata/a.dat_old"));
+		assertFalse(glob.matches("world/playerdata/old/a.dat"));
+		assertFalse(glob.matches("world_nether/playerdata/a.dat"));
+		
+		assertTrue(new PathGlob("world/region/r.?.0.mca").matches("world/region/r.1.0.mca"));
+		assertFalse(new PathGlob("world/region/r.?.0.mca").matches("world/region/r.10.0.mca"));
+	}
+	
+	@Test
+	public void testAnyDirectories() {
+		PathGlob glob = new PathGlob("**/region/*.mca");
+		assertTrue(glob.matches("region/r.0.0.mca"));
+		assertTrue(glob.matches("world/region/r.0.0.mca"));
+		assertTrue(glob.matches("world/DIM-1/region/r.0.0.mca"));
+		assertFalse(glob.matches("world/region.mca"));
+		
+		assertTrue(new PathGlob("logs/**").matches("logs/2001/latest.log"));
+	}
+	
+	@Test
+	public void testDirectoryMatchesContents() {
+		PathGlob glob = new PathGlob("./world\\region/");
+		assertTrue(glob.matches("world/region"));
+		assertTrue(glob.matches("world/region/r.0.0.mca"));
+		assertFalse(glob.matches("world/regions/r.0.0.mca"));
+		assertFalse(glob.matches("other/world/region/r.0.0.mca"));
+	}
+	
+	@Test
+	public void testRegexCharactersAreLiteral() {
+		assertTrue(new PathGlob("mods/[core]+(1).jar").matches("mods/[core]+(1).jar"));
+		assertFalse(new PathGlob("mods/a.jar").matches("mods/abjar"));
+	}
+	
+	/*
+	 * mayMatchWithin()
+	 */
+	
+	@Test
+	public void testMayMatchWithin() {
+		PathGlob glob = new PathGlob("world*/playerdata/*.dat");
+		assertTrue(glob.mayMatchWithin(""));
+		assertTrue(glob.mayMatchWithin("world"));
+		assertTrue(glob.mayMatchWithin("world_nether/playerdata"));
+		assertFalse(glob.mayMatchWithin("logs"));
+		assertFalse(glob.mayMatchWithin("world/region"));
+		assertFalse(glob.mayMatchWithin("world/playerdata/old"));
+		
+		assertTrue(new PathGlob("plugins/**/config.yml").mayMatchWithin("plugins/dynmap/web"));
+		assertTrue(new PathGlob("world").mayMatchWithin("world/region"));
+	}
+	
+}
@@ -0,0 +1,152 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends commands to a running Minecraft server over the RCON protocol. Each packet is a little-endian length, request
+ * id and type, followed by a null terminated payload and a second null byte.
+ */
+public class RconClient implements Closeable {
+	
+	protected static final int TYPE_RESPONSE = 0;
+	protected static final int TYPE_COMMAND = 2;
+	protected static final int TYPE_LOGIN = 3;
+	
+	// The largest packet a Minecraft server accepts
+	private static final int MAX_PACKET_LENGTH = 1460;
+	
+	private final Socket socket;
+	private final DataInputStream in;
+	private final OutputStream out;
+	private int nextRequestId = 1;
+	
+	/**
+	 * Connects to the RCON port of a server. The connection still has to be authenticated with {@link #login(String)}.
+	 * 
+	 * @param host
+	 * @param port
+	 * @param timeoutMillis how long to wait for the connection and for each response
+	 * @throws IOException
+	 */
+	public RconClient(String host, int port, int timeoutMillis) throws IOException {
+		socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+			socket.setSoTimeout(timeoutMillis);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = socket.getOutputStream();
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @param password the rcon.password of the server
+	 * @throws IOException if the password is wrong or the server does not answer
+	 */
+	public void login(String password) throws IOException {
+		int requestId = send(TYPE_LOGIN, password);
+		if (readPacket(in).requestId != requestId) {
+			throw new IOException("The RCON password was rejected by the server.");
+		}
+	}
+	
+	/**
+	 * Runs a console command on the server.
+	 * 
+	 * @param command the command, without a leading slash
+	 * @return the output of the command
+	 * @throws IOException
+	 */
+	public String command(String command) throws IOException {
+		int requestId = send(TYPE_COMMAND, command);
+		Packet response = readPacket(in);
+		if (response.requestId != requestId) {
+			throw new IOException("Unexpected RCON response to \"" + command + "\".");
+		}
+		return response.payload;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+	
+	private int send(int type, String payload) throws IOException {
+		if (payload.getBytes(StandardCharsets.UTF_8).length + 10 > MAX_PACKET_LENGTH) {
+			throw new IOException("RCON command is too long: " + payload);
+		}
+		int requestId = nextRequestId++;
+		writePacket(out, new Packet(requestId, type, payload));
+		return requestId;
+	}
+	
+	/**
+	 * Reads a single packet, as sent by a server or a client.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	protected static Packet readPacket(InputStream in) throws IOException {
+		DataInputStream data = in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in);
+		byte[] lengthBytes = new byte[4];
+		data.readFully(lengthBytes);
+		int length = ByteBuffer.wrap(lengthBytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+		if (length < 10 || length > 1 << 20) {
+			throw new IOException("Invalid RCON packet length: " + length);
+		}
+		byte[] body = new byte[length];
+		data.readFully(body);
+		ByteBuffer buffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+		int requestId = buffer.getInt();
+		int type = buffer.getInt();
+		if (body[length - 1] != 0 || body[length - 2] != 0) {
+			throw new IOException("Unterminated RCON packet.");
+		}
+		return new Packet(requestId, type, new String(body, 8, length - 10, StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Writes a single packet.
+	 * 
+	 * @param out
+	 * @param packet
+	 * @throws IOException
+	 */
+	protected static void writePacket(OutputStream out, Packet packet) throws IOException {
+		byte[] bytes = packet.payload.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + bytes.length + 2).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(4 + 4 + bytes.length + 2).putInt(packet.requestId).putInt(packet.type).put(bytes).put((byte) 0).put((byte) 0);
+		out.write(buffer.array());
+		out.flush();
+	}
+	
+	/**
+	 * A single RCON packet.
+	 */
+	protected static class Packet {
+		
+		protected final int requestId;
+		protected final int type;
+		protected final String payload;
+		
+		public Packet(int requestId, int type, String payload) {
+			this.requestId = requestId;
+			this.type = type;
+			this.payload = payload;
+		}
+	}
+	
+}
@@ -0,0 +1,167 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads and rebuilds Minecraft region files. A region file holds up to 1024 chunks in sectors of 4 KiB. Its first
+ * sector lists where each chunk is stored, as a 3 byte sector offset and a 1 byte sector count, and its second sector
+ * lists when each chunk was last saved, in seconds since the epoch. The data of a chunk starts with its length in 4
+ * bytes, followed by a compression type and the compressed data.
+ * <p>
+ * A delta holds both header sectors of a region file but only the data of the chunks saved since a given time, so a
+ * region file where a few chunks changed can be stored in a fraction of its size. The region file is rebuilt from a
+ * delta and the version of the file the delta was made against, taking every chunk that is not in the delta from that
+ * version. The rebuilt file has the same header and places every chunk in the same sectors, but the unused sectors are
+ * filled with zeros.
+ */
+public class RegionFile {
+	
+	protected static final String EXTENSION = ".mca";
+	protected static final int SECTOR_SIZE = 4096;
+	protected static final int CHUNK_COUNT = 1024;
+	protected static final int HEADER_SIZE = 2 * SECTOR_SIZE;
+	
+	private static final byte[] DELTA_MAGIC = "MCADELT1".getBytes(StandardCharsets.US_ASCII);
+	
+	private RegionFile() {
+	}
+	
+	/**
+	 * @param entryName
+	 * @return whether the file is a region file by its name
+	 */
+	public static boolean isRegionFile(String entryName) {
+		return entryName.endsWith(EXTENSION);
+	}
+	
+	/**
+	 * Makes a delta of a region file holding the chunks that were saved at or after a point in time.
+	 * 
+	 * @param region the contents of the region file
+	 * @param sinceSeconds the time, in seconds since the epoch, the version the delta is made against was last modified
+	 * @return the delta, or null if the file is not a valid region file
+	 */
+	public static byte[] createDelta(byte[] region, long sinceSeconds) {
+		if (region.length < HEADER_SIZE) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(region);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.write(DELTA_MAGIC);
+			out.write(region, 0, HEADER_SIZE);
+			int[] changed = new int[CHUNK_COUNT];
+			int changedCount = 0;
+			for (int i = 0; i < CHUNK_COUNT; i++) {
+				int location = buffer.getInt(i * 4);
+				long timestamp = buffer.getInt(SECTOR_SIZE + i * 4) & 0xFFFFFFFFL;
+				if (location != 0 && timestamp >= sinceSeconds) {
+					changed[changedCount++] = i;
+				}
+			}
+			out.writeInt(changedCount);
+			for (int n = 0; n < changedCount; n++) {
+				int i = changed[n];
+				int length = getChunkLength(buffer, buffer.getInt(i * 4));
+				if (length < 0) {
+					return null;
+				}
+				out.writeShort(i);
+				out.writeInt(length);
+				out.write(region, (buffer.getInt(i * 4) >>> 8) * SECTOR_SIZE, length);
+			}
+		} catch (IOException e) {
+			// Not thrown by a ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Rebuilds a region file from a delta.
+	 * 
+	 * @param base the contents of the version of the region file the delta was made against
+	 * @param delta
+	 * @param size the size of the region file when the delta was made
+	 * @return the contents of the region file
+	 * @throws IOException if the delta or the base is damaged, or a chunk is in neither
+	 */
+	public static byte[] applyDelta(byte[] base, byte[] delta, long size) throws IOException {
+		if (delta.length < DELTA_MAGIC.length + HEADER_SIZE + 4 || !Arrays.equals(DELTA_MAGIC, Arrays.copyOf(delta, DELTA_MAGIC.length))) {
+			throw new IOException("Not a region file delta.");
+		}
+		if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+			throw new IOException("Invalid region file size: " + size);
+		}
+		
+		byte[] region = new byte[(int) size];
+		System.arraycopy(delta, DELTA_MAGIC.length, region, 0, HEADER_SIZE);
+		ByteBuffer header = ByteBuffer.wrap(region);
+		ByteBuffer changes = ByteBuffer.wrap(delta);
+		boolean[] placed = new boolean[CHUNK_COUNT];
+		try {
+			changes.position(DELTA_MAGIC.length + HEADER_SIZE);
+			int changedCount = changes.getInt();
+			for (int n = 0; n < changedCount; n++) {
+				int i = changes.getShort();
+				int length = changes.getInt();
+				if (i < 0 || i >= CHUNK_COUNT || !fits(header.getInt(i * 4), length, size)) {
+					throw new IOException("Damaged region file delta.");
+				}
+				int location = header.getInt(i * 4);
+				changes.get(region, (location >>> 8) * SECTOR_SIZE, length);
+				placed[i] = true;
+			}
+		} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+			throw new IOException("Damaged region file delta.", e);
+		}
+		
+		ByteBuffer previous = ByteBuffer.wrap(base);
+		for (int i = 0; i < CHUNK_COUNT; i++) {
+			int location = header.getInt(i * 4);
+			if (location == 0 || placed[i]) {
+				continue;
+			}
+			int previousLocation = base.length < HEADER_SIZE ? 0 : previous.getInt(i * 4);
+			int length = previousLocation == 0 ? -1 : getChunkLength(previous, previousLocation);
+			if (length < 0) {
+				throw new IOException("Chunk " + i + " of the region file is in neither the delta nor the version it was made against.");
+			}
+			if (!fits(location, length, size)) {
+				throw new IOException("Chunk " + i + " of the region file does not fit in the sectors listed for it.");
+			}
+			System.arraycopy(base, (previousLocation >>> 8) * SECTOR_SIZE, region, (location >>> 8) * SECTOR_SIZE, length);
+		}
+		return region;
+	}
+	
+	/**
+	 * @return the number of bytes of a chunk's data, including its length, or -1 if the location is invalid
+	 */
+	private static int getChunkLength(ByteBuffer region, int location) {
+		int offset = location >>> 8;
+		if (offset < HEADER_SIZE / SECTOR_SIZE || getEnd(location) > region.capacity()) {
+			return -1;
+		}
+		int length = region.getInt(offset * SECTOR_SIZE);
+		if (length <= 0 || length + 4L > (location & 0xFF) * SECTOR_SIZE) {
+			return -1;
+		}
+		return length + 4;
+	}
+	
+	private static boolean fits(int location, int length, long size) {
+		return (location >>> 8) >= HEADER_SIZE / SECTOR_SIZE && length >= 0 && length <= (location & 0xFF) * SECTOR_SIZE && getEnd(location) <= size;
+	}
+	
+	private static long getEnd(int location) {
+		return (long) ((location >>> 8) + (location & 0xFF)) * SECTOR_SIZE;
+	}
+	
+}
@@ -0,0 +1,95 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class RegionFileTest {
+	
+	/*
+	 * createDelta()
+	 */
+	
+	@Test
+	public void testDeltaHoldsOnlyChangedChunks() throws IOException {
+		byte[] region = createRegion(12);
+		for (int i = 0; i < 10; i++) {
+			putChunk(region, i, 2 + i, 1000 + i, 3000, i);
+		}
+		
+		byte[] delta = RegionFile.createDelta(region, 1008);
+		assertTrue(delta.length < RegionFile.HEADER_SIZE + 2 * 3000 + 100);
+		assertArrayEquals(region, RegionFile.applyDelta(region, delta, region.length));
+	}
+	
+	@Test
+	public void testInvalidRegionFile() {
+		assertNull(RegionFile.createDelta(new byte[100], 0));
+		
+		// A chunk listed beyond the end of the file
+		byte[] region = createRegion(3);
+		ByteBuffer.wrap(region).putInt(0, 5 << 8 | 1);
+		assertNull(RegionFile.createDelta(region, 0));
+	}
+	
+	/*
+	 * applyDelta()
+	 */
+	
+	@Test
+	public void testRebuildFromPreviousVersion() throws IOException {
+		byte[] previous = createRegion(6);
+		putChunk(previous, 0, 2, 100, 2000, 0);
+		putChunk(previous, 1, 3, 100, 2000, 1);
+		putChunk(previous, 2, 4, 100, 2000, 2);
+		
+		// Chunk 0 is unchanged, chunk 1 grew and moved to the end, chunk 2 was removed and chunk 3 is new
+		byte[] current = createRegion(8);
+		putChunk(current, 0, 2, 100, 2000, 0);
+		putChunk(current, 1, 6, 300, 6000, 11);
+		putChunk(current, 3, 3, 300, 1000, 13);
+		
+		byte[] delta = RegionFile.createDelta(current, 200);
+		assertArrayEquals(current, RegionFile.applyDelta(previous, delta, current.length));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testChunkMissingFromPreviousVersion() throws IOException {
+		byte[] previous = createRegion(3);
+		byte[] current = createRegion(3);
+		putChunk(current, 0, 2, 100, 2000, 0);
+		
+		RegionFile.applyDelta(previous, RegionFile.createDelta(current, 200), current.length);
+	}
+	
+	/**
+	 * Creates an empty region file.
+	 * 
+	 * @param sectors the size of the file in sectors, including the two header sectors
+	 */
+	static byte[] createRegion(int sectors) {
+		return new byte[sectors * RegionFile.SECTOR_SIZE];
+	}
+	
+	/**
+	 * Stores a chunk of random data in a region file, overwriting its sectors.
+	 */
+	static void putChunk(byte[] region, int index, int sector, int timestamp, int length, long seed) {
+		int sectorCount = (length + 4 + RegionFile.SECTOR_SIZE - 1) / RegionFile.SECTOR_SIZE;
+		ByteBuffer buffer = ByteBuffer.wrap(region);
+		buffer.putInt(index * 4, sector << 8 | sectorCount);
+		buffer.putInt(RegionFile.SECTOR_SIZE + index * 4, timestamp);
+		
+		Arrays.fill(region, sector * RegionFile.SECTOR_SIZE, (sector + sectorCount) * RegionFile.SECTOR_SIZE, (byte) 0);
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		buffer.putInt(sector * RegionFile.SECTOR_SIZE, length);
+		System.arraycopy(data, 0, region, sector * RegionFile.SECTOR_SIZE + 4, length);
+	}
+	
+}
@@ -0,0 +1,338 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+/**
+ * Stores archives in an S3 compatible object storage, under "&lt;prefix&gt;&lt;server name&gt;/&lt;archive name&gt;".
+ * An archive is uploaded while it is being written, as a multipart upload whose parts are sent on several threads, so
+ * it is never written to or read back from the local disk. Since the name of an archive is only known once it is
+ * written, it is uploaded under a partial name first and then copied to its name within the storage.
+ * <p>
+ * The local backup folder keeps a small reference to each archive, named after the archive with
+ * {@link #REMOTE_EXTENSION} appended, next to which its manifest and checksums are kept as usual.
+ */
+public class S3BackupTarget implements BackupTarget {
+	
+	protected static final String REMOTE_EXTENSION = ".remote";
+	
+	// Every part of a multipart upload but the last must be at least this large
+	protected static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+	
+	private static final String HEADER = "# mc-server-backup-util remote 1";
+	private static final int MAX_ATTEMPTS = 3;
+	private static final long RETRY_DELAY = 1000L;
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("main");
+	
+	private final S3Client client;
+	private final String prefix;
+	private final int partSize;
+	private final ExecutorService uploadExecutor;
+	private final int uploadThreads;
+	
+	/**
+	 * @param client
+	 * @param prefix prepended to the key of every archive, such as "backups/" or ""
+	 * @param partSize the size of each part of an upload, at least {@link #MIN_PART_SIZE} for most storages
+	 * @param uploadExecutor the threads to upload parts on
+	 * @param uploadThreads the number of threads of uploadExecutor, which together with one part being written limits
+	 *            the number of parts held in memory per upload
+	 */
+	public S3BackupTarget(S3Client client, String prefix, int partSize, ExecutorService uploadExecutor, int uploadThreads) {
+		this.client = client;
+		this.prefix = prefix;
+		this.partSize = partSize;
+		this.uploadExecutor = uploadExecutor;
+		this.uploadThreads = uploadThreads;
+	}
+	
+	/**
+	 * @param backup
+	 * @return whether the local file of a backup is a reference to an archive in object storage
+	 */
+	public static boolean isRemote(File backup) {
+		return backup.getName().endsWith(REMOTE_EXTENSION);
+	}
+	
+	/**
+	 * @param serverName
+	 * @param archiveName
+	 * @return the key an archive is stored under
+	 */
+	protected String getKey(String serverName, String archiveName) {
+		return prefix + serverName + "/" + archiveName;
+	}
+	
+	@Override
+	public Upload begin(File backupFolder, String serverName) throws IOException {
+		String partialKey = getKey(serverName, "." + serverName + ".partial");
+		MultipartOutputStream out = new MultipartOutputStream(partialKey);
+		return new Upload() {
+			@Override
+			public OutputStream getOutputStream() {
+				return out;
+			}
+			
+			@Override
+			public File getBackupFile(String archiveName) {
+				return new File(backupFolder, archiveName + REMOTE_EXTENSION);
+			}
+			
+			@Override
+			public File commit(String archiveName) throws IOException {
+				if (!out.completed) {
+					throw new IOException("The upload of " + archiveName + " was not completed.");
+				}
+				String key = getKey(serverName, archiveName);
+				client.copyObject(partialKey, key, out.size);
+				File backupFile = getBackupFile(archiveName);
+				saveReference(backupFile, key, out.size);
+				try {
+					client.deleteObject(partialKey);
+				} catch (IOException e) {
+					logger.log(Level.FINE, "Unable to delete " + partialKey + ", it is replaced by the next backup: ", e);
+				}
+				return backupFile;
+			}
+			
+			@Override
+			public void abort() {
+				out.abort();
+			}
+		};
+	}
+	
+	@Override
+	public File fetch(File backup) throws IOException {
+		if (!isRemote(backup)) {
+			return backup;
+		}
+		File temporaryFile = File.createTempFile("mc-server-backup-util-", ".zip");
+		try {
+			client.getObject(loadKey(backup), temporaryFile);
+		} catch (IOException e) {
+			Files.deleteIfExists(temporaryFile.toPath());
+			throw e;
+		}
+		return temporaryFile;
+	}
+	
+	@Override
+	public void delete(File backup) throws IOException {
+		if (isRemote(backup)) {
+			client.deleteObject(loadKey(backup));
+		}
+	}
+	
+	private static void saveReference(File backupFile, String key, long size) throws IOException {
+		File temporaryFile = new File(backupFile.getParentFile(), "." + backupFile.getName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			writer.write("size=" + size);
+			writer.newLine();
+			writer.write("key=" + key);
+			writer.newLine();
+		}
+		
+		try {
+			Files.move(temporaryFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporaryFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * @param backup the local reference to an archive
+	 * @return the key the archive is stored under
+	 * @throws IOException if the reference cannot be read
+	 */
+	protected static String loadKey(File backup) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(backup.toPath(), StandardCharsets.UTF_8)) {
+			if (!HEADER.equals(reader.readLine())) {
+				throw new IOException("Unknown remote backup format: " + backup.getAbsolutePath());
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("key=")) {
+					return line.substring(4);
+				}
+			}
+		}
+		throw new IOException("Corrupt remote backup: " + backup.getAbsolutePath());
+	}
+	
+	/**
+	 * Collects written bytes into parts and uploads each full part on the upload threads while the next one is filled.
+	 * Writing blocks while every part buffer is in use, so a slow upload slows down the archiver instead of filling the
+	 * memory. Closing the stream uploads the last part and completes the upload.
+	 */
+	private class MultipartOutputStream extends OutputStream {
+		
+		private final String key;
+		private final String uploadId;
+		private final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(uploadThreads + 1);
+		private final List<Future<String>> parts = new ArrayList<>();
+		private int buffersCreated;
+		private byte[] buffer;
+		private int length;
+		private long size;
+		private boolean closed;
+		private volatile boolean completed;
+		
+		MultipartOutputStream(String key) throws IOException {
+			this.key = key;
+			this.uploadId = client.createMultipartUpload(key);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] data, int offset, int count) throws IOException {
+			while (count > 0) {
+				if (buffer == null) {
+					buffer = takeBuffer();
+				}
+				int copied = Math.min(count, partSize - length);
+				System.arraycopy(data, offset, buffer, length, copied);
+				length += copied;
+				size += copied;
+				offset += copied;
+				count -= copied;
+				if (length == partSize) {
+					sendPart();
+				}
+			}
+		}
+		
+		private byte[] takeBuffer() throws IOException {
+			byte[] free = freeBuffers.poll();
+			if (free != null) {
+				return free;
+			}
+			if (buffersCreated < uploadThreads + 1) {
+				buffersCreated++;
+				return new byte[partSize];
+			}
+			try {
+				return freeBuffers.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a part of " + key + " to be uploaded.");
+			}
+		}
+		
+		private void sendPart() throws IOException {
+			// Fail early rather than uploading the rest of an archive that cannot be completed
+			for (Future<String> part : parts) {
+				if (part.isDone()) {
+					awaitPart(part);
+				}
+			}
+			
+			byte[] data = buffer == null ? new byte[0] : buffer;
+			int dataLength = length;
+			int partNumber = parts.size() + 1;
+			buffer = null;
+			length = 0;
+			parts.add(uploadExecutor.submit(() -> {
+				try {
+					return uploadPart(partNumber, data, dataLength);
+				} finally {
+					freeBuffers.offer(data);
+				}
+			}));
+		}
+		
+		private String uploadPart(int partNumber, byte[] data, int dataLength) throws IOException, InterruptedException {
+			for (int attempt = 1;; attempt++) {
+				try {
+					return client.uploadPart(key, uploadId, partNumber, data, dataLength);
+				} catch (IOException e) {
+					if (attempt >= MAX_ATTEMPTS) {
+						throw e;
+					}
+					logger.log(Level.FINE, "Retrying part " + partNumber + " of " + key + ": ", e);
+					Thread.sleep(RETRY_DELAY * attempt);
+				}
+			}
+		}
+		
+		private String awaitPart(Future<String> part) throws IOException {
+			try {
+				return part.get();
+			} catch (ExecutionException e) {
+				throw new IOException("Unable to upload a part of " + key + ": " + e.getCause().getMessage(), e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while uploading " + key + ".");
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				// An upload needs at least one part, even if it is empty
+				if (length > 0 || parts.isEmpty()) {
+					sendPart();
+				}
+				List<String> etags = new ArrayList<>();
+				for (Future<String> part : parts) {
+					etags.add(awaitPart(part));
+				}
+				client.completeMultipartUpload(key, uploadId, etags);
+				completed = true;
+			} catch (IOException e) {
+				abort();
+				throw e;
+			}
+		}
+		
+		void abort() {
+			closed = true;
+			if (completed) {
+				try {
+					client.deleteObject(key);
+				} catch (IOException e) {
+					logger.log(Level.FINE, "Unable to delete " + key + ", it is replaced by the next backup: ", e);
+				}
+				return;
+			}
+			for (Future<String> part : parts) {
+				part.cancel(true);
+			}
+			try {
+				client.abortMultipartUpload(key, uploadId);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Unable to abort the upload of " + key + ", its parts may be kept by the storage: ", e);
+			}
+		}
+	}
+	
+}
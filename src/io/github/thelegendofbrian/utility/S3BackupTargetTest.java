@@ -0,0 +1,309 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class S3BackupTargetTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-s3");
+	
+	private static final int PART_SIZE = 64 * 1024;
+	
+	private HttpServer server;
+	private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+	private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+	private volatile boolean failParts;
+	
+	private ExecutorService uploadExecutor;
+	private S3BackupTarget target;
+	private File serverFolder;
+	private File backupFolder;
+	private BackupUtilityApplication application;
+	
+	@Before
+	public void setUp() throws IOException {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+		
+		uploadExecutor = Executors.newFixedThreadPool(2);
+		S3Client client = new S3Client("http://127.0.0.1:" + server.getAddress().getPort(), "us-east-1", "backups", "test-key", "test-secret");
+		target = new S3BackupTarget(client, "worlds/", PART_SIZE, uploadExecutor, 2);
+		
+		serverFolder = new File(tempDirectory, "servers/Vanilla");
+		backupFolder = new File(tempDirectory, "backups/Vanilla");
+		new File(serverFolder, "world").mkdirs();
+		backupFolder.mkdirs();
+		
+		application = new BackupUtilityApplication();
+		application.compressionThreads = 2;
+		application.backupMode = BackupUtilityApplication.MODE_FULL;
+		application.backupTarget = target;
+	}
+	
+	@After
+	public void tearDown() {
+		application.shutdownArchiver();
+		uploadExecutor.shutdown();
+		server.stop(0);
+		
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * begin()
+	 */
+	
+	@Test
+	public void testBackupIsUploadedInParts() throws IOException {
+		byte[] region = writeServerFiles(1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		// Only a reference to the archive is kept locally
+		File backup = BackupUtilityApplication.getLatestBackup(backupFolder);
+		assertEquals("Vanilla_2001-09-09_01-46-41.zip" + S3BackupTarget.REMOTE_EXTENSION, backup.getName());
+		assertTrue(backup.length() < 1024);
+		assertTrue(ArchiveChecksums.getChecksumsFile(backup).isFile());
+		
+		assertEquals(Collections.singleton("worlds/Vanilla/Vanilla_2001-09-09_01-46-41.zip"), objects.keySet());
+		assertTrue(uploads.isEmpty());
+		byte[] archive = objects.get("worlds/Vanilla/Vanilla_2001-09-09_01-46-41.zip");
+		assertTrue(archive.length > 2 * PART_SIZE);
+		assertArrayEquals(region, readEntry(archive, "world/r.0.0.mca"));
+	}
+	
+	@Test
+	public void testFailedUploadIsAborted() throws IOException {
+		writeServerFiles(1000000001000L);
+		failParts = true;
+		try {
+			application.backupSpecificServer(serverFolder, backupFolder);
+			fail();
+		} catch (IOException e) {
+			// Expected, every part is rejected
+		}
+		
+		assertTrue(objects.isEmpty());
+		assertTrue(uploads.isEmpty());
+		assertEquals(0, backupFolder.list((folder, name) -> !name.startsWith(".")).length);
+	}
+	
+	/*
+	 * fetch() and delete()
+	 */
+	
+	@Test
+	public void testRestoreAndPruneRemoteBackups() throws IOException {
+		writeServerFiles(1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		byte[] region = writeServerFiles(1000000002000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		assertEquals(2, objects.size());
+		
+		File restoreFolder = new File(tempDirectory, "restore");
+		BackupRestorer.restore(backupFolder, null, restoreFolder, Collections.emptyList(), target);
+		assertArrayEquals(region, Files.readAllBytes(new File(restoreFolder, "world/r.0.0.mca").toPath()));
+		
+		BackupPruner pruner = new BackupPruner(1, 0, 0, 0);
+		pruner.setTarget(target);
+		assertEquals(1, pruner.prune(backupFolder).getDeletedCount());
+		assertEquals(Collections.singleton("worlds/Vanilla/Vanilla_2001-09-09_01-46-42.zip"), objects.keySet());
+		assertFalse(new File(backupFolder, "Vanilla_2001-09-09_01-46-41.zip" + S3BackupTarget.REMOTE_EXTENSION).exists());
+	}
+	
+	@Test(expected = IOException.class)
+	public void testLocalTargetRefusesRemoteBackup() throws IOException {
+		writeServerFiles(1000000001000L);
+		application.backupSpecificServer(serverFolder, backupFolder);
+		
+		BackupRestorer.restore(backupFolder, null, new File(tempDirectory, "restore"));
+	}
+	
+	/**
+	 * Writes a region file of random data, which does not compress, and a small file.
+	 * 
+	 * @return the contents of the region file
+	 */
+	private byte[] writeServerFiles(long modified) throws IOException {
+		byte[] region = new byte[3 * PART_SIZE];
+		new Random(modified).nextBytes(region);
+		File regionFile = new File(serverFolder, "world/r.0.0.mca");
+		Files.write(regionFile.toPath(), region);
+		Files.write(new File(serverFolder, "server.properties").toPath(), "motd=A Minecraft Server\n".getBytes(StandardCharsets.UTF_8));
+		for (File file : Arrays.asList(regionFile, regionFile.getParentFile(), new File(serverFolder, "server.properties"), serverFolder)) {
+			file.setLastModified(modified);
+		}
+		return region;
+	}
+	
+	private static byte[] readEntry(byte[] archive, String name) throws IOException {
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (entry.getName().equals(name)) {
+					return readAll(zip);
+				}
+			}
+		}
+		throw new IOException(name + " is not in the archive.");
+	}
+	
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Answers the requests that S3Client makes like an S3 compatible storage holding a single bucket, checking that each
+	 * request is signed and that its body matches the hash it was signed with.
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		byte[] body = readAll(exchange.getRequestBody());
+		String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		if (authorization == null || !authorization.startsWith("AWS4-HMAC-SHA256 Credential=test-key/")
+				|| !S3Client.sha256(body, body.length).equals(exchange.getRequestHeaders().getFirst("x-amz-content-sha256"))) {
+			respond(exchange, 403, "<Error><Code>AccessDenied</Code><Message>Bad signature</Message></Error>");
+			return;
+		}
+		
+		String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), "UTF-8");
+		String key = path.substring("/backups/".length());
+		Map<String, String> query = new TreeMap<>();
+		String rawQuery = exchange.getRequestURI().getRawQuery();
+		for (String parameter : rawQuery == null ? new String[0] : rawQuery.split("&")) {
+			String[] pair = parameter.split("=", 2);
+			query.put(pair[0], pair.length > 1 ? URLDecoder.decode(pair[1], "UTF-8") : "");
+		}
+		String method = exchange.getRequestMethod();
+		String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+		
+		if ("POST".equals(method) && query.containsKey("uploads")) {
+			String uploadId = "upload-" + uploads.size();
+			uploads.put(uploadId, new ConcurrentHashMap<>());
+			respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+		} else if ("PUT".equals(method) && query.containsKey("partNumber")) {
+			if (failParts) {
+				respond(exchange, 500, "<Error><Code>InternalError</Code><Message>Part rejected</Message></Error>");
+				return;
+			}
+			int partNumber = Integer.parseInt(query.get("partNumber"));
+			uploads.get(query.get("uploadId")).put(partNumber, body);
+			exchange.getResponseHeaders().set("ETag", "\"etag-" + partNumber + "\"");
+			respond(exchange, 200, "");
+		} else if ("POST".equals(method) && query.containsKey("uploadId")) {
+			Map<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+			ByteArrayOutputStream object = new ByteArrayOutputStream();
+			Matcher matcher = Pattern.compile("<PartNumber>(\\d+)</PartNumber><ETag>\"etag-(\\d+)\"</ETag>").matcher(new String(body, StandardCharsets.UTF_8));
+			List<Integer> partNumbers = new ArrayList<>();
+			while (matcher.find()) {
+				partNumbers.add(Integer.parseInt(matcher.group(1)));
+				object.write(parts.get(Integer.parseInt(matcher.group(2))));
+			}
+			assertEquals(parts.size(), partNumbers.size());
+			objects.put(key, object.toByteArray());
+			respond(exchange, 200, "<CompleteMultipartUploadResult><Key>" + key + "</Key></CompleteMultipartUploadResult>");
+		} else if ("DELETE".equals(method) && query.containsKey("uploadId")) {
+			uploads.remove(query.get("uploadId"));
+			respond(exchange, 204, "");
+		} else if ("PUT".equals(method) && copySource != null) {
+			byte[] source = objects.get(URLDecoder.decode(copySource, "UTF-8").substring("/backups/".length()));
+			if (source == null) {
+				respond(exchange, 404, "<Error><Code>NoSuchKey</Code><Message>No such key</Message></Error>");
+				return;
+			}
+			objects.put(key, source);
+			respond(exchange, 200, "<CopyObjectResult><ETag>\"copy\"</ETag></CopyObjectResult>");
+		} else if ("DELETE".equals(method)) {
+			objects.remove(key);
+			respond(exchange, 204, "");
+		} else if ("GET".equals(method) && objects.containsKey(key)) {
+			byte[] object = objects.get(key);
+			exchange.sendResponseHeaders(200, object.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(object);
+			}
+		} else {
+			respond(exchange, 404, "<Error><Code>NoSuchKey</Code><Message>No such key</Message></Error>");
+		}
+	}
+	
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		if (body.isEmpty()) {
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return;
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+	
+}
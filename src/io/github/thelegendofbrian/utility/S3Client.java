@@ -0,0 +1,404 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Makes the few requests to an S3 compatible object storage that backups need. Requests address the bucket in the
+ * path rather than in the host name, which every S3 compatible storage supports, and are signed with AWS Signature
+ * Version 4.
+ */
+public class S3Client {
+	
+	protected static final String EMPTY_PAYLOAD_HASH = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+	
+	// The largest object that can be copied in a single request
+	protected static final long MAX_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+	private static final long COPY_PART_SIZE = 1024L * 1024 * 1024;
+	private static final int TIMEOUT = 60000;
+	private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+	
+	private final URL endpoint;
+	private final String region;
+	private final String bucket;
+	private final String accessKey;
+	private final String secretKey;
+	
+	/**
+	 * @param endpoint the URL of the storage, such as "https://s3.eu-west-1.amazonaws.com" or "http://localhost:9000"
+	 * @param region the region requests are signed for, "us-east-1" for most storages that are not AWS
+	 * @param bucket
+	 * @param accessKey
+	 * @param secretKey
+	 * @throws MalformedURLException if endpoint is not a URL
+	 */
+	public S3Client(String endpoint, String region, String bucket, String accessKey, String secretKey) throws MalformedURLException {
+		this.endpoint = new URL(endpoint);
+		this.region = region;
+		this.bucket = bucket;
+		this.accessKey = accessKey;
+		this.secretKey = secretKey;
+	}
+	
+	/**
+	 * Starts a multipart upload.
+	 * 
+	 * @param key
+	 * @return the id of the upload
+	 * @throws IOException
+	 */
+	public String createMultipartUpload(String key) throws IOException {
+		String uploadId = extract(request("POST", key, query("uploads", ""), Collections.emptyMap(), null), "UploadId");
+		if (uploadId == null) {
+			throw new IOException("The storage did not return an upload id for " + key + ".");
+		}
+		return uploadId;
+	}
+	
+	/**
+	 * Uploads a part of a multipart upload.
+	 * 
+	 * @param key
+	 * @param uploadId
+	 * @param partNumber the number of the part, starting at 1
+	 * @param data
+	 * @param length the number of bytes of data to upload
+	 * @return the ETag of the part
+	 * @throws IOException
+	 */
+	public String uploadPart(String key, String uploadId, int partNumber, byte[] data, int length) throws IOException {
+		HttpURLConnection connection = open("PUT", key, partQuery(uploadId, partNumber), Collections.emptyMap(), sha256(data, length));
+		connection.setFixedLengthStreamingMode(length);
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(data, 0, length);
+		}
+		readResponse(connection, key);
+		String etag = connection.getHeaderField("ETag");
+		if (etag == null) {
+			throw new IOException("The storage did not return an ETag for part " + partNumber + " of " + key + ".");
+		}
+		return etag;
+	}
+	
+	/**
+	 * Completes a multipart upload, making the object visible.
+	 * 
+	 * @param key
+	 * @param uploadId
+	 * @param etags the ETags of the parts, in order
+	 * @throws IOException
+	 */
+	public void completeMultipartUpload(String key, String uploadId, List<String> etags) throws IOException {
+		StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+		for (int i = 0; i < etags.size(); i++) {
+			body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>").append(escape(etags.get(i))).append("</ETag></Part>");
+		}
+		body.append("</CompleteMultipartUpload>");
+		request("POST", key, query("uploadId", uploadId), Collections.emptyMap(), body.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Discards a multipart upload and the parts uploaded so far.
+	 * 
+	 * @param key
+	 * @param uploadId
+	 * @throws IOException
+	 */
+	public void abortMultipartUpload(String key, String uploadId) throws IOException {
+		request("DELETE", key, query("uploadId", uploadId), Collections.emptyMap(), null);
+	}
+	
+	/**
+	 * Copies an object within the bucket, without downloading it. Objects too large to be copied in one request are
+	 * copied in parts.
+	 * 
+	 * @param sourceKey
+	 * @param key
+	 * @param size the size of the source object
+	 * @throws IOException
+	 */
+	public void copyObject(String sourceKey, String key, long size) throws IOException {
+		Map<String, String> headers = new TreeMap<>();
+		headers.put("x-amz-copy-source", encode("/" + bucket + "/" + sourceKey, false));
+		if (size <= MAX_COPY_SIZE) {
+			request("PUT", key, Collections.emptySortedMap(), headers, null);
+			return;
+		}
+		
+		String uploadId = createMultipartUpload(key);
+		try {
+			List<String> etags = new ArrayList<>();
+			for (long start = 0; start < size; start += COPY_PART_SIZE) {
+				headers.put("x-amz-copy-source-range", "bytes=" + start + "-" + (Math.min(size, start + COPY_PART_SIZE) - 1));
+				String etag = extract(request("PUT", key, partQuery(uploadId, etags.size() + 1), headers, null), "ETag");
+				if (etag == null) {
+					throw new IOException("The storage did not return an ETag for part " + (etags.size() + 1) + " of " + key + ".");
+				}
+				etags.add(etag);
+			}
+			completeMultipartUpload(key, uploadId, etags);
+		} catch (IOException e) {
+			try {
+				abortMultipartUpload(key, uploadId);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Deletes an object. Deleting an object that does not exist is not an error.
+	 * 
+	 * @param key
+	 * @throws IOException
+	 */
+	public void deleteObject(String key) throws IOException {
+		request("DELETE", key, Collections.emptySortedMap(), Collections.emptyMap(), null);
+	}
+	
+	/**
+	 * Downloads an object into a file, replacing it.
+	 * 
+	 * @param key
+	 * @param target
+	 * @throws IOException
+	 */
+	public void getObject(String key, File target) throws IOException {
+		HttpURLConnection connection = open("GET", key, Collections.emptySortedMap(), Collections.emptyMap(), EMPTY_PAYLOAD_HASH);
+		checkStatus(connection, key);
+		try (InputStream in = connection.getInputStream()) {
+			Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Sends a request and reads its response.
+	 * 
+	 * @param body the body to send, or null
+	 * @return the body of the response
+	 */
+	private String request(String method, String key, SortedMap<String, String> query, Map<String, String> headers, byte[] body) throws IOException {
+		byte[] payload = body == null ? new byte[0] : body;
+		HttpURLConnection connection = open(method, key, query, headers, sha256(payload, payload.length));
+		if (body != null) {
+			connection.setFixedLengthStreamingMode(payload.length);
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(payload);
+			}
+		}
+		return readResponse(connection, key);
+	}
+	
+	private HttpURLConnection open(String method, String key, SortedMap<String, String> query, Map<String, String> headers, String payloadHash) throws IOException {
+		String canonicalUri = encode("/" + bucket + "/" + key, false);
+		String canonicalQuery = canonicalQuery(query);
+		URL url = new URL(endpoint.getProtocol(), endpoint.getHost(), endpoint.getPort(), canonicalUri + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+		
+		// HttpURLConnection sends the same Host header
+		int port = url.getPort();
+		String host = url.getHost() + (port == -1 || port == url.getDefaultPort() ? "" : ":" + port);
+		SortedMap<String, String> signedHeaders = new TreeMap<>();
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			signedHeaders.put(header.getKey().toLowerCase(), header.getValue());
+		}
+		signedHeaders.put("host", host);
+		signedHeaders.put("x-amz-content-sha256", payloadHash);
+		signedHeaders.put("x-amz-date", AMZ_DATE.format(Instant.now()));
+		
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(TIMEOUT);
+		connection.setReadTimeout(TIMEOUT);
+		for (Map.Entry<String, String> header : signedHeaders.entrySet()) {
+			if (!"host".equals(header.getKey())) {
+				connection.setRequestProperty(header.getKey(), header.getValue());
+			}
+		}
+		connection.setRequestProperty("Authorization", authorization(accessKey, secretKey, region, method, canonicalUri, canonicalQuery, signedHeaders, payloadHash));
+		return connection;
+	}
+	
+	/**
+	 * Computes the Authorization header of a request with AWS Signature Version 4.
+	 * 
+	 * @param canonicalUri the URI-encoded path of the request
+	 * @param canonicalQuery the URI-encoded query of the request, sorted by name
+	 * @param headers the headers to sign with lower case names, including host, x-amz-date and x-amz-content-sha256
+	 * @param payloadHash the hex encoded SHA-256 hash of the body of the request
+	 * @return
+	 */
+	protected static String authorization(String accessKey, String secretKey, String region, String method, String canonicalUri, String canonicalQuery, SortedMap<String, String> headers,
+			String payloadHash) {
+		StringBuilder canonicalHeaders = new StringBuilder();
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			canonicalHeaders.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+		}
+		String signedHeaders = String.join(";", headers.keySet());
+		String canonicalRequest = method + "\n" + canonicalUri + "\n" + canonicalQuery + "\n" + canonicalHeaders + "\n" + signedHeaders + "\n" + payloadHash;
+		
+		String amzDate = headers.get("x-amz-date");
+		String scope = amzDate.substring(0, 8) + "/" + region + "/s3/aws4_request";
+		byte[] canonicalRequestBytes = canonicalRequest.getBytes(StandardCharsets.UTF_8);
+		String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" + sha256(canonicalRequestBytes, canonicalRequestBytes.length);
+		
+		byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), amzDate.substring(0, 8));
+		key = hmac(key, region);
+		key = hmac(key, "s3");
+		key = hmac(key, "aws4_request");
+		String signature = toHex(hmac(key, stringToSign));
+		return "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature;
+	}
+	
+	private static String readResponse(HttpURLConnection connection, String key) throws IOException {
+		checkStatus(connection, key);
+		String body;
+		try (InputStream in = connection.getInputStream()) {
+			body = readBody(in);
+		}
+		
+		// Copies and completed uploads can fail after the status was sent
+		if (body.contains("<Error>")) {
+			String message = extract(body, "Message");
+			throw new IOException("The storage failed a " + connection.getRequestMethod() + " request for " + key + (message == null ? "." : ": " + message));
+		}
+		return body;
+	}
+	
+	private static void checkStatus(HttpURLConnection connection, String key) throws IOException {
+		int status = connection.getResponseCode();
+		if (status >= 200 && status < 300) {
+			return;
+		}
+		String body = "";
+		try (InputStream in = connection.getErrorStream()) {
+			if (in != null) {
+				body = readBody(in);
+			}
+		}
+		String message = extract(body, "Message");
+		throw new IOException("The storage answered a " + connection.getRequestMethod() + " request for " + key + " with HTTP " + status + (message == null ? "" : ": " + message));
+	}
+	
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			body.write(buffer, 0, read);
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @return the text of the first element named tag in xml, or null if there is none
+	 */
+	private static String extract(String xml, String tag) {
+		Matcher matcher = Pattern.compile("<" + tag + ">(.*?)</" + tag + ">", Pattern.DOTALL).matcher(xml);
+		if (!matcher.find()) {
+			return null;
+		}
+		return matcher.group(1).replace("&quot;", "\"").replace("&apos;", "'").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+	}
+	
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+	
+	private static SortedMap<String, String> query(String name, String value) {
+		SortedMap<String, String> query = new TreeMap<>();
+		query.put(name, value);
+		return query;
+	}
+	
+	private static SortedMap<String, String> partQuery(String uploadId, int partNumber) {
+		SortedMap<String, String> query = query("uploadId", uploadId);
+		query.put("partNumber", Integer.toString(partNumber));
+		return query;
+	}
+	
+	private static String canonicalQuery(SortedMap<String, String> query) {
+		StringBuilder canonical = new StringBuilder();
+		for (Map.Entry<String, String> parameter : query.entrySet()) {
+			if (canonical.length() > 0) {
+				canonical.append('&');
+			}
+			canonical.append(encode(parameter.getKey(), true)).append('=').append(encode(parameter.getValue(), true));
+		}
+		return canonical.toString();
+	}
+	
+	/**
+	 * URI-encodes every byte of text except unreserved characters, and '/' unless encodeSlash is set.
+	 */
+	protected static String encode(String text, boolean encodeSlash) {
+		StringBuilder encoded = new StringBuilder();
+		for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+			char c = (char) (b & 0xFF);
+			if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+				encoded.append(c);
+			} else {
+				encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16))).append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+			}
+		}
+		return encoded.toString();
+	}
+	
+	protected static String sha256(byte[] data, int length) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(data, 0, length);
+			return toHex(digest.digest());
+		} catch (GeneralSecurityException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static byte[] hmac(byte[] key, String data) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, "HmacSHA256"));
+			return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			// Every Java platform is required to support HmacSHA256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+			hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+		}
+		return new String(hex);
+	}
+	
+}
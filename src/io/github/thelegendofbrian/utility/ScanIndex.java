@@ -0,0 +1,225 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+/**
+ * The state of a server directory tree as seen by the previous scan. For every directory it records the directory's
+ * modification time, the newest modification time in its subtree, and the names, sizes and modification times of its
+ * children. A directory whose modification time has not changed still has the same children, so the next scan can
+ * check them directly instead of listing the directory again.
+ * <p>
+ * The index also records the {@link PathFilter} of the scan, since children left out by it are not recorded.
+ */
+public class ScanIndex {
+	
+	protected static final String FILE_NAME = ".scanindex";
+	
+	private static final int MAGIC = 0x4D435349;
+	private static final int VERSION = 2;
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("main");
+	
+	private final Map<String, DirectoryRecord> directories = new HashMap<>();
+	private String filter = "";
+	
+	/**
+	 * Loads the index stored in file. A missing or unreadable index results in an empty index, which makes the next
+	 * scan list every directory.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static ScanIndex load(File file) {
+		ScanIndex index = new ScanIndex();
+		if (!file.isFile()) {
+			return index;
+		}
+		
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int version = in.readInt() == MAGIC ? in.readInt() : -1;
+			if (version != 1 && version != VERSION) {
+				logger.warning("Ignoring scan index with an unknown format: " + file.getAbsolutePath());
+				return index;
+			}
+			// Indexes of the first version were made without a filter
+			if (version >= 2) {
+				index.filter = in.readUTF();
+			}
+			int directoryCount = in.readInt();
+			for (int i = 0; i < directoryCount; i++) {
+				String path = in.readUTF();
+				DirectoryRecord record = new DirectoryRecord(in.readLong());
+				record.newestModified = in.readLong();
+				int fileCount = in.readInt();
+				for (int j = 0; j < fileCount; j++) {
+					record.files.add(new FileRecord(in.readUTF(), in.readLong(), in.readLong()));
+				}
+				int subdirectoryCount = in.readInt();
+				for (int j = 0; j < subdirectoryCount; j++) {
+					record.subdirectories.add(in.readUTF());
+				}
+				index.directories.put(path, record);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to read scan index, the server will be fully scanned: ", e);
+			return new ScanIndex();
+		}
+		return index;
+	}
+	
+	/**
+	 * Writes the index to file, replacing any previous index in a single step.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(filter);
+			out.writeInt(directories.size());
+			for (Map.Entry<String, DirectoryRecord> entry : directories.entrySet()) {
+				DirectoryRecord record = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeLong(record.modified);
+				out.writeLong(record.newestModified);
+				out.writeInt(record.files.size());
+				for (FileRecord fileRecord : record.files) {
+					out.writeUTF(fileRecord.name);
+					out.writeLong(fileRecord.size);
+					out.writeLong(fileRecord.modified);
+				}
+				out.writeInt(record.subdirectories.size());
+				for (String subdirectory : record.subdirectories) {
+					out.writeUTF(subdirectory);
+				}
+			}
+		}
+		
+		try {
+			Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * @param relativePath the path of a directory relative to the scanned root, using '/' as separator and "" for the
+	 *            root itself
+	 * @return the record of the directory, or null if it was not seen by the previous scan
+	 */
+	public DirectoryRecord get(String relativePath) {
+		return directories.get(relativePath);
+	}
+	
+	public void put(String relativePath, DirectoryRecord record) {
+		directories.put(relativePath, record);
+	}
+	
+	/**
+	 * Adds the records of an index of part of the same tree.
+	 * 
+	 * @param other
+	 */
+	public void putAll(ScanIndex other) {
+		directories.putAll(other.directories);
+	}
+	
+	/**
+	 * @return the description of the {@link PathFilter} the index was made with, which is empty for no filter
+	 */
+	public String getFilter() {
+		return filter;
+	}
+	
+	public void setFilter(String filter) {
+		this.filter = filter;
+	}
+	
+	public int size() {
+		return directories.size();
+	}
+	
+	/**
+	 * What a scan saw of a single directory.
+	 */
+	public static class DirectoryRecord {
+		
+		protected final long modified;
+		protected long newestModified;
+		protected final List<FileRecord> files = new ArrayList<>();
+		protected final List<String> subdirectories = new ArrayList<>();
+		
+		public DirectoryRecord(long modified) {
+			this.modified = modified;
+			this.newestModified = modified;
+		}
+		
+		public long getModified() {
+			return modified;
+		}
+		
+		/**
+		 * @return the most recent modification time of the directory or anything below it
+		 */
+		public long getNewestModified() {
+			return newestModified;
+		}
+		
+		public List<FileRecord> getFiles() {
+			return files;
+		}
+		
+		public List<String> getSubdirectories() {
+			return subdirectories;
+		}
+	}
+	
+	/**
+	 * What a scan saw of a single file.
+	 */
+	public static class FileRecord {
+		
+		protected final String name;
+		protected final long size;
+		protected final long modified;
+		
+		public FileRecord(String name, long size, long modified) {
+			this.name = name;
+			this.size = size;
+			this.modified = modified;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		public long getModified() {
+			return modified;
+		}
+	}
+	
+}
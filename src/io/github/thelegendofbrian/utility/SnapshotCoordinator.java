@@ -0,0 +1,242 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+/**
+ * Takes a consistent copy of a running server to back up. Saving is turned off over RCON and the world is flushed to
+ * disk, then the server folder is mirrored into a hidden staging folder next to its backups and saving is turned back
+ * on. Only files whose size or modification time changed since the previous backup are copied, so saving is paused
+ * for about as long as it takes to copy what players changed, however large the world is. The backup is then
+ * compressed from the staging folder while the server keeps saving.
+ * <p>
+ * The RCON port and password are read from the server.properties of the server. A server that is not running is not
+ * changing either, so it is backed up directly.
+ */
+public class SnapshotCoordinator {
+	
+	protected static final String STAGING_DIRECTORY = ".staging";
+	
+	private static final String SERVER_PROPERTIES = "server.properties";
+	private static final int RCON_TIMEOUT = 60 * 1000;
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("main");
+	
+	private final String rconHost;
+	private PathFilter filter = PathFilter.ALL;
+	
+	/**
+	 * @param rconHost the host that the servers run on
+	 */
+	public SnapshotCoordinator(String rconHost) {
+		this.rconHost = rconHost;
+	}
+	
+	/**
+	 * @param filter decides which paths of a server are copied, so excluded paths do not prolong the pause in saving
+	 */
+	public void setPathFilter(PathFilter filter) {
+		this.filter = filter;
+	}
+	
+	/**
+	 * Copies a server into the staging folder of its backups while it is not saving.
+	 * 
+	 * @param serverFolder
+	 * @param backupFolder
+	 * @return the folder to back up, which is serverFolder itself if the server is not running or cannot be reached
+	 * @throws IOException if the server could not be copied
+	 */
+	public File stage(File serverFolder, File backupFolder) throws IOException {
+		Properties serverProperties = loadServerProperties(serverFolder);
+		if (!Boolean.parseBoolean(serverProperties.getProperty("enable-rcon", "false").trim())) {
+			logger.warning("RCON is not enabled in the " + SERVER_PROPERTIES + " of server \"" + serverFolder.getName() + "\", backing it up while it may be saving.");
+			return serverFolder;
+		}
+		int port;
+		try {
+			port = Integer.parseInt(serverProperties.getProperty("rcon.port", "25575").trim());
+		} catch (NumberFormatException e) {
+			logger.warning("The rcon.port of server \"" + serverFolder.getName() + "\" is not a number, backing it up while it may be saving.");
+			return serverFolder;
+		}
+		String password = serverProperties.getProperty("rcon.password", "");
+		
+		RconClient rcon;
+		try {
+			rcon = new RconClient(rconHost, port, RCON_TIMEOUT);
+		} catch (ConnectException e) {
+			logger.fine("Server \"" + serverFolder.getName() + "\" is not running, backing up its files directly.");
+			return serverFolder;
+		}
+		try {
+			rcon.login(password);
+		} catch (IOException e) {
+			rcon.close();
+			logger.log(Level.WARNING, "Unable to log in to RCON of server \"" + serverFolder.getName() + "\", backing it up while it may be saving: ", e);
+			return serverFolder;
+		}
+		
+		File stagingFolder = new File(backupFolder, STAGING_DIRECTORY);
+		long startTime = System.nanoTime();
+		try {
+			rcon.command("save-off");
+			try {
+				rcon.command("save-all flush");
+				int copied = mirror(serverFolder.toPath(), stagingFolder.toPath(), filter);
+				logger.fine("Copied " + copied + " changed files of \"" + serverFolder.getName() + "\" to its staging folder.");
+			} finally {
+				turnSavingOn(rcon, port, password, serverFolder.getName());
+			}
+		} finally {
+			rcon.close();
+		}
+		logger.info("Saving was paused on server \"" + serverFolder.getName() + "\" for " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms.");
+		return stagingFolder;
+	}
+	
+	/**
+	 * Makes target an exact copy of source, copying only the files whose size or modification time differ and deleting
+	 * the files that are no longer in source. Modification times of files and directories are copied too, since backups
+	 * are named after them.
+	 * 
+	 * @param source
+	 * @param target
+	 * @return the number of files copied
+	 * @throws IOException
+	 */
+	protected static int mirror(Path source, Path target) throws IOException {
+		return mirror(source, target, PathFilter.ALL);
+	}
+	
+	/**
+	 * Makes target an exact copy of the paths of source that filter includes. Paths that filter rejects are deleted
+	 * from target, and directories that it rejects are not entered in source.
+	 * 
+	 * @param source
+	 * @param target
+	 * @param filter
+	 * @return the number of files copied
+	 * @throws IOException
+	 */
+	protected static int mirror(Path source, Path target, PathFilter filter) throws IOException {
+		Set<Path> seen = new HashSet<>();
+		int[] copied = new int[1];
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(source) && !filter.includesDirectory(relativePath(dir))) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				Path targetDir = target.resolve(source.relativize(dir));
+				if (!Files.isDirectory(targetDir)) {
+					deleteRecursively(targetDir);
+					Files.createDirectories(targetDir);
+				}
+				seen.add(targetDir);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (!attrs.isRegularFile() || !filter.includesFile(relativePath(file))) {
+					return FileVisitResult.CONTINUE;
+				}
+				Path targetFile = target.resolve(source.relativize(file));
+				seen.add(targetFile);
+				if (Files.isRegularFile(targetFile)) {
+					BasicFileAttributes targetAttrs = Files.readAttributes(targetFile, BasicFileAttributes.class);
+					if (targetAttrs.size() == attrs.size() && targetAttrs.lastModifiedTime().equals(attrs.lastModifiedTime())) {
+						return FileVisitResult.CONTINUE;
+					}
+				}
+				deleteRecursively(targetFile);
+				Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+				copied[0]++;
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				Path targetDir = target.resolve(source.relativize(dir));
+				try (DirectoryStream<Path> children = Files.newDirectoryStream(targetDir)) {
+					for (Path child : children) {
+						if (!seen.contains(child)) {
+							deleteRecursively(child);
+						}
+					}
+				}
+				// Creating and deleting files changed the modification time of the copy
+				Files.setLastModifiedTime(targetDir, Files.getLastModifiedTime(dir));
+				return FileVisitResult.CONTINUE;
+			}
+			
+			private String relativePath(Path path) {
+				return source.relativize(path).toString().replace(File.separatorChar, '/');
+			}
+		});
+		return copied[0];
+	}
+	
+	/**
+	 * Turns saving back on, reconnecting once if the connection was lost, since a server left with saving off loses
+	 * everything players do until it is stopped.
+	 */
+	private void turnSavingOn(RconClient rcon, int port, String password, String serverName) throws IOException {
+		try {
+			rcon.command("save-on");
+			return;
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to turn saving back on for server \"" + serverName + "\", reconnecting: ", e);
+		}
+		try (RconClient retry = new RconClient(rconHost, port, RCON_TIMEOUT)) {
+			retry.login(password);
+			retry.command("save-on");
+		} catch (IOException e) {
+			logger.severe("Saving is still turned off on server \"" + serverName + "\". Run \"save-on\" on its console.");
+			throw e;
+		}
+	}
+	
+	private static Properties loadServerProperties(File serverFolder) throws IOException {
+		Properties properties = new Properties();
+		File file = new File(serverFolder, SERVER_PROPERTIES);
+		if (file.isFile()) {
+			try (InputStream in = Files.newInputStream(file.toPath())) {
+				properties.load(in);
+			}
+		}
+		return properties;
+	}
+	
+	private static void deleteRecursively(Path path) throws IOException {
+		if (Files.isDirectory(path) && !Files.isSymbolicLink(path)) {
+			try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+				for (Path child : children) {
+					deleteRecursively(child);
+				}
+			}
+		}
+		Files.deleteIfExists(path);
+	}
+	
+}
@@ -0,0 +1,203 @@
+package io.github.thelegendofbrian.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.talkarcabbage.logger.LoggerManager;
+
+public class SnapshotCoordinatorTest {
+	
+	private static final Logger logger = LoggerManager.getInstance().getLogger("test");
+	
+	private static File tempDirectory = new File("temp-snapshot");
+	
+	private File serverFolder;
+	private File backupFolder;
+	
+	@Before
+	public void setUp() {
+		// In case the temp directory already exists, delete it
+		if (tempDirectory.exists()) {
+			deleteFileOrFolder(tempDirectory);
+		}
+		
+		// Create a temp directory
+		if (!tempDirectory.mkdir()) {
+			logger.severe("Unable to create a new temporary directory to test in.");
+			fail();
+		}
+		
+		serverFolder = new File(tempDirectory, "servers/Vanilla");
+		backupFolder = new File(tempDirectory, "backups/Vanilla");
+		new File(serverFolder, "world/region").mkdirs();
+		backupFolder.mkdirs();
+	}
+	
+	@After
+	public void tearDown() {
+		// Delete the temp directory
+		deleteFileOrFolder(tempDirectory);
+	}
+	
+	private static void deleteFileOrFolder(File file) {
+		if (file.isDirectory()) {
+			for (File f : file.listFiles(File::exists)) {
+				deleteFileOrFolder(f);
+			}
+		}
+		if (!file.delete()) {
+			logger.severe("Unable to delete file: " + file.getName());
+			fail();
+		}
+	}
+	
+	/*
+	 * stage()
+	 */
+	
+	@Test
+	public void testStageCopiesWhileSavingIsOff() throws IOException {
+		try (RconStandIn rcon = new RconStandIn("secret")) {
+			writeServerProperties(rcon.getPort(), "secret");
+			writeServerFile("world/level.dat", "level", 1000000000000L);
+			writeServerFile("world/region/r.0.0.mca", "region", 1000000001000L);
+			rcon.watchedFile = new File(backupFolder, SnapshotCoordinator.STAGING_DIRECTORY + "/world/region/r.0.0.mca");
+			
+			File staged = new SnapshotCoordinator("127.0.0.1").stage(serverFolder, backupFolder);
+			
+			assertEquals(new File(backupFolder, SnapshotCoordinator.STAGING_DIRECTORY), staged);
+			assertEquals(Arrays.asList("save-off", "save-all flush", "save-on"), rcon.commands);
+			assertTrue(rcon.watchedFileExistedAtSaveOn);
+			assertArrayEquals("region".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(new File(staged, "world/region/r.0.0.mca").toPath()));
+			assertEquals(1000000000000L, new File(staged, "world/level.dat").lastModified());
+		}
+	}
+	
+	@Test
+	public void testStageWithWrongPassword() throws IOException {
+		try (RconStandIn rcon = new RconStandIn("secret")) {
+			writeServerProperties(rcon.getPort(), "wrong");
+			writeServerFile("world/level.dat", "level", 1000000000000L);
+			
+			assertEquals(serverFolder, new SnapshotCoordinator("127.0.0.1").stage(serverFolder, backupFolder));
+			assertTrue(rcon.commands.isEmpty());
+		}
+	}
+	
+	@Test
+	public void testStageServerNotRunning() throws IOException {
+		int port;
+		try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			port = closed.getLocalPort();
+		}
+		writeServerProperties(port, "secret");
+		writeServerFile("world/level.dat", "level", 1000000000000L);
+		
+		assertEquals(serverFolder, new SnapshotCoordinator("127.0.0.1").stage(serverFolder, backupFolder));
+		assertFalse(new File(backupFolder, SnapshotCoordinator.STAGING_DIRECTORY).exists());
+	}
+	
+	/*
+	 * mirror()
+	 */
+	
+	@Test
+	public void testMirrorCopiesOnlyChanges() throws IOException {
+		File staging = new File(backupFolder, SnapshotCoordinator.STAGING_DIRECTORY);
+		writeServerFile("world/level.dat", "level", 1000000000000L);
+		writeServerFile("world/region/r.0.0.mca", "region", 1000000001000L);
+		writeServerFile("world/region/r.0.1.mca", "removed", 1000000001000L);
+		assertEquals(3, SnapshotCoordinator.mirror(serverFolder.toPath(), staging.toPath()));
+		
+		writeServerFile("world/level.dat", "changed", 1000000002000L);
+		new File(serverFolder, "world/region/r.0.1.mca").delete();
+		new File(serverFolder, "world/region").setLastModified(1000000003000L);
+		
+		assertEquals(1, SnapshotCoordinator.mirror(serverFolder.toPath(), staging.toPath()));
+		assertArrayEquals("changed".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(new File(staging, "world/level.dat").toPath()));
+		assertFalse(new File(staging, "world/region/r.0.1.mca").exists());
+		assertEquals(1000000003000L, new File(staging, "world/region").lastModified());
+	}
+	
+	private void writeServerProperties(int port, String password) throws IOException {
+		writeServerFile("server.properties", "enable-rcon=true\nrcon.port=" + port + "\nrcon.password=" + password + "\n", 1000000000000L);
+	}
+	
+	private void writeServerFile(String path, String content, long lastModified) throws IOException {
+		File file = new File(serverFolder, path);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		file.setLastModified(lastModified);
+	}
+	
+	/**
+	 * Answers RCON requests like a Minecraft server, recording the commands it receives.
+	 */
+	private static class RconStandIn implements Closeable {
+		
+		final ServerSocket serverSocket;
+		final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+		volatile File watchedFile;
+		volatile boolean watchedFileExistedAtSaveOn;
+		
+		RconStandIn(String password) throws IOException {
+			serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			Thread thread = new Thread(() -> serve(password));
+			thread.setDaemon(true);
+			thread.start();
+		}
+		
+		int getPort() {
+			return serverSocket.getLocalPort();
+		}
+		
+		private void serve(String password) {
+			while (!serverSocket.isClosed()) {
+				try (Socket socket = serverSocket.accept()) {
+					InputStream in = socket.getInputStream();
+					OutputStream out = socket.getOutputStream();
+					while (true) {
+						RconClient.Packet request = RconClient.readPacket(in);
+						if (request.type == RconClient.TYPE_LOGIN) {
+							int requestId = password.equals(request.payload) ? request.requestId : -1;
+							RconClient.writePacket(out, new RconClient.Packet(requestId, RconClient.TYPE_COMMAND, ""));
+							continue;
+						}
+						if ("save-on".equals(request.payload) && watchedFile != null) {
+							watchedFileExistedAtSaveOn = watchedFile.isFile();
+						}
+						commands.add(request.payload);
+						RconClient.writePacket(out, new RconClient.Packet(request.requestId, RconClient.TYPE_RESPONSE, ""));
+					}
+				} catch (IOException e) {
+					// The client disconnected or the stand-in was closed
+				}
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+		}
+	}
+	
+}
@@ -0,0 +1,110 @@
+package io.github.thelegendofbrian.utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Collects bytes that are only needed once everything else is written, such as the central directory of an archive.
+ * The bytes are kept in memory up to a limit and moved to a temporary file beyond it, so their size is bounded by the
+ * disk instead of the heap. The temporary file is deleted when the buffer is closed.
+ */
+public class SpillBuffer extends OutputStream {
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final int memoryLimit;
+	private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+	private FileChannel spillFile;
+	private long size;
+	
+	/**
+	 * @param memoryLimit the number of bytes kept in memory before they are moved to a temporary file
+	 */
+	public SpillBuffer(int memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (spillFile == null && memory.size() + (long) len > memoryLimit) {
+			spill();
+		}
+		if (spillFile == null) {
+			memory.write(b, off, len);
+		} else {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				spillFile.write(buffer);
+			}
+		}
+		size += len;
+	}
+	
+	private void spill() throws IOException {
+		Path file = Files.createTempFile("mc-server-backup-util-", ".spill");
+		spillFile = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		memory.writeTo(Channels.newOutputStream(spillFile));
+		memory = null;
+	}
+	
+	/**
+	 * @return the number of bytes written
+	 */
+	public long size() {
+		return size;
+	}
+	
+	/**
+	 * @return true if the bytes were moved to a temporary file
+	 */
+	public boolean isSpilled() {
+		return spillFile != null;
+	}
+	
+	/**
+	 * Copies everything written so far to out.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		if (spillFile == null) {
+			memory.writeTo(out);
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = 0;
+		while (position < size) {
+			buffer.clear();
+			int read = spillFile.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("The temporary file ended early.");
+			}
+			out.write(buffer.array(), 0, read);
+			position += read;
+		}
+	}
+	
+	/**
+	 * Deletes the temporary file, if any.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (spillFile != null) {
+			spillFile.close();
+		}
+	}
+	
+}